@@ -0,0 +1,87 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares evaluating a three-way predicate on {@code sales_fact_1997} using
+ * {@link BitmapIndex} with scanning the columns of a {@link ColumnarTable}.
+ *
+ * <p>The predicate is {@code store_id = 11 AND promotion_id IN (0, 1000) AND
+ * time_id BETWEEN 367 AND 397}. Both benchmarks return the sum of the matching
+ * row ids. The time to build the index is not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BitmapIndexBenchmark {
+  private BitmapIndex index;
+  private int[] storeId;
+  private int[] promotionId;
+  private int[] timeId;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    index = BitmapIndex.build("sales_fact_1997");
+    storeId = index.table().column("store_id").toIntArray();
+    promotionId = index.table().column("promotion_id").toIntArray();
+    timeId = index.table().column("time_id").toIntArray();
+  }
+
+  @Benchmark
+  public long bitmap() {
+    final long[] sum = {0};
+    index
+        .eq("store_id", 11)
+        .and(index.in("promotion_id", 0, 1000))
+        .and(index.between("time_id", 367, 397))
+        .forEach(row -> sum[0] += row);
+    return sum[0];
+  }
+
+  @Benchmark
+  public long scan() {
+    long sum = 0;
+    for (int row = 0; row < storeId.length; row++) {
+      if (storeId[row] == 11
+          && (promotionId[row] == 0 || promotionId[row] == 1000)
+          && timeId[row] >= 367
+          && timeId[row] <= 397) {
+        sum += row;
+      }
+    }
+    return sum;
+  }
+}
+
+// End BitmapIndexBenchmark.java
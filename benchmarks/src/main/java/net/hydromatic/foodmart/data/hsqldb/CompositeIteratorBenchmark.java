@@ -0,0 +1,92 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the overhead of {@link CompositeIterator} compared to iterating over
+ * the same elements in a single list.
+ *
+ * <p>The elements are split into {@code iterables} lists of equal size. With 37
+ * lists the shape is the same as {@link FoodmartHsqldb#generateInserts()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompositeIteratorBenchmark {
+  @Param({"1", "37", "1000"})
+  public int iterables;
+
+  @Param({"100000"})
+  public int elements;
+
+  private List<String> flat;
+  private Iterable<String> composite;
+
+  @Setup
+  public void setup() {
+    flat = new ArrayList<>();
+    for (int i = 0; i < elements; i++) {
+      flat.add("s" + i);
+    }
+    final List<Iterable<String>> lists = new ArrayList<>();
+    final int size = (elements + iterables - 1) / iterables;
+    for (int i = 0; i < elements; i += size) {
+      lists.add(
+          Collections.unmodifiableList(
+              flat.subList(i, Math.min(i + size, elements))));
+    }
+    composite = CompositeIterator.concat(lists);
+  }
+
+  @Benchmark
+  public void flat(RowCounters counters, Blackhole blackhole) {
+    for (String s : flat) {
+      counters.rows++;
+      blackhole.consume(s);
+    }
+  }
+
+  @Benchmark
+  public void composite(RowCounters counters, Blackhole blackhole) {
+    for (String s : composite) {
+      counters.rows++;
+      blackhole.consume(s);
+    }
+  }
+}
+
+// End CompositeIteratorBenchmark.java
@@ -0,0 +1,83 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to build a private database of every table with {@link
+ * FoodmartHsqldb#connect(Set, boolean, IndexProfile)}, for each {@link
+ * IndexProfile}.
+ *
+ * <p>Tables whose CSV file is missing are skipped. The database is closed after
+ * each invocation, so that the next invocation starts from scratch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConnectBenchmark {
+  @Param public IndexProfile indexes;
+
+  private final Set<String> tableNames = new LinkedHashSet<>();
+  private Connection connection;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    for (String tableName : FoodmartHsqldb.tableNames()) {
+      if (FoodmartHsqldb.class.getResource(FoodmartHsqldb.tableUri(tableName))
+          != null) {
+        tableNames.add(tableName);
+      }
+    }
+  }
+
+  @Benchmark
+  public Connection connect() throws SQLException {
+    connection = FoodmartHsqldb.connect(tableNames, false, indexes);
+    return connection;
+  }
+
+  @TearDown(Level.Invocation)
+  public void close() throws SQLException {
+    if (connection != null) {
+      connection.close();
+      connection = null;
+    }
+  }
+}
+
+// End ConnectBenchmark.java
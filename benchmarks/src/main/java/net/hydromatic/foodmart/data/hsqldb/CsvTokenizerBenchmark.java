@@ -0,0 +1,97 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link CsvTokenizer} and the formatting of SQL literals, without
+ * converting each statement to a string.
+ *
+ * <p>The CSV file is read into memory during setup, so the benchmark excludes
+ * decompression from the jar. Run with {@code -prof gc}; {@code
+ * gc.alloc.rate.norm} divided by the number of rows in the table is the
+ * allocation per row, which should be close to zero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvTokenizerBenchmark {
+  @Param({"sales_fact_1998", "agg_c_14_sales_fact_1997"})
+  public String table;
+
+  private byte[] bytes;
+  private int[] columnTypes;
+  private final StringBuilder buf = new StringBuilder();
+
+  @Setup
+  public void setup() throws IOException {
+    columnTypes =
+        StatementGenerator.toIntArray(FoodmartHsqldb.columnTypes().get(table));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in =
+        FoodmartHsqldb.class.getResourceAsStream(
+            FoodmartHsqldb.tableUri(table))) {
+      final byte[] chunk = new byte[8192];
+      for (int n; (n = in.read(chunk)) > 0; ) {
+        out.write(chunk, 0, n);
+      }
+    }
+    bytes = out.toByteArray();
+  }
+
+  @Benchmark
+  public void tokenize(RowCounters counters, Blackhole blackhole)
+      throws IOException {
+    try (CsvTokenizer tokenizer =
+        new CsvTokenizer(
+            new InputStreamReader(
+                new ByteArrayInputStream(bytes), StandardCharsets.US_ASCII))) {
+      tokenizer.next(); // skip header
+      while (tokenizer.next()) {
+        buf.setLength(0);
+        StatementGenerator.appendValues(buf, tokenizer, columnTypes);
+        counters.rows++;
+        counters.bytes += buf.length();
+        blackhole.consume(buf);
+      }
+    }
+  }
+}
+
+// End CsvTokenizerBenchmark.java
@@ -0,0 +1,71 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of producing the rows of all aggregate tables, either by
+ * reading their CSV files or by computing them with {@link DerivedAggregates}.
+ *
+ * <p>Each operation tokenizes every row of every aggregate table, as a load
+ * would, but does not insert them. {@link RowCounters} reports rows/sec and
+ * characters/sec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeriveAggregatesBenchmark {
+  @Param({"false", "true"})
+  public boolean derive;
+
+  @Benchmark
+  public long tokenize(RowCounters counters) throws IOException {
+    final Function<String, CsvTokenizer> factory =
+        Loader.tokenizerFactory(
+            LoadOptions.DEFAULT.withDeriveAggregates(derive));
+    long fieldCount = 0;
+    for (String tableName : DerivedAggregates.TABLES) {
+      try (CsvTokenizer tokenizer = factory.apply(tableName)) {
+        tokenizer.next(); // skip header
+        while (tokenizer.next()) {
+          counters.rows++;
+          fieldCount += tokenizer.fieldCount();
+        }
+        counters.bytes += tokenizer.charsRead();
+      }
+    }
+    return fieldCount;
+  }
+}
+
+// End DeriveAggregatesBenchmark.java
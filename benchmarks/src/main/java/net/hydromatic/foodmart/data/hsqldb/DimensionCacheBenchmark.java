@@ -0,0 +1,112 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures looking up a customer's attributes by {@code customer_id}, in a
+ * {@link DimensionCache} and in a {@code HashMap<Integer, Object[]>}.
+ *
+ * <p>Each operation looks up 10,000 random keys and reads {@code
+ * num_cars_owned} (an integer) and {@code gender} (a string) of each; run with
+ * {@code -prof gc} to see that the cache does not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DimensionCacheBenchmark {
+  private int[] keys;
+  private DimensionCache cache;
+  private int numCarsOwned;
+  private int gender;
+  private Map<Integer, Object[]> map;
+  private int numCarsOwnedOrdinal;
+  private int genderOrdinal;
+
+  @Setup
+  public void setup() throws IOException {
+    cache = DimensionCache.of("customer");
+    numCarsOwned = cache.column("num_cars_owned");
+    gender = cache.column("gender");
+
+    final FoodmartSchema.Table table = FoodmartSchema.table("customer");
+    final int keyOrdinal = table.column("customer_id").ordinal;
+    numCarsOwnedOrdinal = table.column("num_cars_owned").ordinal;
+    genderOrdinal = table.column("gender").ordinal;
+    map = new HashMap<>();
+    try (RowCursor cursor = TableReader.of("customer").open()) {
+      while (cursor.next()) {
+        final Object[] row = new Object[table.columns.size()];
+        row[numCarsOwnedOrdinal] = cursor.getInt(numCarsOwnedOrdinal);
+        row[genderOrdinal] = cursor.getString(genderOrdinal);
+        map.put(cursor.getInt(keyOrdinal), row);
+      }
+    }
+
+    final Random random = new Random(0);
+    keys = new int[10_000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = 1 + random.nextInt(cache.rowCount());
+    }
+  }
+
+  @Benchmark
+  public long dimensionCache() {
+    long sum = 0;
+    for (int key : keys) {
+      final int row = cache.row(key);
+      if (row >= 0) {
+        sum += cache.getInt(row, numCarsOwned);
+        sum += cache.getString(row, gender).length();
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long hashMap() {
+    long sum = 0;
+    for (int key : keys) {
+      final Object[] row = map.get(key);
+      if (row != null) {
+        sum += (Integer) row[numCarsOwnedOrdinal];
+        sum += ((String) row[genderOrdinal]).length();
+      }
+    }
+    return sum;
+  }
+}
+
+// End DimensionCacheBenchmark.java
@@ -0,0 +1,77 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures a full iteration of {@link FoodmartHsqldb#generateInserts()}.
+ *
+ * <p>The score is the number of complete passes over all 37 tables per second;
+ * {@link RowCounters} reports statements/sec and bytes/sec. The {@code
+ * rowsPerStatement} parameter compares single-row statements with multi-row
+ * statements.
+ *
+ * <p>{@link #generateSlice} generates only the first quarter of 1997 (from each
+ * table that has a {@code time_id} column) using a {@link RowFilter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GenerateInsertsBenchmark {
+  @Param({"1", "1000"})
+  public int rowsPerStatement;
+
+  private static final RowFilter Q1_1997 =
+      RowFilter.ALL.between(null, "time_id", 367, 456);
+
+  @Benchmark
+  public void generateInserts(RowCounters counters, Blackhole blackhole) {
+    for (String statement : FoodmartHsqldb.generateInserts(rowsPerStatement)) {
+      counters.rows++;
+      counters.bytes += statement.length();
+      blackhole.consume(statement);
+    }
+  }
+
+  @Benchmark
+  public void generateSlice(RowCounters counters, Blackhole blackhole) {
+    for (String statement :
+        FoodmartHsqldb.generateInserts(
+            rowsPerStatement, Integer.MAX_VALUE, LoadListener.NONE, Q1_1997)) {
+      counters.rows++;
+      counters.bytes += statement.length();
+      blackhole.consume(statement);
+    }
+  }
+}
+
+// End GenerateInsertsBenchmark.java
@@ -0,0 +1,107 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares loading every table except {@code sales_fact_1998} into an in-memory
+ * HSQLDB database using {@link FoodmartHsqldb#load(Connection, LoadOptions)}
+ * with using {@link FoodmartHsqldb#load(javax.sql.DataSource, LoadOptions)} at
+ * several levels of parallelism.
+ *
+ * <p>{@code parallelism = 0} means the serial loader. Each invocation loads
+ * into empty tables, which are created before the invocation and not timed.
+ * {@link RowCounters} reports rows/sec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelLoadBenchmark {
+  @Param({"0", "1", "2", "4"})
+  public int parallelism;
+
+  private JDBCDataSource dataSource;
+  private Connection connection;
+  private List<String> tableNames;
+  private int count;
+
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    tableNames = new ArrayList<>(FoodmartHsqldb.tableNames());
+    // Not in every build of the jar.
+    tableNames.remove("sales_fact_1998");
+  }
+
+  @Setup(Level.Invocation)
+  public void setup() throws SQLException {
+    dataSource = new JDBCDataSource();
+    dataSource.setUrl("jdbc:hsqldb:mem:parallelLoad" + count++);
+    dataSource.setUser("SA");
+    dataSource.setPassword("");
+    connection = dataSource.getConnection();
+    try (Statement statement = connection.createStatement()) {
+      for (String tableName : tableNames) {
+        statement.execute(FoodmartSchema.table(tableName).createTableSql(null));
+      }
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("SHUTDOWN");
+    }
+    connection.close();
+  }
+
+  @Benchmark
+  public LoadResult load(RowCounters counters) throws SQLException {
+    final LoadOptions options =
+        LoadOptions.DEFAULT.withTables(tableNames).withParallelism(parallelism);
+    final LoadResult result =
+        parallelism == 0
+            ? FoodmartHsqldb.load(connection, options)
+            : FoodmartHsqldb.load(dataSource, options);
+    counters.rows += result.rowCount();
+    return result;
+  }
+}
+
+// End ParallelLoadBenchmark.java
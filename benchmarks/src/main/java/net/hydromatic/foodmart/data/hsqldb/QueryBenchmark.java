@@ -0,0 +1,113 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the latency of each query in the {@link FoodmartQuery} workload
+ * against {@link FoodmartHsqldb#URI}.
+ *
+ * <p>The mode is {@link Mode#SampleTime}, so JMH reports the distribution of
+ * latencies, including p50, p95 and p99, for each query. Compare a query such
+ * as {@code SALES_BY_MONTH} with its {@code AGG_} counterpart to see how much
+ * an aggregate table helps; build the benchmarks with another {@code
+ * hsqldb.version} to compare releases; and run with {@code -p query=...} to
+ * measure a subset.
+ *
+ * <p>By default the queries run against {@link FoodmartHsqldb#URI}. To compare
+ * {@link IndexProfile index profiles}, run with {@code -p
+ * indexes=none,default,olap}; each query then runs against a private database
+ * that contains the query's tables and the profile's indexes.
+ *
+ * <p>The database is opened once per trial, outside the measurement, and the
+ * queries do not modify it, so every invocation sees the same data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueryBenchmark {
+  @Param public FoodmartQuery query;
+
+  /** "uri" for {@link FoodmartHsqldb#URI}, or an {@link IndexProfile}. */
+  @Param({"uri"})
+  public String indexes;
+
+  private Connection connection;
+  private PreparedStatement statement;
+
+  @Setup(Level.Trial)
+  public void open() throws SQLException {
+    connection =
+        indexes.equals("uri")
+            ? DriverManager.getConnection(
+                FoodmartHsqldb.URI,
+                FoodmartHsqldb.USER,
+                FoodmartHsqldb.PASSWORD)
+            : FoodmartHsqldb.connect(
+                query.tableNames(), false, IndexProfile.of(indexes));
+    statement = connection.prepareStatement(query.sql);
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws SQLException {
+    statement.close();
+    try (Statement s = connection.createStatement()) {
+      s.execute("SHUTDOWN");
+    }
+    connection.close();
+  }
+
+  @Benchmark
+  public void execute(RowCounters counters, Blackhole blackhole)
+      throws SQLException {
+    try (ResultSet r = statement.executeQuery()) {
+      final int columnCount = r.getMetaData().getColumnCount();
+      while (r.next()) {
+        for (int i = 1; i <= columnCount; i++) {
+          blackhole.consume(r.getObject(i));
+        }
+        counters.rows++;
+      }
+    }
+  }
+}
+
+// End QueryBenchmark.java
@@ -0,0 +1,48 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary counters for benchmarks that produce rows.
+ *
+ * <p>JMH reports each public field as a rate, so a benchmark that adds to
+ * {@link #rows} and {@link #bytes} gets rows/sec and bytes/sec alongside its
+ * primary score.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class RowCounters {
+  /** Number of rows (or statements) produced. */
+  public long rows;
+
+  /** Number of characters of SQL produced. */
+  public long bytes;
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    rows = 0;
+    bytes = 0;
+  }
+}
+
+// End RowCounters.java
@@ -0,0 +1,124 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading every row of {@code sales_fact_1997} using {@link
+ * RowCursor}, which parses CSV, with reading it from the columnar snapshot
+ * using {@link ColumnVector}, and using JDBC from {@link FoodmartHsqldb#URI}.
+ *
+ * <p>All benchmarks read all eight columns as primitives. The JDBC benchmark
+ * does not include the time to open the database, nor the columnar benchmark
+ * the time to open the {@link ColumnarTable} (which happens once per JVM).
+ * {@link RowCounters} reports rows/sec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RowCursorBenchmark {
+  private static final String TABLE = "sales_fact_1997";
+
+  private Connection connection;
+
+  @Setup(Level.Trial)
+  public void setup() throws SQLException {
+    connection =
+        DriverManager.getConnection(
+            FoodmartHsqldb.URI, FoodmartHsqldb.USER, FoodmartHsqldb.PASSWORD);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    connection.close();
+  }
+
+  @Benchmark
+  public long rowCursor(RowCounters counters) throws IOException {
+    long sum = 0;
+    try (RowCursor cursor = TableReader.of(TABLE).open()) {
+      while (cursor.next()) {
+        for (int i = 0; i < 5; i++) {
+          sum += cursor.getInt(i);
+        }
+        for (int i = 5; i < 8; i++) {
+          sum += cursor.getDecimalUnscaled(i);
+        }
+        counters.rows++;
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long columnar(RowCounters counters) throws IOException {
+    final ColumnarTable table = ColumnarTable.open(TABLE);
+    final ColumnVector[] columns = table.columns().toArray(new ColumnVector[0]);
+    long sum = 0;
+    for (int row = 0; row < table.rowCount(); row++) {
+      for (ColumnVector column : columns) {
+        sum += column.getLong(row);
+      }
+    }
+    counters.rows += table.rowCount();
+    return sum;
+  }
+
+  @Benchmark
+  public long jdbc(RowCounters counters) throws SQLException {
+    long sum = 0;
+    try (Statement statement = connection.createStatement();
+        ResultSet r =
+            statement.executeQuery(
+                "SELECT * FROM \"foodmart\".\"" + TABLE + "\"")) {
+      while (r.next()) {
+        for (int i = 1; i <= 5; i++) {
+          sum += r.getInt(i);
+        }
+        for (int i = 6; i <= 8; i++) {
+          sum += r.getBigDecimal(i).unscaledValue().longValue();
+        }
+        counters.rows++;
+      }
+    }
+    return sum;
+  }
+}
+
+// End RowCursorBenchmark.java
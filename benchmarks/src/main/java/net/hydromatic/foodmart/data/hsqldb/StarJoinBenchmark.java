@@ -0,0 +1,92 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a {@link StarJoin} of {@code sales_fact_1997} with its dimensions,
+ * producing wide rows and wide CSV, using a parallel stream.
+ *
+ * <p>The {@code columns} parameter is "all" (every column of the fact table and
+ * its seven dimensions, 139 columns) or "narrow" (one fact column and four
+ * dimension attributes). The dimension caches are loaded once, in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StarJoinBenchmark {
+  @Param({"all", "narrow"})
+  public String columns;
+
+  private StarJoin join;
+
+  @Setup
+  public void setup() {
+    join = StarJoin.of("sales_fact_1997");
+    if (columns.equals("narrow")) {
+      join =
+          join.withColumns(
+              Arrays.asList(
+                  "sales_fact_1997.store_sales",
+                  "time_by_day.the_month",
+                  "product_class.product_family",
+                  "region.sales_country",
+                  "customer.gender"));
+    }
+    try (Stream<String> lines = join.csv(false)) {
+      lines.findFirst(); // load the dimension caches
+    }
+  }
+
+  @Benchmark
+  public long rows(RowCounters counters) {
+    try (Stream<Object[]> rows = join.rows(false)) {
+      final long values = rows.parallel().mapToLong(row -> row.length).sum();
+      counters.rows += FoodmartHsqldb.rowCount("sales_fact_1997");
+      return values;
+    }
+  }
+
+  @Benchmark
+  public long csv(RowCounters counters) {
+    try (Stream<String> lines = join.csv(false)) {
+      final long bytes = lines.parallel().mapToLong(String::length).sum();
+      counters.rows += FoodmartHsqldb.rowCount("sales_fact_1997");
+      counters.bytes += bytes;
+      return bytes;
+    }
+  }
+}
+
+// End StarJoinBenchmark.java
@@ -0,0 +1,99 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link StatementGenerator} throughput on a single table.
+ *
+ * <p>The default tables are the largest CSV files; use {@code -p
+ * table=customer} (say) to measure another.
+ *
+ * <p>{@link #generateChunked} and {@link #generateChunkedUnordered} generate
+ * the same statements using {@link FoodmartHsqldb#insertStream(String,
+ * boolean)}, which splits the file into chunks and parses them in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StatementGeneratorBenchmark {
+  @Param({"sales_fact_1998", "agg_c_14_sales_fact_1997"})
+  public String table;
+
+  private List<Integer> columnTypes;
+
+  @Setup
+  public void setup() {
+    columnTypes = FoodmartHsqldb.columnTypes().get(table);
+  }
+
+  @Benchmark
+  public void generate(RowCounters counters, Blackhole blackhole) {
+    final StatementGenerator generator =
+        new StatementGenerator(FoodmartHsqldb.class, table, columnTypes);
+    while (generator.hasNext()) {
+      final String statement = generator.next();
+      counters.rows++;
+      counters.bytes += statement.length();
+      blackhole.consume(statement);
+    }
+  }
+
+  @Benchmark
+  public void generateChunked(RowCounters counters, Blackhole blackhole) {
+    collect(counters, blackhole, true);
+  }
+
+  @Benchmark
+  public void generateChunkedUnordered(
+      RowCounters counters, Blackhole blackhole) {
+    collect(counters, blackhole, false);
+  }
+
+  private void collect(
+      RowCounters counters, Blackhole blackhole, boolean ordered) {
+    final List<String> statements =
+        FoodmartHsqldb.insertStream(table, ordered)
+            .parallel()
+            .collect(Collectors.toList());
+    for (String statement : statements) {
+      counters.rows++;
+      counters.bytes += statement.length();
+    }
+    blackhole.consume(statements);
+  }
+}
+
+// End StatementGeneratorBenchmark.java
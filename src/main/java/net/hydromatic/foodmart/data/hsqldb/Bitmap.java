@@ -0,0 +1,349 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable set of row ids in the range [0, {@link #size()}), compressed.
+ *
+ * <p>A bitmap is stored either as a sorted array of row ids, if it is sparse
+ * (fewer than one row in 32), or otherwise as an array of 64-bit words, one bit
+ * per row. Operations choose the representation of their result, so callers
+ * never need to know which is in use.
+ *
+ * <p>Operations on two dense bitmaps are simple loops over {@code long} arrays,
+ * which the JIT compiler unrolls and vectorizes. Operations on a sparse bitmap
+ * cost time proportional to its cardinality; for example, the intersection of a
+ * sparse bitmap with a dense bitmap tests one bit per row id of the sparse
+ * bitmap.
+ */
+public final class Bitmap {
+  /** Size of the universe; every row id is less than this. */
+  private final int size;
+  /** Words, if dense; otherwise null. */
+  private final long[] words;
+  /** Sorted row ids, if sparse; otherwise null. */
+  private final int[] rows;
+
+  private final int cardinality;
+
+  private Bitmap(int size, long[] words, int[] rows, int cardinality) {
+    this.size = size;
+    this.words = words;
+    this.rows = rows;
+    this.cardinality = cardinality;
+  }
+
+  /** Returns an empty bitmap. */
+  public static Bitmap empty(int size) {
+    return new Bitmap(size, null, new int[0], 0);
+  }
+
+  /** Returns a bitmap that contains every row id less than {@code size}. */
+  public static Bitmap all(int size) {
+    final long[] words = new long[wordCount(size)];
+    Arrays.fill(words, -1L);
+    clearTail(words, size);
+    return ofWords(size, words);
+  }
+
+  /**
+   * Returns a bitmap that contains the given row ids, which must be in
+   * ascending order, and less than {@code size}.
+   */
+  public static Bitmap of(int size, int... rows) {
+    for (int i = 0; i < rows.length; i++) {
+      if (rows[i] < 0 || rows[i] >= size || i > 0 && rows[i] <= rows[i - 1]) {
+        throw new IllegalArgumentException(
+            "row ids must be ascending and in range: " + rows[i]);
+      }
+    }
+    return ofRows(size, rows.clone(), rows.length);
+  }
+
+  /** Creates a bitmap from words, choosing the best representation. */
+  static Bitmap ofWords(int size, long[] words) {
+    int cardinality = 0;
+    for (long word : words) {
+      cardinality += Long.bitCount(word);
+    }
+    if (!isSparse(size, cardinality)) {
+      return new Bitmap(size, words, null, cardinality);
+    }
+    final int[] rows = new int[cardinality];
+    int n = 0;
+    for (int w = 0; w < words.length; w++) {
+      for (long word = words[w]; word != 0; word &= word - 1) {
+        rows[n++] = w << 6 | Long.numberOfTrailingZeros(word);
+      }
+    }
+    return new Bitmap(size, null, rows, cardinality);
+  }
+
+  /**
+   * Creates a bitmap from the first {@code n} elements of a sorted array of row
+   * ids, choosing the best representation. May use the array.
+   */
+  static Bitmap ofRows(int size, int[] rows, int n) {
+    if (isSparse(size, n)) {
+      return new Bitmap(
+          size, null, n == rows.length ? rows : Arrays.copyOf(rows, n), n);
+    }
+    final long[] words = new long[wordCount(size)];
+    for (int i = 0; i < n; i++) {
+      words[rows[i] >>> 6] |= 1L << rows[i];
+    }
+    return new Bitmap(size, words, null, n);
+  }
+
+  private static boolean isSparse(int size, int cardinality) {
+    return cardinality < size >>> 5;
+  }
+
+  private static int wordCount(int size) {
+    return (size + 63) >>> 6;
+  }
+
+  /** Clears the bits beyond {@code size} in the last word. */
+  private static void clearTail(long[] words, int size) {
+    if ((size & 63) != 0) {
+      words[words.length - 1] &= (1L << size) - 1;
+    }
+  }
+
+  /** Returns the size of the universe. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of row ids in this bitmap. */
+  public int cardinality() {
+    return cardinality;
+  }
+
+  /** Returns whether this bitmap is empty. */
+  public boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+  /** Returns whether this bitmap contains a given row id. */
+  public boolean contains(int row) {
+    if (row < 0 || row >= size) {
+      return false;
+    }
+    if (words != null) {
+      return (words[row >>> 6] & 1L << row) != 0;
+    }
+    return Arrays.binarySearch(rows, row) >= 0;
+  }
+
+  /** Returns the row ids in ascending order. */
+  public int[] toArray() {
+    if (rows != null) {
+      return rows.clone();
+    }
+    final int[] array = new int[cardinality];
+    final int[] n = {0};
+    forEach(row -> array[n[0]++] = row);
+    return array;
+  }
+
+  /** Calls a consumer for each row id, in ascending order. */
+  public void forEach(IntConsumer consumer) {
+    if (rows != null) {
+      for (int row : rows) {
+        consumer.accept(row);
+      }
+      return;
+    }
+    for (int w = 0; w < words.length; w++) {
+      for (long word = words[w]; word != 0; word &= word - 1) {
+        consumer.accept(w << 6 | Long.numberOfTrailingZeros(word));
+      }
+    }
+  }
+
+  /** Returns the row ids that are in this bitmap and another. */
+  public Bitmap and(Bitmap other) {
+    checkSize(other);
+    if (words != null && other.words != null) {
+      final long[] result = new long[words.length];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = words[i] & other.words[i];
+      }
+      return ofWords(size, result);
+    }
+    if (rows != null && other.rows != null) {
+      final int[] result = new int[Math.min(cardinality, other.cardinality)];
+      int n = 0;
+      for (int i = 0, j = 0; i < rows.length && j < other.rows.length; ) {
+        if (rows[i] < other.rows[j]) {
+          ++i;
+        } else if (rows[i] > other.rows[j]) {
+          ++j;
+        } else {
+          result[n++] = rows[i];
+          ++i;
+          ++j;
+        }
+      }
+      return ofRows(size, result, n);
+    }
+    // One sparse, one dense: test each row id of the sparse bitmap.
+    final Bitmap sparse = rows != null ? this : other;
+    final long[] dense = rows != null ? other.words : words;
+    final int[] result = new int[sparse.cardinality];
+    int n = 0;
+    for (int row : sparse.rows) {
+      if ((dense[row >>> 6] & 1L << row) != 0) {
+        result[n++] = row;
+      }
+    }
+    return ofRows(size, result, n);
+  }
+
+  /** Returns the row ids that are in this bitmap or another. */
+  public Bitmap or(Bitmap other) {
+    checkSize(other);
+    if (rows != null
+        && other.rows != null
+        && isSparse(size, cardinality + other.cardinality)) {
+      final int[] result = new int[cardinality + other.cardinality];
+      int n = 0;
+      int i = 0;
+      int j = 0;
+      while (i < rows.length && j < other.rows.length) {
+        if (rows[i] < other.rows[j]) {
+          result[n++] = rows[i++];
+        } else if (rows[i] > other.rows[j]) {
+          result[n++] = other.rows[j++];
+        } else {
+          result[n++] = rows[i++];
+          ++j;
+        }
+      }
+      while (i < rows.length) {
+        result[n++] = rows[i++];
+      }
+      while (j < other.rows.length) {
+        result[n++] = other.rows[j++];
+      }
+      return ofRows(size, result, n);
+    }
+    final long[] result = toWords();
+    other.orInto(result);
+    return ofWords(size, result);
+  }
+
+  /** Returns the row ids that are in this bitmap but not in another. */
+  public Bitmap andNot(Bitmap other) {
+    checkSize(other);
+    if (rows != null) {
+      final int[] result = new int[cardinality];
+      int n = 0;
+      for (int row : rows) {
+        if (!other.contains(row)) {
+          result[n++] = row;
+        }
+      }
+      return ofRows(size, result, n);
+    }
+    final long[] result = words.clone();
+    if (other.words != null) {
+      for (int i = 0; i < result.length; i++) {
+        result[i] &= ~other.words[i];
+      }
+    } else {
+      for (int row : other.rows) {
+        result[row >>> 6] &= ~(1L << row);
+      }
+    }
+    return ofWords(size, result);
+  }
+
+  /** Returns the row ids that are not in this bitmap. */
+  public Bitmap not() {
+    return all(size).andNot(this);
+  }
+
+  /**
+   * Returns the union of several bitmaps. Faster than calling {@link
+   * #or(Bitmap)} repeatedly, because it builds the result in one array.
+   */
+  public static Bitmap union(int size, Iterable<Bitmap> bitmaps) {
+    final long[] result = new long[wordCount(size)];
+    for (Bitmap bitmap : bitmaps) {
+      if (bitmap.size != size) {
+        throw new IllegalArgumentException("bitmaps have different sizes");
+      }
+      bitmap.orInto(result);
+    }
+    return ofWords(size, result);
+  }
+
+  /** Sets the bits of this bitmap's row ids in an array of words. */
+  private void orInto(long[] result) {
+    if (words != null) {
+      for (int i = 0; i < result.length; i++) {
+        result[i] |= words[i];
+      }
+    } else {
+      for (int row : rows) {
+        result[row >>> 6] |= 1L << row;
+      }
+    }
+  }
+
+  private long[] toWords() {
+    if (words != null) {
+      return words.clone();
+    }
+    final long[] result = new long[wordCount(size)];
+    orInto(result);
+    return result;
+  }
+
+  private void checkSize(Bitmap other) {
+    if (other.size != size) {
+      throw new IllegalArgumentException(
+          "bitmaps have different sizes: " + size + ", " + other.size);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o == this
+        || o instanceof Bitmap
+            && ((Bitmap) o).size == size
+            && ((Bitmap) o).cardinality == cardinality
+            && Arrays.equals(((Bitmap) o).toArray(), toArray());
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(toArray()) * 31 + size;
+  }
+
+  @Override
+  public String toString() {
+    return cardinality + "/" + size + (words != null ? " dense" : " sparse");
+  }
+}
+
+// End Bitmap.java
@@ -0,0 +1,256 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Bitmap indexes over the integer columns of a Foodmart table.
+ *
+ * <p>For each indexed column, the index holds one {@link Bitmap} per distinct
+ * value, containing the ids of the rows that have that value. A row id is the
+ * position of the row in the table's CSV file, starting at 0. Null values are
+ * not indexed.
+ *
+ * <p>Evaluate a predicate by combining bitmaps, then fetch the matching rows
+ * from the {@link ColumnarTable} that the index was built from:
+ *
+ * <blockquote>
+ *
+ * <pre>
+ * BitmapIndex index = BitmapIndex.build("sales_fact_1997");
+ * Bitmap rows = index.eq("store_id", 11)
+ *     .and(index.in("promotion_id", 0, 1000))
+ *     .and(index.between("time_id", 367, 397));
+ * for (TableRow row : index.rows(rows)) {
+ *   ...
+ * }</pre>
+ *
+ * </blockquote>
+ *
+ * <p>To read only some columns, iterate over the row ids using {@link
+ * Bitmap#forEach(java.util.function.IntConsumer)} and read values from {@link
+ * #table()}.
+ *
+ * <p>An index is immutable and thread-safe.
+ */
+public class BitmapIndex {
+  private final ColumnarTable table;
+  private final Map<String, NavigableMap<Long, Bitmap>> columns;
+
+  private BitmapIndex(
+      ColumnarTable table, Map<String, NavigableMap<Long, Bitmap>> columns) {
+    this.table = table;
+    this.columns = columns;
+  }
+
+  /**
+   * Builds an index on the foreign-key columns of a table; for a fact table,
+   * these are its joins to the dimension tables.
+   *
+   * @throws IOException if the table is not in the columnar snapshot
+   */
+  public static BitmapIndex build(String tableName) throws IOException {
+    final List<String> columnNames = new ArrayList<>();
+    for (FoodmartSchema.ForeignKey foreignKey :
+        FoodmartSchema.table(tableName).foreignKeys) {
+      if (!columnNames.contains(foreignKey.columnName)) {
+        columnNames.add(foreignKey.columnName);
+      }
+    }
+    return build(tableName, columnNames);
+  }
+
+  /**
+   * Builds an index on the given columns of a table.
+   *
+   * @throws IOException if the table is not in the columnar snapshot
+   * @throws IllegalArgumentException if a column does not exist, or is not
+   *     stored as an integer
+   */
+  public static BitmapIndex build(
+      String tableName, Collection<String> columnNames) throws IOException {
+    final ColumnarTable table = ColumnarTable.open(tableName);
+    final Map<String, NavigableMap<Long, Bitmap>> columns =
+        new LinkedHashMap<>();
+    for (String columnName : columnNames) {
+      final ColumnVector column = table.column(columnName);
+      if (!column.isIntegral()) {
+        throw new IllegalArgumentException(
+            "column is not integral: " + tableName + "." + columnName);
+      }
+      columns.put(columnName, index(column, table.rowCount()));
+    }
+    return new BitmapIndex(table, Collections.unmodifiableMap(columns));
+  }
+
+  /** Builds the bitmaps for one column, using a counting sort. */
+  private static NavigableMap<Long, Bitmap> index(
+      ColumnVector column, int rowCount) {
+    // Assign each distinct value a code, and count its rows.
+    final Map<Long, Integer> codes = new HashMap<>();
+    final int[] rowCodes = new int[rowCount];
+    int[] counts = new int[16];
+    for (int row = 0; row < rowCount; row++) {
+      if (column.isNull(row)) {
+        rowCodes[row] = -1;
+        continue;
+      }
+      final Integer code = codes.get(column.getLong(row));
+      final int c;
+      if (code == null) {
+        c = codes.size();
+        codes.put(column.getLong(row), c);
+        if (c == counts.length) {
+          counts = Arrays.copyOf(counts, c * 2);
+        }
+      } else {
+        c = code;
+      }
+      rowCodes[row] = c;
+      ++counts[c];
+    }
+
+    // Place each row id in its value's slice of one array. Row ids are
+    // placed in ascending order, so each slice is sorted.
+    final int[] starts = new int[codes.size() + 1];
+    for (int c = 0; c < codes.size(); c++) {
+      starts[c + 1] = starts[c] + counts[c];
+    }
+    final int[] ends = starts.clone();
+    final int[] rows = new int[starts[codes.size()]];
+    for (int row = 0; row < rowCount; row++) {
+      if (rowCodes[row] >= 0) {
+        rows[ends[rowCodes[row]]++] = row;
+      }
+    }
+
+    final NavigableMap<Long, Bitmap> bitmaps = new TreeMap<>();
+    for (Map.Entry<Long, Integer> entry : codes.entrySet()) {
+      final int c = entry.getValue();
+      bitmaps.put(
+          entry.getKey(),
+          Bitmap.ofRows(
+              rowCount,
+              Arrays.copyOfRange(rows, starts[c], starts[c + 1]),
+              counts[c]));
+    }
+    return Collections.unmodifiableNavigableMap(bitmaps);
+  }
+
+  /** Returns the table that this index was built from. */
+  public ColumnarTable table() {
+    return table;
+  }
+
+  /** Returns the number of rows in the table. */
+  public int rowCount() {
+    return table.rowCount();
+  }
+
+  /** Returns the names of the indexed columns. */
+  public Set<String> columnNames() {
+    return columns.keySet();
+  }
+
+  /** Returns the distinct non-null values of an indexed column. */
+  public NavigableSet<Long> values(String columnName) {
+    return column(columnName).navigableKeySet();
+  }
+
+  /** Returns a bitmap that contains every row in the table. */
+  public Bitmap all() {
+    return Bitmap.all(rowCount());
+  }
+
+  /** Returns the rows where a column equals a value. */
+  public Bitmap eq(String columnName, long value) {
+    final Bitmap bitmap = column(columnName).get(value);
+    return bitmap != null ? bitmap : Bitmap.empty(rowCount());
+  }
+
+  /** Returns the rows where a column equals any of the given values. */
+  public Bitmap in(String columnName, long... values) {
+    final NavigableMap<Long, Bitmap> bitmaps = column(columnName);
+    final List<Bitmap> list = new ArrayList<>();
+    for (long value : values) {
+      final Bitmap bitmap = bitmaps.get(value);
+      if (bitmap != null) {
+        list.add(bitmap);
+      }
+    }
+    return list.size() == 1 ? list.get(0) : Bitmap.union(rowCount(), list);
+  }
+
+  /**
+   * Returns the rows where a column is between two values, inclusive. Useful
+   * for ranges of {@code time_id}.
+   */
+  public Bitmap between(String columnName, long lower, long upper) {
+    if (lower > upper) {
+      return Bitmap.empty(rowCount());
+    }
+    return Bitmap.union(
+        rowCount(),
+        column(columnName).subMap(lower, true, upper, true).values());
+  }
+
+  /** Returns the rows whose row ids are in a bitmap, in row id order. */
+  public List<TableRow> rows(Bitmap bitmap) {
+    if (bitmap.size() != rowCount()) {
+      throw new IllegalArgumentException(
+          "bitmap size "
+              + bitmap.size()
+              + " does not match table size "
+              + rowCount());
+    }
+    final List<ColumnVector> vectors = table.columns();
+    final List<TableRow> rows = new ArrayList<>(bitmap.cardinality());
+    bitmap.forEach(
+        row -> {
+          final Object[] values = new Object[vectors.size()];
+          for (int i = 0; i < values.length; i++) {
+            values[i] = vectors.get(i).getObject(row);
+          }
+          rows.add(new TableRow(table.name(), values));
+        });
+    return rows;
+  }
+
+  private NavigableMap<Long, Bitmap> column(String columnName) {
+    final NavigableMap<Long, Bitmap> bitmaps = columns.get(columnName);
+    if (bitmaps == null) {
+      throw new IllegalArgumentException(
+          "column is not indexed: " + table.name() + "." + columnName);
+    }
+    return bitmaps;
+  }
+}
+
+// End BitmapIndex.java
@@ -0,0 +1,372 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes Foodmart tables as bulk-load files for other databases.
+ *
+ * <p>Loading a table with PostgreSQL's {@code COPY} or MySQL's {@code LOAD
+ * DATA} is much faster than running the {@code INSERT} statements from {@link
+ * FoodmartHsqldb#generateInserts()}. For each {@link Format}, this class
+ * generates:
+ *
+ * <ul>
+ *   <li>a data file per table ({@link #write(String, Writer)});
+ *   <li>{@code CREATE TABLE} statements, derived from {@code foodmart.script}
+ *       ({@link #createTableSql(String)});
+ *   <li>a statement that loads the data file ({@link #loadSql(String)});
+ *   <li>{@code CREATE INDEX} statements, to run after loading ({@link
+ *       #createIndexSql(String)}).
+ * </ul>
+ *
+ * <p>Values follow the same rules as the {@code INSERT} statements: an empty,
+ * unquoted CSV field is NULL, a {@code BOOLEAN} is true if its text is "TRUE"
+ * (ignoring case), and numbers, dates and timestamps are written as in the CSV
+ * file.
+ *
+ * <p>{@link #export(Path)} writes everything to a directory. Data is streamed
+ * from the CSV resources, one row at a time.
+ */
+public class BulkExporter {
+  private final Format format;
+
+  private BulkExporter(Format format) {
+    this.format = format;
+  }
+
+  /** Creates an exporter for a given format. */
+  public static BulkExporter of(Format format) {
+    return new BulkExporter(format);
+  }
+
+  /** Returns the format. */
+  public Format format() {
+    return format;
+  }
+
+  /** Returns the name of the data file of a table; for example, "days.tsv". */
+  public String fileName(String tableName) {
+    return tableName + format.extension;
+  }
+
+  /** Generates a {@code CREATE TABLE} statement, without a trailing ';'. */
+  public String createTableSql(String tableName) {
+    final FoodmartSchema.Table table = FoodmartSchema.table(tableName);
+    final StringBuilder b = new StringBuilder("CREATE TABLE ");
+    format.quote(b, table.name).append(" (");
+    for (FoodmartSchema.Column column : table.columns) {
+      b.append(column.ordinal == 0 ? "\n  " : ",\n  ");
+      format.quote(b, column.name).append(' ').append(format.sqlType(column));
+      if (!column.nullable) {
+        b.append(" NOT NULL");
+      }
+    }
+    return b.append(")").toString();
+  }
+
+  /**
+   * Generates the {@code CREATE INDEX} statements of a table, without trailing
+   * ';'.
+   */
+  public List<String> createIndexSql(String tableName) {
+    final List<String> list = new ArrayList<>();
+    for (FoodmartSchema.Index index : FoodmartSchema.table(tableName).indexes) {
+      final StringBuilder b =
+          new StringBuilder(
+              index.unique ? "CREATE UNIQUE INDEX " : "CREATE INDEX ");
+      format.quote(b, index.name).append(" ON ");
+      format.quote(b, tableName).append(" (");
+      for (int i = 0; i < index.columnNames.size(); i++) {
+        if (i > 0) {
+          b.append(", ");
+        }
+        format.quote(b, index.columnNames.get(i));
+      }
+      list.add(b.append(')').toString());
+    }
+    return list;
+  }
+
+  /**
+   * Generates a statement that loads a table's data file, without a trailing
+   * ';'.
+   *
+   * <p>For PostgreSQL, the statement reads from standard input, for use with
+   * {@code psql} or the JDBC driver's {@code CopyManager}; for MySQL, it reads
+   * the client file {@link #fileName(String)} in the current directory.
+   */
+  public String loadSql(String tableName) {
+    final StringBuilder b = new StringBuilder();
+    switch (format) {
+      case MYSQL:
+        b.append("LOAD DATA LOCAL INFILE '")
+            .append(fileName(tableName))
+            .append("' INTO TABLE ");
+        format.quote(b, tableName);
+        return b.append(
+                " FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'"
+                    + " LINES TERMINATED BY '\\n'")
+            .toString();
+      default:
+        return copySql("COPY ", tableName, "STDIN");
+    }
+  }
+
+  /** Generates a PostgreSQL {@code COPY} or {@code psql \copy} command. */
+  private String copySql(String command, String tableName, String source) {
+    final StringBuilder b = new StringBuilder(command);
+    format.quote(b, tableName).append(" FROM ").append(source);
+    if (format == Format.POSTGRESQL_CSV) {
+      b.append(" WITH (FORMAT csv)");
+    }
+    return b.toString();
+  }
+
+  /**
+   * Writes the rows of a table, in the format of a data file, to a writer. The
+   * data file has no header line.
+   *
+   * <p>Returns the number of rows written. Does not close the writer.
+   */
+  public int write(String tableName, Writer out) throws IOException {
+    final int[] types =
+        StatementGenerator.toIntArray(
+            FoodmartSchema.table(tableName).columnTypes());
+    final StringBuilder b = new StringBuilder();
+    int rowCount = 0;
+    try (CsvTokenizer tokenizer =
+        StatementGenerator.open(
+            FoodmartHsqldb.class, FoodmartHsqldb.tableUri(tableName))) {
+      tokenizer.next(); // skip header
+      while (tokenizer.next()) {
+        b.setLength(0);
+        for (int i = 0; i < tokenizer.fieldCount(); i++) {
+          if (i > 0) {
+            b.append(format.delimiter);
+          }
+          appendValue(b, tokenizer, i, types[i]);
+        }
+        out.append(b.append('\n'));
+        ++rowCount;
+      }
+    }
+    return rowCount;
+  }
+
+  /** Appends the {@code i}th field of the current record. */
+  private void appendValue(
+      StringBuilder b, CsvTokenizer tokenizer, int i, int type) {
+    if (tokenizer.isNull(i)) {
+      if (format != Format.POSTGRESQL_CSV) {
+        b.append("\\N");
+      }
+      return;
+    }
+    final char[] chars = tokenizer.chars();
+    final int start = tokenizer.start(i);
+    final int end = start + tokenizer.length(i);
+    switch (type) {
+      case Types.BOOLEAN:
+        final boolean value = tokenizer.equalsIgnoreCase(i, "TRUE");
+        if (format == Format.MYSQL) {
+          // MySQL's BOOLEAN is TINYINT(1), and LOAD DATA does not parse
+          // 'true'.
+          b.append(value ? '1' : '0');
+        } else {
+          b.append(value ? "true" : "false");
+        }
+        return;
+      case Types.VARCHAR:
+      case Types.CHAR:
+      case Types.LONGVARCHAR:
+        if (format == Format.POSTGRESQL_CSV) {
+          appendCsv(b, chars, start, end);
+        } else {
+          appendEscaped(b, chars, start, end);
+        }
+        return;
+      default:
+        // Numbers, dates and timestamps contain no special characters.
+        b.append(chars, start, end - start);
+    }
+  }
+
+  /**
+   * Appends a string in CSV format, quoting it if it is empty (to distinguish
+   * it from NULL) or contains a delimiter, quote or line break.
+   */
+  static void appendCsv(StringBuilder b, char[] chars, int start, int end) {
+    boolean quote = start == end;
+    for (int j = start; j < end && !quote; j++) {
+      final char c = chars[j];
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      b.append(chars, start, end - start);
+      return;
+    }
+    b.append('"');
+    for (int j = start; j < end; j++) {
+      if (chars[j] == '"') {
+        b.append('"');
+      }
+      b.append(chars[j]);
+    }
+    b.append('"');
+  }
+
+  /**
+   * Appends a string in the text format of PostgreSQL and MySQL, where
+   * backslash escapes tab, line break and backslash.
+   */
+  private static void appendEscaped(
+      StringBuilder b, char[] chars, int start, int end) {
+    for (int j = start; j < end; j++) {
+      final char c = chars[j];
+      switch (c) {
+        case '\\':
+          b.append("\\\\");
+          break;
+        case '\t':
+          b.append("\\t");
+          break;
+        case '\n':
+          b.append("\\n");
+          break;
+        case '\r':
+          b.append("\\r");
+          break;
+        default:
+          b.append(c);
+      }
+    }
+  }
+
+  /**
+   * Writes every table to a directory; see {@link #export(Path, Collection)}.
+   */
+  public void export(Path directory) throws IOException {
+    export(directory, FoodmartHsqldb.tableNames());
+  }
+
+  /**
+   * Writes some tables to a directory: a data file for each table, {@code
+   * create.sql} containing {@code CREATE TABLE} statements, and {@code
+   * load.sql} containing statements to load the data files and then create
+   * indexes.
+   *
+   * <p>Run the scripts from the directory. For PostgreSQL, {@code load.sql}
+   * uses {@code psql}'s {@code \copy} command.
+   */
+  public void export(Path directory, Collection<String> tableNames)
+      throws IOException {
+    Files.createDirectories(directory);
+    final StringBuilder create = new StringBuilder();
+    final StringBuilder load = new StringBuilder();
+    final StringBuilder indexes = new StringBuilder();
+    for (String tableName : tableNames) {
+      try (Writer out =
+          Files.newBufferedWriter(
+              directory.resolve(fileName(tableName)), StandardCharsets.UTF_8)) {
+        write(tableName, out);
+      }
+      create.append(createTableSql(tableName)).append(";\n\n");
+      if (format == Format.MYSQL) {
+        load.append(loadSql(tableName)).append(";\n");
+      } else {
+        // psql's \copy reads the file on the client.
+        load.append(
+                copySql("\\copy ", tableName, "'" + fileName(tableName) + "'"))
+            .append('\n');
+      }
+      for (String sql : createIndexSql(tableName)) {
+        indexes.append(sql).append(";\n");
+      }
+    }
+    write(directory.resolve("create.sql"), create);
+    write(directory.resolve("load.sql"), load.append('\n').append(indexes));
+  }
+
+  private static void write(Path path, CharSequence s) throws IOException {
+    try (BufferedWriter w =
+        Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      w.append(s);
+    }
+  }
+
+  /** Bulk-load file format. */
+  public enum Format {
+    /**
+     * Text format of PostgreSQL's {@code COPY}: tab-separated, NULL as {@code
+     * \N}, and backslash escapes.
+     */
+    POSTGRESQL_TEXT('\t', ".tsv"),
+
+    /**
+     * CSV format of PostgreSQL's {@code COPY ... WITH (FORMAT csv)}:
+     * comma-separated, NULL as an empty unquoted field, and strings quoted when
+     * necessary.
+     */
+    POSTGRESQL_CSV(',', ".csv"),
+
+    /**
+     * Default format of MySQL's {@code LOAD DATA}: tab-separated, NULL as
+     * {@code \N}, backslash escapes, and BOOLEAN as 0 or 1.
+     */
+    MYSQL('\t', ".tsv");
+
+    final char delimiter;
+    final String extension;
+
+    Format(char delimiter, String extension) {
+      this.delimiter = delimiter;
+      this.extension = extension;
+    }
+
+    /** Appends an identifier, quoted. */
+    StringBuilder quote(StringBuilder b, String name) {
+      final char q = this == MYSQL ? '`' : '"';
+      return b.append(q).append(name).append(q);
+    }
+
+    /** Returns the type of a column in this database's dialect. */
+    String sqlType(FoodmartSchema.Column column) {
+      switch (column.type) {
+        case Types.DOUBLE:
+          return this == MYSQL ? "DOUBLE" : "DOUBLE PRECISION";
+        case Types.TIMESTAMP:
+          // MySQL's TIMESTAMP only holds dates from 1970 to 2038.
+          return this == MYSQL ? "DATETIME" : "TIMESTAMP";
+        default:
+          return column.sqlType();
+      }
+    }
+  }
+}
+
+// End BulkExporter.java
@@ -0,0 +1,122 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Spliterator over the elements generated from the chunks of a single CSV file,
+ * that splits at chunk boundaries.
+ *
+ * <p>In a parallel stream, each chunk is tokenized by a fork-join worker. If
+ * {@code ordered}, the spliterator is {@link #ORDERED}, and elements are in the
+ * order of the CSV file; otherwise a parallel stream may return them in any
+ * order, which saves buffering.
+ *
+ * <p>The number of elements in each chunk is not known in advance, so {@link
+ * #estimateSize()} is an estimate based on the table's row count.
+ *
+ * @see TableSpliterator
+ */
+class ChunkSpliterator<E> implements Spliterator<E> {
+  private final IntFunction<Iterator<E>> factory;
+  private final long rowsPerChunk;
+  private final boolean ordered;
+  private int lo;
+  private final int hi;
+  private Iterator<E> iterator;
+
+  /**
+   * Creates a ChunkSpliterator.
+   *
+   * @param chunks Chunks of the CSV file
+   * @param factory Creates an iterator over the elements of a chunk
+   * @param rowCount Number of rows in the file, or an estimate
+   * @param ordered Whether elements must be in the order of the file
+   */
+  ChunkSpliterator(
+      CsvChunks chunks,
+      IntFunction<Iterator<E>> factory,
+      long rowCount,
+      boolean ordered) {
+    this(
+        factory,
+        (rowCount + chunks.count() - 1) / chunks.count(),
+        ordered,
+        0,
+        chunks.count());
+  }
+
+  private ChunkSpliterator(
+      IntFunction<Iterator<E>> factory,
+      long rowsPerChunk,
+      boolean ordered,
+      int lo,
+      int hi) {
+    this.factory = factory;
+    this.rowsPerChunk = rowsPerChunk;
+    this.ordered = ordered;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super E> action) {
+    for (; ; ) {
+      if (iterator != null) {
+        if (iterator.hasNext()) {
+          action.accept(iterator.next());
+          return true;
+        }
+        iterator = null;
+        ++lo;
+      }
+      if (lo >= hi) {
+        return false;
+      }
+      iterator = factory.apply(lo);
+    }
+  }
+
+  @Override
+  public Spliterator<E> trySplit() {
+    if (iterator != null || hi - lo < 2) {
+      // Already reading a chunk, or only one chunk left.
+      return null;
+    }
+    final int mid = (lo + hi) >>> 1;
+    final ChunkSpliterator<E> prefix =
+        new ChunkSpliterator<>(factory, rowsPerChunk, ordered, lo, mid);
+    lo = mid;
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    return rowsPerChunk * (hi - lo);
+  }
+
+  @Override
+  public int characteristics() {
+    return (ordered ? ORDERED : 0) | NONNULL | IMMUTABLE;
+  }
+}
+
+// End ChunkSpliterator.java
@@ -0,0 +1,368 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Column of a {@link ColumnarTable}.
+ *
+ * <p>Accessors read directly from the table's buffer, and do not allocate
+ * (except {@link #getString}, {@link #getBigDecimal} and {@link #getObject}).
+ * Calling an accessor that does not match the column's type throws {@link
+ * UnsupportedOperationException}.
+ *
+ * <p>The value of a primitive accessor for a null value is 0 (or false); call
+ * {@link #isNull(int)} to distinguish.
+ */
+public class ColumnVector {
+  private static final long MILLIS_PER_DAY = 86_400_000L;
+
+  private final int ordinal;
+  private final int rowCount;
+  private final String name;
+  private final int type;
+  private final int scale;
+  private final byte encoding;
+  private final ByteBuffer buffer;
+  private final int nullOffset;
+  private final int valueOffset;
+  /** Width in bytes of each value, or of each code if dictionary-encoded. */
+  private final int width;
+
+  private final long min;
+  private final long max;
+  private final String[] dictionary;
+  private final int charOffset;
+
+  ColumnVector(int ordinal, ByteBuffer buffer, int rowCount) {
+    this.ordinal = ordinal;
+    this.rowCount = rowCount;
+    this.buffer = buffer;
+    this.name = ColumnarTable.readString(buffer);
+    this.type = buffer.getInt();
+    this.scale = buffer.getInt();
+    this.encoding = buffer.get();
+    if (buffer.get() != 0) {
+      nullOffset = buffer.position();
+      buffer.position(nullOffset + (rowCount + 63) / 64 * 8);
+    } else {
+      nullOffset = -1;
+    }
+    long min = 0;
+    long max = 0;
+    String[] dictionary = null;
+    int charOffset = -1;
+    switch (encoding) {
+      case ColumnarTable.INTEGRAL:
+        width = buffer.get();
+        min = buffer.getLong();
+        max = buffer.getLong();
+        break;
+      case ColumnarTable.FLOAT64:
+        width = 8;
+        break;
+      case ColumnarTable.BOOL:
+        width = 1;
+        break;
+      case ColumnarTable.DICTIONARY:
+        dictionary = new String[buffer.getInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+          dictionary[i] = ColumnarTable.readString(buffer);
+        }
+        width = buffer.get();
+        break;
+      case ColumnarTable.STRING:
+        width = 4;
+        charOffset = buffer.position() + (rowCount + 1) * 4;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown encoding " + encoding);
+    }
+    this.min = min;
+    this.max = max;
+    this.dictionary = dictionary;
+    this.charOffset = charOffset;
+    this.valueOffset = buffer.position();
+    if (encoding == ColumnarTable.STRING) {
+      buffer.position(charOffset + buffer.getInt(valueOffset + rowCount * 4));
+    } else {
+      buffer.position(valueOffset + rowCount * width);
+    }
+  }
+
+  /** Returns the zero-based position of this column in its table. */
+  public int ordinal() {
+    return ordinal;
+  }
+
+  /** Returns the name of this column. */
+  public String name() {
+    return name;
+  }
+
+  /** Returns the {@link Types} code of this column. */
+  public int type() {
+    return type;
+  }
+
+  /** Returns the scale of a {@code DECIMAL} column, otherwise 0. */
+  public int scale() {
+    return scale;
+  }
+
+  /** Returns whether this column is dictionary-encoded. */
+  public boolean isDictionaryEncoded() {
+    return dictionary != null;
+  }
+
+  /**
+   * Returns whether values are stored as integers, and can therefore be read
+   * using {@link #getLong(int)}.
+   */
+  public boolean isIntegral() {
+    return encoding == ColumnarTable.INTEGRAL;
+  }
+
+  /**
+   * Returns the smallest non-null value of an integral column, in the units of
+   * {@link #getLong(int)}, or 0 if every value is null.
+   */
+  public long min() {
+    checkIntegral("min");
+    return min;
+  }
+
+  /**
+   * Returns the largest non-null value of an integral column, in the units of
+   * {@link #getLong(int)}, or 0 if every value is null.
+   */
+  public long max() {
+    checkIntegral("max");
+    return max;
+  }
+
+  /** Returns whether the value in a given row is null. */
+  public boolean isNull(int row) {
+    return nullOffset >= 0
+        && (buffer.getLong(nullOffset + (row >>> 6) * 8) & 1L << row) != 0;
+  }
+
+  /**
+   * Returns the value of an integral column as an {@code int}, or the code of a
+   * dictionary-encoded column.
+   *
+   * <p>For a {@code DATE} column, returns days since the epoch. For a column
+   * whose values do not fit in an {@code int}, such as a {@code TIMESTAMP}
+   * column, the result is truncated; use {@link #getLong(int)}.
+   */
+  public int getInt(int row) {
+    if (encoding == ColumnarTable.DICTIONARY) {
+      switch (width) {
+        case 1:
+          return buffer.get(valueOffset + row) & 0xff;
+        case 2:
+          return buffer.getShort(valueOffset + row * 2) & 0xffff;
+        default:
+          return buffer.getInt(valueOffset + row * 4);
+      }
+    }
+    return (int) getLong(row);
+  }
+
+  /**
+   * Returns the value of an integral column: the value of an integer column,
+   * the unscaled value of a {@code DECIMAL} column, days since the epoch of a
+   * {@code DATE} column, or milliseconds since the epoch of a {@code TIMESTAMP}
+   * column.
+   */
+  public long getLong(int row) {
+    switch (encoding == ColumnarTable.INTEGRAL ? width : 0) {
+      case 1:
+        return buffer.get(valueOffset + row);
+      case 2:
+        return buffer.getShort(valueOffset + row * 2);
+      case 4:
+        return buffer.getInt(valueOffset + row * 4);
+      case 8:
+        return buffer.getLong(valueOffset + row * 8);
+      default:
+        throw unsupported("getLong");
+    }
+  }
+
+  /** Returns the value of a numeric column as a {@code double}. */
+  public double getDouble(int row) {
+    if (encoding == ColumnarTable.FLOAT64) {
+      return buffer.getDouble(valueOffset + row * 8);
+    }
+    if (type == Types.DECIMAL || type == Types.NUMERIC) {
+      return (double) getLong(row) / CsvTokenizer.POWERS_OF_TEN[scale];
+    }
+    return getLong(row);
+  }
+
+  /**
+   * Returns milliseconds since the epoch of a {@code DATE} or {@code TIMESTAMP}
+   * column, as if the value were in UTC.
+   */
+  public long getEpochMillis(int row) {
+    switch (type) {
+      case Types.DATE:
+        return getLong(row) * MILLIS_PER_DAY;
+      case Types.TIMESTAMP:
+        return getLong(row);
+      default:
+        throw unsupported("getEpochMillis");
+    }
+  }
+
+  /** Returns the value of a {@code BOOLEAN} column. */
+  public boolean getBoolean(int row) {
+    if (encoding != ColumnarTable.BOOL) {
+      throw unsupported("getBoolean");
+    }
+    return buffer.get(valueOffset + row) != 0;
+  }
+
+  /** Returns the value of a numeric column as a {@link BigDecimal}. */
+  public BigDecimal getBigDecimal(int row) {
+    if (isNull(row)) {
+      return null;
+    }
+    if (encoding == ColumnarTable.FLOAT64) {
+      return BigDecimal.valueOf(getDouble(row));
+    }
+    return BigDecimal.valueOf(getLong(row), scale);
+  }
+
+  /** Returns the value of a column as a string, or null. */
+  public String getString(int row) {
+    if (isNull(row)) {
+      return null;
+    }
+    switch (encoding) {
+      case ColumnarTable.DICTIONARY:
+        return dictionary[getInt(row)];
+      case ColumnarTable.STRING:
+        final int start = buffer.getInt(valueOffset + row * 4);
+        final int end = buffer.getInt(valueOffset + row * 4 + 4);
+        final byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+          bytes[i] = buffer.get(charOffset + start + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+      default:
+        return getObject(row).toString();
+    }
+  }
+
+  /**
+   * Returns the dictionary of a dictionary-encoded column; {@link #getInt(int)}
+   * returns an index into this list.
+   */
+  public List<String> dictionary() {
+    if (dictionary == null) {
+      throw unsupported("dictionary");
+    }
+    return Collections.unmodifiableList(Arrays.asList(dictionary));
+  }
+
+  /**
+   * Returns the value in a given row as a Java object of the same type as
+   * {@link TableRow#get(int)}, or null.
+   */
+  public Object getObject(int row) {
+    if (isNull(row)) {
+      return null;
+    }
+    switch (encoding) {
+      case ColumnarTable.FLOAT64:
+        return getDouble(row);
+      case ColumnarTable.BOOL:
+        return getBoolean(row);
+      case ColumnarTable.DICTIONARY:
+      case ColumnarTable.STRING:
+        return getString(row);
+    }
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+        return (short) getLong(row);
+      case Types.INTEGER:
+        return (int) getLong(row);
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return getBigDecimal(row);
+      case Types.DATE:
+        return Date.valueOf(LocalDate.ofEpochDay(getLong(row)));
+      case Types.TIMESTAMP:
+        final long millis = getLong(row);
+        return Timestamp.valueOf(
+            LocalDateTime.ofEpochSecond(
+                Math.floorDiv(millis, 1000),
+                (int) Math.floorMod(millis, 1000) * 1_000_000,
+                ZoneOffset.UTC));
+      default:
+        return getLong(row);
+    }
+  }
+
+  /** Decodes the values of an integral column into an array. */
+  public int[] toIntArray() {
+    checkIntegral("toIntArray");
+    final int[] values = new int[rowCount];
+    for (int i = 0; i < rowCount; i++) {
+      values[i] = (int) getLong(i);
+    }
+    return values;
+  }
+
+  /** Decodes the values of an integral column into an array. */
+  public long[] toLongArray() {
+    checkIntegral("toLongArray");
+    final long[] values = new long[rowCount];
+    for (int i = 0; i < rowCount; i++) {
+      values[i] = getLong(i);
+    }
+    return values;
+  }
+
+  private void checkIntegral(String method) {
+    if (encoding != ColumnarTable.INTEGRAL) {
+      throw unsupported(method);
+    }
+  }
+
+  private UnsupportedOperationException unsupported(String method) {
+    return new UnsupportedOperationException(
+        method + " not supported for column " + name);
+  }
+}
+
+// End ColumnVector.java
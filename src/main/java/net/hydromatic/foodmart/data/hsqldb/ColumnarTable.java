@@ -0,0 +1,353 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Foodmart table in a compact, columnar binary format.
+ *
+ * <p>The build converts each CSV file to a {@code /columnar/<table>.bin}
+ * resource (see {@link ColumnarWriter}). Each column is stored as an array of
+ * fixed-width values, so that a {@link ColumnVector} can read any value
+ * directly from the underlying buffer, without parsing:
+ *
+ * <ul>
+ *   <li>{@code SMALLINT}, {@code INTEGER} and {@code BIGINT} columns as
+ *       integers;
+ *   <li>{@code DECIMAL} columns as unscaled integers (for {@code
+ *       DECIMAL(10,4)}, 1.5 is stored as 15000);
+ *   <li>{@code DATE} columns as days since the epoch, and {@code TIMESTAMP}
+ *       columns as milliseconds since the epoch, both as if in UTC;
+ *   <li>{@code VARCHAR} columns with few distinct values, such as {@code
+ *       quarter} and {@code gender}, as codes into a dictionary; other {@code
+ *       VARCHAR} columns as offsets into an array of ASCII characters.
+ * </ul>
+ *
+ * <p>Integers are stored in 1, 2, 4 or 8 bytes, the narrowest width that holds
+ * every value in the column. The minimum and maximum value of each integer
+ * column are stored in the header.
+ *
+ * <p>If the resource is a file (for example when running from the build
+ * directory) it is memory-mapped; if it is in a jar, it is read into memory in
+ * one pass. Either way, {@link #open} does this once per table, and returns the
+ * same table thereafter; a table is immutable, and safe to read from any number
+ * of threads.
+ *
+ * <p>The format is big-endian:
+ *
+ * <pre>
+ * table:    magic rowCount:int columnCount:int column*
+ * column:   name:text sqlType:int scale:int encoding:byte
+ *           hasNulls:boolean nullBitmap:long[(rowCount + 63) / 64]?
+ *           values
+ * values:   integral | float64 | bool | dictionary | string
+ * integral: width:byte min:long max:long value:width[rowCount]
+ * float64:  value:double[rowCount]
+ * bool:     value:byte[rowCount]
+ * dictionary: size:int text[size] width:byte code:width[rowCount]
+ * string:   offset:int[rowCount + 1] ascii:byte[offset[rowCount]]
+ * text:     length:short ascii:byte[length]
+ * </pre>
+ */
+public class ColumnarTable {
+  static final int MAGIC = 0x464d4331; // "FMC1"
+
+  // Encodings.
+  static final byte INTEGRAL = 1;
+  static final byte FLOAT64 = 2;
+  static final byte BOOL = 3;
+  static final byte DICTIONARY = 4;
+  static final byte STRING = 5;
+
+  /** Tables that have been opened, keyed by resource name. */
+  private static final Map<String, ColumnarTable> TABLES =
+      new ConcurrentHashMap<>();
+
+  /** Summaries of tables, keyed by resource name. */
+  private static final Map<String, Summary> SUMMARIES =
+      new ConcurrentHashMap<>();
+
+  private final String name;
+  private final int rowCount;
+  private final List<ColumnVector> columns;
+
+  private ColumnarTable(String name, ByteBuffer buffer) {
+    this.name = name;
+    if (buffer.getInt() != MAGIC) {
+      throw new IllegalArgumentException("not a columnar file: " + name);
+    }
+    this.rowCount = buffer.getInt();
+    final int columnCount = buffer.getInt();
+    final List<ColumnVector> list = new ArrayList<>();
+    for (int i = 0; i < columnCount; i++) {
+      list.add(new ColumnVector(i, buffer, rowCount));
+    }
+    this.columns = Collections.unmodifiableList(list);
+  }
+
+  /** Returns the name of the resource that holds a table. */
+  static String resource(String tableName) {
+    return "/columnar/" + tableName.toLowerCase() + ".bin";
+  }
+
+  /** Returns whether the columnar snapshot contains a given table. */
+  public static boolean exists(String tableName) {
+    return ColumnarTable.class.getResource(resource(tableName)) != null;
+  }
+
+  /**
+   * Opens a table, or returns the table if it has already been opened.
+   *
+   * @throws IOException if the table is not in the snapshot, or cannot be read
+   */
+  public static ColumnarTable open(String tableName) throws IOException {
+    final String resource = resource(tableName);
+    final ColumnarTable table = TABLES.get(resource);
+    if (table != null) {
+      return table;
+    }
+    final URL url = ColumnarTable.class.getResource(resource);
+    if (url == null) {
+      throw new IOException("columnar file not found: " + resource);
+    }
+    // If another thread opens the same table at the same time, one of the
+    // copies is discarded.
+    final ColumnarTable table2 = new ColumnarTable(tableName, map(url));
+    final ColumnarTable previous = TABLES.putIfAbsent(resource, table2);
+    return previous != null ? previous : table2;
+  }
+
+  /**
+   * Returns the row count and the range of each integral column of a table,
+   * reading the table's header but not its values. The result is cached.
+   *
+   * @throws IOException if the table is not in the snapshot, or cannot be read
+   */
+  static Summary summary(String tableName) throws IOException {
+    final String resource = resource(tableName);
+    final Summary summary = SUMMARIES.get(resource);
+    if (summary != null) {
+      return summary;
+    }
+    final Summary summary2;
+    final ColumnarTable table = TABLES.get(resource);
+    if (table != null) {
+      summary2 = new Summary(table);
+    } else {
+      final InputStream in = ColumnarTable.class.getResourceAsStream(resource);
+      if (in == null) {
+        throw new IOException("columnar file not found: " + resource);
+      }
+      try (DataInputStream data =
+          new DataInputStream(new BufferedInputStream(in))) {
+        summary2 = new Summary(tableName, data);
+      }
+    }
+    SUMMARIES.putIfAbsent(resource, summary2);
+    return summary2;
+  }
+
+  /** Memory-maps a file, or reads any other resource into memory. */
+  private static ByteBuffer map(URL url) throws IOException {
+    if ("file".equals(url.getProtocol())) {
+      try (RandomAccessFile f =
+              new RandomAccessFile(new File(url.toURI()), "r");
+          FileChannel channel = f.getChannel()) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } catch (URISyntaxException e) {
+        // Fall through, and read it as a stream
+      }
+    }
+    try (InputStream in = url.openStream()) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+      final byte[] chunk = new byte[1 << 16];
+      for (int n; (n = in.read(chunk)) > 0; ) {
+        out.write(chunk, 0, n);
+      }
+      return ByteBuffer.wrap(out.toByteArray());
+    }
+  }
+
+  /** Returns the name of this table. */
+  public String name() {
+    return name;
+  }
+
+  /** Returns the number of rows. */
+  public int rowCount() {
+    return rowCount;
+  }
+
+  /** Returns the columns, in the order of {@link FoodmartSchema.Table}. */
+  public List<ColumnVector> columns() {
+    return columns;
+  }
+
+  /** Returns the {@code i}th column. */
+  public ColumnVector column(int i) {
+    return columns.get(i);
+  }
+
+  /**
+   * Returns the column with a given name.
+   *
+   * @throws IllegalArgumentException if there is no such column
+   */
+  public ColumnVector column(String columnName) {
+    for (ColumnVector column : columns) {
+      if (column.name().equals(columnName)) {
+        return column;
+      }
+    }
+    throw new IllegalArgumentException(
+        "unknown column: " + name + "." + columnName);
+  }
+
+  /** Skips a given number of bytes of a stream. */
+  private static void skip(DataInputStream in, long n) throws IOException {
+    while (n > 0) {
+      final int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+      if (skipped == 0) {
+        in.readByte(); // throws EOFException at the end of the stream
+        --n;
+      } else {
+        n -= skipped;
+      }
+    }
+  }
+
+  static String readString(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getShort() & 0xffff];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Row count and the range of each integral column of a table.
+   *
+   * @see #summary(String)
+   */
+  static class Summary {
+    final int rowCount;
+    private final boolean[] integral;
+    private final long[] mins;
+    private final long[] maxes;
+
+    /** Creates a summary of a table that is open. */
+    private Summary(ColumnarTable table) {
+      rowCount = table.rowCount;
+      final int n = table.columns.size();
+      integral = new boolean[n];
+      mins = new long[n];
+      maxes = new long[n];
+      for (int i = 0; i < n; i++) {
+        final ColumnVector column = table.columns.get(i);
+        if (column.isIntegral()) {
+          integral[i] = true;
+          mins[i] = column.min();
+          maxes[i] = column.max();
+        }
+      }
+    }
+
+    /**
+     * Creates a summary by reading a columnar file, skipping the values of each
+     * column.
+     */
+    private Summary(String tableName, DataInputStream in) throws IOException {
+      if (in.readInt() != MAGIC) {
+        throw new IllegalArgumentException("not a columnar file: " + tableName);
+      }
+      rowCount = in.readInt();
+      final int n = in.readInt();
+      integral = new boolean[n];
+      mins = new long[n];
+      maxes = new long[n];
+      for (int i = 0; i < n; i++) {
+        skip(in, in.readUnsignedShort()); // name
+        in.readInt(); // sqlType
+        in.readInt(); // scale
+        final byte encoding = in.readByte();
+        if (in.readBoolean()) {
+          skip(in, (rowCount + 63) / 64 * 8L); // null bitmap
+        }
+        switch (encoding) {
+          case INTEGRAL:
+            final int width = in.readByte();
+            integral[i] = true;
+            mins[i] = in.readLong();
+            maxes[i] = in.readLong();
+            skip(in, (long) width * rowCount);
+            break;
+          case FLOAT64:
+            skip(in, 8L * rowCount);
+            break;
+          case BOOL:
+            skip(in, rowCount);
+            break;
+          case DICTIONARY:
+            final int size = in.readInt();
+            for (int j = 0; j < size; j++) {
+              skip(in, in.readUnsignedShort());
+            }
+            skip(in, (long) in.readByte() * rowCount);
+            break;
+          case STRING:
+            skip(in, 4L * rowCount);
+            skip(in, in.readInt()); // offset[rowCount] is the length of ascii
+            break;
+          default:
+            throw new IllegalArgumentException("unknown encoding " + encoding);
+        }
+      }
+    }
+
+    /** Returns whether the {@code i}th column is integral. */
+    boolean isIntegral(int i) {
+      return integral[i];
+    }
+
+    /** Returns the smallest value of an integral column. */
+    long min(int i) {
+      return mins[i];
+    }
+
+    /** Returns the largest value of an integral column. */
+    long max(int i) {
+      return maxes[i];
+    }
+  }
+}
+
+// End ColumnarTable.java
@@ -0,0 +1,320 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the CSV files to the columnar format read by {@link ColumnarTable}.
+ *
+ * <p>Runs during the build (see {@code pom.xml}), writing one {@code .bin} file
+ * per table into the {@code columnar} directory of the class path, so that the
+ * files are packaged in the jar next to the CSV files.
+ *
+ * <p>Tables whose CSV file is not on the class path are skipped.
+ */
+public class ColumnarWriter {
+  private ColumnarWriter() {}
+
+  /**
+   * Writes a columnar file for each table.
+   *
+   * @param args Output directory
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      throw new IllegalArgumentException("usage: ColumnarWriter directory");
+    }
+    final File directory = new File(args[0]);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("cannot create directory " + directory);
+    }
+    for (FoodmartSchema.Table table : FoodmartSchema.tables()) {
+      final String csvPath = FoodmartHsqldb.tableUri(table.name);
+      try (InputStream is = ColumnarWriter.class.getResourceAsStream(csvPath)) {
+        if (is == null) {
+          System.err.println("ColumnarWriter: skipping " + csvPath);
+          continue;
+        }
+      }
+      final File file = new File(directory, table.name + ".bin");
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(file)))) {
+        write(table, out);
+      }
+    }
+  }
+
+  /** Reads a table's CSV file and writes it in columnar format. */
+  static void write(FoodmartSchema.Table table, DataOutputStream out)
+      throws IOException {
+    final List<String[]> rows = new ArrayList<>();
+    try (CsvTokenizer tokenizer =
+        StatementGenerator.open(
+            ColumnarWriter.class, FoodmartHsqldb.tableUri(table.name))) {
+      tokenizer.next(); // skip header
+      while (tokenizer.next()) {
+        final String[] row = new String[table.columns.size()];
+        for (int i = 0; i < row.length; i++) {
+          row[i] = tokenizer.isNull(i) ? null : tokenizer.getString(i);
+        }
+        rows.add(row);
+      }
+    }
+    out.writeInt(ColumnarTable.MAGIC);
+    out.writeInt(rows.size());
+    out.writeInt(table.columns.size());
+    for (FoodmartSchema.Column column : table.columns) {
+      writeColumn(column, rows, out);
+    }
+  }
+
+  private static void writeColumn(
+      FoodmartSchema.Column column, List<String[]> rows, DataOutputStream out)
+      throws IOException {
+    final int i = column.ordinal;
+    writeString(out, column.name);
+    out.writeInt(column.type);
+    out.writeInt(Math.max(column.scale, 0));
+    final byte encoding = encoding(column, rows);
+    out.writeByte(encoding);
+
+    // Null bitmap, if there are any nulls.
+    final long[] nulls = new long[(rows.size() + 63) / 64];
+    boolean hasNulls = false;
+    for (int r = 0; r < rows.size(); r++) {
+      if (rows.get(r)[i] == null) {
+        nulls[r >> 6] |= 1L << r;
+        hasNulls = true;
+      }
+    }
+    out.writeBoolean(hasNulls);
+    if (hasNulls) {
+      for (long word : nulls) {
+        out.writeLong(word);
+      }
+    }
+
+    switch (encoding) {
+      case ColumnarTable.INTEGRAL:
+        writeIntegral(column, rows, out);
+        break;
+      case ColumnarTable.FLOAT64:
+        for (String[] row : rows) {
+          out.writeDouble(row[i] == null ? 0 : Double.parseDouble(row[i]));
+        }
+        break;
+      case ColumnarTable.BOOL:
+        for (String[] row : rows) {
+          out.writeBoolean(row[i] != null && row[i].equalsIgnoreCase("TRUE"));
+        }
+        break;
+      case ColumnarTable.DICTIONARY:
+        writeDictionary(i, rows, out);
+        break;
+      default:
+        writeStrings(i, rows, out);
+        break;
+    }
+  }
+
+  /**
+   * Chooses an encoding for a column. String columns are dictionary-encoded if
+   * they have at most half as many distinct values as rows.
+   */
+  private static byte encoding(
+      FoodmartSchema.Column column, List<String[]> rows) {
+    switch (column.type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+      case Types.DATE:
+      case Types.TIMESTAMP:
+        return ColumnarTable.INTEGRAL;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return ColumnarTable.FLOAT64;
+      case Types.BOOLEAN:
+        return ColumnarTable.BOOL;
+      default:
+        final Map<String, Integer> distinct = new HashMap<>();
+        for (String[] row : rows) {
+          if (row[column.ordinal] != null) {
+            distinct.putIfAbsent(row[column.ordinal], distinct.size());
+          }
+        }
+        return distinct.size() * 2 <= rows.size()
+            ? ColumnarTable.DICTIONARY
+            : ColumnarTable.STRING;
+    }
+  }
+
+  /**
+   * Writes a column whose values can be represented as {@code long}, using the
+   * narrowest width that holds every value.
+   */
+  private static void writeIntegral(
+      FoodmartSchema.Column column, List<String[]> rows, DataOutputStream out)
+      throws IOException {
+    final long[] values = new long[rows.size()];
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int r = 0; r < values.length; r++) {
+      final String s = rows.get(r)[column.ordinal];
+      if (s != null) {
+        values[r] = toLong(column, s);
+        min = Math.min(min, values[r]);
+        max = Math.max(max, values[r]);
+      }
+    }
+    if (min > max) {
+      // All values are null.
+      min = max = 0;
+    }
+    final int width =
+        min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE
+            ? 1
+            : min >= Short.MIN_VALUE && max <= Short.MAX_VALUE
+                ? 2
+                : min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE ? 4 : 8;
+    out.writeByte(width);
+    out.writeLong(min);
+    out.writeLong(max);
+    for (long value : values) {
+      switch (width) {
+        case 1:
+          out.writeByte((int) value);
+          break;
+        case 2:
+          out.writeShort((int) value);
+          break;
+        case 4:
+          out.writeInt((int) value);
+          break;
+        default:
+          out.writeLong(value);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Converts a field to the {@code long} that represents it in the columnar
+   * format: its value if an integer, its unscaled value if a decimal, days
+   * since the epoch if a date, milliseconds since the epoch if a timestamp.
+   */
+  static long toLong(FoodmartSchema.Column column, String s) {
+    switch (column.type) {
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return new BigDecimal(s)
+            .setScale(column.scale)
+            .unscaledValue()
+            .longValueExact();
+      case Types.DATE:
+        return LocalDate.parse(s).toEpochDay();
+      case Types.TIMESTAMP:
+        return epochMillis(s);
+      default:
+        return Long.parseLong(s);
+    }
+  }
+
+  private static void writeDictionary(
+      int i, List<String[]> rows, DataOutputStream out) throws IOException {
+    final Map<String, Integer> codes = new HashMap<>();
+    final List<String> dictionary = new ArrayList<>();
+    for (String[] row : rows) {
+      if (row[i] != null && !codes.containsKey(row[i])) {
+        codes.put(row[i], dictionary.size());
+        dictionary.add(row[i]);
+      }
+    }
+    out.writeInt(dictionary.size());
+    for (String s : dictionary) {
+      writeString(out, s);
+    }
+    final int width =
+        dictionary.size() <= 0x100 ? 1 : dictionary.size() <= 0x10000 ? 2 : 4;
+    out.writeByte(width);
+    for (String[] row : rows) {
+      final int code = row[i] == null ? 0 : codes.get(row[i]);
+      if (width == 1) {
+        out.writeByte(code);
+      } else if (width == 2) {
+        out.writeShort(code);
+      } else {
+        out.writeInt(code);
+      }
+    }
+  }
+
+  private static void writeStrings(
+      int i, List<String[]> rows, DataOutputStream out) throws IOException {
+    int offset = 0;
+    out.writeInt(offset);
+    for (String[] row : rows) {
+      offset += row[i] == null ? 0 : row[i].length();
+      out.writeInt(offset);
+    }
+    for (String[] row : rows) {
+      if (row[i] != null) {
+        out.write(row[i].getBytes(StandardCharsets.US_ASCII));
+      }
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s)
+      throws IOException {
+    final byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Converts a timestamp literal to milliseconds since the epoch, treating it
+   * as a UTC time (so that the result does not depend on the time zone).
+   */
+  static long epochMillis(String s) {
+    return Timestamp.valueOf(s)
+        .toLocalDateTime()
+        .toInstant(ZoneOffset.UTC)
+        .toEpochMilli();
+  }
+}
+
+// End ColumnarWriter.java
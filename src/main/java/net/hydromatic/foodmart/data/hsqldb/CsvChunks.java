@@ -0,0 +1,178 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * The bytes of a CSV file, split into chunks that end at record boundaries, so
+ * that several threads can tokenize the file at once.
+ *
+ * <p>The split is quote-aware: a line break inside a quoted field is never a
+ * chunk boundary. Finding the boundaries takes one pass over the bytes, which
+ * is much cheaper than tokenizing them.
+ *
+ * <p>{@link #reader(int)} returns the header followed by a chunk, so a chunk
+ * can be read by anything that reads a whole CSV file, such as {@link
+ * StatementGenerator} and {@link RowGenerator}. The file is ASCII, and the
+ * reader widens each byte to a {@code char} without a {@link
+ * java.nio.charset.CharsetDecoder}.
+ */
+class CsvChunks {
+  /** Default size of a chunk, in bytes. */
+  static final int CHUNK_SIZE = 1 << 18;
+
+  private final byte[] bytes;
+  private final int length;
+  /** Length of the header record, including its line break. */
+  private final int headerEnd;
+  /** Chunk {@code i} is {@code [bounds[i], bounds[i + 1])}. */
+  private final int[] bounds;
+
+  CsvChunks(byte[] bytes, int length, int chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException(
+          "chunkSize must be positive: " + chunkSize);
+    }
+    this.bytes = bytes;
+    this.length = length;
+    int[] bounds = new int[16];
+    int count = 0;
+    int headerEnd = -1;
+    boolean inQuotes = false;
+    for (int i = 0; i < length; i++) {
+      final byte b = bytes[i];
+      if (b == '"') {
+        // An escaped quote "" toggles twice, so needs no special case.
+        inQuotes = !inQuotes;
+      } else if (b == '\n' && !inQuotes) {
+        if (headerEnd < 0) {
+          headerEnd = i + 1;
+          bounds[count++] = headerEnd;
+        } else if (i + 1 - bounds[count - 1] >= chunkSize) {
+          if (count == bounds.length) {
+            bounds = Arrays.copyOf(bounds, count * 2);
+          }
+          bounds[count++] = i + 1;
+        }
+      }
+    }
+    if (headerEnd < 0) {
+      // Header only, without a line break; no data.
+      headerEnd = length;
+      bounds[count++] = length;
+    }
+    if (bounds[count - 1] < length) {
+      if (count == bounds.length) {
+        bounds = Arrays.copyOf(bounds, count + 1);
+      }
+      bounds[count++] = length;
+    }
+    this.headerEnd = headerEnd;
+    this.bounds = Arrays.copyOf(bounds, Math.max(count, 2));
+    if (count < 2) {
+      this.bounds[1] = length; // one empty chunk
+    }
+  }
+
+  /** Reads a CSV resource and splits it into chunks. */
+  static CsvChunks of(Class<?> resourceClass, String csvPath, int chunkSize)
+      throws IOException {
+    try (InputStream in = resourceClass.getResourceAsStream(csvPath)) {
+      if (in == null) {
+        throw new IOException("CSV file not found: " + csvPath);
+      }
+      final Buffer out = new Buffer();
+      final byte[] chunk = new byte[1 << 16];
+      for (int n; (n = in.read(chunk)) > 0; ) {
+        out.write(chunk, 0, n);
+      }
+      return new CsvChunks(out.buf(), out.size(), chunkSize);
+    }
+  }
+
+  /** Returns the number of chunks. */
+  int count() {
+    return bounds.length - 1;
+  }
+
+  /** Returns the number of bytes in the file, including the header. */
+  int length() {
+    return length;
+  }
+
+  /** Returns a reader over the header followed by the {@code i}th chunk. */
+  Reader reader(int i) {
+    return new ChunkReader(bytes, headerEnd, bounds[i], bounds[i + 1]);
+  }
+
+  /** Output stream whose buffer can be used without copying. */
+  private static class Buffer extends ByteArrayOutputStream {
+    Buffer() {
+      super(1 << 16);
+    }
+
+    byte[] buf() {
+      return buf;
+    }
+  }
+
+  /**
+   * Reader over the header, bytes {@code [0, headerEnd)}, followed by bytes
+   * {@code [start, end)}; each byte is one ASCII character.
+   */
+  private static class ChunkReader extends Reader {
+    private final byte[] bytes;
+    private final int headerEnd;
+    private final int start;
+    private final int end;
+    private int pos;
+
+    ChunkReader(byte[] bytes, int headerEnd, int start, int end) {
+      this.bytes = bytes;
+      this.headerEnd = headerEnd;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      if (pos == headerEnd) {
+        pos = start;
+      }
+      final int limit = pos < headerEnd ? headerEnd : end;
+      final int n = Math.min(len, limit - pos);
+      if (n <= 0) {
+        return -1;
+      }
+      for (int i = 0; i < n; i++) {
+        cbuf[off + i] = (char) (bytes[pos + i] & 0xff);
+      }
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
+
+// End CsvChunks.java
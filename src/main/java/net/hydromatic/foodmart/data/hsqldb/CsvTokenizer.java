@@ -0,0 +1,481 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Splits CSV text into records and fields without allocating per record.
+ *
+ * <p>Each call to {@link #next()} reads one record. The characters of its
+ * fields, with enclosing quotes removed and {@code ""} escapes collapsed to
+ * {@code "}, are copied into a single buffer that is reused for every record.
+ * {@link #start(int)} and {@link #length(int)} locate a field within {@link
+ * #chars()}.
+ *
+ * <p>As in HSQLDB text tables, a field is null if it is empty and not quoted.
+ * Blank lines are skipped, and a quoted field may contain commas and line
+ * breaks.
+ */
+class CsvTokenizer implements Closeable {
+  /**
+   * Powers of ten; dividing a value from {@link #getUnscaled(int, int)} with
+   * scale {@code s} by {@code POWERS_OF_TEN[s]} gives its numeric value.
+   */
+  static final long[] POWERS_OF_TEN = {
+    1L,
+    10L,
+    100L,
+    1_000L,
+    10_000L,
+    100_000L,
+    1_000_000L,
+    10_000_000L,
+    100_000_000L,
+    1_000_000_000L
+  };
+
+  private Reader reader;
+  private final char[] in = new char[8192];
+  private int pos;
+  private int limit;
+  private char[] chars = new char[256];
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private boolean[] quoted = new boolean[16];
+  private int fieldCount;
+  /** Number of characters of {@link #chars} in use by the current record. */
+  private int used;
+  /** Number of characters read from the input. */
+  private long charsRead;
+  /** Time spent reading the input, including decompression, in nanoseconds. */
+  private long readNanos;
+
+  CsvTokenizer(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Reads the next record.
+   *
+   * @return whether a record was read; false at end of input
+   */
+  boolean next() throws IOException {
+    int c;
+    do {
+      c = read();
+      if (c < 0) {
+        return false;
+      }
+    } while (c == '\n' || c == '\r');
+
+    fieldCount = 0;
+    int n = 0;
+    startField(n);
+    boolean inQuotes = false;
+    for (; ; ) {
+      if (c < 0 || !inQuotes && (c == '\n' || c == '\r')) {
+        ends[fieldCount++] = n;
+        used = n;
+        return true;
+      }
+      if (inQuotes) {
+        if (c == '"') {
+          c = read();
+          if (c == '"') {
+            // Escaped quote, e.g. "a ""b"" c".
+            n = append(n, '"');
+            c = read();
+          } else {
+            inQuotes = false;
+          }
+          continue;
+        }
+        n = append(n, (char) c);
+      } else if (c == '"') {
+        inQuotes = true;
+        quoted[fieldCount] = true;
+      } else if (c == ',') {
+        ends[fieldCount++] = n;
+        startField(n);
+      } else {
+        n = append(n, (char) c);
+      }
+      c = read();
+    }
+  }
+
+  /**
+   * Closes the current input, and continues reading from another. The next call
+   * to {@link #next()} reads the first record of the new input.
+   */
+  void reset(Reader reader) throws IOException {
+    this.reader.close();
+    this.reader = reader;
+    this.pos = 0;
+    this.limit = 0;
+  }
+
+  /**
+   * Replaces the value of the {@code i}th field of the current record. If
+   * {@code value} is null, the field becomes null.
+   */
+  void setField(int i, String value) {
+    starts[i] = used;
+    quoted[i] = value != null;
+    if (value != null) {
+      for (int j = 0; j < value.length(); j++) {
+        used = append(used, value.charAt(j));
+      }
+    }
+    ends[i] = used;
+  }
+
+  /** Returns the number of fields in the current record. */
+  int fieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * Returns the buffer that holds the fields of the current record. The buffer
+   * is overwritten by the next call to {@link #next()}.
+   */
+  char[] chars() {
+    return chars;
+  }
+
+  /** Returns the offset in {@link #chars()} of the {@code i}th field. */
+  int start(int i) {
+    return starts[i];
+  }
+
+  /** Returns the number of characters in the {@code i}th field. */
+  int length(int i) {
+    return ends[i] - starts[i];
+  }
+
+  /** Returns whether the {@code i}th field is null. */
+  boolean isNull(int i) {
+    return ends[i] == starts[i] && !quoted[i];
+  }
+
+  /**
+   * Returns whether the {@code i}th field is equal to a given string, ignoring
+   * case.
+   */
+  boolean equalsIgnoreCase(int i, String s) {
+    final int start = starts[i];
+    if (ends[i] - start != s.length()) {
+      return false;
+    }
+    for (int j = 0; j < s.length(); j++) {
+      if (Character.toUpperCase(chars[start + j])
+          != Character.toUpperCase(s.charAt(j))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the {@code i}th field as an {@code int}.
+   *
+   * @throws NumberFormatException if the field is not an integer
+   */
+  int getInt(int i) {
+    final long v = getLong(i);
+    if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+      throw new NumberFormatException(getString(i));
+    }
+    return (int) v;
+  }
+
+  /**
+   * Returns the {@code i}th field as a {@code long}.
+   *
+   * @throws NumberFormatException if the field is not an integer
+   */
+  long getLong(int i) {
+    int j = starts[i];
+    final int end = ends[i];
+    final boolean negative = j < end && chars[j] == '-';
+    if (negative || j < end && chars[j] == '+') {
+      ++j;
+    }
+    if (j == end || end - j > 18) {
+      // Empty, or too many digits to be sure of no overflow.
+      return Long.parseLong(getString(i));
+    }
+    long v = 0;
+    for (; j < end; j++) {
+      final int d = chars[j] - '0';
+      if (d < 0 || d > 9) {
+        throw new NumberFormatException(getString(i));
+      }
+      v = v * 10 + d;
+    }
+    return negative ? -v : v;
+  }
+
+  /**
+   * Returns the {@code i}th field, a decimal number, as an unscaled {@code
+   * long} with a given scale. For example, if the field is "1.5" and the scale
+   * is 4, returns 15000.
+   *
+   * @throws NumberFormatException if the field is not a number
+   * @throws ArithmeticException if the field has more than {@code scale}
+   *     non-zero decimal places, or the result does not fit in a {@code long}
+   */
+  long getUnscaled(int i, int scale) {
+    int j = starts[i];
+    final int end = ends[i];
+    final boolean negative = j < end && chars[j] == '-';
+    if (negative || j < end && chars[j] == '+') {
+      ++j;
+    }
+    long v = 0;
+    int digits = 0; // number of digits in v, including leading zeros
+    int decimals = -1; // number of decimal places in v; -1 if no point yet
+    boolean empty = true;
+    for (; j < end; j++) {
+      final char c = chars[j];
+      if (c == '.' && decimals < 0) {
+        decimals = 0;
+        continue;
+      }
+      final int d = c - '0';
+      if (d < 0 || d > 9) {
+        // Exponent, or not a number; BigDecimal will deal with it.
+        return slowUnscaled(i, scale);
+      }
+      empty = false;
+      if (decimals == scale) {
+        if (d != 0) {
+          return slowUnscaled(i, scale); // throws ArithmeticException
+        }
+        continue; // trailing zero beyond the scale
+      }
+      if (decimals >= 0) {
+        ++decimals;
+      }
+      if (++digits > 18) {
+        return slowUnscaled(i, scale);
+      }
+      v = v * 10 + d;
+    }
+    if (empty) {
+      throw new NumberFormatException(getString(i));
+    }
+    for (int k = Math.max(decimals, 0); k < scale; k++) {
+      if (++digits > 18) {
+        return slowUnscaled(i, scale);
+      }
+      v *= 10;
+    }
+    return negative ? -v : v;
+  }
+
+  private long slowUnscaled(int i, int scale) {
+    return getBigDecimal(i).setScale(scale).unscaledValue().longValueExact();
+  }
+
+  /**
+   * Returns the {@code i}th field, a date ({@code yyyy-mm-dd}) or timestamp
+   * ({@code yyyy-mm-dd hh:mm:ss[.f...]}), as milliseconds since the epoch, as
+   * if it were in UTC.
+   *
+   * @throws IllegalArgumentException if the field is not a date or timestamp
+   */
+  long getEpochMillis(int i) {
+    final int start = starts[i];
+    final int length = ends[i] - start;
+    if (length < 10 || chars[start + 4] != '-' || chars[start + 7] != '-') {
+      throw new IllegalArgumentException("not a date: " + getString(i));
+    }
+    long millis =
+        epochDay(
+                digits(i, start, 4),
+                digits(i, start + 5, 2),
+                digits(i, start + 8, 2))
+            * 86_400_000L;
+    if (length == 10) {
+      return millis;
+    }
+    if (length < 19
+        || chars[start + 10] != ' ' && chars[start + 10] != 'T'
+        || chars[start + 13] != ':'
+        || chars[start + 16] != ':') {
+      throw new IllegalArgumentException("not a timestamp: " + getString(i));
+    }
+    millis +=
+        digits(i, start + 11, 2) * 3_600_000L
+            + digits(i, start + 14, 2) * 60_000L
+            + digits(i, start + 17, 2) * 1_000L;
+    if (length > 19) {
+      if (chars[start + 19] != '.') {
+        throw new IllegalArgumentException("not a timestamp: " + getString(i));
+      }
+      // Milliseconds are the first three digits of the fraction.
+      final int n = Math.min(length - 20, 3);
+      long fraction = n == 0 ? 0 : digits(i, start + 20, n);
+      for (int k = n; k < 3; k++) {
+        fraction *= 10;
+      }
+      digits(i, start + 20, length - 20); // validate
+      millis += fraction;
+    }
+    return millis;
+  }
+
+  /** Parses {@code n} decimal digits starting at {@code j}. */
+  private int digits(int i, int j, int n) {
+    int v = 0;
+    for (int k = j; k < j + n; k++) {
+      final int d = chars[k] - '0';
+      if (d < 0 || d > 9) {
+        throw new IllegalArgumentException("invalid digit: " + getString(i));
+      }
+      v = v * 10 + d;
+    }
+    return v;
+  }
+
+  /**
+   * Returns the number of days since 1970-01-01 of a date in the proleptic
+   * Gregorian calendar. Same as {@code LocalDate.of(y, m, d).toEpochDay()}, but
+   * does not allocate.
+   */
+  static long epochDay(int y, int m, int d) {
+    if (m <= 2) {
+      --y;
+    }
+    final long era = Math.floorDiv(y, 400);
+    final long yearOfEra = y - era * 400;
+    final long dayOfYear = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + d - 1;
+    final long dayOfEra =
+        yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /** Returns the {@code i}th field as a {@link BigDecimal}. */
+  BigDecimal getBigDecimal(int i) {
+    return new BigDecimal(chars, starts[i], ends[i] - starts[i]);
+  }
+
+  /**
+   * Returns the {@code i}th field as a Java object of the type that corresponds
+   * to a given {@link Types} code, or null.
+   */
+  Object getObject(int i, int type) {
+    if (isNull(i)) {
+      return null;
+    }
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+        return (short) getInt(i);
+      case Types.INTEGER:
+        return getInt(i);
+      case Types.BIGINT:
+        return getLong(i);
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return getBigDecimal(i);
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return Double.parseDouble(getString(i));
+      case Types.BOOLEAN:
+        return equalsIgnoreCase(i, "TRUE");
+      case Types.DATE:
+        return Date.valueOf(getString(i));
+      case Types.TIMESTAMP:
+        return Timestamp.valueOf(getString(i));
+      default:
+        return getString(i);
+    }
+  }
+
+  /** Returns the {@code i}th field as a string. Allocates. */
+  String getString(int i) {
+    return new String(chars, starts[i], ends[i] - starts[i]);
+  }
+
+  /**
+   * Returns the number of characters read from the input so far. The data is
+   * ASCII, so this is also the number of bytes.
+   */
+  long charsRead() {
+    return charsRead;
+  }
+
+  /**
+   * Returns the time spent reading the input so far, in nanoseconds. Includes
+   * decompressing the resource, if it is in a jar, but not tokenizing.
+   */
+  long readNanos() {
+    return readNanos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private int read() throws IOException {
+    if (pos == limit) {
+      final long start = System.nanoTime();
+      limit = reader.read(in, 0, in.length);
+      readNanos += System.nanoTime() - start;
+      pos = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+      charsRead += limit;
+    }
+    return in[pos++];
+  }
+
+  private int append(int n, char c) {
+    if (n == chars.length) {
+      chars = Arrays.copyOf(chars, n * 2);
+    }
+    chars[n] = c;
+    return n + 1;
+  }
+
+  private void startField(int n) {
+    if (fieldCount == starts.length) {
+      final int size = fieldCount * 2;
+      starts = Arrays.copyOf(starts, size);
+      ends = Arrays.copyOf(ends, size);
+      quoted = Arrays.copyOf(quoted, size);
+    }
+    starts[fieldCount] = n;
+    quoted[fieldCount] = false;
+  }
+}
+
+// End CsvTokenizer.java
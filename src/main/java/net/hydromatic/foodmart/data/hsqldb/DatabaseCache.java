@@ -0,0 +1,301 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Cache of the Foodmart database in HSQLDB's file format, in a local directory.
+ *
+ * <p>Opening {@link FoodmartHsqldb#URI} reads every CSV file and builds every
+ * table and index. The cache does that once, and writes the result as a
+ * database of {@code CACHED} tables; later JVMs open the files read-only, which
+ * takes milliseconds because {@code CACHED} tables are read from disk on
+ * demand.
+ *
+ * <p>Each database is in a sub-directory whose name is a key made of the
+ * version of this library, the version of HSQLDB, and a checksum of {@code
+ * foodmart.script} and the CSV files, plus the {@link IndexProfile} unless it
+ * is the default. If any of those change, the key changes, and the database is
+ * built again in a new sub-directory. Old sub-directories are not removed,
+ * because another JVM may be using them; it is safe to delete them when no JVM
+ * is running.
+ *
+ * <p>The database is built in a temporary directory and moved into place when
+ * complete, while holding an exclusive lock on a file in the cache directory.
+ * So if several JVMs (or threads) need the database at the same time, one of
+ * them builds it and the others wait.
+ */
+class DatabaseCache {
+  /** System property that overrides the default cache directory. */
+  static final String DIRECTORY_PROPERTY = "foodmart.cache.dir";
+
+  /** Name of the file that marks a complete database. */
+  private static final String COMPLETE = "complete";
+
+  private static final Map<List<String>, String> KEYS = new HashMap<>();
+
+  private DatabaseCache() {}
+
+  /**
+   * Returns the default cache directory: the value of the system property
+   * {@code foodmart.cache.dir} if set, otherwise {@code
+   * ~/.cache/foodmart-data-hsqldb}.
+   */
+  static Path defaultDirectory() {
+    final String dir = System.getProperty(DIRECTORY_PROPERTY);
+    if (dir != null) {
+      return Paths.get(dir);
+    }
+    return Paths.get(
+        System.getProperty("user.home"), ".cache", "foodmart-data-hsqldb");
+  }
+
+  /**
+   * Returns the JDBC URI of the cached database in a given directory, building
+   * it first if necessary.
+   */
+  static String uri(Path directory) throws SQLException {
+    return uri(directory, FoodmartHsqldb.tableNames());
+  }
+
+  /**
+   * Returns the JDBC URI of a cached database that contains a given list of
+   * tables, building it first if necessary.
+   */
+  static String uri(Path directory, List<String> tableNames)
+      throws SQLException {
+    return uri(directory, tableNames, IndexProfile.DEFAULT);
+  }
+
+  /**
+   * Returns the JDBC URI of a cached database that contains a given list of
+   * tables and a given set of indexes, building it first if necessary.
+   */
+  static String uri(
+      Path directory, List<String> tableNames, IndexProfile indexProfile)
+      throws SQLException {
+    String key = key(tableNames);
+    if (indexProfile != IndexProfile.DEFAULT) {
+      key += "-" + indexProfile.name().toLowerCase(Locale.ROOT);
+    }
+    final Path dir = directory.resolve(key);
+    if (!Files.exists(dir.resolve(COMPLETE))) {
+      try {
+        build(directory, dir, tableNames, indexProfile);
+      } catch (IOException e) {
+        throw new SQLException("Error building Foodmart cache in " + dir, e);
+      }
+    }
+    return "jdbc:hsqldb:file:"
+        + dir.resolve("foodmart").toAbsolutePath()
+        + ";files_readonly=true";
+  }
+
+  /** Builds the database, unless another thread or JVM has just built it. */
+  private static synchronized void build(
+      Path directory,
+      Path dir,
+      List<String> tableNames,
+      IndexProfile indexProfile)
+      throws IOException, SQLException {
+    Files.createDirectories(directory);
+    try (FileChannel channel =
+            FileChannel.open(
+                directory.resolve("lock"),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock ignore = channel.lock()) {
+      if (Files.exists(dir.resolve(COMPLETE))) {
+        return; // another JVM built it while we waited for the lock
+      }
+      final Path tmp = directory.resolve(dir.getFileName() + ".tmp");
+      delete(tmp);
+      Files.createDirectories(tmp);
+      try (Connection connection =
+              DriverManager.getConnection(
+                  "jdbc:hsqldb:file:"
+                      + tmp.resolve("foodmart").toAbsolutePath(),
+                  FoodmartHsqldb.USER,
+                  FoodmartHsqldb.PASSWORD);
+          Statement statement = connection.createStatement()) {
+        // Writing CACHED tables is slow, but reading them is fast. Creating
+        // the indexes before loading, with no log and a cache large enough to
+        // hold the largest table, is the fastest way that we know to build
+        // them.
+        statement.execute("SET FILES LOG FALSE");
+        statement.execute("SET FILES CACHE ROWS 1000000");
+        statement.execute("SET FILES CACHE SIZE 1000000");
+        statement.execute("SET FILES NIO SIZE 1024");
+        statement.execute("SET DATABASE DEFAULT TABLE TYPE CACHED");
+        statement.execute("CREATE SCHEMA \"foodmart\"");
+        statement.execute("SET DATABASE DEFAULT INITIAL SCHEMA \"foodmart\"");
+        final Set<String> loadTables = new LinkedHashSet<>();
+        for (String tableName : tableNames) {
+          final FoodmartSchema.Table table = FoodmartSchema.table(tableName);
+          statement.execute(table.createTableSql("foodmart"));
+          for (FoodmartSchema.Index index : indexProfile.indexes(table)) {
+            statement.execute(index.createIndexSql("foodmart"));
+          }
+          // Like the text tables at FoodmartHsqldb.URI, a table whose CSV file
+          // is missing is empty.
+          if (FoodmartHsqldb.class.getResource(
+                  FoodmartHsqldb.tableUri(tableName))
+              != null) {
+            loadTables.add(tableName);
+          }
+        }
+        FoodmartHsqldb.load(
+            connection,
+            LoadOptions.DEFAULT.withSchema("foodmart").withTables(loadTables));
+        statement.execute("SHUTDOWN");
+      }
+      Files.createFile(tmp.resolve(COMPLETE));
+      delete(dir);
+      Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+
+  /** Deletes a directory and its contents, if it exists. */
+  static void delete(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    Files.walkFileTree(
+        path,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.delete(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException e)
+              throws IOException {
+            Files.delete(dir);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  /**
+   * Returns the cache key of a database that contains a given list of tables,
+   * for example {@code "0.7-hsqldb-2.7.4-1a2b3c4d"}. Computed once per JVM.
+   */
+  static String key(List<String> tableNames) throws SQLException {
+    synchronized (KEYS) {
+      String key = KEYS.get(tableNames);
+      if (key == null) {
+        key =
+            version()
+                + "-hsqldb-"
+                + hsqldbVersion()
+                + "-"
+                + checksum(tableNames);
+        KEYS.put(tableNames, key);
+      }
+      return key;
+    }
+  }
+
+  /**
+   * Returns the version of this library, or "dev" if not running from a jar.
+   */
+  static String version() {
+    try (InputStream is =
+        DatabaseCache.class.getResourceAsStream(
+            "/META-INF/maven/net.hydromatic/foodmart-data-hsqldb/"
+                + "pom.properties")) {
+      if (is != null) {
+        final Properties properties = new Properties();
+        properties.load(is);
+        return properties.getProperty("version", "dev");
+      }
+    } catch (IOException e) {
+      // fall through
+    }
+    return "dev";
+  }
+
+  /** Returns the version of HSQLDB, for example "2.7.4". */
+  static String hsqldbVersion() throws SQLException {
+    final Driver driver = DriverManager.getDriver(FoodmartHsqldb.URI);
+    final String version =
+        driver.getClass().getPackage().getImplementationVersion();
+    return version != null
+        ? version
+        : driver.getMajorVersion() + "." + driver.getMinorVersion();
+  }
+
+  /**
+   * Returns a checksum of {@code foodmart.script}, and the names and CSV files
+   * of the tables.
+   */
+  private static String checksum(List<String> tableNames) {
+    final CRC32 crc = new CRC32();
+    final byte[] buf = new byte[1 << 16];
+    checksum(crc, buf, "/foodmart.script");
+    for (String tableName : tableNames) {
+      checksum(crc, buf, FoodmartHsqldb.tableUri(tableName));
+    }
+    return String.format("%08x", crc.getValue());
+  }
+
+  private static void checksum(CRC32 crc, byte[] buf, String resource) {
+    crc.update(resource.getBytes(StandardCharsets.US_ASCII));
+    try (InputStream is = DatabaseCache.class.getResourceAsStream(resource)) {
+      if (is == null) {
+        return;
+      }
+      for (int n; (n = is.read(buf)) > 0; ) {
+        crc.update(buf, 0, n);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
+
+// End DatabaseCache.java
@@ -0,0 +1,736 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the aggregate tables ({@code agg_*_sales_fact_1997}) from {@code
+ * sales_fact_1997} and its dimension tables, instead of reading their CSV
+ * files.
+ *
+ * <p>The fact table is tokenized in parallel, one {@link CsvChunks chunk} per
+ * task, into primitive arrays. Each dimension attribute (such as {@code
+ * quarter} or {@code gender}) is dictionary-coded and joined to the fact rows
+ * once, giving an {@code int} code per fact row. Then each aggregate table is a
+ * hash aggregation on its own fork-join task: the group key packs the codes of
+ * the table's attributes into a {@code long}, and an open-addressing hash table
+ * maps keys to group ordinals.
+ *
+ * <p>What to compute is inferred from the column names of each aggregate table:
+ * a column of the fact table or a dimension attribute is a grouping column;
+ * {@code store_sales}, {@code store_cost} and {@code unit_sales} (optionally
+ * with a {@code _sum} suffix) are sums; {@code customer_count} is the number of
+ * distinct customers; and {@code fact_count} is the number of fact rows.
+ *
+ * <p>The result of {@link #tokenizer(String)} is formatted as CSV, so that it
+ * can replace the table's CSV file in {@link Loader} and {@link
+ * ParallelLoader}. {@link #verify()} compares the derived tables with the
+ * shipped CSV files.
+ */
+class DerivedAggregates {
+  /** The fact table that the aggregate tables summarize. */
+  static final String FACT_TABLE = "sales_fact_1997";
+
+  /** Names of the aggregate tables, in the order of the schema. */
+  static final Set<String> TABLES;
+
+  static {
+    final Set<String> tables = new LinkedHashSet<>();
+    for (String tableName : FoodmartHsqldb.tableNames()) {
+      if (tableName.startsWith("agg_") && tableName.endsWith(FACT_TABLE)) {
+        tables.add(tableName);
+      }
+    }
+    TABLES = Collections.unmodifiableSet(tables);
+  }
+
+  /**
+   * Dimension attributes, and the table, key and column that each comes from.
+   */
+  private static final Map<String, String[]> ATTRIBUTES = new HashMap<>();
+
+  static {
+    for (String column :
+        new String[] {"month_of_year", "quarter", "the_year"}) {
+      ATTRIBUTES.put(column, new String[] {"time_by_day", "time_id", column});
+    }
+    ATTRIBUTES.put(
+        "time_month", new String[] {"time_by_day", "time_id", "month_of_year"});
+    ATTRIBUTES.put(
+        "time_quarter", new String[] {"time_by_day", "time_id", "quarter"});
+    ATTRIBUTES.put(
+        "time_year", new String[] {"time_by_day", "time_id", "the_year"});
+    for (String column :
+        new String[] {
+          "gender", "marital_status", "city", "state_province", "country"
+        }) {
+      ATTRIBUTES.put(column, new String[] {"customer", "customer_id", column});
+    }
+    for (String column :
+        new String[] {
+          "product_family", "product_department", "product_category"
+        }) {
+      ATTRIBUTES.put(
+          column, new String[] {"product_class", "product_class_id", column});
+    }
+  }
+
+  /** Scale of the measures, in the fact table and the aggregate tables. */
+  private static final int SCALE = 4;
+
+  /** Formatted contents of each derived table, header first. */
+  private final Map<String, String> csvMap;
+
+  private DerivedAggregates(Map<String, String> csvMap) {
+    this.csvMap = csvMap;
+  }
+
+  /** Derives all aggregate tables. */
+  static DerivedAggregates derive() {
+    return derive(TABLES);
+  }
+
+  /** Derives the given aggregate tables. */
+  static DerivedAggregates derive(Collection<String> tableNames) {
+    for (String tableName : tableNames) {
+      if (!TABLES.contains(tableName)) {
+        throw new IllegalArgumentException(
+            "not an aggregate table: " + tableName);
+      }
+    }
+    final Facts facts = Facts.read();
+    final Map<String, String> csvMap = new ConcurrentHashMap<>();
+    tableNames
+        .parallelStream()
+        .forEach(
+            tableName -> csvMap.put(tableName, aggregate(facts, tableName)));
+    return new DerivedAggregates(csvMap);
+  }
+
+  /**
+   * Returns a tokenizer factory that derives aggregate tables the first time
+   * one is requested, and delegates other tables to {@code factory}.
+   *
+   * @param factory Opens a tokenizer on the CSV file of a table
+   * @param tableNames Aggregate tables to derive on first use
+   */
+  static Function<String, CsvTokenizer> tokenizerFactory(
+      Function<String, CsvTokenizer> factory, Collection<String> tableNames) {
+    final DerivedAggregates[] holder = {null};
+    return tableName -> {
+      if (!tableNames.contains(tableName)) {
+        return factory.apply(tableName);
+      }
+      final DerivedAggregates aggregates;
+      synchronized (holder) {
+        if (holder[0] == null) {
+          holder[0] = derive(tableNames);
+        }
+        aggregates = holder[0];
+      }
+      return aggregates.tokenizer(tableName);
+    };
+  }
+
+  /** Returns the names of the derived tables. */
+  Set<String> tableNames() {
+    return csvMap.keySet();
+  }
+
+  /** Returns the derived contents of a table, as CSV. */
+  String csv(String tableName) {
+    final String csv = csvMap.get(tableName);
+    if (csv == null) {
+      throw new IllegalArgumentException("table not derived: " + tableName);
+    }
+    return csv;
+  }
+
+  /** Opens a tokenizer on a derived table, starting with the header. */
+  CsvTokenizer tokenizer(String tableName) {
+    return new CsvTokenizer(new StringReader(csv(tableName)));
+  }
+
+  /**
+   * Compares each derived table with its shipped CSV file, ignoring the order
+   * of rows, and returns a description of each difference; an empty list if
+   * they are the same.
+   */
+  List<String> verify() {
+    final List<String> differences = new ArrayList<>();
+    for (String tableName : csvMap.keySet()) {
+      final List<Integer> types = FoodmartSchema.table(tableName).columnTypes();
+      final List<List<Object>> expected;
+      final List<List<Object>> actual;
+      try (CsvTokenizer shipped =
+              StatementGenerator.open(
+                  FoodmartHsqldb.class, FoodmartHsqldb.tableUri(tableName));
+          CsvTokenizer derived = tokenizer(tableName)) {
+        expected = rows(shipped, types);
+        actual = rows(derived, types);
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading table " + tableName, e);
+      }
+      if (!expected.get(0).equals(actual.get(0))) {
+        differences.add(
+            tableName
+                + ": header "
+                + actual.get(0)
+                + ", expected "
+                + expected.get(0));
+        continue;
+      }
+      if (expected.size() != actual.size()) {
+        differences.add(
+            tableName
+                + ": "
+                + (actual.size() - 1)
+                + " rows, expected "
+                + (expected.size() - 1));
+      }
+      final RowComparator rowComparator = new RowComparator();
+      final List<List<Object>> e = expected.subList(1, expected.size());
+      final List<List<Object>> a = actual.subList(1, actual.size());
+      e.sort(rowComparator);
+      a.sort(rowComparator);
+      for (int i = 0, j = 0; i < e.size() || j < a.size(); ) {
+        final int c =
+            i == e.size()
+                ? 1
+                : j == a.size()
+                    ? -1
+                    : rowComparator.compare(e.get(i), a.get(j));
+        if (c == 0) {
+          ++i;
+          ++j;
+          continue;
+        }
+        if (differences.size() >= 100) {
+          differences.add("...");
+          return differences;
+        }
+        if (c < 0) {
+          differences.add(tableName + ": missing row " + e.get(i++));
+        } else {
+          differences.add(tableName + ": extra row " + a.get(j++));
+        }
+      }
+    }
+    return differences;
+  }
+
+  /** Reads the header and the typed values of each row of a CSV file. */
+  private static List<List<Object>> rows(
+      CsvTokenizer tokenizer, List<Integer> types) throws IOException {
+    final List<List<Object>> rows = new ArrayList<>();
+    tokenizer.next();
+    final List<Object> header = new ArrayList<>();
+    for (int i = 0; i < tokenizer.fieldCount(); i++) {
+      header.add(tokenizer.getString(i));
+    }
+    rows.add(header);
+    while (tokenizer.next()) {
+      final List<Object> row = new ArrayList<>(types.size());
+      for (int i = 0; i < types.size(); i++) {
+        final Object o = tokenizer.getObject(i, types.get(i));
+        // Compare decimals by value, so that 1.5 equals 1.5000.
+        row.add(
+            o instanceof BigDecimal
+                ? ((BigDecimal) o).setScale(SCALE, RoundingMode.UNNECESSARY)
+                : o);
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  /** Computes an aggregate table, and formats it as CSV. */
+  private static String aggregate(Facts facts, String tableName) {
+    final FoodmartSchema.Table table = FoodmartSchema.table(tableName);
+    final List<Attribute> keys = new ArrayList<>();
+    final List<Measure> measures = new ArrayList<>();
+    final List<Object> columns = new ArrayList<>();
+    int bits = 0;
+    for (FoodmartSchema.Column column : table.columns) {
+      final Measure measure = Measure.of(column.name);
+      if (measure != null) {
+        measures.add(measure);
+        columns.add(measure);
+        continue;
+      }
+      final Attribute attribute = facts.attribute(column.name);
+      if (attribute == null) {
+        throw new IllegalArgumentException(
+            "cannot derive column: " + tableName + "." + column.name);
+      }
+      keys.add(attribute);
+      columns.add(attribute);
+      bits += attribute.bits;
+    }
+    if (bits > 63) {
+      throw new IllegalArgumentException(
+          "key of " + tableName + " needs " + bits + " bits");
+    }
+
+    // Hash aggregation. Each group remembers its first fact row, from which
+    // its attribute values are formatted.
+    final int n = facts.rowCount;
+    final LongIntMap groups = new LongIntMap(1024);
+    int[] firstRows = new int[1024];
+    long[][] sums = new long[Measure.values().length][1024];
+    final int distinct = measures.indexOf(Measure.CUSTOMER_COUNT);
+    final LongIntMap customers = distinct < 0 ? null : new LongIntMap(1024);
+    final long customerCount = facts.maxCustomer + 1L;
+    int groupCount = 0;
+    for (int r = 0; r < n; r++) {
+      long key = 0;
+      for (Attribute attribute : keys) {
+        key = (key << attribute.bits) | attribute.codes[r];
+      }
+      int g = groups.putIfAbsent(key, groupCount);
+      if (g < 0) {
+        g = groupCount++;
+        if (g == firstRows.length) {
+          firstRows = Arrays.copyOf(firstRows, g * 2);
+          for (int m = 0; m < sums.length; m++) {
+            sums[m] = Arrays.copyOf(sums[m], g * 2);
+          }
+        }
+        firstRows[g] = r;
+      }
+      sums[Measure.STORE_SALES.ordinal()][g] += facts.storeSales[r];
+      sums[Measure.STORE_COST.ordinal()][g] += facts.storeCost[r];
+      sums[Measure.UNIT_SALES.ordinal()][g] += facts.unitSales[r];
+      sums[Measure.FACT_COUNT.ordinal()][g]++;
+      if (customers != null
+          && customers.putIfAbsent(g * customerCount + facts.customer[r], 0)
+              < 0) {
+        sums[Measure.CUSTOMER_COUNT.ordinal()][g]++;
+      }
+    }
+
+    // Format as CSV.
+    final StringBuilder b = new StringBuilder(groupCount * 64);
+    for (FoodmartSchema.Column column : table.columns) {
+      if (column.ordinal > 0) {
+        b.append(',');
+      }
+      b.append(column.name);
+    }
+    b.append('\n');
+    for (int g = 0; g < groupCount; g++) {
+      final int r = firstRows[g];
+      for (int i = 0; i < columns.size(); i++) {
+        if (i > 0) {
+          b.append(',');
+        }
+        final Object column = columns.get(i);
+        if (column instanceof Attribute) {
+          ((Attribute) column).append(b, r);
+        } else {
+          final Measure measure = (Measure) column;
+          final long value = sums[measure.ordinal()][g];
+          if (measure.decimal) {
+            appendDecimal(b, value);
+          } else {
+            b.append(value);
+          }
+        }
+      }
+      b.append('\n');
+    }
+    return b.toString();
+  }
+
+  /** Appends an unscaled decimal with {@link #SCALE} decimal places. */
+  private static void appendDecimal(StringBuilder b, long unscaled) {
+    if (unscaled < 0) {
+      b.append('-');
+      unscaled = -unscaled;
+    }
+    final long divisor = 10_000L;
+    final long fraction = unscaled % divisor;
+    b.append(unscaled / divisor).append('.');
+    for (long d = divisor / 10; d > 1 && fraction < d; d /= 10) {
+      b.append('0');
+    }
+    b.append(fraction);
+  }
+
+  /** Aggregate function of a column of an aggregate table. */
+  private enum Measure {
+    STORE_SALES(true),
+    STORE_COST(true),
+    UNIT_SALES(true),
+    CUSTOMER_COUNT(false),
+    FACT_COUNT(false);
+
+    final boolean decimal;
+
+    Measure(boolean decimal) {
+      this.decimal = decimal;
+    }
+
+    /** Returns the measure computed by a column, or null if it is a key. */
+    static Measure of(String columnName) {
+      switch (columnName) {
+        case "store_sales":
+        case "store_sales_sum":
+          return STORE_SALES;
+        case "store_cost":
+        case "store_cost_sum":
+          return STORE_COST;
+        case "unit_sales":
+        case "unit_sales_sum":
+          return UNIT_SALES;
+        case "customer_count":
+          return CUSTOMER_COUNT;
+        case "fact_count":
+          return FACT_COUNT;
+        default:
+          return null;
+      }
+    }
+  }
+
+  /**
+   * Grouping column, with its code for each fact row.
+   *
+   * <p>If {@code dictionary} is null, the code is the value (a foreign key of
+   * the fact table); otherwise it indexes into the dictionary, and 0 means
+   * null.
+   */
+  private static class Attribute {
+    final int[] codes;
+    final List<String> dictionary;
+    /** Number of bits needed to represent any code. */
+    final int bits;
+
+    Attribute(int[] codes, List<String> dictionary) {
+      this.codes = codes;
+      this.dictionary = dictionary;
+      int max = 0;
+      for (int code : codes) {
+        max = Math.max(max, code);
+      }
+      this.bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(max));
+    }
+
+    void append(StringBuilder b, int row) {
+      final int code = codes[row];
+      if (dictionary == null) {
+        b.append(code);
+      } else if (code != 0) {
+        b.append(dictionary.get(code));
+      }
+    }
+  }
+
+  /** Rows of the fact table, as primitive arrays, and their attributes. */
+  private static class Facts {
+    final int rowCount;
+    final int[] product;
+    final int[] time;
+    final int[] customer;
+    final int[] promotion;
+    final int[] store;
+    final long[] storeSales;
+    final long[] storeCost;
+    final long[] unitSales;
+    final int maxCustomer;
+    /** Attributes, created on first use; guarded by "this". */
+    private final Map<String, Attribute> attributes = new HashMap<>();
+    /** Product class of each product; created on first use. */
+    private int[] productClass;
+
+    private Facts(List<Facts> chunks) {
+      int n = 0;
+      for (Facts chunk : chunks) {
+        n += chunk.rowCount;
+      }
+      rowCount = n;
+      product = new int[n];
+      time = new int[n];
+      customer = new int[n];
+      promotion = new int[n];
+      store = new int[n];
+      storeSales = new long[n];
+      storeCost = new long[n];
+      unitSales = new long[n];
+      int offset = 0;
+      int maxCustomer = 0;
+      for (Facts chunk : chunks) {
+        final int k = chunk.rowCount;
+        System.arraycopy(chunk.product, 0, product, offset, k);
+        System.arraycopy(chunk.time, 0, time, offset, k);
+        System.arraycopy(chunk.customer, 0, customer, offset, k);
+        System.arraycopy(chunk.promotion, 0, promotion, offset, k);
+        System.arraycopy(chunk.store, 0, store, offset, k);
+        System.arraycopy(chunk.storeSales, 0, storeSales, offset, k);
+        System.arraycopy(chunk.storeCost, 0, storeCost, offset, k);
+        System.arraycopy(chunk.unitSales, 0, unitSales, offset, k);
+        maxCustomer = Math.max(maxCustomer, chunk.maxCustomer);
+        offset += k;
+      }
+      this.maxCustomer = maxCustomer;
+    }
+
+    /** Tokenizes one chunk of the fact table. */
+    private Facts(CsvTokenizer tokenizer, FoodmartSchema.Table table)
+        throws IOException {
+      final int productOrdinal = table.column("product_id").ordinal;
+      final int timeOrdinal = table.column("time_id").ordinal;
+      final int customerOrdinal = table.column("customer_id").ordinal;
+      final int promotionOrdinal = table.column("promotion_id").ordinal;
+      final int storeOrdinal = table.column("store_id").ordinal;
+      final int storeSalesOrdinal = table.column("store_sales").ordinal;
+      final int storeCostOrdinal = table.column("store_cost").ordinal;
+      final int unitSalesOrdinal = table.column("unit_sales").ordinal;
+      int capacity = 1024;
+      int[] product = new int[capacity];
+      int[] time = new int[capacity];
+      int[] customer = new int[capacity];
+      int[] promotion = new int[capacity];
+      int[] store = new int[capacity];
+      long[] storeSales = new long[capacity];
+      long[] storeCost = new long[capacity];
+      long[] unitSales = new long[capacity];
+      int n = 0;
+      int maxCustomer = 0;
+      tokenizer.next(); // skip header
+      while (tokenizer.next()) {
+        if (n == capacity) {
+          capacity *= 2;
+          product = Arrays.copyOf(product, capacity);
+          time = Arrays.copyOf(time, capacity);
+          customer = Arrays.copyOf(customer, capacity);
+          promotion = Arrays.copyOf(promotion, capacity);
+          store = Arrays.copyOf(store, capacity);
+          storeSales = Arrays.copyOf(storeSales, capacity);
+          storeCost = Arrays.copyOf(storeCost, capacity);
+          unitSales = Arrays.copyOf(unitSales, capacity);
+        }
+        product[n] = tokenizer.getInt(productOrdinal);
+        time[n] = tokenizer.getInt(timeOrdinal);
+        customer[n] = tokenizer.getInt(customerOrdinal);
+        promotion[n] = tokenizer.getInt(promotionOrdinal);
+        store[n] = tokenizer.getInt(storeOrdinal);
+        storeSales[n] = tokenizer.getUnscaled(storeSalesOrdinal, SCALE);
+        storeCost[n] = tokenizer.getUnscaled(storeCostOrdinal, SCALE);
+        unitSales[n] = tokenizer.getUnscaled(unitSalesOrdinal, SCALE);
+        maxCustomer = Math.max(maxCustomer, customer[n]);
+        ++n;
+      }
+      this.rowCount = n;
+      this.product = product;
+      this.time = time;
+      this.customer = customer;
+      this.promotion = promotion;
+      this.store = store;
+      this.storeSales = storeSales;
+      this.storeCost = storeCost;
+      this.unitSales = unitSales;
+      this.maxCustomer = maxCustomer;
+    }
+
+    /** Reads the fact table, tokenizing its chunks in parallel. */
+    static Facts read() {
+      final String csvPath = FoodmartHsqldb.tableUri(FACT_TABLE);
+      final FoodmartSchema.Table table = FoodmartSchema.table(FACT_TABLE);
+      final CsvChunks chunks;
+      try {
+        chunks =
+            CsvChunks.of(FoodmartHsqldb.class, csvPath, CsvChunks.CHUNK_SIZE);
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to read CSV file: " + csvPath, e);
+      }
+      final List<Facts> list =
+          IntStream.range(0, chunks.count())
+              .parallel()
+              .mapToObj(
+                  i -> {
+                    try (CsvTokenizer tokenizer =
+                        new CsvTokenizer(chunks.reader(i))) {
+                      return new Facts(tokenizer, table);
+                    } catch (IOException e) {
+                      throw new RuntimeException(
+                          "Failed to read CSV file: " + csvPath, e);
+                    }
+                  })
+              .collect(Collectors.toList());
+      return new Facts(list);
+    }
+
+    /**
+     * Returns the attribute for a column of an aggregate table, or null if
+     * there is no such attribute.
+     */
+    synchronized Attribute attribute(String columnName) {
+      Attribute attribute = attributes.get(columnName);
+      if (attribute == null) {
+        attribute = createAttribute(columnName);
+        if (attribute != null) {
+          attributes.put(columnName, attribute);
+        }
+      }
+      return attribute;
+    }
+
+    private Attribute createAttribute(String columnName) {
+      switch (columnName) {
+        case "product_id":
+          return new Attribute(product, null);
+        case "time_id":
+          return new Attribute(time, null);
+        case "customer_id":
+          return new Attribute(customer, null);
+        case "promotion_id":
+          return new Attribute(promotion, null);
+        case "store_id":
+          return new Attribute(store, null);
+      }
+      final String[] source = ATTRIBUTES.get(columnName);
+      if (source == null) {
+        return null;
+      }
+      final String tableName = source[0];
+      final int[] foreignKeys;
+      switch (tableName) {
+        case "time_by_day":
+          foreignKeys = time;
+          break;
+        case "customer":
+          foreignKeys = customer;
+          break;
+        case "product_class":
+          if (productClass == null) {
+            productClass =
+                dimension("product", "product_id", "product_class_id", null);
+          }
+          foreignKeys = new int[rowCount];
+          for (int r = 0; r < rowCount; r++) {
+            foreignKeys[r] = productClass[product[r]];
+          }
+          break;
+        default:
+          throw new AssertionError(tableName);
+      }
+      final List<String> dictionary = new ArrayList<>();
+      final int[] dimension =
+          dimension(tableName, source[1], source[2], dictionary);
+      final int[] codes = new int[rowCount];
+      for (int r = 0; r < rowCount; r++) {
+        codes[r] = dimension[foreignKeys[r]];
+      }
+      return new Attribute(codes, dictionary);
+    }
+
+    /**
+     * Reads a column of a dimension table into an array indexed by the table's
+     * key.
+     *
+     * <p>If {@code dictionary} is null, the column must be integral, and the
+     * array holds its values; otherwise, the array holds codes into the
+     * dictionary, which is populated with distinct values, and 0 means null.
+     */
+    private static int[] dimension(
+        String tableName,
+        String keyName,
+        String columnName,
+        List<String> dictionary) {
+      final FoodmartSchema.Table table = FoodmartSchema.table(tableName);
+      final int keyOrdinal = table.column(keyName).ordinal;
+      final int ordinal = table.column(columnName).ordinal;
+      final Map<String, Integer> codeMap = new HashMap<>();
+      if (dictionary != null) {
+        dictionary.add(null);
+      }
+      int[] values = new int[1024];
+      try (CsvTokenizer tokenizer =
+          StatementGenerator.open(
+              FoodmartHsqldb.class, FoodmartHsqldb.tableUri(tableName))) {
+        tokenizer.next(); // skip header
+        while (tokenizer.next()) {
+          final int key = tokenizer.getInt(keyOrdinal);
+          if (key >= values.length) {
+            values =
+                Arrays.copyOf(values, Math.max(key + 1, values.length * 2));
+          }
+          if (dictionary == null) {
+            values[key] = tokenizer.getInt(ordinal);
+          } else if (!tokenizer.isNull(ordinal)) {
+            values[key] =
+                codeMap.computeIfAbsent(
+                    tokenizer.getString(ordinal),
+                    s -> {
+                      dictionary.add(s);
+                      return dictionary.size() - 1;
+                    });
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading table " + tableName, e);
+      }
+      return values;
+    }
+  }
+
+  /** Compares rows of values field by field; nulls first. */
+  private static class RowComparator implements Comparator<List<Object>> {
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    @Override
+    public int compare(List<Object> o1, List<Object> o2) {
+      for (int i = 0; i < o1.size(); i++) {
+        final Comparable v1 = (Comparable) o1.get(i);
+        final Comparable v2 = (Comparable) o2.get(i);
+        if (v1 != v2) {
+          if (v1 == null) {
+            return -1;
+          }
+          if (v2 == null) {
+            return 1;
+          }
+          final int c = v1.compareTo(v2);
+          if (c != 0) {
+            return c;
+          }
+        }
+      }
+      return 0;
+    }
+  }
+}
+
+// End DerivedAggregates.java
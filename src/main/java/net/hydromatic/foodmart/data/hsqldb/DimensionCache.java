@@ -0,0 +1,609 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of a dimension table, such as {@code customer} or {@code
+ * time_by_day}, for looking up rows by their integer key.
+ *
+ * <p>The key is the column of the table's unique single-column index in {@code
+ * foodmart.script} (for example {@code i_customer_id} on {@code customer_id});
+ * if the table has no unique index, as for {@code product_class}, the column
+ * named after the table ({@code product_class_id}).
+ *
+ * <p>Values are stored by column, in primitive arrays: integers, {@code
+ * BOOLEAN}s and {@code REAL}s as {@code int}; {@code BIGINT}s, unscaled {@code
+ * DECIMAL}s, and {@code DATE}s and {@code TIMESTAMP}s (as milliseconds since
+ * the epoch, as if in UTC) as {@code long}; {@code DOUBLE}s as {@code double};
+ * and strings as {@code String}, each distinct value stored once. If the keys
+ * are dense enough, {@link #row(int)} indexes an array by key; otherwise it
+ * probes an open-addressing hash table.
+ *
+ * <p>A cache is immutable once loaded, and so may be read by any number of
+ * threads. {@link #row(int)} and the primitive accessors do not allocate; like
+ * {@link RowCursor}, they return 0 (or false) if the value is null.
+ *
+ * <pre>{@code
+ * DimensionCache customers = DimensionCache.of("customer");
+ * int gender = customers.column("gender");
+ * int row = customers.row(customerId);
+ * if (row >= 0 && customers.getString(row, gender).equals("F")) {
+ *   ...
+ * }
+ * }</pre>
+ */
+public class DimensionCache {
+  /** Dimension tables of {@code sales_fact_1997} and {@code 1998}. */
+  public static final List<String> SALES_DIMENSIONS =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              "product",
+              "product_class",
+              "customer",
+              "store",
+              "time_by_day",
+              "promotion"));
+
+  /** Caches of all columns of a table, created on first use. */
+  private static final Map<String, DimensionCache> CACHES =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Maximum ratio of the range of keys to the number of rows for which {@link
+   * #row(int)} uses an array.
+   */
+  static final int MAX_SPREAD = 4;
+
+  // Storage of a column.
+  private static final int INT = 0;
+  private static final int LONG = 1;
+  private static final int DOUBLE = 2;
+  private static final int STRING = 3;
+
+  private final FoodmartSchema.Table table;
+  private final FoodmartSchema.Column key;
+  private final List<FoodmartSchema.Column> columns;
+  private final int rowCount;
+  /** Storage of each column: {@link #INT}, {@link #LONG}, et cetera. */
+  private final int[] storage;
+  /** Values of each column: an {@code int[]}, {@code long[]}, et cetera. */
+  private final Object[] values;
+  /** Null bitmap of each column; null if the column has no nulls. */
+  private final long[][] nulls;
+  /** Smallest key; {@code rowOf[key - minKey]} if the keys are dense. */
+  private final int minKey;
+  /** Row of each key, or -1; null if the keys are sparse. */
+  private final int[] rowOf;
+  /** Row of each key; null if the keys are dense. */
+  private final LongIntMap rowMap;
+
+  private final long heapBytes;
+
+  private DimensionCache(
+      FoodmartSchema.Table table,
+      FoodmartSchema.Column key,
+      List<FoodmartSchema.Column> columns,
+      int rowCount,
+      int[] storage,
+      Object[] values,
+      long[][] nulls,
+      int minKey,
+      int[] rowOf,
+      LongIntMap rowMap,
+      long heapBytes) {
+    this.table = table;
+    this.key = key;
+    this.columns = columns;
+    this.rowCount = rowCount;
+    this.storage = storage;
+    this.values = values;
+    this.nulls = nulls;
+    this.minKey = minKey;
+    this.rowOf = rowOf;
+    this.rowMap = rowMap;
+    this.heapBytes = heapBytes;
+  }
+
+  /**
+   * Returns a cache of all columns of a table, loading it the first time.
+   *
+   * @throws IllegalArgumentException if there is no such table, or it has no
+   *     integer key
+   */
+  public static DimensionCache of(String tableName) {
+    final DimensionCache cache = CACHES.get(tableName);
+    if (cache != null) {
+      return cache;
+    }
+    return CACHES.computeIfAbsent(
+        tableName, t -> load(FoodmartSchema.table(t), null, MAX_SPREAD));
+  }
+
+  /**
+   * Loads a cache of some columns of a table. The cache is not shared.
+   *
+   * <p>Columns are in the order given; the key column is not included unless
+   * requested.
+   *
+   * @throws IllegalArgumentException if there is no such table or column, or
+   *     the table has no integer key
+   */
+  public static DimensionCache of(
+      String tableName, Collection<String> columnNames) {
+    return load(FoodmartSchema.table(tableName), columnNames, MAX_SPREAD);
+  }
+
+  /** Loads a cache; a {@code maxSpread} of 0 forces a hash table. */
+  static DimensionCache load(
+      FoodmartSchema.Table table,
+      Collection<String> columnNames,
+      int maxSpread) {
+    final FoodmartSchema.Column key = key(table);
+    final List<FoodmartSchema.Column> columns = new ArrayList<>();
+    if (columnNames == null) {
+      columns.addAll(table.columns);
+    } else {
+      for (String columnName : columnNames) {
+        columns.add(table.column(columnName));
+      }
+    }
+    final int n = table.rowCount;
+    final int[] storage = new int[columns.size()];
+    final Object[] values = new Object[columns.size()];
+    final long[][] nulls = new long[columns.size()][];
+    for (int i = 0; i < columns.size(); i++) {
+      final FoodmartSchema.Column column = columns.get(i);
+      storage[i] = storage(column.type);
+      switch (storage[i]) {
+        case INT:
+          values[i] = new int[n];
+          break;
+        case LONG:
+          values[i] = new long[n];
+          break;
+        case DOUBLE:
+          values[i] = new double[n];
+          break;
+        default:
+          values[i] = new String[n];
+      }
+    }
+    final int[] keys = new int[n];
+    final Map<String, String> strings = new HashMap<>();
+    int rowCount = 0;
+    try (RowCursor cursor = TableReader.of(table.name).open()) {
+      for (int r = 0; cursor.next(); r++) {
+        if (r == n) {
+          throw new IllegalStateException(
+              "table " + table.name + " has more than " + n + " rows");
+        }
+        keys[r] = cursor.getInt(key.ordinal);
+        for (int i = 0; i < columns.size(); i++) {
+          final FoodmartSchema.Column column = columns.get(i);
+          final int c = column.ordinal;
+          if (cursor.isNull(c)) {
+            if (nulls[i] == null) {
+              nulls[i] = new long[(n + 63) >>> 6];
+            }
+            nulls[i][r >>> 6] |= 1L << r;
+            continue;
+          }
+          switch (column.type) {
+            case Types.BOOLEAN:
+              ((int[]) values[i])[r] = cursor.getBoolean(c) ? 1 : 0;
+              break;
+            case Types.REAL:
+              ((int[]) values[i])[r] =
+                  Float.floatToIntBits((float) cursor.getDouble(c));
+              break;
+            case Types.DATE:
+            case Types.TIMESTAMP:
+              ((long[]) values[i])[r] = cursor.getEpochMillis(c);
+              break;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+              ((long[]) values[i])[r] = cursor.getDecimalUnscaled(c);
+              break;
+            default:
+              switch (storage[i]) {
+                case INT:
+                  ((int[]) values[i])[r] = cursor.getInt(c);
+                  break;
+                case LONG:
+                  ((long[]) values[i])[r] = cursor.getLong(c);
+                  break;
+                case DOUBLE:
+                  ((double[]) values[i])[r] = cursor.getDouble(c);
+                  break;
+                default:
+                  final String s = cursor.getString(c);
+                  ((String[]) values[i])[r] =
+                      strings.computeIfAbsent(s, v -> v);
+              }
+          }
+        }
+        rowCount = r + 1;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error reading table " + table.name, e);
+    }
+    if (rowCount != n) {
+      throw new IllegalStateException(
+          "table " + table.name + " has " + rowCount + " rows, expected " + n);
+    }
+
+    // Index the keys.
+    int minKey = Integer.MAX_VALUE;
+    int maxKey = Integer.MIN_VALUE;
+    for (int k : keys) {
+      minKey = Math.min(minKey, k);
+      maxKey = Math.max(maxKey, k);
+    }
+    final long spread = n == 0 ? 0 : (long) maxKey - minKey + 1;
+    int[] rowOf = null;
+    LongIntMap rowMap = null;
+    if (spread <= (long) maxSpread * n) {
+      rowOf = new int[(int) spread];
+      Arrays.fill(rowOf, -1);
+      for (int r = 0; r < n; r++) {
+        if (rowOf[keys[r] - minKey] >= 0) {
+          throw duplicateKey(table, key, keys[r]);
+        }
+        rowOf[keys[r] - minKey] = r;
+      }
+    } else {
+      rowMap = new LongIntMap(n * 2);
+      for (int r = 0; r < n; r++) {
+        if (rowMap.putIfAbsent(keys[r], r) >= 0) {
+          throw duplicateKey(table, key, keys[r]);
+        }
+      }
+    }
+
+    // Estimate the heap used by the arrays and the distinct strings.
+    final HeapEstimator estimator = HeapEstimator.current();
+    long heapBytes = 0;
+    for (int i = 0; i < columns.size(); i++) {
+      heapBytes +=
+          estimator.arrayBytes(
+              n,
+              storage[i] == STRING
+                  ? estimator.referenceBytes
+                  : storage[i] == INT ? 4 : 8);
+      if (nulls[i] != null) {
+        heapBytes += estimator.arrayBytes(nulls[i].length, 8);
+      }
+    }
+    for (String s : strings.keySet()) {
+      heapBytes += estimator.stringBytes(s.length());
+    }
+    heapBytes +=
+        rowOf != null
+            ? estimator.arrayBytes(rowOf.length, 4)
+            : rowMap.bytes(estimator);
+    return new DimensionCache(
+        table,
+        key,
+        Collections.unmodifiableList(columns),
+        n,
+        storage,
+        values,
+        nulls,
+        minKey,
+        rowOf,
+        rowMap,
+        heapBytes);
+  }
+
+  /**
+   * Returns the key of a table: the column of a unique single-column index, or
+   * if the table has no unique index, the column named after the table.
+   */
+  static FoodmartSchema.Column key(FoodmartSchema.Table table) {
+    boolean hasUniqueIndex = false;
+    for (FoodmartSchema.Index index : table.indexes) {
+      if (index.unique) {
+        hasUniqueIndex = true;
+        if (index.columnNames.size() == 1) {
+          final FoodmartSchema.Column key =
+              table.column(index.columnNames.get(0));
+          if (isInteger(key.type)) {
+            return key;
+          }
+        }
+      }
+    }
+    if (!hasUniqueIndex) {
+      for (FoodmartSchema.Column column : table.columns) {
+        if (column.name.equals(table.name + "_id") && isInteger(column.type)) {
+          return column;
+        }
+      }
+    }
+    throw new IllegalArgumentException(
+        "table has no integer key: " + table.name);
+  }
+
+  private static boolean isInteger(int type) {
+    return type == Types.TINYINT
+        || type == Types.SMALLINT
+        || type == Types.INTEGER;
+  }
+
+  private static int storage(int type) {
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BOOLEAN:
+      case Types.REAL:
+        return INT;
+      case Types.BIGINT:
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+      case Types.DATE:
+      case Types.TIMESTAMP:
+        return LONG;
+      case Types.DOUBLE:
+      case Types.FLOAT:
+        return DOUBLE;
+      default:
+        return STRING;
+    }
+  }
+
+  private static IllegalStateException duplicateKey(
+      FoodmartSchema.Table table, FoodmartSchema.Column key, int value) {
+    return new IllegalStateException(
+        "duplicate key in " + table.name + "." + key.name + ": " + value);
+  }
+
+  /** Returns the table. */
+  public FoodmartSchema.Table table() {
+    return table;
+  }
+
+  /** Returns the key column. */
+  public FoodmartSchema.Column key() {
+    return key;
+  }
+
+  /** Returns the cached columns, in the order of the accessors' ordinals. */
+  public List<FoodmartSchema.Column> columns() {
+    return columns;
+  }
+
+  /**
+   * Returns the ordinal of a cached column, for use in the accessors.
+   *
+   * @throws IllegalArgumentException if the column is not cached
+   */
+  public int column(String columnName) {
+    for (int i = 0; i < columns.size(); i++) {
+      if (columns.get(i).name.equals(columnName)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(
+        "column not cached: " + table.name + "." + columnName);
+  }
+
+  /** Returns the number of rows. */
+  public int rowCount() {
+    return rowCount;
+  }
+
+  /** Returns whether {@link #row(int)} indexes an array, not a hash table. */
+  public boolean isDense() {
+    return rowOf != null;
+  }
+
+  /**
+   * Returns an estimate of the heap used by the cached values and the key
+   * index, in bytes.
+   */
+  public long heapBytes() {
+    return heapBytes;
+  }
+
+  /** Returns the row that has a given key, or -1 if there is none. */
+  public int row(int key) {
+    if (rowOf != null) {
+      final int i = key - minKey;
+      return i >= 0 && i < rowOf.length ? rowOf[i] : -1;
+    }
+    return rowMap.get(key);
+  }
+
+  /** Returns whether the value of a column in a given row is null. */
+  public boolean isNull(int row, int column) {
+    final long[] bitmap = nulls[column];
+    return bitmap != null && (bitmap[row >>> 6] & 1L << row) != 0;
+  }
+
+  /** Returns the value of an integer column. */
+  public int getInt(int row, int column) {
+    switch (storage[column]) {
+      case INT:
+        return ((int[]) values[column])[row];
+      case LONG:
+        return (int) ((long[]) values[column])[row];
+      default:
+        throw unsupported("getInt", column);
+    }
+  }
+
+  /** Returns the value of an integer column. */
+  public long getLong(int row, int column) {
+    switch (storage[column]) {
+      case INT:
+        return ((int[]) values[column])[row];
+      case LONG:
+        return ((long[]) values[column])[row];
+      default:
+        throw unsupported("getLong", column);
+    }
+  }
+
+  /**
+   * Returns the unscaled value of a {@code DECIMAL} column. For example, if the
+   * column is {@code DECIMAL(10,4)} and the value is 1.5, returns 15000. For an
+   * integer column, returns the value.
+   */
+  public long getDecimalUnscaled(int row, int column) {
+    return getLong(row, column);
+  }
+
+  /** Returns the value of a numeric column as a {@code double}. */
+  public double getDouble(int row, int column) {
+    final FoodmartSchema.Column c = columns.get(column);
+    switch (c.type) {
+      case Types.REAL:
+        return Float.intBitsToFloat(((int[]) values[column])[row]);
+      case Types.DOUBLE:
+      case Types.FLOAT:
+        return ((double[]) values[column])[row];
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return (double) ((long[]) values[column])[row]
+            / CsvTokenizer.POWERS_OF_TEN[Math.max(c.scale, 0)];
+      default:
+        return getLong(row, column);
+    }
+  }
+
+  /** Returns the value of a {@code BOOLEAN} column. */
+  public boolean getBoolean(int row, int column) {
+    return getInt(row, column) != 0;
+  }
+
+  /**
+   * Returns the value of a {@code DATE} or {@code TIMESTAMP} column as
+   * milliseconds since the epoch, as if the value were in UTC.
+   */
+  public long getEpochMillis(int row, int column) {
+    return getLong(row, column);
+  }
+
+  /** Returns the value of a {@code CHAR} or {@code VARCHAR} column, or null. */
+  public String getString(int row, int column) {
+    if (storage[column] != STRING) {
+      throw unsupported("getString", column);
+    }
+    return ((String[]) values[column])[row];
+  }
+
+  /**
+   * Returns the value of a column as a Java object of the type that {@link
+   * FoodmartHsqldb#load} binds, or null. Allocates.
+   */
+  public Object getObject(int row, int column) {
+    if (isNull(row, column)) {
+      return null;
+    }
+    final FoodmartSchema.Column c = columns.get(column);
+    switch (c.type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+        return (short) getInt(row, column);
+      case Types.INTEGER:
+        return getInt(row, column);
+      case Types.BIGINT:
+        return getLong(row, column);
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return BigDecimal.valueOf(getLong(row, column), Math.max(c.scale, 0));
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return getDouble(row, column);
+      case Types.BOOLEAN:
+        return getBoolean(row, column);
+      case Types.DATE:
+        return Date.valueOf(
+            LocalDate.ofEpochDay(
+                Math.floorDiv(getLong(row, column), 86_400_000L)));
+      case Types.TIMESTAMP:
+        final long millis = getLong(row, column);
+        return Timestamp.valueOf(
+            LocalDateTime.ofEpochSecond(
+                Math.floorDiv(millis, 1000L),
+                (int) Math.floorMod(millis, 1000L) * 1_000_000,
+                ZoneOffset.UTC));
+      default:
+        return getString(row, column);
+    }
+  }
+
+  private UnsupportedOperationException unsupported(String method, int column) {
+    return new UnsupportedOperationException(
+        method + " not supported for column " + columns.get(column).name);
+  }
+
+  @Override
+  public String toString() {
+    return table.name
+        + ": "
+        + rowCount
+        + " rows, "
+        + columns.size()
+        + " columns, "
+        + (isDense() ? "dense" : "hashed")
+        + " key "
+        + key.name
+        + ", "
+        + heapBytes
+        + " bytes";
+  }
+
+  /**
+   * Loads the dimensions of the sales fact tables, or the tables given as
+   * arguments, and prints the size of each.
+   */
+  public static void main(String[] args) {
+    for (String tableName :
+        args.length > 0 ? Arrays.asList(args) : SALES_DIMENSIONS) {
+      final long start = System.nanoTime();
+      final DimensionCache cache = of(tableName);
+      System.out.println(
+          cache
+              + ", loaded in "
+              + (System.nanoTime() - start) / 1_000_000
+              + " ms");
+    }
+  }
+}
+
+// End DimensionCache.java
@@ -16,14 +16,25 @@
  */
 package net.hydromatic.foodmart.data.hsqldb;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.sql.DataSource;
 
 /** Foodmart data set in hsqldb format. */
 public class FoodmartHsqldb {
@@ -220,6 +231,15 @@ public class FoodmartHsqldb {
     return names;
   }
 
+  /**
+   * Returns the number of rows in a table.
+   *
+   * @throws IllegalArgumentException if there is no such table
+   */
+  public static int rowCount(String tableName) {
+    return FoodmartSchema.table(tableName).rowCount;
+  }
+
   /**
    * Converts a table name to a CSV file URI relative to the jar file root.
    *
@@ -236,33 +256,567 @@ public class FoodmartHsqldb {
    * <p>Generates statements by reading from the CSV files lazily using an
    * iterator.
    *
+   * <p>Column types come from {@link FoodmartSchema}, so this method does not
+   * start a database, and does not require HSQLDB.
+   *
    * @return an iterable of INSERT statements
    */
   public static Iterable<String> generateInserts() {
-    final Map<String, List<Integer>> columnTypes = new HashMap<>();
-    try (Connection c = DriverManager.getConnection(URI, USER, PASSWORD);
-        ResultSet x = c.getMetaData().getColumns(null, "foodmart", "%", "%")) {
-      while (x.next()) {
-        String tableName = x.getString(3);
-        int dataType = x.getInt(5);
-        columnTypes
-            .computeIfAbsent(tableName, t -> new ArrayList<>())
-            .add(dataType);
-      }
-    } catch (SQLException e) {
-      throw new RuntimeException(e);
+    return generateInserts(1);
+  }
+
+  /**
+   * Returns INSERT statements for all Foodmart schema data, with up to {@code
+   * rowsPerStatement} rows per statement.
+   *
+   * <p>For example, {@code generateInserts(3)} returns statements such as
+   * {@code INSERT INTO "days" VALUES(1,'Sunday'),(2,'Monday'),(5,'Thursday')}.
+   * A statement never contains rows from more than one table.
+   *
+   * @param rowsPerStatement Maximum number of rows per statement
+   * @return an iterable of INSERT statements
+   */
+  public static Iterable<String> generateInserts(int rowsPerStatement) {
+    return generateInserts(rowsPerStatement, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns INSERT statements for all Foodmart schema data, with up to {@code
+   * rowsPerStatement} rows per statement and up to {@code maxStatementLength}
+   * characters per statement.
+   *
+   * <p>A statement with one row may exceed {@code maxStatementLength}. The data
+   * is ASCII, so the length in characters is also the length in bytes.
+   *
+   * @param rowsPerStatement Maximum number of rows per statement
+   * @param maxStatementLength Maximum length of a statement
+   * @return an iterable of INSERT statements
+   */
+  public static Iterable<String> generateInserts(
+      int rowsPerStatement, int maxStatementLength) {
+    return generateInserts(
+        rowsPerStatement, maxStatementLength, LoadListener.NONE);
+  }
+
+  /**
+   * Returns INSERT statements for all Foodmart schema data, as {@link
+   * #generateInserts(int, int)}, and reports metrics for each table to a
+   * listener.
+   *
+   * <p>A table's metrics are reported when the consumer asks for the statement
+   * after its last statement. Timing adds a small cost to each row, so pass
+   * {@link LoadListener#NONE} if you do not need metrics.
+   *
+   * @param rowsPerStatement Maximum number of rows per statement
+   * @param maxStatementLength Maximum length of a statement
+   * @param listener Listener
+   * @return an iterable of INSERT statements
+   */
+  public static Iterable<String> generateInserts(
+      int rowsPerStatement, int maxStatementLength, LoadListener listener) {
+    return generateInserts(
+        rowsPerStatement, maxStatementLength, listener, RowFilter.ALL);
+  }
+
+  /**
+   * Returns INSERT statements for the tables and rows of the Foodmart schema
+   * that pass a filter.
+   *
+   * <p>For example, {@code generateInserts(RowFilter.ALL.between(null,
+   * "time_id", 367, 456))} generates only the first quarter of 1997 from each
+   * table that has a {@code time_id} column, and every row of the other tables.
+   *
+   * @param filter Filter
+   * @return an iterable of INSERT statements
+   */
+  public static Iterable<String> generateInserts(RowFilter filter) {
+    return generateInserts(1, Integer.MAX_VALUE, LoadListener.NONE, filter);
+  }
+
+  /**
+   * Returns INSERT statements for the tables and rows of the Foodmart schema
+   * that pass a filter, as {@link #generateInserts(int, int, LoadListener)}.
+   *
+   * <p>Rows are tested before they are formatted, so rows that do not pass cost
+   * only the time to parse them. A table that no row can pass, judging by the
+   * range of its columns in the columnar snapshot, is skipped without reading
+   * its CSV file.
+   *
+   * @param rowsPerStatement Maximum number of rows per statement
+   * @param maxStatementLength Maximum length of a statement
+   * @param listener Listener
+   * @param filter Filter
+   * @return an iterable of INSERT statements
+   */
+  public static Iterable<String> generateInserts(
+      int rowsPerStatement,
+      int maxStatementLength,
+      LoadListener listener,
+      RowFilter filter) {
+    if (rowsPerStatement < 1) {
+      throw new IllegalArgumentException(
+          "rowsPerStatement must be positive: " + rowsPerStatement);
     }
+    final Map<String, List<Integer>> columnTypes = columnTypes();
     List<Iterable<String>> iterables = new ArrayList<>();
     forEachTable(
-        (tableName, quotedColumns) ->
-            iterables.add(
-                () ->
-                    new StatementGenerator(
-                        FoodmartHsqldb.class,
-                        tableName,
-                        columnTypes.get(tableName))));
+        (tableName, quotedColumns) -> {
+          if (!filter.includes(tableName)) {
+            return;
+          }
+          iterables.add(
+              () ->
+                  filter.prunes(tableName)
+                      ? Collections.emptyIterator()
+                      : new StatementGenerator(
+                          StatementGenerator.open(
+                              FoodmartHsqldb.class, tableUri(tableName)),
+                          tableName,
+                          columnTypes.get(tableName),
+                          rowsPerStatement,
+                          maxStatementLength,
+                          listener,
+                          filter.matcher(tableName)));
+        });
     return CompositeIterator.concat(iterables);
   }
+
+  /**
+   * Returns a stream of INSERT statements for all Foodmart schema data.
+   *
+   * <p>Contains the same statements, in the same order, as {@link
+   * #generateInserts()}. The stream is sized, and splits at table boundaries,
+   * so a {@link Stream#parallel() parallel} stream generates the statements of
+   * several tables at once; within each table, statements are in the order of
+   * the CSV file.
+   */
+  public static Stream<String> insertStream() {
+    final Map<String, List<Integer>> columnTypes = columnTypes();
+    return StreamSupport.stream(
+        new TableSpliterator<>(
+            tableNames(),
+            tableName ->
+                new StatementGenerator(
+                    FoodmartHsqldb.class,
+                    tableName,
+                    columnTypes.get(tableName)),
+            FoodmartHsqldb::rowCount),
+        false);
+  }
+
+  /**
+   * Returns a stream of the rows of all Foodmart tables, with values converted
+   * to Java objects.
+   *
+   * <p>Like {@link #insertStream()}, the stream is sized and can be made
+   * parallel.
+   */
+  public static Stream<TableRow> rowStream() {
+    final Map<String, List<Integer>> columnTypes = columnTypes();
+    return StreamSupport.stream(
+        new TableSpliterator<>(
+            tableNames(),
+            tableName ->
+                new RowGenerator(
+                    FoodmartHsqldb.class,
+                    tableName,
+                    columnTypes.get(tableName)),
+            FoodmartHsqldb::rowCount),
+        false);
+  }
+
+  /**
+   * Returns a stream of INSERT statements for one table, whose CSV file is
+   * split into chunks so that a {@link Stream#parallel() parallel} stream
+   * generates the statements of several chunks at once.
+   *
+   * <p>Use this for the largest tables, such as {@code sales_fact_1998}, which
+   * take longest in {@link #insertStream()}. When the stream starts, it reads
+   * the whole file into memory.
+   *
+   * @param tableName Table name
+   * @param ordered Whether statements must be in the order of the CSV file; if
+   *     false, a parallel stream may return them in any order
+   */
+  public static Stream<String> insertStream(String tableName, boolean ordered) {
+    final List<Integer> columnTypes =
+        FoodmartSchema.table(tableName).columnTypes();
+    return chunkStream(
+        tableName,
+        ordered,
+        tokenizer ->
+            new StatementGenerator(
+                tokenizer,
+                tableName,
+                columnTypes,
+                1,
+                Integer.MAX_VALUE,
+                LoadListener.NONE));
+  }
+
+  /**
+   * Returns a stream of the rows of one table, with values converted to Java
+   * objects, whose CSV file is split into chunks, as {@link
+   * #insertStream(String, boolean)}.
+   *
+   * @param tableName Table name
+   * @param ordered Whether rows must be in the order of the CSV file; if false,
+   *     a parallel stream may return them in any order
+   */
+  public static Stream<TableRow> rowStream(String tableName, boolean ordered) {
+    final List<Integer> columnTypes =
+        FoodmartSchema.table(tableName).columnTypes();
+    return chunkStream(
+        tableName,
+        ordered,
+        tokenizer -> new RowGenerator(tokenizer, tableName, columnTypes));
+  }
+
+  static <E> Stream<E> chunkStream(
+      String tableName,
+      boolean ordered,
+      Function<CsvTokenizer, Iterator<E>> factory) {
+    final int characteristics =
+        (ordered ? Spliterator.ORDERED : 0)
+            | Spliterator.NONNULL
+            | Spliterator.IMMUTABLE;
+    return StreamSupport.stream(
+        () -> {
+          final String csvPath = tableUri(tableName);
+          final CsvChunks chunks;
+          try {
+            chunks =
+                CsvChunks.of(
+                    FoodmartHsqldb.class, csvPath, CsvChunks.CHUNK_SIZE);
+          } catch (IOException e) {
+            throw new RuntimeException(
+                "Failed to read CSV file: " + csvPath, e);
+          }
+          return new ChunkSpliterator<>(
+              chunks,
+              i -> factory.apply(new CsvTokenizer(chunks.reader(i))),
+              rowCount(tableName),
+              ordered);
+        },
+        characteristics,
+        false);
+  }
+
+  /**
+   * Loads Foodmart data into a JDBC connection.
+   *
+   * <p>Reads each CSV file once, and inserts its rows using one {@link
+   * java.sql.PreparedStatement} per table, with values bound as Java objects of
+   * the appropriate type (for example {@code int}, {@link
+   * java.math.BigDecimal}, {@link java.sql.Timestamp}) rather than formatted as
+   * SQL text.
+   *
+   * <p>The target tables must already exist, with the same columns in the same
+   * order as in Foodmart. The connection's auto-commit mode is disabled during
+   * the load, and restored afterwards.
+   *
+   * @param target Connection to load into
+   * @param options Options, for example batch size and commit interval
+   * @return Row count and elapsed time of each table
+   */
+  public static LoadResult load(Connection target, LoadOptions options)
+      throws SQLException {
+    return new Loader(target, options).load();
+  }
+
+  /**
+   * Loads Foodmart data into a database, several tables at a time, each on its
+   * own connection from a data source.
+   *
+   * <p>Loads up to {@link LoadOptions#parallelism()} tables at once. A table is
+   * loaded after the tables that its {@link FoodmartSchema.Table#foreignKeys
+   * foreign keys} reference, so dimension tables are loaded first, then the
+   * fact and aggregate tables concurrently. For each table, one thread reads
+   * and converts rows while another inserts them, so parsing overlaps with
+   * inserting.
+   *
+   * <p>As in {@link #load(Connection, LoadOptions)}, the target tables must
+   * already exist. Each connection's auto-commit mode is restored afterwards.
+   *
+   * @param dataSource Source of connections to load into
+   * @param options Options, for example parallelism and batch size
+   * @return Row count and elapsed time of each table, in the order they
+   *     finished, and aggregate throughput
+   */
+  public static LoadResult load(DataSource dataSource, LoadOptions options)
+      throws SQLException {
+    return new ParallelLoader(dataSource, options).load();
+  }
+
+  /**
+   * Opens a connection to {@link #URI}, and reports how long it took to a
+   * listener.
+   *
+   * <p>The first connection in a JVM runs {@code foodmart.script}, which
+   * creates and populates every table; later connections are fast. To see the
+   * cost of each statement of the script, use {@link
+   * #profileScript(LoadListener)}.
+   */
+  public static Connection open(LoadListener listener) throws SQLException {
+    final long start = System.nanoTime();
+    final Connection connection =
+        DriverManager.getConnection(URI, USER, PASSWORD);
+    listener.opened(URI, System.nanoTime() - start);
+    return connection;
+  }
+
+  /**
+   * Runs the statements of {@code foodmart.script} one at a time, and reports
+   * the elapsed time of each to a listener.
+   *
+   * <p>HSQLDB does not time the statements of a script while it opens a
+   * database, so this method replays them in a temporary database on disk,
+   * which it deletes afterwards. For {@code SET TABLE ... SOURCE} statements,
+   * the time includes extracting the CSV file from the jar; {@link
+   * LoadListener.StatementMetrics#resourceNanos} breaks it out.
+   *
+   * <p>Takes about as long as opening {@link #URI} for the first time.
+   */
+  public static void profileScript(LoadListener listener) throws SQLException {
+    new ScriptProfiler(listener, tableName -> true).run();
+  }
+
+  /**
+   * Creates a private in-memory database that contains only the given tables,
+   * and returns a connection to it.
+   *
+   * <p>Equivalent to {@code connect(tableNames, false)}.
+   */
+  public static Connection connect(Set<String> tableNames) throws SQLException {
+    return connect(tableNames, false);
+  }
+
+  /**
+   * Creates a private in-memory database that contains only the given tables,
+   * and optionally the tables that they reference, and returns a connection to
+   * it.
+   *
+   * <p>Connecting to {@link #URI} creates all tables and their indexes. If a
+   * test needs only a few tables, this method is much faster, and uses much
+   * less memory. For example, {@code connect(Collections.singleton("product"),
+   * true)} creates and populates {@code product} and {@code product_class}.
+   *
+   * <p>As in {@link #URI}, the tables are in the {@code "foodmart"} schema,
+   * which is the default schema, have the same indexes, and the connection's
+   * user is {@link #USER}. Unlike {@link #URI}, the database is writable. Each
+   * call creates a new database, which is shut down when the connection is
+   * closed.
+   *
+   * @param tableNames Names of tables
+   * @param foreignKeyClosure Whether to also create the tables that the given
+   *     tables reference, directly or indirectly, via {@link
+   *     FoodmartSchema.Table#foreignKeys foreign keys}
+   * @throws IllegalArgumentException if a table does not exist
+   */
+  public static Connection connect(
+      Set<String> tableNames, boolean foreignKeyClosure) throws SQLException {
+    return connect(tableNames, foreignKeyClosure, IndexProfile.DEFAULT);
+  }
+
+  /**
+   * Creates a private in-memory database that contains only the given tables,
+   * and optionally the tables that they reference, with a given set of indexes,
+   * and returns a connection to it.
+   *
+   * <p>For example, {@code connect(tables, true, IndexProfile.NONE)} is the
+   * fastest way to get a database for bulk scans, and {@code IndexProfile.OLAP}
+   * makes star-join queries faster at the cost of time and memory to build the
+   * indexes.
+   *
+   * @param tableNames Names of tables
+   * @param foreignKeyClosure Whether to also create the tables that the given
+   *     tables reference
+   * @param indexProfile Which indexes to create
+   * @see #connect(Set, boolean)
+   */
+  public static Connection connect(
+      Set<String> tableNames,
+      boolean foreignKeyClosure,
+      IndexProfile indexProfile)
+      throws SQLException {
+    final Set<String> tables =
+        foreignKeyClosure
+            ? FoodmartSchema.foreignKeyClosure(tableNames)
+            : tableNames;
+    final Connection connection =
+        DriverManager.getConnection(
+            "jdbc:hsqldb:mem:foodmart-" + UUID.randomUUID() + ";shutdown=true",
+            USER,
+            PASSWORD);
+    try {
+      populate(connection, tables, indexProfile);
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("SET SCHEMA \"foodmart\"");
+      }
+      return connection;
+    } catch (SQLException | RuntimeException e) {
+      connection.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Creates the {@code "foodmart"} schema in an empty database, makes it the
+   * default schema, and creates, loads and indexes the given tables.
+   */
+  static void populate(
+      Connection connection, Set<String> tables, IndexProfile indexProfile)
+      throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE SCHEMA \"foodmart\"");
+      statement.execute("SET DATABASE DEFAULT INITIAL SCHEMA \"foodmart\"");
+      for (String tableName : tables) {
+        statement.execute(
+            FoodmartSchema.table(tableName).createTableSql("foodmart"));
+      }
+    }
+    load(
+        connection,
+        LoadOptions.DEFAULT.withSchema("foodmart").withTables(tables));
+    try (Statement statement = connection.createStatement()) {
+      for (String tableName : tables) {
+        for (FoodmartSchema.Index index :
+            indexProfile.indexes(FoodmartSchema.table(tableName))) {
+          statement.execute(index.createIndexSql("foodmart"));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the JDBC URI of a copy of the Foodmart database in the default
+   * cache directory, building the copy if it does not exist.
+   *
+   * <p>The default cache directory is the value of the system property {@code
+   * foodmart.cache.dir}, or {@code ~/.cache/foodmart-data-hsqldb} if the
+   * property is not set.
+   *
+   * @see #cachedUri(Path)
+   */
+  public static String cachedUri() throws SQLException {
+    return cachedUri(DatabaseCache.defaultDirectory());
+  }
+
+  /**
+   * Returns the JDBC URI of a copy of the Foodmart database in a given cache
+   * directory, building the copy if it does not exist.
+   *
+   * <p>Use the URI instead of {@link #URI}, with the same user and password.
+   * The first call (in any JVM) builds the database and writes it to disk,
+   * which takes a few seconds; after that, opening the database takes
+   * milliseconds, because tables are read from disk as they are needed.
+   *
+   * <p>The database is read-only. Its {@code "foodmart"} schema has the same
+   * tables and indexes as {@link #URI}; there is no {@code "foodmart_csv"}
+   * schema.
+   *
+   * <p>The copy is rebuilt automatically if the version of this library, the
+   * version of HSQLDB, or the data changes. If several JVMs call this method at
+   * the same time, one builds the copy and the others wait for it.
+   *
+   * @param directory Cache directory
+   * @return JDBC URI
+   */
+  public static String cachedUri(Path directory) throws SQLException {
+    return DatabaseCache.uri(directory);
+  }
+
+  /**
+   * Returns the JDBC URI of a copy of the Foodmart database, with a given set
+   * of indexes, in a given cache directory, building the copy if it does not
+   * exist.
+   *
+   * <p>Each profile has its own copy, so copies with different indexes can be
+   * used side by side. With {@link IndexProfile#DEFAULT}, this method is the
+   * same as {@link #cachedUri(Path)}.
+   *
+   * @param directory Cache directory
+   * @param indexProfile Which indexes to create
+   * @return JDBC URI
+   */
+  public static String cachedUri(Path directory, IndexProfile indexProfile)
+      throws SQLException {
+    return DatabaseCache.uri(
+        directory, FoodmartHsqldb.tableNames(), indexProfile);
+  }
+
+  /**
+   * Starts a server that shares the Foodmart database with other JVMs, unless
+   * one is already running, and returns the server's JDBC URI.
+   *
+   * <p>The server runs in a new process, which outlives this JVM; it listens on
+   * {@code 127.0.0.1}, and stops when it has had no connections for a while.
+   * Other JVMs find it using {@link #serverUri()}. See {@link FoodmartServer}
+   * for details.
+   *
+   * <p>Requires HSQLDB on the class path.
+   *
+   * @param port Port, or 0 to use any free port
+   * @return JDBC URI of the server, such as {@code
+   *     "jdbc:hsqldb:hsql://127.0.0.1:9001/foodmart"}
+   */
+  public static String startServer(int port) throws SQLException {
+    return FoodmartServer.start(
+        FoodmartServer.defaultDirectory(), port, FoodmartServer.idleSeconds());
+  }
+
+  /**
+   * Returns the JDBC URI of the shared Foodmart server, if one is running, or
+   * {@link #URI} if not.
+   *
+   * <p>Connecting to a server that another JVM started saves the time and heap
+   * that this JVM would need to load its own copy of the database.
+   *
+   * @return JDBC URI
+   */
+  public static String serverUri() throws SQLException {
+    return FoodmartServer.uri(FoodmartServer.defaultDirectory());
+  }
+
+  /**
+   * Takes a snapshot of the Foodmart tables in a database, so that a test that
+   * modifies tables can quickly restore them.
+   *
+   * <p>For example:
+   *
+   * <pre>{@code
+   * try (Connection c = FoodmartHsqldb.connect(tables);
+   *     Snapshot snapshot = FoodmartHsqldb.snapshot(c)) {
+   *   ...modify tables...
+   *   snapshot.reset(); // restores only the modified tables
+   * }
+   * }</pre>
+   *
+   * @param connection Connection to a database whose {@code "foodmart"} schema
+   *     contains some or all of the Foodmart tables, with their original
+   *     contents
+   * @return Snapshot; close it to remove the triggers that track modified
+   *     tables
+   * @see Snapshot
+   */
+  public static Snapshot snapshot(Connection connection) throws SQLException {
+    return Snapshot.create(connection);
+  }
+
+  /**
+   * Returns the {@link java.sql.Types} code of each column of each table, keyed
+   * by table name.
+   *
+   * <p>Uses {@link FoodmartSchema}, and therefore does not need to start a
+   * database.
+   */
+  static Map<String, List<Integer>> columnTypes() {
+    final Map<String, List<Integer>> columnTypes = new HashMap<>();
+    for (FoodmartSchema.Table table : FoodmartSchema.tables()) {
+      columnTypes.put(table.name, table.columnTypes());
+    }
+    return columnTypes;
+  }
 }
 
 // End FoodmartHsqldb.java
@@ -0,0 +1,349 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Standard workload of OLAP queries on the Foodmart schema.
+ *
+ * <p>The queries are the kind that Mondrian and Calcite generate for a sales
+ * cube: star joins of {@code sales_fact_1997} with {@code time_by_day}, {@code
+ * product}, {@code product_class}, {@code store} and {@code customer}, and
+ * rollups over the time and product hierarchies. Many queries have a
+ * counterpart that answers the same question from an {@code agg_*} table (see
+ * {@link #base()}), so that a benchmark can show how much the aggregate tables
+ * help, and a test can check that they give the same answer.
+ *
+ * <p>Each query uses unqualified table names, and so runs against {@link
+ * FoodmartHsqldb#URI} or any connection whose current schema is {@code
+ * foodmart}. Its rows are in a deterministic order.
+ */
+public enum FoodmartQuery {
+  /** Sales by month, joining the fact table to {@code time_by_day}. */
+  SALES_BY_MONTH(
+      Category.STAR,
+      null,
+      "select t.\"the_year\", t.\"month_of_year\",\n"
+          + " sum(s.\"unit_sales\"), sum(s.\"store_sales\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"time_by_day\" as t on s.\"time_id\" = t.\"time_id\"\n"
+          + "group by t.\"the_year\", t.\"month_of_year\"\n"
+          + "order by 1, 2"),
+
+  /** {@link #SALES_BY_MONTH} from {@code agg_c_10_sales_fact_1997}. */
+  AGG_SALES_BY_MONTH(
+      Category.AGGREGATE,
+      "SALES_BY_MONTH",
+      "select a.\"the_year\", a.\"month_of_year\",\n"
+          + " sum(a.\"unit_sales\"), sum(a.\"store_sales\")\n"
+          + "from \"agg_c_10_sales_fact_1997\" as a\n"
+          + "group by a.\"the_year\", a.\"month_of_year\"\n"
+          + "order by 1, 2"),
+
+  /** Distinct customers by quarter. */
+  CUSTOMERS_BY_QUARTER(
+      Category.STAR,
+      null,
+      "select t.\"the_year\", t.\"quarter\",\n"
+          + " count(distinct s.\"customer_id\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"time_by_day\" as t on s.\"time_id\" = t.\"time_id\"\n"
+          + "group by t.\"the_year\", t.\"quarter\"\n"
+          + "order by 1, 2"),
+
+  /** Sales by product family and department. */
+  SALES_BY_PRODUCT_DEPARTMENT(
+      Category.STAR,
+      null,
+      "select pc.\"product_family\", pc.\"product_department\",\n"
+          + " sum(s.\"unit_sales\"), sum(s.\"store_cost\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"product\" as p on s.\"product_id\" = p.\"product_id\"\n"
+          + "join \"product_class\" as pc\n"
+          + " on p.\"product_class_id\" = pc.\"product_class_id\"\n"
+          + "group by pc.\"product_family\", pc.\"product_department\"\n"
+          + "order by 1, 2"),
+
+  /**
+   * {@link #SALES_BY_PRODUCT_DEPARTMENT} from {@code
+   * agg_g_ms_pcat_sales_fact_1997}.
+   */
+  AGG_SALES_BY_PRODUCT_DEPARTMENT(
+      Category.AGGREGATE,
+      "SALES_BY_PRODUCT_DEPARTMENT",
+      "select a.\"product_family\", a.\"product_department\",\n"
+          + " sum(a.\"unit_sales\"), sum(a.\"store_cost\")\n"
+          + "from \"agg_g_ms_pcat_sales_fact_1997\" as a\n"
+          + "group by a.\"product_family\", a.\"product_department\"\n"
+          + "order by 1, 2"),
+
+  /**
+   * Sales by gender, marital status and product category in each quarter; a
+   * five-way star join.
+   */
+  SALES_BY_GENDER_CATEGORY(
+      Category.STAR,
+      null,
+      "select c.\"gender\", c.\"marital_status\", pc.\"product_category\",\n"
+          + " t.\"quarter\", sum(s.\"store_sales\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"time_by_day\" as t on s.\"time_id\" = t.\"time_id\"\n"
+          + "join \"customer\" as c on s.\"customer_id\" = c.\"customer_id\"\n"
+          + "join \"product\" as p on s.\"product_id\" = p.\"product_id\"\n"
+          + "join \"product_class\" as pc\n"
+          + " on p.\"product_class_id\" = pc.\"product_class_id\"\n"
+          + "group by c.\"gender\", c.\"marital_status\",\n"
+          + " pc.\"product_category\", t.\"quarter\"\n"
+          + "order by 1, 2, 3, 4"),
+
+  /**
+   * {@link #SALES_BY_GENDER_CATEGORY} from {@code
+   * agg_g_ms_pcat_sales_fact_1997}.
+   */
+  AGG_SALES_BY_GENDER_CATEGORY(
+      Category.AGGREGATE,
+      "SALES_BY_GENDER_CATEGORY",
+      "select a.\"gender\", a.\"marital_status\", a.\"product_category\",\n"
+          + " a.\"quarter\", sum(a.\"store_sales\")\n"
+          + "from \"agg_g_ms_pcat_sales_fact_1997\" as a\n"
+          + "group by a.\"gender\", a.\"marital_status\",\n"
+          + " a.\"product_category\", a.\"quarter\"\n"
+          + "order by 1, 2, 3, 4"),
+
+  /** Sales by store country, state and city. */
+  SALES_BY_STORE_CITY(
+      Category.STAR,
+      null,
+      "select st.\"store_country\", st.\"store_state\", st.\"store_city\",\n"
+          + " sum(s.\"unit_sales\"), sum(s.\"store_sales\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"store\" as st on s.\"store_id\" = st.\"store_id\"\n"
+          + "group by st.\"store_country\", st.\"store_state\",\n"
+          + " st.\"store_city\"\n"
+          + "order by 1, 2, 3"),
+
+  /** {@link #SALES_BY_STORE_CITY} from {@code agg_l_05_sales_fact_1997}. */
+  AGG_SALES_BY_STORE_CITY(
+      Category.AGGREGATE,
+      "SALES_BY_STORE_CITY",
+      "select st.\"store_country\", st.\"store_state\", st.\"store_city\",\n"
+          + " sum(a.\"unit_sales\"), sum(a.\"store_sales\")\n"
+          + "from \"agg_l_05_sales_fact_1997\" as a\n"
+          + "join \"store\" as st on a.\"store_id\" = st.\"store_id\"\n"
+          + "group by st.\"store_country\", st.\"store_state\",\n"
+          + " st.\"store_city\"\n"
+          + "order by 1, 2, 3"),
+
+  /** Sales by quarter and customer state. */
+  SALES_BY_QUARTER_CUSTOMER_STATE(
+      Category.STAR,
+      null,
+      "select t.\"the_year\", t.\"quarter\", c.\"state_province\",\n"
+          + " sum(s.\"unit_sales\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"time_by_day\" as t on s.\"time_id\" = t.\"time_id\"\n"
+          + "join \"customer\" as c on s.\"customer_id\" = c.\"customer_id\"\n"
+          + "group by t.\"the_year\", t.\"quarter\", c.\"state_province\"\n"
+          + "order by 1, 2, 3"),
+
+  /**
+   * {@link #SALES_BY_QUARTER_CUSTOMER_STATE} from {@code
+   * agg_c_14_sales_fact_1997}.
+   */
+  AGG_SALES_BY_QUARTER_CUSTOMER_STATE(
+      Category.AGGREGATE,
+      "SALES_BY_QUARTER_CUSTOMER_STATE",
+      "select a.\"the_year\", a.\"quarter\", c.\"state_province\",\n"
+          + " sum(a.\"unit_sales\")\n"
+          + "from \"agg_c_14_sales_fact_1997\" as a\n"
+          + "join \"customer\" as c on a.\"customer_id\" = c.\"customer_id\"\n"
+          + "group by a.\"the_year\", a.\"quarter\", c.\"state_province\"\n"
+          + "order by 1, 2, 3"),
+
+  /** Sales by brand and quarter. */
+  SALES_BY_BRAND_QUARTER(
+      Category.STAR,
+      null,
+      "select p.\"brand_name\", t.\"quarter\", sum(s.\"store_sales\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"time_by_day\" as t on s.\"time_id\" = t.\"time_id\"\n"
+          + "join \"product\" as p on s.\"product_id\" = p.\"product_id\"\n"
+          + "group by p.\"brand_name\", t.\"quarter\"\n"
+          + "order by 1, 2"),
+
+  /**
+   * {@link #SALES_BY_BRAND_QUARTER} from {@code agg_lc_100_sales_fact_1997}.
+   */
+  AGG_SALES_BY_BRAND_QUARTER(
+      Category.AGGREGATE,
+      "SALES_BY_BRAND_QUARTER",
+      "select p.\"brand_name\", a.\"quarter\", sum(a.\"store_sales\")\n"
+          + "from \"agg_lc_100_sales_fact_1997\" as a\n"
+          + "join \"product\" as p on a.\"product_id\" = p.\"product_id\"\n"
+          + "group by p.\"brand_name\", a.\"quarter\"\n"
+          + "order by 1, 2"),
+
+  /**
+   * Sales of drinks in California stores by month; a star join with selective
+   * filters on two dimensions.
+   */
+  FILTERED_SALES(
+      Category.STAR,
+      null,
+      "select t.\"month_of_year\", st.\"store_city\",\n"
+          + " sum(s.\"store_sales\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"time_by_day\" as t on s.\"time_id\" = t.\"time_id\"\n"
+          + "join \"store\" as st on s.\"store_id\" = st.\"store_id\"\n"
+          + "join \"product\" as p on s.\"product_id\" = p.\"product_id\"\n"
+          + "join \"product_class\" as pc\n"
+          + " on p.\"product_class_id\" = pc.\"product_class_id\"\n"
+          + "where st.\"store_state\" = 'CA'\n"
+          + "and pc.\"product_family\" = 'Drink'\n"
+          + "group by t.\"month_of_year\", st.\"store_city\"\n"
+          + "order by 1, 2"),
+
+  /** The ten best-selling products in the fourth quarter. */
+  TOP_PRODUCTS(
+      Category.STAR,
+      null,
+      "select p.\"product_name\", sum(s.\"store_sales\") as \"sales\"\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"time_by_day\" as t on s.\"time_id\" = t.\"time_id\"\n"
+          + "join \"product\" as p on s.\"product_id\" = p.\"product_id\"\n"
+          + "where t.\"quarter\" = 'Q4'\n"
+          + "group by p.\"product_name\"\n"
+          + "order by 2 desc, 1\n"
+          + "limit 10"),
+
+  /** Sales rolled up by year, quarter and month. */
+  ROLLUP_TIME(
+      Category.ROLLUP,
+      null,
+      "select t.\"the_year\", t.\"quarter\", t.\"month_of_year\",\n"
+          + " sum(s.\"unit_sales\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"time_by_day\" as t on s.\"time_id\" = t.\"time_id\"\n"
+          + "group by rollup(t.\"the_year\", t.\"quarter\",\n"
+          + " t.\"month_of_year\")\n"
+          + "order by 1 nulls last, 2 nulls last, 3 nulls last"),
+
+  /** {@link #ROLLUP_TIME} from {@code agg_c_10_sales_fact_1997}. */
+  AGG_ROLLUP_TIME(
+      Category.AGGREGATE,
+      "ROLLUP_TIME",
+      "select a.\"the_year\", a.\"quarter\", a.\"month_of_year\",\n"
+          + " sum(a.\"unit_sales\")\n"
+          + "from \"agg_c_10_sales_fact_1997\" as a\n"
+          + "group by rollup(a.\"the_year\", a.\"quarter\",\n"
+          + " a.\"month_of_year\")\n"
+          + "order by 1 nulls last, 2 nulls last, 3 nulls last"),
+
+  /** Sales rolled up by product family, department and category. */
+  ROLLUP_PRODUCT(
+      Category.ROLLUP,
+      null,
+      "select pc.\"product_family\", pc.\"product_department\",\n"
+          + " pc.\"product_category\", sum(s.\"store_sales\")\n"
+          + "from \"sales_fact_1997\" as s\n"
+          + "join \"product\" as p on s.\"product_id\" = p.\"product_id\"\n"
+          + "join \"product_class\" as pc\n"
+          + " on p.\"product_class_id\" = pc.\"product_class_id\"\n"
+          + "group by rollup(pc.\"product_family\",\n"
+          + " pc.\"product_department\", pc.\"product_category\")\n"
+          + "order by 1 nulls last, 2 nulls last, 3 nulls last"),
+
+  /** {@link #ROLLUP_PRODUCT} from {@code agg_g_ms_pcat_sales_fact_1997}. */
+  AGG_ROLLUP_PRODUCT(
+      Category.AGGREGATE,
+      "ROLLUP_PRODUCT",
+      "select a.\"product_family\", a.\"product_department\",\n"
+          + " a.\"product_category\", sum(a.\"store_sales\")\n"
+          + "from \"agg_g_ms_pcat_sales_fact_1997\" as a\n"
+          + "group by rollup(a.\"product_family\",\n"
+          + " a.\"product_department\", a.\"product_category\")\n"
+          + "order by 1 nulls last, 2 nulls last, 3 nulls last");
+
+  private static final Pattern TABLE_PATTERN =
+      Pattern.compile("(?:from|join) \"([a-z_0-9]+)\"");
+
+  /** Kind of query. */
+  public final Category category;
+
+  /** SQL text. */
+  public final String sql;
+
+  private final String baseName;
+
+  FoodmartQuery(Category category, String baseName, String sql) {
+    this.category = category;
+    this.baseName = baseName;
+    this.sql = sql;
+  }
+
+  /**
+   * Returns the query that this query rewrites to use an aggregate table, or
+   * null if this query reads the fact table. The two queries return the same
+   * rows.
+   */
+  public FoodmartQuery base() {
+    return baseName == null ? null : valueOf(baseName);
+  }
+
+  /**
+   * Returns the query that answers the same question as this query from an
+   * aggregate table, or null if there is none.
+   */
+  public FoodmartQuery aggregate() {
+    for (FoodmartQuery query : values()) {
+      if (query.base() == this) {
+        return query;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the names of the tables that this query reads. */
+  public Set<String> tableNames() {
+    final Set<String> tableNames = new LinkedHashSet<>();
+    final Matcher matcher = TABLE_PATTERN.matcher(sql);
+    while (matcher.find()) {
+      tableNames.add(matcher.group(1));
+    }
+    return Collections.unmodifiableSet(tableNames);
+  }
+
+  /** Kind of query. */
+  public enum Category {
+    /** Join of the fact table with one or more dimension tables. */
+    STAR,
+    /** Star join that computes subtotals with {@code GROUP BY ROLLUP}. */
+    ROLLUP,
+    /**
+     * Rewrite of a {@link #STAR} or {@link #ROLLUP} query to read an aggregate
+     * table.
+     */
+    AGGREGATE
+  }
+}
+
+// End FoodmartQuery.java
@@ -0,0 +1,561 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Catalog of the tables, columns and indexes in the Foodmart schema.
+ *
+ * <p>The catalog is derived from the {@code CREATE TEXT TABLE} and {@code
+ * CREATE INDEX} statements in {@code foodmart.script}, which is read (but not
+ * executed) the first time the catalog is used. It is therefore always
+ * consistent with the database, but does not require HSQLDB, nor does it start
+ * a database.
+ *
+ * <p>The script declares no foreign keys. The foreign keys in {@link
+ * Table#foreignKeys} are the joins between the fact and dimension tables of the
+ * Foodmart star schemas.
+ *
+ * <p>The catalog is immutable.
+ */
+public class FoodmartSchema {
+  private static final Pattern CREATE_TABLE_PATTERN =
+      Pattern.compile(
+          "CREATE TEXT TABLE \"foodmart_csv\"\\.\"csv_([^\"]+)\"\\((.*)\\)");
+  private static final Pattern COLUMN_PATTERN =
+      Pattern.compile(
+          "\"([^\"]+)\" ([A-Z]+)(?:\\((\\d+)(?:,(\\d+))?\\))?( NOT NULL)?");
+  private static final Pattern CREATE_INDEX_PATTERN =
+      Pattern.compile(
+          "CREATE (UNIQUE )?INDEX \"([^\"]+)\" ON "
+              + "\"foodmart\"\\.\"([^\"]+)\"\\((.*)\\)");
+
+  /** Number of rows in each table. */
+  private static final Map<String, Integer> ROW_COUNTS = new HashMap<>();
+
+  static {
+    ROW_COUNTS.put("account", 11);
+    ROW_COUNTS.put("agg_c_10_sales_fact_1997", 12);
+    ROW_COUNTS.put("agg_c_14_sales_fact_1997", 86805);
+    ROW_COUNTS.put("agg_c_special_sales_fact_1997", 86805);
+    ROW_COUNTS.put("agg_g_ms_pcat_sales_fact_1997", 2637);
+    ROW_COUNTS.put("agg_l_03_sales_fact_1997", 20522);
+    ROW_COUNTS.put("agg_l_04_sales_fact_1997", 323);
+    ROW_COUNTS.put("agg_l_05_sales_fact_1997", 86154);
+    ROW_COUNTS.put("agg_lc_06_sales_fact_1997", 4464);
+    ROW_COUNTS.put("agg_lc_100_sales_fact_1997", 86602);
+    ROW_COUNTS.put("agg_ll_01_sales_fact_1997", 86829);
+    ROW_COUNTS.put("agg_pl_01_sales_fact_1997", 86829);
+    ROW_COUNTS.put("category", 4);
+    ROW_COUNTS.put("currency", 72);
+    ROW_COUNTS.put("customer", 10281);
+    ROW_COUNTS.put("days", 7);
+    ROW_COUNTS.put("department", 12);
+    ROW_COUNTS.put("employee", 1155);
+    ROW_COUNTS.put("employee_closure", 7179);
+    ROW_COUNTS.put("expense_fact", 2400);
+    ROW_COUNTS.put("inventory_fact_1997", 4070);
+    ROW_COUNTS.put("inventory_fact_1998", 7282);
+    ROW_COUNTS.put("position", 18);
+    ROW_COUNTS.put("product", 1560);
+    ROW_COUNTS.put("product_class", 110);
+    ROW_COUNTS.put("promotion", 1864);
+    ROW_COUNTS.put("region", 110);
+    ROW_COUNTS.put("reserve_employee", 143);
+    ROW_COUNTS.put("salary", 21252);
+    ROW_COUNTS.put("sales_fact_1997", 86837);
+    ROW_COUNTS.put("sales_fact_1998", 164558);
+    ROW_COUNTS.put("sales_fact_dec_1998", 18325);
+    ROW_COUNTS.put("store", 25);
+    ROW_COUNTS.put("store_ragged", 25);
+    ROW_COUNTS.put("time_by_day", 730);
+    ROW_COUNTS.put("warehouse", 24);
+    ROW_COUNTS.put("warehouse_class", 6);
+  }
+
+  /**
+   * Foreign keys. The database does not enforce them, and some rows (for
+   * example, sales of products that are not in {@code product}) violate them.
+   */
+  private static final List<ForeignKey> FOREIGN_KEYS = new ArrayList<>();
+
+  static {
+    for (String fact :
+        new String[] {
+          "sales_fact_1997",
+          "sales_fact_1998",
+          "sales_fact_dec_1998",
+          "inventory_fact_1997",
+          "inventory_fact_1998",
+          "agg_c_14_sales_fact_1997",
+          "agg_c_special_sales_fact_1997",
+          "agg_l_03_sales_fact_1997",
+          "agg_l_04_sales_fact_1997",
+          "agg_l_05_sales_fact_1997",
+          "agg_lc_06_sales_fact_1997",
+          "agg_lc_100_sales_fact_1997",
+          "agg_ll_01_sales_fact_1997",
+          "agg_pl_01_sales_fact_1997"
+        }) {
+      foreignKey(fact, "product_id", "product", "product_id");
+      foreignKey(fact, "time_id", "time_by_day", "time_id");
+      foreignKey(fact, "customer_id", "customer", "customer_id");
+      foreignKey(fact, "promotion_id", "promotion", "promotion_id");
+      foreignKey(fact, "store_id", "store", "store_id");
+      foreignKey(fact, "warehouse_id", "warehouse", "warehouse_id");
+    }
+    foreignKey("expense_fact", "store_id", "store", "store_id");
+    foreignKey("expense_fact", "account_id", "account", "account_id");
+    foreignKey("expense_fact", "time_id", "time_by_day", "time_id");
+    foreignKey("expense_fact", "category_id", "category", "category_id");
+    foreignKey("salary", "employee_id", "employee", "employee_id");
+    foreignKey("salary", "department_id", "department", "department_id");
+    for (String employee : new String[] {"employee", "reserve_employee"}) {
+      foreignKey(employee, "position_id", "position", "position_id");
+      foreignKey(employee, "store_id", "store", "store_id");
+      foreignKey(employee, "department_id", "department", "department_id");
+    }
+    foreignKey("employee", "supervisor_id", "employee", "employee_id");
+    foreignKey("employee_closure", "employee_id", "employee", "employee_id");
+    foreignKey("employee_closure", "supervisor_id", "employee", "employee_id");
+    foreignKey("store", "region_id", "region", "region_id");
+    foreignKey("store_ragged", "region_id", "region", "region_id");
+    foreignKey("customer", "customer_region_id", "region", "region_id");
+    foreignKey(
+        "product", "product_class_id", "product_class", "product_class_id");
+    foreignKey(
+        "warehouse",
+        "warehouse_class_id",
+        "warehouse_class",
+        "warehouse_class_id");
+    foreignKey("warehouse", "stores_id", "store", "store_id");
+  }
+
+  private FoodmartSchema() {}
+
+  /**
+   * Returns all tables, in the order of {@link FoodmartHsqldb#tableNames()}.
+   */
+  public static List<Table> tables() {
+    return Holder.TABLES;
+  }
+
+  /**
+   * Returns the table with a given name.
+   *
+   * @throws IllegalArgumentException if there is no such table
+   */
+  public static Table table(String tableName) {
+    final Table table = Holder.TABLE_MAP.get(tableName);
+    if (table == null) {
+      throw new IllegalArgumentException("unknown table: " + tableName);
+    }
+    return table;
+  }
+
+  /**
+   * Returns a set of tables plus every table that they reference, directly or
+   * indirectly, via a foreign key.
+   *
+   * <p>For example, the closure of {@code sales_fact_1997} includes {@code
+   * product}, and therefore also {@code product_class}. The tables are in the
+   * order of {@link FoodmartHsqldb#tableNames()}.
+   *
+   * @throws IllegalArgumentException if a table does not exist
+   */
+  public static Set<String> foreignKeyClosure(Collection<String> tableNames) {
+    final Set<String> closure = new HashSet<>();
+    final Deque<String> queue = new ArrayDeque<>(tableNames);
+    while (!queue.isEmpty()) {
+      final Table table = table(queue.pop());
+      if (closure.add(table.name)) {
+        for (ForeignKey foreignKey : table.foreignKeys) {
+          queue.add(foreignKey.targetTableName);
+        }
+      }
+    }
+    final Set<String> result = new LinkedHashSet<>();
+    for (String tableName : FoodmartHsqldb.tableNames()) {
+      if (closure.contains(tableName)) {
+        result.add(tableName);
+      }
+    }
+    return Collections.unmodifiableSet(result);
+  }
+
+  private static void foreignKey(
+      String tableName,
+      String columnName,
+      String targetTableName,
+      String targetColumnName) {
+    FOREIGN_KEYS.add(
+        new ForeignKey(
+            tableName, columnName, targetTableName, targetColumnName));
+  }
+
+  /** Parses {@code foodmart.script}. */
+  private static List<Table> parse() {
+    final Map<String, List<Column>> columnMap = new LinkedHashMap<>();
+    final Map<String, List<Index>> indexMap = new HashMap<>();
+    try (InputStream is =
+            FoodmartSchema.class.getResourceAsStream("/foodmart.script");
+        BufferedReader r =
+            new BufferedReader(
+                new InputStreamReader(is, StandardCharsets.US_ASCII))) {
+      for (String line; (line = r.readLine()) != null; ) {
+        Matcher m = CREATE_TABLE_PATTERN.matcher(line);
+        if (m.matches()) {
+          final List<Column> columns = new ArrayList<>();
+          final Matcher c = COLUMN_PATTERN.matcher(m.group(2));
+          while (c.find()) {
+            columns.add(
+                new Column(
+                    columns.size(),
+                    c.group(1),
+                    c.group(2),
+                    c.group(3) == null ? -1 : Integer.parseInt(c.group(3)),
+                    c.group(4) == null ? -1 : Integer.parseInt(c.group(4)),
+                    c.group(5) == null));
+          }
+          columnMap.put(m.group(1), columns);
+          continue;
+        }
+        m = CREATE_INDEX_PATTERN.matcher(line);
+        if (m.matches()) {
+          final List<String> columnNames = new ArrayList<>();
+          for (String s : m.group(4).split(",")) {
+            columnNames.add(s.substring(1, s.length() - 1));
+          }
+          indexMap
+              .computeIfAbsent(m.group(3), t -> new ArrayList<>())
+              .add(
+                  new Index(
+                      m.group(2), m.group(3), m.group(1) != null, columnNames));
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading foodmart.script", e);
+    }
+    final Map<String, List<ForeignKey>> foreignKeyMap = new HashMap<>();
+    for (ForeignKey foreignKey : FOREIGN_KEYS) {
+      final List<Column> columns = columnMap.get(foreignKey.tableName);
+      if (columns != null
+          && columns.stream()
+              .anyMatch(c -> c.name.equals(foreignKey.columnName))) {
+        foreignKeyMap
+            .computeIfAbsent(foreignKey.tableName, t -> new ArrayList<>())
+            .add(foreignKey);
+      }
+    }
+    final List<Table> tables = new ArrayList<>();
+    for (String tableName : FoodmartHsqldb.tableNames()) {
+      final List<Column> columns = columnMap.get(tableName);
+      if (columns == null) {
+        throw new IllegalStateException("table not in script: " + tableName);
+      }
+      tables.add(
+          new Table(
+              tableName,
+              columns,
+              indexMap.getOrDefault(tableName, Collections.emptyList()),
+              foreignKeyMap.getOrDefault(tableName, Collections.emptyList()),
+              ROW_COUNTS.get(tableName)));
+    }
+    return Collections.unmodifiableList(tables);
+  }
+
+  /** Converts the name of an SQL type to a {@link Types} code. */
+  static int typeCode(String typeName) {
+    switch (typeName) {
+      case "BIGINT":
+        return Types.BIGINT;
+      case "BOOLEAN":
+        return Types.BOOLEAN;
+      case "CHAR":
+      case "CHARACTER":
+        return Types.CHAR;
+      case "DATE":
+        return Types.DATE;
+      case "DECIMAL":
+        return Types.DECIMAL;
+      case "DOUBLE":
+        return Types.DOUBLE;
+      case "INTEGER":
+        return Types.INTEGER;
+      case "NUMERIC":
+        return Types.NUMERIC;
+      case "REAL":
+        return Types.REAL;
+      case "SMALLINT":
+        return Types.SMALLINT;
+      case "TIMESTAMP":
+        return Types.TIMESTAMP;
+      case "TINYINT":
+        return Types.TINYINT;
+      case "VARCHAR":
+        return Types.VARCHAR;
+      default:
+        throw new IllegalArgumentException("unknown type: " + typeName);
+    }
+  }
+
+  /** Lazily parses the script, the first time the catalog is used. */
+  private static class Holder {
+    static final List<Table> TABLES = parse();
+    static final Map<String, Table> TABLE_MAP = new HashMap<>();
+
+    static {
+      for (Table table : TABLES) {
+        TABLE_MAP.put(table.name, table);
+      }
+    }
+  }
+
+  /** Table in the Foodmart schema. */
+  public static class Table {
+    public final String name;
+    public final List<Column> columns;
+    public final List<Index> indexes;
+    public final List<ForeignKey> foreignKeys;
+    public final int rowCount;
+
+    Table(
+        String name,
+        List<Column> columns,
+        List<Index> indexes,
+        List<ForeignKey> foreignKeys,
+        int rowCount) {
+      this.name = name;
+      this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+      this.indexes = Collections.unmodifiableList(new ArrayList<>(indexes));
+      this.foreignKeys =
+          Collections.unmodifiableList(new ArrayList<>(foreignKeys));
+      this.rowCount = rowCount;
+    }
+
+    /**
+     * Returns the column with a given name.
+     *
+     * @throws IllegalArgumentException if there is no such column
+     */
+    public Column column(String columnName) {
+      for (Column column : columns) {
+        if (column.name.equals(columnName)) {
+          return column;
+        }
+      }
+      throw new IllegalArgumentException(
+          "unknown column: " + name + "." + columnName);
+    }
+
+    /** Returns the {@link Types} code of each column. */
+    public List<Integer> columnTypes() {
+      final List<Integer> list = new ArrayList<>();
+      for (Column column : columns) {
+        list.add(column.type);
+      }
+      return list;
+    }
+
+    /**
+     * Generates a {@code CREATE TABLE} statement for this table.
+     *
+     * @param schema Schema to qualify the table name with, or null
+     */
+    public String createTableSql(String schema) {
+      final StringBuilder b = new StringBuilder("CREATE TABLE ");
+      if (schema != null) {
+        b.append('"').append(schema).append("\".");
+      }
+      b.append('"').append(name).append("\"(");
+      for (Column column : columns) {
+        if (column.ordinal > 0) {
+          b.append(',');
+        }
+        b.append('"')
+            .append(column.name)
+            .append("\" ")
+            .append(column.sqlType());
+        if (!column.nullable) {
+          b.append(" NOT NULL");
+        }
+      }
+      return b.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /** Column of a table in the Foodmart schema. */
+  public static class Column {
+    /** Zero-based position of the column in its table. */
+    public final int ordinal;
+
+    public final String name;
+
+    /** Name of the SQL type, for example "DECIMAL". */
+    public final String typeName;
+
+    /** {@link Types} code, for example {@link Types#DECIMAL}. */
+    public final int type;
+
+    /** Precision or length, or -1 if the type has no precision. */
+    public final int precision;
+
+    /** Scale, or -1 if the type has no scale. */
+    public final int scale;
+
+    public final boolean nullable;
+
+    Column(
+        int ordinal,
+        String name,
+        String typeName,
+        int precision,
+        int scale,
+        boolean nullable) {
+      this.ordinal = ordinal;
+      this.name = name;
+      this.typeName = typeName;
+      this.type = typeCode(typeName);
+      this.precision = precision;
+      this.scale = scale;
+      this.nullable = nullable;
+    }
+
+    /** Returns the SQL type, for example "DECIMAL(10,4)" or "INTEGER". */
+    public String sqlType() {
+      return precision < 0
+          ? typeName
+          : scale < 0
+              ? typeName + "(" + precision + ")"
+              : typeName + "(" + precision + "," + scale + ")";
+    }
+
+    @Override
+    public String toString() {
+      return name + " " + sqlType() + (nullable ? "" : " NOT NULL");
+    }
+  }
+
+  /** Index on a table in the Foodmart schema. */
+  public static class Index {
+    public final String name;
+    public final String tableName;
+    public final boolean unique;
+    public final List<String> columnNames;
+
+    Index(
+        String name,
+        String tableName,
+        boolean unique,
+        List<String> columnNames) {
+      this.name = name;
+      this.tableName = tableName;
+      this.unique = unique;
+      this.columnNames =
+          Collections.unmodifiableList(new ArrayList<>(columnNames));
+    }
+
+    /**
+     * Generates a {@code CREATE INDEX} statement for this index.
+     *
+     * @param schema Schema to qualify the table name with, or null
+     */
+    public String createIndexSql(String schema) {
+      final StringBuilder b = new StringBuilder("CREATE ");
+      if (unique) {
+        b.append("UNIQUE ");
+      }
+      b.append("INDEX \"").append(name).append("\" ON ");
+      if (schema != null) {
+        b.append('"').append(schema).append("\".");
+      }
+      b.append('"').append(tableName).append("\"(");
+      for (int i = 0; i < columnNames.size(); i++) {
+        if (i > 0) {
+          b.append(',');
+        }
+        b.append('"').append(columnNames.get(i)).append('"');
+      }
+      return b.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * Foreign key from a column of a table in the Foodmart schema to the key of
+   * another table (or the same table).
+   */
+  public static class ForeignKey {
+    public final String tableName;
+    public final String columnName;
+    public final String targetTableName;
+    public final String targetColumnName;
+
+    ForeignKey(
+        String tableName,
+        String columnName,
+        String targetTableName,
+        String targetColumnName) {
+      this.tableName = tableName;
+      this.columnName = columnName;
+      this.targetTableName = targetTableName;
+      this.targetColumnName = targetColumnName;
+    }
+
+    @Override
+    public String toString() {
+      return tableName
+          + "."
+          + columnName
+          + " -> "
+          + targetTableName
+          + "."
+          + targetColumnName;
+    }
+  }
+}
+
+// End FoodmartSchema.java
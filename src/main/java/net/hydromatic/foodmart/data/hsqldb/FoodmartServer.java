@@ -0,0 +1,519 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HSQLDB server on the loopback interface that serves the Foodmart database to
+ * several JVMs at once.
+ *
+ * <p>Each JVM that opens {@link FoodmartHsqldb#URI} holds its own copy of the
+ * data set in its heap. If many JVMs need the data at the same time (for
+ * example, forked test runs), start one server, and have each JVM connect to
+ * {@link FoodmartHsqldb#serverUri()}; that returns the server's URI if a server
+ * is running, and {@link FoodmartHsqldb#URI} otherwise.
+ *
+ * <p>The server runs in its own process, so that it outlives the JVM that
+ * started it; {@link FoodmartHsqldb#startServer(int)} launches that process and
+ * waits until the server is online. It serves {@code res:foodmart}, which is
+ * read-only, on {@code 127.0.0.1}. It records its port in a file in a directory
+ * that JVMs share: the value of the system property {@code
+ * foodmart.server.dir}, or {@code foodmart-server} in the temporary directory.
+ * The name of the port file is the cache key of the database (see {@link
+ * DatabaseCache#key}), so a JVM never connects to a server that has a different
+ * version of the data. A lock file in the same directory ensures that only one
+ * server starts.
+ *
+ * <p>The server stops when it has had no connections for the idle timeout (the
+ * system property {@code foodmart.server.idle}, in seconds, default 60), and
+ * removes its port file. {@link FoodmartHsqldb#serverUri()} touches the port
+ * file, so a server does not stop just after a JVM has found it. The server
+ * counts connections using {@code INFORMATION_SCHEMA.SYSTEM_SESSIONS}; because
+ * nothing else in the server's process uses the database, every session other
+ * than the server's own belongs to a client.
+ *
+ * <p>HSQLDB must be on the class path; this class uses it via reflection. The
+ * server process writes its output to a log file next to the port file. To run
+ * a server yourself, for the duration of a build:
+ *
+ * <pre>
+ * java -cp foodmart-data-hsqldb.jar:hsqldb.jar \
+ *     net.hydromatic.foodmart.data.hsqldb.FoodmartServer [port]
+ * </pre>
+ */
+public class FoodmartServer {
+  /** System property that overrides the default server directory. */
+  static final String DIRECTORY_PROPERTY = "foodmart.server.dir";
+
+  /** System property that sets the idle timeout, in seconds. */
+  static final String IDLE_PROPERTY = "foodmart.server.idle";
+
+  /** Default idle timeout, in seconds. */
+  static final int DEFAULT_IDLE_SECONDS = 60;
+
+  /** How long {@link #start} waits for the server process to come online. */
+  private static final long START_TIMEOUT_MILLIS = 60_000;
+
+  /** Counts the sessions other than the one that runs the query. */
+  private static final String SESSION_COUNT_SQL =
+      "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_SESSIONS"
+          + " WHERE SESSION_ID <> SESSION_ID()";
+
+  /** Value of {@code ServerConstants.SERVER_STATE_ONLINE}. */
+  private static final int SERVER_STATE_ONLINE = 1;
+
+  /** Value of {@code ServerConstants.SERVER_STATE_SHUTDOWN}. */
+  private static final int SERVER_STATE_SHUTDOWN = 16;
+
+  private final Object server;
+  /** In-process connection to the served database, to count sessions. */
+  private final Connection connection;
+
+  private final Path portFile;
+  private final int port;
+  private final long idleMillis;
+  private final CountDownLatch stopped = new CountDownLatch(1);
+
+  private FoodmartServer(
+      Object server,
+      Connection connection,
+      Path portFile,
+      int port,
+      long idleMillis) {
+    this.server = server;
+    this.connection = connection;
+    this.portFile = portFile;
+    this.port = port;
+    this.idleMillis = idleMillis;
+  }
+
+  /**
+   * Returns the default server directory: the value of the system property
+   * {@code foodmart.server.dir} if set, otherwise {@code foodmart-server} in
+   * the temporary directory.
+   */
+  static Path defaultDirectory() {
+    final String dir = System.getProperty(DIRECTORY_PROPERTY);
+    if (dir != null) {
+      return Paths.get(dir);
+    }
+    return Paths.get(System.getProperty("java.io.tmpdir"), "foodmart-server");
+  }
+
+  /** Returns the idle timeout, in seconds. */
+  static int idleSeconds() {
+    return Integer.getInteger(IDLE_PROPERTY, DEFAULT_IDLE_SECONDS);
+  }
+
+  /** Returns the JDBC URI of a server on a given port. */
+  static String uri(int port) {
+    return "jdbc:hsqldb:hsql://127.0.0.1:" + port + "/foodmart";
+  }
+
+  /**
+   * Returns the JDBC URI of the server whose port file is in a given directory,
+   * or {@link FoodmartHsqldb#URI} if no server is running.
+   */
+  static String uri(Path directory) throws SQLException {
+    final Path portFile = portFile(directory);
+    final int port = runningPort(portFile);
+    if (port < 0) {
+      return FoodmartHsqldb.URI;
+    }
+    try {
+      // Tell the server that it is about to get a session.
+      Files.setLastModifiedTime(
+          portFile, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // The server has just stopped; fall back.
+      return FoodmartHsqldb.URI;
+    }
+    return uri(port);
+  }
+
+  /**
+   * Starts a server in a new process, unless one is already running, and
+   * returns its JDBC URI.
+   *
+   * <p>The process runs {@link #main}, and does not end when this JVM ends; it
+   * ends when the server has been idle for the idle timeout. If several JVMs
+   * call this method at the same time, only one server starts, and they all get
+   * its URI.
+   *
+   * @param directory Directory of the lock file and port file
+   * @param port Port, or 0 to use any free port
+   * @param idleSeconds Time without sessions after which the server stops
+   */
+  static String start(Path directory, int port, int idleSeconds)
+      throws SQLException {
+    final Path portFile = portFile(directory);
+    int runningPort = runningPort(portFile);
+    if (runningPort >= 0) {
+      return uri(runningPort);
+    }
+    final Path logFile = logFile(portFile);
+    final Process process;
+    try {
+      Files.createDirectories(directory);
+      final List<String> command =
+          Arrays.asList(
+              Paths.get(System.getProperty("java.home"), "bin", "java")
+                  .toString(),
+              "-cp",
+              classPath(),
+              "-D" + DIRECTORY_PROPERTY + "=" + directory.toAbsolutePath(),
+              "-D" + IDLE_PROPERTY + "=" + idleSeconds,
+              FoodmartServer.class.getName(),
+              Integer.toString(port));
+      process =
+          new ProcessBuilder(command)
+              .redirectErrorStream(true)
+              .redirectOutput(
+                  ProcessBuilder.Redirect.appendTo(logFile.toFile()))
+              .start();
+    } catch (IOException e) {
+      throw new SQLException("Error starting Foodmart server process", e);
+    }
+    final long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+    try {
+      for (; ; ) {
+        // If another JVM started a server at the same time, our process
+        // finds that server, and exits.
+        final boolean exited = process.waitFor(50, TimeUnit.MILLISECONDS);
+        runningPort = runningPort(portFile);
+        if (runningPort >= 0) {
+          return uri(runningPort);
+        }
+        if (exited) {
+          throw new SQLException(
+              "Foodmart server process exited with status "
+                  + process.exitValue()
+                  + "; see "
+                  + logFile);
+        }
+        if (System.currentTimeMillis() > deadline) {
+          process.destroy();
+          throw new SQLException(
+              "Foodmart server did not start within "
+                  + START_TIMEOUT_MILLIS
+                  + " ms; see "
+                  + logFile);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while starting Foodmart server", e);
+    }
+  }
+
+  /**
+   * Returns the class path of a server process: the locations of this class and
+   * of HSQLDB.
+   */
+  private static String classPath() throws SQLException {
+    try {
+      final StringBuilder b = new StringBuilder();
+      for (Class<?> c :
+          Arrays.asList(
+              FoodmartServer.class,
+              Class.forName("org.hsqldb.server.Server"))) {
+        if (b.length() > 0) {
+          b.append(File.pathSeparatorChar);
+        }
+        b.append(
+            Paths.get(
+                    c.getProtectionDomain()
+                        .getCodeSource()
+                        .getLocation()
+                        .toURI())
+                .toString());
+      }
+      return b.toString();
+    } catch (ReflectiveOperationException | URISyntaxException e) {
+      throw new SQLException("HSQLDB server is not available", e);
+    }
+  }
+
+  /**
+   * Starts a server, or returns null if a server is already running. Caller
+   * must hold the monitor of this class.
+   */
+  private static FoodmartServer tryStart(
+      Path directory, int port, long idleMillis) throws SQLException {
+    final Path portFile = portFile(directory);
+    try {
+      Files.createDirectories(directory);
+      try (FileChannel channel = lockChannel(directory);
+          FileLock ignore = channel.lock()) {
+        if (runningPort(portFile) >= 0) {
+          return null;
+        }
+        if (port == 0) {
+          port = freePort();
+        }
+        final Object server = startServer(port);
+        final Connection connection;
+        try {
+          // Fail now, rather than run a server that can never tell that it
+          // is idle.
+          connection =
+              DriverManager.getConnection(
+                  "jdbc:hsqldb:res:foodmart",
+                  FoodmartHsqldb.USER,
+                  FoodmartHsqldb.PASSWORD);
+          sessionCount(connection);
+        } catch (SQLException e) {
+          stopServer(server);
+          throw e;
+        }
+        final Path tmp = directory.resolve(portFile.getFileName() + ".tmp");
+        Files.write(
+            tmp, Integer.toString(port).getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, portFile, StandardCopyOption.ATOMIC_MOVE);
+        final FoodmartServer foodmartServer =
+            new FoodmartServer(server, connection, portFile, port, idleMillis);
+        final Thread thread =
+            new Thread(foodmartServer::monitor, "foodmart-server-monitor");
+        thread.setDaemon(true);
+        thread.start();
+        return foodmartServer;
+      }
+    } catch (IOException e) {
+      throw new SQLException("Error starting Foodmart server", e);
+    }
+  }
+
+  /** Returns the port file for the current version of the data. */
+  private static Path portFile(Path directory) throws SQLException {
+    return directory.resolve(
+        DatabaseCache.key(FoodmartHsqldb.tableNames()) + ".port");
+  }
+
+  /** Returns the log file of the server process that writes a port file. */
+  private static Path logFile(Path portFile) {
+    final String name = portFile.getFileName().toString();
+    return portFile.resolveSibling(
+        name.substring(0, name.length() - ".port".length()) + ".log");
+  }
+
+  private static FileChannel lockChannel(Path directory) throws IOException {
+    return FileChannel.open(
+        directory.resolve("lock"),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Returns the port in a port file, or -1 if there is no port file or nothing
+   * is listening on the port.
+   */
+  private static int runningPort(Path portFile) {
+    final int port;
+    try {
+      port =
+          Integer.parseInt(
+              new String(
+                      Files.readAllBytes(portFile), StandardCharsets.US_ASCII)
+                  .trim());
+    } catch (IOException | NumberFormatException e) {
+      return -1;
+    }
+    try (Socket socket = new Socket()) {
+      socket.connect(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1_000);
+      return port;
+    } catch (IOException e) {
+      return -1; // stale port file; the server's JVM died
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket =
+        new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /** Creates and starts an {@code org.hsqldb.server.Server}. */
+  private static Object startServer(int port) throws SQLException {
+    try {
+      final Class<?> c = Class.forName("org.hsqldb.server.Server");
+      final Object server = c.getConstructor().newInstance();
+      // Without an error writer, the server does not complain about the
+      // connections that runningPort makes to check that it is alive.
+      c.getMethod("setLogWriter", PrintWriter.class)
+          .invoke(server, (Object) null);
+      c.getMethod("setErrWriter", PrintWriter.class)
+          .invoke(server, (Object) null);
+      c.getMethod("setAddress", String.class).invoke(server, "127.0.0.1");
+      c.getMethod("setPort", int.class).invoke(server, port);
+      c.getMethod("setDatabaseName", int.class, String.class)
+          .invoke(server, 0, "foodmart");
+      c.getMethod("setDatabasePath", int.class, String.class)
+          .invoke(server, 0, "res:foodmart");
+      c.getMethod("setSilent", boolean.class).invoke(server, true);
+      c.getMethod("setNoSystemExit", boolean.class).invoke(server, true);
+      c.getMethod("setDaemon", boolean.class).invoke(server, true);
+      c.getMethod("start").invoke(server);
+      final Method getState = c.getMethod("getState");
+      for (; ; ) {
+        final int state = (Integer) getState.invoke(server);
+        if (state == SERVER_STATE_ONLINE) {
+          return server;
+        }
+        if (state == SERVER_STATE_SHUTDOWN) {
+          throw new SQLException("Foodmart server failed to start");
+        }
+        Thread.sleep(10);
+      }
+    } catch (ReflectiveOperationException e) {
+      throw new SQLException("HSQLDB server is not available", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while starting Foodmart server", e);
+    }
+  }
+
+  /** Stops an {@code org.hsqldb.server.Server}. */
+  private static void stopServer(Object server) throws SQLException {
+    try {
+      server.getClass().getMethod("stop").invoke(server);
+    } catch (ReflectiveOperationException e) {
+      throw new SQLException("Error stopping Foodmart server", e);
+    }
+  }
+
+  /** Returns the number of sessions other than the caller's. */
+  private static int sessionCount(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet r = statement.executeQuery(SESSION_COUNT_SQL)) {
+      r.next();
+      return r.getInt(1);
+    }
+  }
+
+  /**
+   * Polls the number of sessions, and stops the server after it has had none
+   * for {@link #idleMillis}. Runs in a daemon thread.
+   *
+   * <p>If polling fails, stops the server at once, rather than leave a server
+   * that would never stop.
+   */
+  private void monitor() {
+    final long interval = Math.max(10, Math.min(idleMillis / 4, 1_000));
+    long lastActive = System.currentTimeMillis();
+    try {
+      for (; ; ) {
+        Thread.sleep(interval);
+        final long now = System.currentTimeMillis();
+        if (sessionCount(connection) > 0) {
+          lastActive = now;
+        }
+        if (now - Math.max(lastActive, touched()) < idleMillis) {
+          continue;
+        }
+        synchronized (FoodmartServer.class) {
+          try (FileChannel channel = lockChannel(portFile.getParent());
+              FileLock ignore = channel.lock()) {
+            if (System.currentTimeMillis() - touched() < idleMillis) {
+              continue; // a JVM found the server while we waited for the lock
+            }
+            Files.deleteIfExists(portFile);
+            stopServer(server);
+            return;
+          }
+        }
+      }
+    } catch (Exception e) {
+      System.err.println("FoodmartServer: stopping after error: " + e);
+      try {
+        Files.deleteIfExists(portFile);
+        stopServer(server);
+      } catch (IOException | SQLException e2) {
+        System.err.println("FoodmartServer: error stopping: " + e2);
+      }
+    } finally {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        // ignore; the server has stopped
+      }
+      stopped.countDown();
+    }
+  }
+
+  /** Returns when the port file was last touched, or 0 if it is gone. */
+  private long touched() throws IOException {
+    return Files.exists(portFile)
+        ? Files.getLastModifiedTime(portFile).toMillis()
+        : 0;
+  }
+
+  /**
+   * Runs a server until it has been idle for the idle timeout.
+   *
+   * <p>Usage: {@code FoodmartServer [port]}. If a server is already running,
+   * prints its URI and exits.
+   */
+  public static void main(String[] args)
+      throws SQLException, InterruptedException {
+    if (args.length > 1) {
+      throw new IllegalArgumentException("usage: FoodmartServer [port]");
+    }
+    final int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+    final FoodmartServer server;
+    synchronized (FoodmartServer.class) {
+      server = tryStart(defaultDirectory(), port, idleSeconds() * 1_000L);
+    }
+    if (server == null) {
+      System.out.println(
+          "FoodmartServer: already running at " + uri(defaultDirectory()));
+      return;
+    }
+    System.out.println("FoodmartServer: running at " + uri(server.port));
+    server.stopped.await();
+  }
+}
+
+// End FoodmartServer.java
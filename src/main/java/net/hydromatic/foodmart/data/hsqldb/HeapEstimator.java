@@ -0,0 +1,283 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimates the heap that HSQLDB uses to hold a Foodmart table, from the
+ * table's CSV file and a model of the objects that HSQLDB allocates.
+ *
+ * <p>The model is deliberately simple. A row of a {@code MEMORY} table is a
+ * {@code RowAVL} object, an {@code Object[]} of values, and one boxed object
+ * per non-null value; each index adds one {@code NodeAVL} per row. A {@code
+ * TEXT} table holds its index in memory but caches the values of only a few
+ * thousand rows. The size of each object depends on whether the JVM uses
+ * compressed references, which the estimator asks the JVM, assuming 64-bit
+ * HotSpot if it cannot tell.
+ *
+ * <p>HSQLDB shares integers, and strings of up to 16 characters, through a
+ * value pool, which holds up to 8192 values of each type; the estimator counts
+ * each pooled value once per table, and assumes that values beyond the pool's
+ * capacity are not shared.
+ *
+ * @see HeapFootprint
+ */
+class HeapEstimator {
+  /**
+   * Number of rows whose values a text table caches: 3 &times; 2<sup>10</sup>,
+   * from the default {@code textdb.cache_scale} of 10.
+   */
+  static final int TEXT_CACHE_ROWS = 3 << 10;
+
+  /** Longest string that HSQLDB's value pool shares. */
+  static final int POOLED_STRING_LENGTH = 16;
+
+  /** Number of values of each type that HSQLDB's value pool can hold. */
+  static final int POOL_CAPACITY = 8192;
+
+  final int referenceBytes;
+  final int headerBytes;
+  final boolean compactStrings;
+
+  HeapEstimator(int referenceBytes, int headerBytes, boolean compactStrings) {
+    this.referenceBytes = referenceBytes;
+    this.headerBytes = headerBytes;
+    this.compactStrings = compactStrings;
+  }
+
+  /** Returns an estimator for the current JVM. */
+  static HeapEstimator current() {
+    final boolean java8 =
+        System.getProperty("java.specification.version").startsWith("1.");
+    final boolean compressedOops = vmOption("UseCompressedOops", true);
+    return new HeapEstimator(
+        compressedOops ? 4 : 8,
+        vmOption("UseCompressedClassPointers", compressedOops) ? 12 : 16,
+        !java8 && vmOption("CompactStrings", true));
+  }
+
+  /** Returns the value of a boolean HotSpot option, or a default. */
+  private static boolean vmOption(String name, boolean defaultValue) {
+    try {
+      final HotSpotDiagnosticMXBean bean =
+          ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+      return Boolean.parseBoolean(bean.getVMOption(name).getValue());
+    } catch (RuntimeException | LinkageError e) {
+      // Not HotSpot, or the option does not exist in this version.
+      return defaultValue;
+    }
+  }
+
+  /** Rounds a size up to a multiple of 8, the alignment of objects. */
+  static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  /** Returns the size of an object with fields totalling a given size. */
+  long objectBytes(int fieldBytes) {
+    return align(headerBytes + fieldBytes);
+  }
+
+  /** Returns the size of an array. */
+  long arrayBytes(int length, int elementBytes) {
+    return align(headerBytes + 4 + (long) length * elementBytes);
+  }
+
+  /** Returns the size of a string and its character array. */
+  long stringBytes(int length) {
+    // Java 9 and later: byte[] value, int hash, byte coder, boolean
+    // hashIsZero; Java 8: char[] value, int hash.
+    return compactStrings
+        ? objectBytes(referenceBytes + 6) + arrayBytes(length, 1)
+        : objectBytes(referenceBytes + 4) + arrayBytes(length, 2);
+  }
+
+  /**
+   * Returns the size of a row of a memory table, excluding the values: a {@code
+   * RowAVL} (long position, and references to the values, row action, table and
+   * primary node) and the {@code Object[]} of values.
+   */
+  long rowBytes(int columnCount) {
+    return objectBytes(8 + 4 * referenceBytes)
+        + arrayBytes(columnCount, referenceBytes);
+  }
+
+  /**
+   * Returns the size of a row of a text table, excluding the values: a {@code
+   * RowAVLDiskData}, which extends {@code RowAVL} with a reference to the
+   * store, an access count, a storage size and a flag.
+   */
+  long textRowBytes() {
+    return objectBytes(8 + 5 * referenceBytes + 9);
+  }
+
+  /**
+   * Returns the size of an index node: a {@code NodeAVL}, with a balance and
+   * references to its parent, children, row, and the row's node in the next
+   * index.
+   */
+  long nodeBytes() {
+    return objectBytes(4 + 5 * referenceBytes);
+  }
+
+  /**
+   * Returns the size of the object that holds a non-null value, or 0 if the
+   * value is a shared instance.
+   *
+   * <p>Values that HSQLDB pools are counted only the first time they are seen,
+   * until the pool is full; after that, each new value is counted every time,
+   * on the assumption that the values already in the pool are used more often
+   * and so survive eviction.
+   */
+  long valueBytes(int type, RowCursor cursor, int column, Pool pooled) {
+    switch (type) {
+      case Types.BOOLEAN:
+        return 0; // Boolean.TRUE or Boolean.FALSE
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        final int i = cursor.getInt(column);
+        return pooled.add(i) ? objectBytes(4) : 0; // Integer
+      case Types.BIGINT:
+        final long l = cursor.getLong(column);
+        return pooled.add(l) ? objectBytes(8) : 0; // Long
+      case Types.DOUBLE:
+      case Types.FLOAT:
+      case Types.REAL:
+        return objectBytes(8); // Double
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        // BigDecimal: BigInteger intVal (null if the value fits in a long),
+        // int scale, int precision, String stringCache, long intCompact
+        return objectBytes(2 * referenceBytes + 16);
+      case Types.DATE:
+      case Types.TIMESTAMP:
+        // TimestampData: long seconds, int nanos, int zone
+        return objectBytes(16);
+      default:
+        final String s = cursor.getString(column);
+        if (s.length() <= POOLED_STRING_LENGTH && !pooled.add(s)) {
+          return 0;
+        }
+        return stringBytes(s.length());
+    }
+  }
+
+  /**
+   * Estimates the heap used by a table.
+   *
+   * <p>If the table's CSV file is missing, the table is empty.
+   */
+  Estimate estimate(FoodmartSchema.Table table) throws IOException {
+    if (HeapEstimator.class.getResource(FoodmartHsqldb.tableUri(table.name))
+        == null) {
+      return new Estimate(table, 0, 0, 0);
+    }
+    final int columnCount = table.columns.size();
+    final int[] types = new int[columnCount];
+    for (FoodmartSchema.Column column : table.columns) {
+      types[column.ordinal] = column.type;
+    }
+    final Pool pooled = new Pool();
+    int rowCount = 0;
+    long valueBytes = 0;
+    long cachedValueBytes = 0;
+    try (RowCursor cursor = TableReader.of(table.name).open()) {
+      while (cursor.next()) {
+        long bytes = 0;
+        for (int i = 0; i < columnCount; i++) {
+          if (!cursor.isNull(i)) {
+            bytes += valueBytes(types[i], cursor, i, pooled);
+          }
+        }
+        valueBytes += bytes;
+        if (rowCount++ < TEXT_CACHE_ROWS) {
+          cachedValueBytes += bytes;
+        }
+      }
+    }
+    // A memory table's primary node is the first node of each row; the
+    // hidden primary key of a text table is its only index. While a text row
+    // is cached, the memory table's copy of the row shares its values.
+    final int cachedRowCount = Math.min(rowCount, TEXT_CACHE_ROWS);
+    final long tableBytes =
+        rowCount * (rowBytes(columnCount) + nodeBytes())
+            + valueBytes
+            - cachedValueBytes;
+    final long textTableBytes =
+        rowCount * (textRowBytes() + nodeBytes())
+            + cachedRowCount * arrayBytes(columnCount, referenceBytes)
+            + cachedValueBytes;
+    return new Estimate(table, rowCount, tableBytes, textTableBytes);
+  }
+
+  /** Returns the estimated size of an index on a table. */
+  long indexBytes(int rowCount) {
+    return rowCount * nodeBytes();
+  }
+
+  /** Model of HSQLDB's value pool. */
+  static class Pool {
+    private final Map<Class<?>, Set<Object>> values = new HashMap<>();
+
+    /** Returns whether a value would be a new object. */
+    boolean add(Object value) {
+      final Set<Object> set =
+          values.computeIfAbsent(value.getClass(), c -> new HashSet<>());
+      if (set.contains(value)) {
+        return false;
+      }
+      if (set.size() < POOL_CAPACITY) {
+        set.add(value);
+      }
+      return true;
+    }
+  }
+
+  /** Estimated heap used by a table. */
+  static class Estimate {
+    final FoodmartSchema.Table table;
+    final int rowCount;
+
+    /** Bytes used by the table as a {@code MEMORY} table, without indexes. */
+    final long tableBytes;
+
+    /** Bytes used by the table as a {@code TEXT} table. */
+    final long textTableBytes;
+
+    Estimate(
+        FoodmartSchema.Table table,
+        int rowCount,
+        long tableBytes,
+        long textTableBytes) {
+      this.table = table;
+      this.rowCount = rowCount;
+      this.tableBytes = tableBytes;
+      this.textTableBytes = textTableBytes;
+    }
+  }
+}
+
+// End HeapEstimator.java
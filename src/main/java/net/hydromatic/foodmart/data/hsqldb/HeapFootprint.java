@@ -0,0 +1,474 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Retained heap of each table and index of the Foodmart database.
+ *
+ * <p>{@link #measure()} replays {@code foodmart.script} in a fresh database
+ * (see {@link FoodmartHsqldb#profileScript(LoadListener)}), runs a full garbage
+ * collection after each statement, and attributes the growth of the heap to the
+ * table or index that the statement created. Text tables are in the {@code
+ * foodmart_csv} schema, memory tables and their indexes in the {@code foodmart}
+ * schema. Each figure is paired with an estimate from a model of HSQLDB's
+ * objects, which does not depend on garbage collection, so that a reader can
+ * tell noise from a real change.
+ *
+ * <p>A footprint can be written as a tab-separated report and read back, and
+ * compared with a baseline to catch regressions. For example,
+ *
+ * <pre>
+ * java -cp ... net.hydromatic.foodmart.data.hsqldb.HeapFootprint \
+ *     footprint.tsv baseline.tsv 0.1
+ * </pre>
+ *
+ * <p>writes {@code footprint.tsv} and exits with status 1 if either schema, or
+ * any object of at least 1 MiB, has grown by more than 10% since {@code
+ * baseline.tsv}.
+ *
+ * <p>Measurement needs a JVM that is doing nothing else, and a heap large
+ * enough for the whole database (about 512 MiB).
+ */
+public class HeapFootprint {
+  /** Schema of the memory tables and their indexes. */
+  public static final String SCHEMA = "foodmart";
+
+  /** Schema of the text tables. */
+  public static final String CSV_SCHEMA = "foodmart_csv";
+
+  /** Default threshold of {@link #main}; 0.1 means 10% growth. */
+  public static final double DEFAULT_THRESHOLD = 0.1;
+
+  /**
+   * Objects smaller than this are too noisy to compare individually, but still
+   * count towards their schema's total.
+   */
+  static final long MIN_COMPARED_BYTES = 1 << 20;
+
+  private static final String HEADER =
+      "# schema\tname\tkind\ttable\trows\tmeasured\testimated";
+
+  private final List<Entry> entries;
+
+  HeapFootprint(List<Entry> entries) {
+    this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+  }
+
+  /** Measures the footprint of every table and index. */
+  public static HeapFootprint measure() throws SQLException {
+    return measure(tableName -> true);
+  }
+
+  /**
+   * Measures the footprint of some tables and their indexes.
+   *
+   * @param tables Which tables to create
+   */
+  static HeapFootprint measure(Predicate<String> tables) throws SQLException {
+    final List<LoadListener.StatementMetrics> statements = new ArrayList<>();
+    final LoadListener listener =
+        new LoadListener() {
+          @Override
+          public void statementExecuted(LoadListener.StatementMetrics metrics) {
+            statements.add(metrics);
+          }
+        };
+    new ScriptProfiler(listener, tables, true).run();
+
+    final HeapEstimator estimator = HeapEstimator.current();
+    final Map<String, HeapEstimator.Estimate> estimates = new HashMap<>();
+    final Map<String, Entry> entries = new LinkedHashMap<>();
+    try {
+      for (LoadListener.StatementMetrics statement : statements) {
+        if (statement.tableName == null) {
+          continue;
+        }
+        HeapEstimator.Estimate estimate = estimates.get(statement.tableName);
+        if (estimate == null) {
+          estimate =
+              estimator.estimate(FoodmartSchema.table(statement.tableName));
+          estimates.put(statement.tableName, estimate);
+        }
+        // Garbage collection noise can make the growth of a small object
+        // negative; count it as 0, so that it never becomes a baseline.
+        final long heapBytes = Math.max(0L, statement.heapBytes);
+        final Entry entry;
+        switch (statement.kind) {
+          case "CREATE TEXT TABLE":
+          case "SET TABLE":
+            entry =
+                new Entry(
+                    CSV_SCHEMA,
+                    statement.tableName,
+                    Kind.TABLE,
+                    statement.tableName,
+                    estimate.rowCount,
+                    heapBytes,
+                    estimate.textTableBytes);
+            break;
+          case "CREATE MEMORY TABLE":
+            entry =
+                new Entry(
+                    SCHEMA,
+                    statement.tableName,
+                    Kind.TABLE,
+                    statement.tableName,
+                    estimate.rowCount,
+                    heapBytes,
+                    estimate.tableBytes);
+            break;
+          case "CREATE INDEX":
+          case "CREATE UNIQUE INDEX":
+            entry =
+                new Entry(
+                    SCHEMA,
+                    statement.indexName,
+                    Kind.INDEX,
+                    statement.tableName,
+                    estimate.rowCount,
+                    heapBytes,
+                    estimator.indexBytes(estimate.rowCount));
+            break;
+          default:
+            continue;
+        }
+        entries.merge(entry.key(), entry, Entry::plus);
+      }
+    } catch (IOException e) {
+      throw new SQLException("Error estimating heap footprint", e);
+    }
+    return new HeapFootprint(new ArrayList<>(entries.values()));
+  }
+
+  /** Returns the tables and indexes, in the order they were created. */
+  public List<Entry> entries() {
+    return entries;
+  }
+
+  /** Returns the entry for a table or index, or null. */
+  public Entry entry(String schema, String name) {
+    for (Entry entry : entries) {
+      if (entry.schema.equals(schema) && entry.name.equals(name)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the measured bytes of all tables and indexes in a schema. */
+  public long measuredBytes(String schema) {
+    long bytes = 0;
+    for (Entry entry : entries) {
+      if (entry.schema.equals(schema)) {
+        bytes += entry.measuredBytes;
+      }
+    }
+    return bytes;
+  }
+
+  /** Returns the estimated bytes of all tables and indexes in a schema. */
+  public long estimatedBytes(String schema) {
+    long bytes = 0;
+    for (Entry entry : entries) {
+      if (entry.schema.equals(schema)) {
+        bytes += entry.estimatedBytes;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Compares this footprint with a baseline, and describes each regression.
+   *
+   * <p>A regression is a schema, or a table or index whose baseline is at least
+   * 1 MiB, whose measured bytes have grown by more than the threshold. A table
+   * or index that is not in the baseline is also a regression, because its
+   * growth cannot be checked; record a new baseline that includes it. Objects
+   * that are in the baseline but not in this footprint are ignored, so a
+   * footprint of a few tables can be compared with a baseline of all of them.
+   *
+   * @param baseline Baseline footprint
+   * @param threshold Allowed growth; 0.1 means 10%
+   * @return Descriptions of regressions; empty if there are none
+   */
+  public List<String> regressions(HeapFootprint baseline, double threshold) {
+    final List<String> regressions = new ArrayList<>();
+    final Map<String, long[]> totals = new LinkedHashMap<>();
+    for (Entry entry : entries) {
+      final Entry base = baseline.entry(entry.schema, entry.name);
+      if (base == null) {
+        regressions.add(entry.key() + ": not in baseline");
+        continue;
+      }
+      final long[] total =
+          totals.computeIfAbsent(entry.schema, schema -> new long[2]);
+      total[0] += entry.measuredBytes;
+      total[1] += base.measuredBytes;
+      if (base.measuredBytes >= MIN_COMPARED_BYTES) {
+        check(
+            regressions,
+            entry.key(),
+            entry.measuredBytes,
+            base.measuredBytes,
+            threshold);
+      }
+    }
+    for (Map.Entry<String, long[]> total : totals.entrySet()) {
+      final long[] bytes = total.getValue();
+      if (bytes[1] > 0) {
+        check(regressions, total.getKey(), bytes[0], bytes[1], threshold);
+      }
+    }
+    return regressions;
+  }
+
+  private static void check(
+      List<String> regressions,
+      String name,
+      long bytes,
+      long baseBytes,
+      double threshold) {
+    if (bytes > baseBytes * (1D + threshold)) {
+      regressions.add(
+          String.format(
+              Locale.ROOT,
+              "%s: %,d bytes, baseline %,d bytes (%+.1f%%)",
+              name,
+              bytes,
+              baseBytes,
+              (bytes - baseBytes) * 100D / baseBytes));
+    }
+  }
+
+  /**
+   * Writes this footprint as tab-separated values, one line per table or index,
+   * after a header line that starts with {@code #}.
+   */
+  public void write(Appendable out) throws IOException {
+    out.append(HEADER).append('\n');
+    for (Entry entry : entries) {
+      out.append(entry.schema)
+          .append('\t')
+          .append(entry.name)
+          .append('\t')
+          .append(entry.kind.name().toLowerCase(Locale.ROOT))
+          .append('\t')
+          .append(entry.tableName)
+          .append('\t')
+          .append(Integer.toString(entry.rowCount))
+          .append('\t')
+          .append(Long.toString(entry.measuredBytes))
+          .append('\t')
+          .append(Long.toString(entry.estimatedBytes))
+          .append('\n');
+    }
+  }
+
+  /**
+   * Reads a footprint written by {@link #write(Appendable)}. Ignores blank
+   * lines and lines that start with {@code #}.
+   */
+  public static HeapFootprint read(Reader in) throws IOException {
+    final List<Entry> entries = new ArrayList<>();
+    final BufferedReader r = new BufferedReader(in);
+    int lineNumber = 0;
+    for (String line; (line = r.readLine()) != null; ) {
+      ++lineNumber;
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      final String[] fields = line.split("\t");
+      if (fields.length != 7) {
+        throw new IOException(
+            "line " + lineNumber + ": expected 7 fields, got " + fields.length);
+      }
+      if (fields[5].startsWith("-")) {
+        throw new IOException(
+            "line " + lineNumber + ": negative measured bytes: " + fields[5]);
+      }
+      try {
+        entries.add(
+            new Entry(
+                fields[0],
+                fields[1],
+                Kind.valueOf(fields[2].toUpperCase(Locale.ROOT)),
+                fields[3],
+                Integer.parseInt(fields[4]),
+                Long.parseLong(fields[5]),
+                Long.parseLong(fields[6])));
+      } catch (IllegalArgumentException e) {
+        throw new IOException("line " + lineNumber + ": " + e.getMessage(), e);
+      }
+    }
+    return new HeapFootprint(entries);
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder();
+    try {
+      write(b);
+    } catch (IOException e) {
+      throw new AssertionError(e); // StringBuilder does not throw
+    }
+    return b.toString();
+  }
+
+  /**
+   * Measures the footprint, writes it to a file, and optionally compares it
+   * with a baseline.
+   *
+   * @param args Report file; optional baseline file; optional threshold
+   *     (default {@link #DEFAULT_THRESHOLD})
+   */
+  public static void main(String[] args) throws IOException, SQLException {
+    if (args.length < 1 || args.length > 3) {
+      throw new IllegalArgumentException(
+          "usage: HeapFootprint report [baseline [threshold]]");
+    }
+    final HeapFootprint footprint = measure();
+    try (Writer w =
+        new OutputStreamWriter(
+            Files.newOutputStream(Paths.get(args[0])),
+            StandardCharsets.UTF_8)) {
+      footprint.write(w);
+    }
+    for (String schema : Arrays.asList(SCHEMA, CSV_SCHEMA)) {
+      System.out.printf(
+          Locale.ROOT,
+          "HeapFootprint: %s measured %,d bytes, estimated %,d bytes%n",
+          schema,
+          footprint.measuredBytes(schema),
+          footprint.estimatedBytes(schema));
+    }
+    if (args.length >= 2) {
+      final HeapFootprint baseline;
+      try (Reader r = Files.newBufferedReader(Paths.get(args[1]))) {
+        baseline = read(r);
+      }
+      final double threshold =
+          args.length >= 3 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+      final List<String> regressions =
+          footprint.regressions(baseline, threshold);
+      for (String regression : regressions) {
+        System.err.println("HeapFootprint: regression: " + regression);
+      }
+      if (!regressions.isEmpty()) {
+        System.exit(1);
+      }
+    }
+  }
+
+  /** Kind of object in a footprint. */
+  public enum Kind {
+    TABLE,
+    INDEX
+  }
+
+  /** Footprint of one table or index. */
+  public static class Entry {
+    public final String schema;
+    public final String name;
+    public final Kind kind;
+
+    /** Name of the table; for a table, the same as {@link #name}. */
+    public final String tableName;
+
+    public final int rowCount;
+
+    /**
+     * Growth of the heap, after garbage collection, when the object was
+     * created. Never negative; noise can make it 0 for a small object.
+     */
+    public final long measuredBytes;
+
+    /** Estimate from a model of HSQLDB's objects. */
+    public final long estimatedBytes;
+
+    public Entry(
+        String schema,
+        String name,
+        Kind kind,
+        String tableName,
+        int rowCount,
+        long measuredBytes,
+        long estimatedBytes) {
+      this.schema = schema;
+      this.name = name;
+      this.kind = kind;
+      this.tableName = tableName;
+      this.rowCount = rowCount;
+      this.measuredBytes = measuredBytes;
+      this.estimatedBytes = estimatedBytes;
+    }
+
+    /** Returns the qualified name, for example {@code foodmart.product}. */
+    String key() {
+      return schema + "." + name;
+    }
+
+    /**
+     * Combines the measurements of two statements on the same object, such as
+     * the statement that creates a text table and the statement that sets its
+     * source.
+     */
+    Entry plus(Entry entry) {
+      return new Entry(
+          schema,
+          name,
+          kind,
+          tableName,
+          rowCount,
+          measuredBytes + entry.measuredBytes,
+          estimatedBytes);
+    }
+
+    @Override
+    public String toString() {
+      return key()
+          + " "
+          + kind.name().toLowerCase(Locale.ROOT)
+          + " rows="
+          + rowCount
+          + " measured="
+          + measuredBytes
+          + " estimated="
+          + estimatedBytes;
+    }
+  }
+}
+
+// End HeapFootprint.java
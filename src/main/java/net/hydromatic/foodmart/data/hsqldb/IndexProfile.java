@@ -0,0 +1,143 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Set of indexes to create on the Foodmart tables.
+ *
+ * <p>{@link #DEFAULT} is the set in {@code foodmart.script}: about 90
+ * single-column indexes, as at {@link FoodmartHsqldb#URI}. {@link #NONE}
+ * creates no indexes, which makes the database faster to build and smaller, and
+ * suits bulk scans; joins, which cannot use an index, become much slower.
+ * {@link #OLAP} adds composite indexes for star joins and time filters.
+ *
+ * @see FoodmartHsqldb#connect(java.util.Set, boolean, IndexProfile)
+ * @see FoodmartHsqldb#cachedUri(java.nio.file.Path, IndexProfile)
+ */
+public enum IndexProfile {
+  /** No indexes. */
+  NONE,
+
+  /** The indexes in {@code foodmart.script}. */
+  DEFAULT,
+
+  /**
+   * The indexes in {@code foodmart.script}, plus composite indexes for OLAP
+   * queries.
+   *
+   * <p>The additional indexes are:
+   *
+   * <ul>
+   *   <li>on each table that has a foreign key to {@code time_by_day}, an index
+   *       on {@code time_id} and each of its other foreign keys, for example
+   *       {@code (time_id, product_id)} on {@code sales_fact_1997};
+   *   <li>on each table that has {@code the_year} and {@code quarter} columns,
+   *       an index on them and {@code month_of_year}, if present; on {@code
+   *       time_by_day}, the index also contains {@code time_id}, so that it
+   *       covers a time filter and the join to the fact table.
+   * </ul>
+   */
+  OLAP;
+
+  /** Returns the profile with a given name, ignoring case; e.g. "olap". */
+  public static IndexProfile of(String name) {
+    return valueOf(name.toUpperCase(Locale.ROOT));
+  }
+
+  /** Returns the indexes to create on a table, in the order to create them. */
+  public List<FoodmartSchema.Index> indexes(FoodmartSchema.Table table) {
+    switch (this) {
+      case NONE:
+        return Collections.emptyList();
+      case DEFAULT:
+        return table.indexes;
+      default:
+        final List<FoodmartSchema.Index> indexes =
+            new ArrayList<>(table.indexes);
+        indexes.addAll(olapIndexes(table));
+        return indexes;
+    }
+  }
+
+  /** Returns the indexes that {@link #OLAP} adds to a table. */
+  static List<FoodmartSchema.Index> olapIndexes(FoodmartSchema.Table table) {
+    final List<FoodmartSchema.Index> indexes = new ArrayList<>();
+    if (hasForeignKey(table, "time_id")) {
+      for (FoodmartSchema.ForeignKey foreignKey : table.foreignKeys) {
+        if (!foreignKey.columnName.equals("time_id")) {
+          // For example "olap_sales_fact_1997_time_product"
+          indexes.add(
+              index(
+                  table,
+                  "time_" + foreignKey.columnName.replaceAll("_id$", ""),
+                  "time_id",
+                  foreignKey.columnName));
+        }
+      }
+    }
+    if (hasColumn(table, "the_year") && hasColumn(table, "quarter")) {
+      final List<String> columnNames = new ArrayList<>();
+      columnNames.add("the_year");
+      columnNames.add("quarter");
+      if (hasColumn(table, "month_of_year")) {
+        columnNames.add("month_of_year");
+      }
+      if (table.name.equals("time_by_day")) {
+        columnNames.add("time_id");
+      }
+      indexes.add(index(table, "ymq", columnNames.toArray(new String[0])));
+    }
+    return indexes;
+  }
+
+  private static boolean hasForeignKey(
+      FoodmartSchema.Table table, String columnName) {
+    for (FoodmartSchema.ForeignKey foreignKey : table.foreignKeys) {
+      if (foreignKey.columnName.equals(columnName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasColumn(
+      FoodmartSchema.Table table, String columnName) {
+    for (FoodmartSchema.Column column : table.columns) {
+      if (column.name.equals(columnName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static FoodmartSchema.Index index(
+      FoodmartSchema.Table table, String suffix, String... columnNames) {
+    return new FoodmartSchema.Index(
+        "olap_" + table.name + "_" + suffix,
+        table.name,
+        false,
+        Arrays.asList(columnNames));
+  }
+}
+
+// End IndexProfile.java
@@ -0,0 +1,157 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+
+/**
+ * Listener that writes each event as a line of JSON.
+ *
+ * @see LoadListener#jsonLines(Appendable)
+ */
+class JsonLinesListener implements LoadListener {
+  private final Appendable out;
+
+  JsonLinesListener(Appendable out) {
+    this.out = out;
+  }
+
+  @Override
+  public void tableStarted(String operation, String tableName) {
+    write(
+        new StringBuilder("{\"event\":\"tableStarted\"")
+            .append(",\"operation\":")
+            .append(quote(operation))
+            .append(",\"table\":")
+            .append(quote(tableName))
+            .append(",\"timeMillis\":")
+            .append(System.currentTimeMillis())
+            .append('}'));
+  }
+
+  @Override
+  public void tableFinished(TableMetrics metrics) {
+    write(
+        new StringBuilder("{\"event\":\"tableFinished\"")
+            .append(",\"operation\":")
+            .append(quote(metrics.operation))
+            .append(",\"table\":")
+            .append(quote(metrics.tableName))
+            .append(",\"startMillis\":")
+            .append(metrics.startMillis)
+            .append(",\"rows\":")
+            .append(metrics.rowCount)
+            .append(",\"charsRead\":")
+            .append(metrics.charsRead)
+            .append(",\"elapsedNanos\":")
+            .append(metrics.elapsedNanos)
+            .append(",\"readNanos\":")
+            .append(metrics.readNanos)
+            .append(",\"parseNanos\":")
+            .append(metrics.parseNanos)
+            .append(",\"formatNanos\":")
+            .append(metrics.formatNanos)
+            .append(",\"waitNanos\":")
+            .append(metrics.waitNanos)
+            .append('}'));
+  }
+
+  @Override
+  public void statementExecuted(StatementMetrics metrics) {
+    write(
+        new StringBuilder("{\"event\":\"statementExecuted\"")
+            .append(",\"line\":")
+            .append(metrics.line)
+            .append(",\"kind\":")
+            .append(quote(metrics.kind))
+            .append(",\"table\":")
+            .append(quote(metrics.tableName))
+            .append(",\"index\":")
+            .append(quote(metrics.indexName))
+            .append(",\"elapsedNanos\":")
+            .append(metrics.elapsedNanos)
+            .append(",\"resourceNanos\":")
+            .append(metrics.resourceNanos)
+            .append(",\"heapBytes\":")
+            .append(metrics.heapBytes)
+            .append('}'));
+  }
+
+  @Override
+  public void opened(String uri, long elapsedNanos) {
+    write(
+        new StringBuilder("{\"event\":\"opened\"")
+            .append(",\"uri\":")
+            .append(quote(uri))
+            .append(",\"elapsedNanos\":")
+            .append(elapsedNanos)
+            .append(",\"version\":")
+            .append(quote(DatabaseCache.version()))
+            .append(",\"hsqldbVersion\":")
+            .append(quote(hsqldbVersion()))
+            .append('}'));
+  }
+
+  private static String hsqldbVersion() {
+    try {
+      return DatabaseCache.hsqldbVersion();
+    } catch (SQLException e) {
+      return null;
+    }
+  }
+
+  /** Writes a line; synchronized, so that lines are never interleaved. */
+  private synchronized void write(StringBuilder line) {
+    try {
+      out.append(line.append('\n'));
+      if (out instanceof Flushable) {
+        ((Flushable) out).flush();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns a string as a JSON literal, or "null". */
+  static String quote(String s) {
+    if (s == null) {
+      return "null";
+    }
+    final StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      switch (c) {
+        case '"':
+        case '\\':
+          b.append('\\').append(c);
+          break;
+        default:
+          if (c < 0x20) {
+            b.append(String.format("\\u%04x", (int) c));
+          } else {
+            b.append(c);
+          }
+      }
+    }
+    return b.append('"').toString();
+  }
+}
+
+// End JsonLinesListener.java
@@ -0,0 +1,225 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives metrics while Foodmart data is generated, loaded, or opened.
+ *
+ * <p>Pass a listener to {@link FoodmartHsqldb#generateInserts(int, int,
+ * LoadListener)}, to {@link LoadOptions#withListener(LoadListener)}, to {@link
+ * FoodmartHsqldb#open(LoadListener)} or to {@link
+ * FoodmartHsqldb#profileScript(LoadListener)}. Every method has an empty
+ * default implementation, so a listener need only override the events it wants.
+ *
+ * <p>{@link #jsonLines(Appendable)} returns a listener that writes each event
+ * as a line of JSON, for tools that trend the metrics across releases.
+ *
+ * <p>Methods may be called from several threads, if the data is consumed in
+ * parallel.
+ */
+public interface LoadListener {
+  /** Listener that ignores every event. */
+  LoadListener NONE = new LoadListener() {};
+
+  /**
+   * Called before the first row of a table is read.
+   *
+   * @param operation Operation, for example "generateInserts" or "load"
+   * @param tableName Table name
+   */
+  default void tableStarted(String operation, String tableName) {}
+
+  /** Called after the last row of a table has been consumed. */
+  default void tableFinished(TableMetrics metrics) {}
+
+  /**
+   * Called after a statement of {@code foodmart.script} has been executed by
+   * {@link FoodmartHsqldb#profileScript(LoadListener)}.
+   */
+  default void statementExecuted(StatementMetrics metrics) {}
+
+  /**
+   * Called after {@link FoodmartHsqldb#open(LoadListener)} has opened a
+   * connection.
+   */
+  default void opened(String uri, long elapsedNanos) {}
+
+  /**
+   * Returns a listener that writes each event as a JSON object on its own line.
+   * For example:
+   *
+   * <blockquote>
+   *
+   * <pre>
+   * {"event":"tableFinished","operation":"load","table":"days",
+   *  "startMillis":1700000000000,"rows":7,"charsRead":62,...}</pre>
+   *
+   * </blockquote>
+   *
+   * <p>Nanosecond values are integers. If the appendable is a {@link
+   * java.io.Flushable}, it is flushed after each line.
+   */
+  static LoadListener jsonLines(Appendable out) {
+    return new JsonLinesListener(out);
+  }
+
+  /** Metrics for one table of a generate or load operation. */
+  class TableMetrics {
+    /** Operation, for example "generateInserts" or "load". */
+    public final String operation;
+
+    public final String tableName;
+
+    /** Wall-clock time that the table started, in milliseconds. */
+    public final long startMillis;
+
+    /** Number of rows read from the CSV file. */
+    public final long rowCount;
+
+    /** Number of characters read from the CSV file. */
+    public final long charsRead;
+
+    /** Elapsed time, from start to finish, in nanoseconds. */
+    public final long elapsedNanos;
+
+    /**
+     * Time spent reading the CSV resource, including decompressing it from the
+     * jar, in nanoseconds.
+     */
+    public final long readNanos;
+
+    /** Time spent tokenizing CSV records, in nanoseconds. */
+    public final long parseNanos;
+
+    /**
+     * Time spent formatting values, in nanoseconds: building SQL strings for
+     * {@code generateInserts}, or binding parameters for {@code load}.
+     */
+    public final long formatNanos;
+
+    /**
+     * Time spent waiting for the consumer, in nanoseconds: between returning a
+     * statement and being asked for the next one for {@code generateInserts},
+     * or executing batches and commits for {@code load}.
+     *
+     * <p>For a parallel {@code load}, time that the reading thread spends
+     * blocked because the loading thread is behind is not included; it is part
+     * of {@link #elapsedNanos} only.
+     */
+    public final long waitNanos;
+
+    TableMetrics(
+        String operation,
+        String tableName,
+        long startMillis,
+        long rowCount,
+        long charsRead,
+        long elapsedNanos,
+        long readNanos,
+        long parseNanos,
+        long formatNanos,
+        long waitNanos) {
+      this.operation = operation;
+      this.tableName = tableName;
+      this.startMillis = startMillis;
+      this.rowCount = rowCount;
+      this.charsRead = charsRead;
+      this.elapsedNanos = elapsedNanos;
+      this.readNanos = readNanos;
+      this.parseNanos = parseNanos;
+      this.formatNanos = formatNanos;
+      this.waitNanos = waitNanos;
+    }
+
+    @Override
+    public String toString() {
+      return operation
+          + " "
+          + tableName
+          + ": "
+          + rowCount
+          + " rows in "
+          + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+          + " ms";
+    }
+  }
+
+  /** Metrics for one statement of {@code foodmart.script}. */
+  class StatementMetrics {
+    /** Line number of the statement in the script, starting at 1. */
+    public final int line;
+
+    /** Kind of statement, for example "CREATE MEMORY TABLE". */
+    public final String kind;
+
+    /** Name of the table that the statement creates or alters, or null. */
+    public final String tableName;
+
+    /** Name of the index that the statement creates, or null. */
+    public final String indexName;
+
+    /** Elapsed time, in nanoseconds. */
+    public final long elapsedNanos;
+
+    /**
+     * Part of {@link #elapsedNanos} spent extracting the statement's CSV
+     * resource from the jar, in nanoseconds; 0 if the statement has none.
+     */
+    public final long resourceNanos;
+
+    /**
+     * Growth of the heap, after garbage collection, caused by the statement, in
+     * bytes; -1 if not measured.
+     *
+     * @see HeapFootprint
+     */
+    public final long heapBytes;
+
+    StatementMetrics(
+        int line,
+        String kind,
+        String tableName,
+        String indexName,
+        long elapsedNanos,
+        long resourceNanos,
+        long heapBytes) {
+      this.line = line;
+      this.kind = kind;
+      this.tableName = tableName;
+      this.indexName = indexName;
+      this.elapsedNanos = elapsedNanos;
+      this.resourceNanos = resourceNanos;
+      this.heapBytes = heapBytes;
+    }
+
+    @Override
+    public String toString() {
+      return line
+          + ": "
+          + kind
+          + (tableName == null ? "" : " " + tableName)
+          + (indexName == null ? "" : " " + indexName)
+          + " in "
+          + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+          + " ms";
+    }
+  }
+}
+
+// End LoadListener.java
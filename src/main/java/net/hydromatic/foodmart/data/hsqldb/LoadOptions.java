@@ -0,0 +1,319 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Options for {@link FoodmartHsqldb#load}.
+ *
+ * <p>Immutable; start with {@link #DEFAULT} and call the {@code with} methods
+ * to change options.
+ */
+public class LoadOptions {
+  /**
+   * Default options: 1,000 rows per batch, commit every 10,000 rows, all
+   * tables, no schema, one thread per processor, platform threads, aggregate
+   * tables and all other tables read from CSV files.
+   */
+  public static final LoadOptions DEFAULT =
+      new LoadOptions(
+          1_000, 10_000, null, null, LoadListener.NONE, 0, false, false, false);
+
+  private final int batchSize;
+  private final int commitInterval;
+  private final String schema;
+  private final Set<String> tables;
+  private final LoadListener listener;
+  private final int parallelism;
+  private final boolean virtualThreads;
+  private final boolean deriveAggregates;
+  private final boolean columnar;
+
+  private LoadOptions(
+      int batchSize,
+      int commitInterval,
+      String schema,
+      Set<String> tables,
+      LoadListener listener,
+      int parallelism,
+      boolean virtualThreads,
+      boolean deriveAggregates,
+      boolean columnar) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException(
+          "batchSize must be positive: " + batchSize);
+    }
+    if (commitInterval < 0) {
+      throw new IllegalArgumentException(
+          "commitInterval must not be negative: " + commitInterval);
+    }
+    if (parallelism < 0) {
+      throw new IllegalArgumentException(
+          "parallelism must not be negative: " + parallelism);
+    }
+    this.batchSize = batchSize;
+    this.commitInterval = commitInterval;
+    this.schema = schema;
+    this.tables = tables;
+    this.listener = Objects.requireNonNull(listener);
+    this.parallelism = parallelism;
+    this.virtualThreads = virtualThreads;
+    this.deriveAggregates = deriveAggregates;
+    this.columnar = columnar;
+  }
+
+  /** Returns the number of rows added to a batch before it is executed. */
+  public int batchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Returns the number of rows after which the loader commits; 0 means commit
+   * only at the end of each table.
+   *
+   * <p>The loader commits after the first batch that reaches the interval, so
+   * the interval is effectively rounded up to a multiple of the batch size.
+   */
+  public int commitInterval() {
+    return commitInterval;
+  }
+
+  /**
+   * Returns the schema that contains the target tables, or null to use
+   * unqualified table names.
+   */
+  public String schema() {
+    return schema;
+  }
+
+  /**
+   * Returns the names of the tables to load, or null to load all tables.
+   *
+   * <p>Tables are always loaded in the order of {@link
+   * FoodmartHsqldb#tableNames()}.
+   */
+  public Set<String> tables() {
+    return tables;
+  }
+
+  /**
+   * Returns the listener that receives metrics for each table; {@link
+   * LoadListener#NONE} by default.
+   */
+  public LoadListener listener() {
+    return listener;
+  }
+
+  /**
+   * Returns the number of tables that {@link
+   * FoodmartHsqldb#load(javax.sql.DataSource, LoadOptions)} loads at a time,
+   * each on its own connection; 0 means the number of available processors.
+   */
+  public int parallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Returns whether {@link FoodmartHsqldb#load(javax.sql.DataSource,
+   * LoadOptions)} runs its workers on virtual threads. Ignored if the JVM does
+   * not support virtual threads (before JDK 21).
+   */
+  public boolean virtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * Returns whether the aggregate tables ({@code agg_*_sales_fact_1997}) are
+   * computed from {@code sales_fact_1997} and its dimension tables, rather than
+   * read from their CSV files; false by default.
+   *
+   * <p>The derived tables have the same rows as the CSV files, possibly in a
+   * different order. Deriving costs CPU (a pass over the fact table, and one
+   * hash aggregation per table) but reads about 20 MB less CSV.
+   */
+  public boolean deriveAggregates() {
+    return deriveAggregates;
+  }
+
+  /**
+   * Returns whether tables are read from the columnar snapshot (see {@link
+   * ColumnarTable}), where it has them, rather than parsed from their CSV
+   * files; false by default.
+   *
+   * <p>Values are bound from each {@link ColumnVector} without parsing. If
+   * {@link #deriveAggregates()} is also set, the aggregate tables are still
+   * derived.
+   */
+  public boolean columnar() {
+    return columnar;
+  }
+
+  /** Returns whether to load a given table. */
+  boolean includes(String tableName) {
+    return tables == null || tables.contains(tableName);
+  }
+
+  /** Returns a copy of these options with a given batch size. */
+  public LoadOptions withBatchSize(int batchSize) {
+    return new LoadOptions(
+        batchSize,
+        commitInterval,
+        schema,
+        tables,
+        listener,
+        parallelism,
+        virtualThreads,
+        deriveAggregates,
+        columnar);
+  }
+
+  /** Returns a copy of these options with a given commit interval. */
+  public LoadOptions withCommitInterval(int commitInterval) {
+    return new LoadOptions(
+        batchSize,
+        commitInterval,
+        schema,
+        tables,
+        listener,
+        parallelism,
+        virtualThreads,
+        deriveAggregates,
+        columnar);
+  }
+
+  /** Returns a copy of these options with a given target schema. */
+  public LoadOptions withSchema(String schema) {
+    return new LoadOptions(
+        batchSize,
+        commitInterval,
+        schema,
+        tables,
+        listener,
+        parallelism,
+        virtualThreads,
+        deriveAggregates,
+        columnar);
+  }
+
+  /**
+   * Returns a copy of these options that loads only the given tables, or all
+   * tables if {@code tables} is null.
+   */
+  public LoadOptions withTables(Collection<String> tables) {
+    return new LoadOptions(
+        batchSize,
+        commitInterval,
+        schema,
+        tables == null
+            ? null
+            : Collections.unmodifiableSet(new LinkedHashSet<>(tables)),
+        listener,
+        parallelism,
+        virtualThreads,
+        deriveAggregates,
+        columnar);
+  }
+
+  /**
+   * Returns a copy of these options that reports metrics for each table to a
+   * given listener.
+   */
+  public LoadOptions withListener(LoadListener listener) {
+    return new LoadOptions(
+        batchSize,
+        commitInterval,
+        schema,
+        tables,
+        listener,
+        parallelism,
+        virtualThreads,
+        deriveAggregates,
+        columnar);
+  }
+
+  /**
+   * Returns a copy of these options with a given parallelism; 0 means the
+   * number of available processors.
+   */
+  public LoadOptions withParallelism(int parallelism) {
+    return new LoadOptions(
+        batchSize,
+        commitInterval,
+        schema,
+        tables,
+        listener,
+        parallelism,
+        virtualThreads,
+        deriveAggregates,
+        columnar);
+  }
+
+  /** Returns a copy of these options that uses virtual threads, or not. */
+  public LoadOptions withVirtualThreads(boolean virtualThreads) {
+    return new LoadOptions(
+        batchSize,
+        commitInterval,
+        schema,
+        tables,
+        listener,
+        parallelism,
+        virtualThreads,
+        deriveAggregates,
+        columnar);
+  }
+
+  /**
+   * Returns a copy of these options that computes the aggregate tables instead
+   * of reading their CSV files, or not.
+   */
+  public LoadOptions withDeriveAggregates(boolean deriveAggregates) {
+    return new LoadOptions(
+        batchSize,
+        commitInterval,
+        schema,
+        tables,
+        listener,
+        parallelism,
+        virtualThreads,
+        deriveAggregates,
+        columnar);
+  }
+
+  /**
+   * Returns a copy of these options that reads tables from the columnar
+   * snapshot instead of their CSV files, or not.
+   */
+  public LoadOptions withColumnar(boolean columnar) {
+    return new LoadOptions(
+        batchSize,
+        commitInterval,
+        schema,
+        tables,
+        listener,
+        parallelism,
+        virtualThreads,
+        deriveAggregates,
+        columnar);
+  }
+}
+
+// End LoadOptions.java
@@ -0,0 +1,111 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Result of {@link FoodmartHsqldb#load}. */
+public class LoadResult {
+  private final List<TableResult> tables;
+  private final long elapsedNanos;
+
+  LoadResult(List<TableResult> tables, long elapsedNanos) {
+    this.tables = Collections.unmodifiableList(new ArrayList<>(tables));
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * Returns the result for each table loaded, in the order loaded. (If tables
+   * were loaded in parallel, the order in which they finished.)
+   */
+  public List<TableResult> tables() {
+    return tables;
+  }
+
+  /** Returns the result for a given table, or null if it was not loaded. */
+  public TableResult table(String tableName) {
+    for (TableResult table : tables) {
+      if (table.tableName.equals(tableName)) {
+        return table;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the total number of rows loaded. */
+  public long rowCount() {
+    long rowCount = 0;
+    for (TableResult table : tables) {
+      rowCount += table.rowCount;
+    }
+    return rowCount;
+  }
+
+  /**
+   * Returns the number of rows loaded per second, over the whole load. If
+   * tables were loaded in parallel, this is the aggregate throughput.
+   */
+  public double rowsPerSecond() {
+    return elapsedNanos == 0
+        ? 0d
+        : rowCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  /** Returns the elapsed time of the whole load, in nanoseconds. */
+  public long elapsedNanos() {
+    return elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "LoadResult{rows: "
+        + rowCount()
+        + ", millis: "
+        + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+        + ", tables: "
+        + tables
+        + "}";
+  }
+
+  /** Number of rows loaded into a table, and how long it took. */
+  public static class TableResult {
+    public final String tableName;
+    public final long rowCount;
+    public final long elapsedNanos;
+
+    TableResult(String tableName, long rowCount, long elapsedNanos) {
+      this.tableName = tableName;
+      this.rowCount = rowCount;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return tableName
+          + ": "
+          + rowCount
+          + " rows in "
+          + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+          + " ms";
+    }
+  }
+}
+
+// End LoadResult.java
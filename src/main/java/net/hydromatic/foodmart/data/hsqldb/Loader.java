@@ -0,0 +1,418 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Loads Foodmart data into a JDBC connection.
+ *
+ * <p>Reads each CSV file once, converts each field to the Java type that
+ * corresponds to its column's {@link Types} code, and binds it to a {@link
+ * PreparedStatement}, one statement per table, executed in batches.
+ *
+ * <p>If {@link LoadOptions#columnar()}, reads each table that is in the
+ * columnar snapshot from its {@link ColumnarTable} instead, and binds values
+ * straight from its {@link ColumnVector}s.
+ */
+class Loader {
+  private final Connection connection;
+  private final LoadOptions options;
+  /** Opens a tokenizer on a table's rows, starting with the header. */
+  private final Function<String, CsvTokenizer> tokenizerFactory;
+  /** Whether to read tables from the columnar snapshot, where possible. */
+  private final boolean columnar;
+  /**
+   * Whether the loader commits; if false, it never commits and leaves the
+   * transaction, and the auto-commit mode, to the caller.
+   */
+  private final boolean commit;
+
+  Loader(Connection connection, LoadOptions options) {
+    this(
+        connection,
+        options,
+        tokenizerFactory(options),
+        options.columnar(),
+        true);
+  }
+
+  /**
+   * Creates a loader that reads every table using a given tokenizer factory,
+   * and ignores {@link LoadOptions#columnar()}.
+   */
+  Loader(
+      Connection connection,
+      LoadOptions options,
+      Function<String, CsvTokenizer> tokenizerFactory) {
+    this(connection, options, tokenizerFactory, false, true);
+  }
+
+  private Loader(
+      Connection connection,
+      LoadOptions options,
+      Function<String, CsvTokenizer> tokenizerFactory,
+      boolean columnar,
+      boolean commit) {
+    this.connection = connection;
+    this.options = options;
+    this.tokenizerFactory = tokenizerFactory;
+    this.columnar = columnar;
+    this.commit = commit;
+  }
+
+  /**
+   * Creates a loader that never commits, neither every {@link
+   * LoadOptions#commitInterval()} rows nor at the end of each table, so that
+   * the caller can load tables as part of a larger transaction.
+   */
+  static Loader uncommitted(Connection connection, LoadOptions options) {
+    return new Loader(
+        connection,
+        options,
+        tokenizerFactory(options),
+        options.columnar(),
+        false);
+  }
+
+  /**
+   * Returns the default tokenizer factory for the given options: reads each
+   * table's CSV file, except the aggregate tables if {@link
+   * LoadOptions#deriveAggregates()}.
+   */
+  static Function<String, CsvTokenizer> tokenizerFactory(LoadOptions options) {
+    final Function<String, CsvTokenizer> factory =
+        tableName ->
+            StatementGenerator.open(
+                FoodmartHsqldb.class, FoodmartHsqldb.tableUri(tableName));
+    if (!options.deriveAggregates()) {
+      return factory;
+    }
+    final List<String> tableNames = new ArrayList<>();
+    for (String tableName : DerivedAggregates.TABLES) {
+      if (options.includes(tableName)) {
+        tableNames.add(tableName);
+      }
+    }
+    return DerivedAggregates.tokenizerFactory(factory, tableNames);
+  }
+
+  /**
+   * Returns whether, with the given options, a table is read from the columnar
+   * snapshot: the snapshot has it, and it is not a derived aggregate table.
+   */
+  static boolean isColumnar(LoadOptions options, String tableName) {
+    return options.columnar()
+        && !(options.deriveAggregates()
+            && DerivedAggregates.TABLES.contains(tableName))
+        && ColumnarTable.exists(tableName);
+  }
+
+  /** Loads the tables selected by the options. */
+  LoadResult load() throws SQLException {
+    final List<LoadResult.TableResult> results = new ArrayList<>();
+    final long start = System.nanoTime();
+    if (!commit) {
+      loadTables(results);
+      return new LoadResult(results, System.nanoTime() - start);
+    }
+    final boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try {
+      loadTables(results);
+    } catch (SQLException | RuntimeException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(autoCommit);
+    }
+    return new LoadResult(results, System.nanoTime() - start);
+  }
+
+  private void loadTables(List<LoadResult.TableResult> results)
+      throws SQLException {
+    final Map<String, List<Integer>> columnTypes = FoodmartHsqldb.columnTypes();
+    for (String tableName : FoodmartHsqldb.tableNames()) {
+      if (options.includes(tableName)) {
+        results.add(loadTable(tableName, columnTypes.get(tableName)));
+      }
+    }
+  }
+
+  /** Loads a single table, and commits unless this loader never commits. */
+  LoadResult.TableResult loadTable(String tableName, List<Integer> typeList)
+      throws SQLException {
+    final int[] types = StatementGenerator.toIntArray(typeList);
+    if (columnar && isColumnar(options, tableName)) {
+      return loadColumnar(tableName, types);
+    }
+    final long start = System.nanoTime();
+    final TableRecorder recorder =
+        TableRecorder.create(options.listener(), "load", tableName);
+    long rowCount = 0;
+    int batchRows = 0;
+    long uncommittedRows = 0;
+    try (CsvTokenizer tokenizer = tokenizerFactory.apply(tableName);
+        PreparedStatement statement =
+            connection.prepareStatement(insertSql(tableName, types.length))) {
+      long t = recorder == null ? 0 : System.nanoTime();
+      tokenizer.next(); // skip header
+      for (; ; ) {
+        final boolean hasRow = tokenizer.next();
+        if (recorder != null) {
+          final long t2 = System.nanoTime();
+          recorder.parseNanos += t2 - t;
+          t = t2;
+        }
+        if (!hasRow) {
+          break;
+        }
+        for (int i = 0; i < types.length; i++) {
+          bind(statement, i + 1, tokenizer, i, types[i]);
+        }
+        statement.addBatch();
+        ++rowCount;
+        if (recorder != null) {
+          final long t2 = System.nanoTime();
+          recorder.formatNanos += t2 - t;
+          t = t2;
+        }
+        if (++batchRows == options.batchSize()) {
+          statement.executeBatch();
+          uncommittedRows += batchRows;
+          batchRows = 0;
+          if (commit
+              && options.commitInterval() > 0
+              && uncommittedRows >= options.commitInterval()) {
+            connection.commit();
+            uncommittedRows = 0;
+          }
+          if (recorder != null) {
+            final long t2 = System.nanoTime();
+            recorder.waitNanos += t2 - t;
+            t = t2;
+          }
+        }
+      }
+      if (batchRows > 0) {
+        statement.executeBatch();
+      }
+      if (commit) {
+        connection.commit();
+      }
+      if (recorder != null) {
+        recorder.waitNanos += System.nanoTime() - t;
+        recorder.rowCount = rowCount;
+        recorder.finish(tokenizer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading CSV file for " + tableName, e);
+    }
+    return new LoadResult.TableResult(
+        tableName, rowCount, System.nanoTime() - start);
+  }
+
+  /**
+   * Loads a single table from the columnar snapshot, and commits unless this
+   * loader never commits.
+   */
+  private LoadResult.TableResult loadColumnar(String tableName, int[] types)
+      throws SQLException {
+    final long start = System.nanoTime();
+    final TableRecorder recorder =
+        TableRecorder.create(options.listener(), "load", tableName);
+    final ColumnarTable table;
+    try {
+      table = ColumnarTable.open(tableName);
+    } catch (IOException e) {
+      throw new RuntimeException(
+          "Error reading columnar file for " + tableName, e);
+    }
+    final long readNanos = System.nanoTime() - start;
+    final ColumnVector[] columns = table.columns().toArray(new ColumnVector[0]);
+    int batchRows = 0;
+    long uncommittedRows = 0;
+    try (PreparedStatement statement =
+        connection.prepareStatement(insertSql(tableName, types.length))) {
+      long t = recorder == null ? 0 : System.nanoTime();
+      for (int row = 0; row < table.rowCount(); row++) {
+        for (int i = 0; i < types.length; i++) {
+          bind(statement, i + 1, columns[i], row, types[i]);
+        }
+        statement.addBatch();
+        if (recorder != null) {
+          final long t2 = System.nanoTime();
+          recorder.formatNanos += t2 - t;
+          t = t2;
+        }
+        if (++batchRows == options.batchSize()) {
+          statement.executeBatch();
+          uncommittedRows += batchRows;
+          batchRows = 0;
+          if (commit
+              && options.commitInterval() > 0
+              && uncommittedRows >= options.commitInterval()) {
+            connection.commit();
+            uncommittedRows = 0;
+          }
+          if (recorder != null) {
+            final long t2 = System.nanoTime();
+            recorder.waitNanos += t2 - t;
+            t = t2;
+          }
+        }
+      }
+      if (batchRows > 0) {
+        statement.executeBatch();
+      }
+      if (commit) {
+        connection.commit();
+      }
+      if (recorder != null) {
+        recorder.waitNanos += System.nanoTime() - t;
+        recorder.rowCount = table.rowCount();
+        recorder.finish(0, readNanos);
+      }
+    }
+    return new LoadResult.TableResult(
+        tableName, table.rowCount(), System.nanoTime() - start);
+  }
+
+  /** Generates an INSERT statement with a parameter for each column. */
+  String insertSql(String tableName, int columnCount) {
+    final StringBuilder b = new StringBuilder("INSERT INTO ");
+    if (options.schema() != null) {
+      b.append('"').append(options.schema()).append("\".");
+    }
+    b.append('"').append(tableName).append("\" VALUES(");
+    for (int i = 0; i < columnCount; i++) {
+      b.append(i == 0 ? "?" : ",?");
+    }
+    return b.append(')').toString();
+  }
+
+  /**
+   * Binds the {@code i}th field of the current record of a tokenizer to a
+   * parameter, converting it to the Java type for the given {@link Types type}.
+   */
+  static void bind(
+      PreparedStatement statement,
+      int parameter,
+      CsvTokenizer tokenizer,
+      int i,
+      int type)
+      throws SQLException {
+    if (i >= tokenizer.fieldCount() || tokenizer.isNull(i)) {
+      statement.setNull(parameter, type);
+      return;
+    }
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+        statement.setShort(parameter, (short) tokenizer.getInt(i));
+        break;
+      case Types.INTEGER:
+        statement.setInt(parameter, tokenizer.getInt(i));
+        break;
+      case Types.BIGINT:
+        statement.setLong(parameter, tokenizer.getLong(i));
+        break;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        statement.setBigDecimal(parameter, tokenizer.getBigDecimal(i));
+        break;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        statement.setDouble(
+            parameter, Double.parseDouble(tokenizer.getString(i)));
+        break;
+      case Types.BOOLEAN:
+        statement.setBoolean(parameter, tokenizer.equalsIgnoreCase(i, "TRUE"));
+        break;
+      case Types.DATE:
+        statement.setDate(parameter, Date.valueOf(tokenizer.getString(i)));
+        break;
+      case Types.TIMESTAMP:
+        statement.setTimestamp(
+            parameter, Timestamp.valueOf(tokenizer.getString(i)));
+        break;
+      default:
+        statement.setString(parameter, tokenizer.getString(i));
+        break;
+    }
+  }
+
+  /** Binds a value from a column of the columnar snapshot to a parameter. */
+  private static void bind(
+      PreparedStatement statement,
+      int parameter,
+      ColumnVector column,
+      int row,
+      int type)
+      throws SQLException {
+    if (column.isNull(row)) {
+      statement.setNull(parameter, type);
+      return;
+    }
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+        statement.setShort(parameter, (short) column.getLong(row));
+        break;
+      case Types.INTEGER:
+        statement.setInt(parameter, (int) column.getLong(row));
+        break;
+      case Types.BIGINT:
+        statement.setLong(parameter, column.getLong(row));
+        break;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        statement.setBigDecimal(parameter, column.getBigDecimal(row));
+        break;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        statement.setDouble(parameter, column.getDouble(row));
+        break;
+      case Types.BOOLEAN:
+        statement.setBoolean(parameter, column.getBoolean(row));
+        break;
+      case Types.DATE:
+        statement.setDate(parameter, (Date) column.getObject(row));
+        break;
+      case Types.TIMESTAMP:
+        statement.setTimestamp(parameter, (Timestamp) column.getObject(row));
+        break;
+      default:
+        statement.setString(parameter, column.getString(row));
+        break;
+    }
+  }
+}
+
+// End Loader.java
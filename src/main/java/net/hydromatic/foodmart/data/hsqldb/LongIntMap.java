@@ -0,0 +1,103 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table from {@code long} keys to non-negative {@code int}
+ * values, with linear probing.
+ *
+ * <p>Grows when more than half full, so a table created with a capacity of
+ * twice the number of keys never grows.
+ */
+class LongIntMap {
+  private long[] keys;
+  private int[] values;
+  private int size;
+  private int mask;
+
+  LongIntMap(int capacity) {
+    final int n = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    keys = new long[n];
+    values = new int[n];
+    Arrays.fill(values, -1);
+    mask = n - 1;
+  }
+
+  /**
+   * Returns the value of a key; if the key is absent, adds it with a given
+   * value and returns -1.
+   */
+  int putIfAbsent(long key, int value) {
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      if (values[i] < 0) {
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+          grow();
+        }
+        return -1;
+      }
+      if (keys[i] == key) {
+        return values[i];
+      }
+    }
+  }
+
+  /** Returns the value of a key, or -1. */
+  int get(long key) {
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      final int value = values[i];
+      if (value < 0 || keys[i] == key) {
+        return value;
+      }
+    }
+  }
+
+  /** Returns the heap used by the arrays of this table. */
+  long bytes(HeapEstimator estimator) {
+    return estimator.arrayBytes(keys.length, 8)
+        + estimator.arrayBytes(values.length, 4);
+  }
+
+  private void grow() {
+    final long[] oldKeys = keys;
+    final int[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldKeys.length * 2];
+    Arrays.fill(values, -1);
+    mask = keys.length - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldValues[j] >= 0) {
+        int i = hash(oldKeys[j]) & mask;
+        while (values[i] >= 0) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  private static int hash(long key) {
+    final long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
+
+// End LongIntMap.java
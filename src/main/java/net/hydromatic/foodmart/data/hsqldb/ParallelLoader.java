@@ -0,0 +1,464 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import javax.sql.DataSource;
+
+/**
+ * Loads Foodmart data into a database using several connections at once.
+ *
+ * <p>Each of {@link LoadOptions#parallelism()} workers opens a connection from
+ * a {@link DataSource}, and loads one table at a time. A table is ready to load
+ * when the tables it references via {@link FoodmartSchema.Table#foreignKeys}
+ * have been loaded, so dimension tables are loaded first, and then the fact and
+ * aggregate tables concurrently. Among the ready tables, the largest is loaded
+ * first.
+ *
+ * <p>For each table, a producer thread reads the CSV file and converts its rows
+ * to Java objects, in batches, while the worker binds and executes the previous
+ * batches. A bounded queue between them keeps memory use constant.
+ *
+ * <p>The producer records parse and format time, and the worker records the
+ * time spent executing batches and commits as {@link
+ * LoadListener.TableMetrics#waitNanos}, as {@link Loader} does. The worker
+ * reports the table when it has committed the last batch.
+ */
+class ParallelLoader {
+  /** Number of batches that a producer may read ahead of its worker. */
+  private static final int QUEUE_CAPACITY = 4;
+
+  /** Marks the end of a table's rows. */
+  private static final Object[][] END = new Object[0][];
+
+  private final DataSource dataSource;
+  private final LoadOptions options;
+  private final Function<String, CsvTokenizer> tokenizerFactory;
+  /** Whether to read tables from the columnar snapshot, where possible. */
+  private final boolean columnar;
+
+  // Scheduler state; guarded by "this".
+  private final Map<String, Set<String>> dependencies = new HashMap<>();
+  private final PriorityQueue<String> ready =
+      new PriorityQueue<>(
+          Comparator.comparingInt(FoodmartHsqldb::rowCount)
+              .reversed()
+              .thenComparing(Comparator.naturalOrder()));
+  private int running;
+  private Throwable failure;
+  private final List<LoadResult.TableResult> results = new ArrayList<>();
+
+  ParallelLoader(DataSource dataSource, LoadOptions options) {
+    this(
+        dataSource,
+        options,
+        Loader.tokenizerFactory(options),
+        options.columnar());
+  }
+
+  /**
+   * Creates a loader that reads every table using a given tokenizer factory,
+   * and ignores {@link LoadOptions#columnar()}.
+   */
+  ParallelLoader(
+      DataSource dataSource,
+      LoadOptions options,
+      Function<String, CsvTokenizer> tokenizerFactory) {
+    this(dataSource, options, tokenizerFactory, false);
+  }
+
+  private ParallelLoader(
+      DataSource dataSource,
+      LoadOptions options,
+      Function<String, CsvTokenizer> tokenizerFactory,
+      boolean columnar) {
+    this.dataSource = dataSource;
+    this.options = options;
+    this.tokenizerFactory = tokenizerFactory;
+    this.columnar = columnar;
+  }
+
+  /** Loads the tables selected by the options. */
+  LoadResult load() throws SQLException {
+    final List<String> tableNames = new ArrayList<>();
+    for (String tableName : FoodmartHsqldb.tableNames()) {
+      if (options.includes(tableName)) {
+        tableNames.add(tableName);
+      }
+    }
+    for (String tableName : tableNames) {
+      final Set<String> targets = new HashSet<>();
+      for (FoodmartSchema.ForeignKey foreignKey :
+          FoodmartSchema.table(tableName).foreignKeys) {
+        if (!foreignKey.targetTableName.equals(tableName)
+            && tableNames.contains(foreignKey.targetTableName)) {
+          targets.add(foreignKey.targetTableName);
+        }
+      }
+      if (targets.isEmpty()) {
+        ready.add(tableName);
+      } else {
+        dependencies.put(tableName, targets);
+      }
+    }
+
+    final int parallelism =
+        options.parallelism() > 0
+            ? options.parallelism()
+            : Runtime.getRuntime().availableProcessors();
+    final long start = System.nanoTime();
+    final ExecutorService executor = executor(options.virtualThreads());
+    try {
+      final List<Future<?>> workers = new ArrayList<>();
+      for (int i = 0; i < Math.min(parallelism, tableNames.size()); i++) {
+        workers.add(
+            executor.submit(
+                () -> {
+                  work(executor);
+                  return null;
+                }));
+      }
+      for (Future<?> worker : workers) {
+        try {
+          worker.get();
+        } catch (ExecutionException e) {
+          fail(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          fail(e);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    synchronized (this) {
+      if (failure != null) {
+        throw failure instanceof SQLException
+            ? (SQLException) failure
+            : new SQLException("Error loading Foodmart data", failure);
+      }
+      if (!dependencies.isEmpty()) {
+        throw new IllegalStateException(
+            "cyclic foreign keys among " + dependencies.keySet());
+      }
+      return new LoadResult(results, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Creates an executor that starts a thread per task: a virtual thread if
+   * requested and the JVM supports them, otherwise a daemon platform thread.
+   */
+  static ExecutorService executor(boolean virtualThreads) {
+    if (virtualThreads) {
+      try {
+        // Executors.newVirtualThreadPerTaskExecutor() exists in JDK 21 and
+        // later; this code is compiled for JDK 8.
+        final Method method =
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) method.invoke(null);
+      } catch (ReflectiveOperationException e) {
+        // Fall through, and use platform threads
+      }
+    }
+    return Executors.newCachedThreadPool(
+        r -> {
+          final Thread thread = new Thread(r, "foodmart-loader");
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /** Body of a worker: loads tables on a connection until none are left. */
+  private void work(ExecutorService executor) throws Exception {
+    try (Connection connection = dataSource.getConnection()) {
+      final boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      try {
+        for (String tableName; (tableName = take()) != null; ) {
+          final LoadResult.TableResult result =
+              loadTable(connection, tableName, executor);
+          done(tableName, result);
+        }
+      } catch (Throwable e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(autoCommit);
+      }
+    } catch (Throwable e) {
+      fail(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the next table that is ready to load, waiting if necessary, or null
+   * if there are no more tables or a worker has failed.
+   */
+  private synchronized String take() throws InterruptedException {
+    for (; ; ) {
+      if (failure != null) {
+        return null;
+      }
+      final String tableName = ready.poll();
+      if (tableName != null) {
+        ++running;
+        return tableName;
+      }
+      if (running == 0) {
+        // Nothing ready and nothing running, so nothing will become ready.
+        return null;
+      }
+      wait();
+    }
+  }
+
+  /** Records that a table is loaded, and releases the tables that need it. */
+  private synchronized void done(
+      String tableName, LoadResult.TableResult result) {
+    --running;
+    results.add(result);
+    dependencies
+        .entrySet()
+        .removeIf(
+            e -> {
+              e.getValue().remove(tableName);
+              if (e.getValue().isEmpty()) {
+                ready.add(e.getKey());
+                return true;
+              }
+              return false;
+            });
+    notifyAll();
+  }
+
+  private synchronized void fail(Throwable e) {
+    if (failure == null) {
+      failure = e;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Loads a table on a connection. Rows are read by a producer task, and
+   * inserted by the calling thread.
+   *
+   * <p>The producer and the calling thread add to different fields of the
+   * table's {@link TableRecorder}; the calling thread reports it after {@link
+   * Future#get()} has returned, so sees the producer's fields.
+   */
+  private LoadResult.TableResult loadTable(
+      Connection connection, String tableName, ExecutorService executor)
+      throws Exception {
+    final long start = System.nanoTime();
+    final int[] types =
+        StatementGenerator.toIntArray(
+            FoodmartSchema.table(tableName).columnTypes());
+    final TableRecorder recorder =
+        TableRecorder.create(options.listener(), "load", tableName);
+    final BlockingQueue<Object[][]> queue =
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    final Future<?> producer =
+        executor.submit(
+            () -> {
+              produce(tableName, types, queue, recorder);
+              return null;
+            });
+    long rowCount = 0;
+    long uncommittedRows = 0;
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            new Loader(connection, options)
+                .insertSql(tableName, types.length))) {
+      for (Object[][] batch; (batch = queue.take()) != END; ) {
+        for (Object[] row : batch) {
+          for (int i = 0; i < types.length; i++) {
+            if (row[i] == null) {
+              statement.setNull(i + 1, types[i]);
+            } else {
+              statement.setObject(i + 1, row[i]);
+            }
+          }
+          statement.addBatch();
+        }
+        final long t = recorder == null ? 0 : System.nanoTime();
+        statement.executeBatch();
+        rowCount += batch.length;
+        uncommittedRows += batch.length;
+        if (options.commitInterval() > 0
+            && uncommittedRows >= options.commitInterval()) {
+          connection.commit();
+          uncommittedRows = 0;
+        }
+        if (recorder != null) {
+          recorder.waitNanos += System.nanoTime() - t;
+        }
+      }
+      producer.get(); // rethrows the producer's exception, if any
+      final long t = recorder == null ? 0 : System.nanoTime();
+      connection.commit();
+      if (recorder != null) {
+        recorder.waitNanos += System.nanoTime() - t;
+        recorder.finish();
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception
+          ? (Exception) e.getCause()
+          : new RuntimeException(e.getCause());
+    } finally {
+      producer.cancel(true);
+    }
+    return new LoadResult.TableResult(
+        tableName, rowCount, System.nanoTime() - start);
+  }
+
+  /**
+   * Body of a producer: reads a table's rows, converts them to Java objects,
+   * and puts them on a queue in batches, followed by {@link #END}.
+   *
+   * <p>If reading fails, puts {@link #END} on the queue and rethrows, so that
+   * the worker stops waiting and sees the exception.
+   */
+  private void produce(
+      String tableName,
+      int[] types,
+      BlockingQueue<Object[][]> queue,
+      TableRecorder recorder)
+      throws IOException, InterruptedException {
+    if (columnar && Loader.isColumnar(options, tableName)) {
+      produceColumnar(tableName, types, queue, recorder);
+      return;
+    }
+    final int batchSize = options.batchSize();
+    try (CsvTokenizer tokenizer = tokenizerFactory.apply(tableName)) {
+      try {
+        long t = recorder == null ? 0 : System.nanoTime();
+        tokenizer.next(); // skip header
+        Object[][] batch = new Object[batchSize][];
+        int n = 0;
+        for (; ; ) {
+          final boolean hasRow = tokenizer.next();
+          if (recorder != null) {
+            final long t2 = System.nanoTime();
+            recorder.parseNanos += t2 - t;
+            t = t2;
+          }
+          if (hasRow) {
+            final Object[] row = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+              row[i] = tokenizer.getObject(i, types[i]);
+            }
+            batch[n++] = row;
+            if (recorder != null) {
+              ++recorder.rowCount;
+              final long t2 = System.nanoTime();
+              recorder.formatNanos += t2 - t;
+              t = t2;
+            }
+          }
+          if (n == batchSize || !hasRow && n > 0) {
+            queue.put(n == batchSize ? batch : Arrays.copyOf(batch, n));
+            batch = new Object[batchSize][];
+            n = 0;
+            if (recorder != null) {
+              t = System.nanoTime();
+            }
+          }
+          if (!hasRow) {
+            break;
+          }
+        }
+      } finally {
+        queue.put(END);
+      }
+      if (recorder != null) {
+        recorder.read(tokenizer);
+      }
+    }
+  }
+
+  /**
+   * Body of a producer for a table in the columnar snapshot: as {@link
+   * #produce}, but reads values from the table's {@link ColumnVector}s instead
+   * of parsing a CSV file.
+   */
+  private void produceColumnar(
+      String tableName,
+      int[] types,
+      BlockingQueue<Object[][]> queue,
+      TableRecorder recorder)
+      throws IOException, InterruptedException {
+    final int batchSize = options.batchSize();
+    try {
+      final long start = System.nanoTime();
+      final ColumnarTable table = ColumnarTable.open(tableName);
+      final long readNanos = System.nanoTime() - start;
+      final ColumnVector[] columns =
+          table.columns().toArray(new ColumnVector[0]);
+      long t = start + readNanos;
+      for (int row = 0; row < table.rowCount(); ) {
+        final Object[][] batch =
+            new Object[Math.min(batchSize, table.rowCount() - row)][];
+        for (int j = 0; j < batch.length; j++, row++) {
+          final Object[] values = new Object[types.length];
+          for (int i = 0; i < types.length; i++) {
+            values[i] = columns[i].getObject(row);
+          }
+          batch[j] = values;
+        }
+        if (recorder != null) {
+          recorder.rowCount += batch.length;
+          final long t2 = System.nanoTime();
+          recorder.formatNanos += t2 - t;
+          t = t2;
+        }
+        queue.put(batch);
+        if (recorder != null) {
+          t = System.nanoTime();
+        }
+      }
+      if (recorder != null) {
+        recorder.read(0, readNanos);
+      }
+    } finally {
+      queue.put(END);
+    }
+  }
+}
+
+// End ParallelLoader.java
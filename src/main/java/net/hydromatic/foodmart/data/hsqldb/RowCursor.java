@@ -0,0 +1,146 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Types;
+
+/**
+ * Cursor over the rows of a Foodmart table, with typed accessors.
+ *
+ * <p>Created by {@link TableReader#open()}. Call {@link #next()} to move to the
+ * next row, then call accessors with a zero-based column ordinal (see {@link
+ * FoodmartSchema.Column#ordinal}).
+ *
+ * <p>Values are parsed from the CSV text in place. Except for {@link
+ * #getString(int)}, accessors do not allocate, and the cursor does not allocate
+ * per row. The primitive accessors return 0 (or false) if the value is null;
+ * call {@link #isNull(int)} to distinguish.
+ *
+ * <p>The accessors do not check the type of the column. For example, calling
+ * {@link #getInt(int)} on a {@code VARCHAR} column throws {@link
+ * NumberFormatException} unless the value happens to be an integer.
+ */
+public class RowCursor implements Closeable {
+  private final FoodmartSchema.Table table;
+  private final CsvTokenizer tokenizer;
+  /** Scale of each column; 0 if the column has no scale. */
+  private final int[] scales;
+
+  private final int[] types;
+
+  RowCursor(FoodmartSchema.Table table, CsvTokenizer tokenizer) {
+    this.table = table;
+    this.tokenizer = tokenizer;
+    this.scales = new int[table.columns.size()];
+    this.types = new int[table.columns.size()];
+    for (FoodmartSchema.Column column : table.columns) {
+      scales[column.ordinal] = Math.max(column.scale, 0);
+      types[column.ordinal] = column.type;
+    }
+  }
+
+  /** Returns the table. */
+  public FoodmartSchema.Table table() {
+    return table;
+  }
+
+  /** Returns the number of columns. */
+  public int columnCount() {
+    return types.length;
+  }
+
+  /**
+   * Moves to the next row.
+   *
+   * @return whether there is a row; false at the end of the table
+   */
+  public boolean next() throws IOException {
+    return tokenizer.next();
+  }
+
+  /** Returns whether the value of a column in the current row is null. */
+  public boolean isNull(int column) {
+    return tokenizer.isNull(column);
+  }
+
+  /** Returns the value of an integer column. */
+  public int getInt(int column) {
+    return tokenizer.isNull(column) ? 0 : tokenizer.getInt(column);
+  }
+
+  /** Returns the value of an integer column. */
+  public long getLong(int column) {
+    return tokenizer.isNull(column) ? 0 : tokenizer.getLong(column);
+  }
+
+  /**
+   * Returns the unscaled value of a {@code DECIMAL} column. For example, if the
+   * column is {@code DECIMAL(10,4)} and the value is 1.5, returns 15000. For an
+   * integer column, returns the value.
+   */
+  public long getDecimalUnscaled(int column) {
+    return tokenizer.isNull(column)
+        ? 0
+        : tokenizer.getUnscaled(column, scales[column]);
+  }
+
+  /**
+   * Returns the value of a numeric column as a {@code double}. Allocates if the
+   * column is {@code DOUBLE}.
+   */
+  public double getDouble(int column) {
+    if (tokenizer.isNull(column)) {
+      return 0;
+    }
+    switch (types[column]) {
+      case Types.DOUBLE:
+      case Types.FLOAT:
+      case Types.REAL:
+        return Double.parseDouble(tokenizer.getString(column));
+      default:
+        return (double) tokenizer.getUnscaled(column, scales[column])
+            / CsvTokenizer.POWERS_OF_TEN[scales[column]];
+    }
+  }
+
+  /** Returns the value of a {@code BOOLEAN} column. */
+  public boolean getBoolean(int column) {
+    return tokenizer.equalsIgnoreCase(column, "TRUE");
+  }
+
+  /**
+   * Returns the value of a {@code DATE} or {@code TIMESTAMP} column as
+   * milliseconds since the epoch, as if the value were in UTC.
+   */
+  public long getEpochMillis(int column) {
+    return tokenizer.isNull(column) ? 0 : tokenizer.getEpochMillis(column);
+  }
+
+  /** Returns the value of a column as a string, or null. Allocates. */
+  public String getString(int column) {
+    return tokenizer.isNull(column) ? null : tokenizer.getString(column);
+  }
+
+  @Override
+  public void close() throws IOException {
+    tokenizer.close();
+  }
+}
+
+// End RowCursor.java
@@ -0,0 +1,304 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Restricts the tables and rows that {@link FoodmartHsqldb#generateInserts(int,
+ * int, LoadListener, RowFilter)} generates.
+ *
+ * <p>Immutable; start with {@link #ALL} and call {@link #withTables}, {@link
+ * #between} and {@link #in} to narrow it. A row passes if it passes every
+ * predicate on its table; a null value never passes.
+ *
+ * <p>Predicates apply to integral columns, and are evaluated on the fields of
+ * each CSV record before the record is formatted as SQL. A table is skipped
+ * without reading its CSV file if the range of a column in the {@link
+ * ColumnarTable columnar snapshot} shows that no row can pass.
+ *
+ * <p>For example, to generate the first quarter of 1997 for two stores:
+ *
+ * <pre>{@code
+ * RowFilter filter =
+ *     RowFilter.ALL
+ *         .withTables(Arrays.asList("time_by_day", "sales_fact_1997"))
+ *         .between(null, "time_id", 367, 456)
+ *         .in("sales_fact_1997", "store_id", 2, 3);
+ * }</pre>
+ */
+public class RowFilter {
+  /** Filter that passes every row of every table. */
+  public static final RowFilter ALL =
+      new RowFilter(null, Collections.emptyList());
+
+  private final Set<String> tables;
+  private final List<Predicate> predicates;
+
+  private RowFilter(Set<String> tables, List<Predicate> predicates) {
+    this.tables = tables;
+    this.predicates = predicates;
+  }
+
+  /** Returns the names of the tables to generate, or null for all tables. */
+  public Set<String> tables() {
+    return tables;
+  }
+
+  /**
+   * Returns a copy of this filter that passes only the given tables, or all
+   * tables if {@code tables} is null.
+   *
+   * @throws IllegalArgumentException if a table does not exist
+   */
+  public RowFilter withTables(Collection<String> tables) {
+    if (tables != null) {
+      tables.forEach(FoodmartSchema::table);
+    }
+    return new RowFilter(
+        tables == null
+            ? null
+            : Collections.unmodifiableSet(new LinkedHashSet<>(tables)),
+        predicates);
+  }
+
+  /**
+   * Returns a copy of this filter that passes only rows whose value of a column
+   * is between {@code low} and {@code high}, inclusive.
+   *
+   * @param tableName Table, or null to apply to every table that has the column
+   * @param columnName Column; must be integral
+   * @throws IllegalArgumentException if the table does not exist, or does not
+   *     have an integral column of that name
+   */
+  public RowFilter between(
+      String tableName, String columnName, long low, long high) {
+    return with(new Predicate(tableName, columnName, low, high, null));
+  }
+
+  /**
+   * Returns a copy of this filter that passes only rows whose value of a column
+   * is one of the given values.
+   *
+   * @param tableName Table, or null to apply to every table that has the column
+   * @param columnName Column; must be integral
+   * @throws IllegalArgumentException if the table does not exist, or does not
+   *     have an integral column of that name
+   */
+  public RowFilter in(String tableName, String columnName, long... values) {
+    final long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    final long low = sorted.length == 0 ? 0 : sorted[0];
+    final long high = sorted.length == 0 ? -1 : sorted[sorted.length - 1];
+    return with(new Predicate(tableName, columnName, low, high, sorted));
+  }
+
+  private RowFilter with(Predicate predicate) {
+    if (predicate.tableName != null) {
+      predicate.ordinal(FoodmartSchema.table(predicate.tableName));
+    }
+    final List<Predicate> list = new ArrayList<>(predicates);
+    list.add(predicate);
+    return new RowFilter(tables, Collections.unmodifiableList(list));
+  }
+
+  /** Returns whether to generate a given table. */
+  boolean includes(String tableName) {
+    return tables == null || tables.contains(tableName);
+  }
+
+  /**
+   * Returns a matcher for the rows of a table, or null if every row of the
+   * table passes.
+   */
+  Matcher matcher(String tableName) {
+    final FoodmartSchema.Table table = FoodmartSchema.table(tableName);
+    final List<Predicate> list = new ArrayList<>();
+    final List<Integer> ordinals = new ArrayList<>();
+    for (Predicate predicate : predicates) {
+      final int ordinal = predicate.ordinal(table);
+      if (ordinal >= 0) {
+        list.add(predicate);
+        ordinals.add(ordinal);
+      }
+    }
+    if (list.isEmpty()) {
+      return null;
+    }
+    return new Matcher(
+        list.toArray(new Predicate[0]),
+        StatementGenerator.toIntArray(ordinals));
+  }
+
+  /**
+   * Returns whether no row of a table can pass, judging by the range of each
+   * column in the columnar snapshot. Returns false if the snapshot does not
+   * contain the table.
+   *
+   * <p>Reads only the header of the table's columnar file, once per JVM (see
+   * {@link ColumnarTable#summary(String)}).
+   */
+  boolean prunes(String tableName) {
+    final Matcher matcher = matcher(tableName);
+    if (matcher == null || !ColumnarTable.exists(tableName)) {
+      return false;
+    }
+    final ColumnarTable.Summary summary;
+    try {
+      summary = ColumnarTable.summary(tableName);
+    } catch (IOException e) {
+      return false;
+    }
+    if (summary.rowCount == 0) {
+      return true;
+    }
+    for (int i = 0; i < matcher.predicates.length; i++) {
+      final int ordinal = matcher.ordinals[i];
+      if (summary.isIntegral(ordinal)
+          && !matcher.predicates[i].overlaps(
+              summary.min(ordinal), summary.max(ordinal))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "RowFilter{tables=" + tables + ", predicates=" + predicates + "}";
+  }
+
+  /** Predicate on an integral column. */
+  private static class Predicate {
+    final String tableName;
+    final String columnName;
+    final long low;
+    final long high;
+    /** Sorted values, or null if the predicate is a range. */
+    final long[] values;
+
+    Predicate(
+        String tableName,
+        String columnName,
+        long low,
+        long high,
+        long[] values) {
+      this.tableName = tableName;
+      this.columnName = columnName;
+      this.low = low;
+      this.high = high;
+      this.values = values;
+    }
+
+    /**
+     * Returns the ordinal of this predicate's column in a table, or -1 if the
+     * predicate does not apply to the table.
+     *
+     * @throws IllegalArgumentException if the predicate names the table, and
+     *     the table does not have an integral column of that name
+     */
+    int ordinal(FoodmartSchema.Table table) {
+      if (tableName != null && !tableName.equals(table.name)) {
+        return -1;
+      }
+      for (FoodmartSchema.Column column : table.columns) {
+        if (column.name.equals(columnName)) {
+          switch (column.type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+              return column.ordinal;
+            default:
+              throw new IllegalArgumentException(
+                  "column is not integral: " + table.name + "." + columnName);
+          }
+        }
+      }
+      if (tableName == null) {
+        return -1;
+      }
+      throw new IllegalArgumentException(
+          "unknown column: " + table.name + "." + columnName);
+    }
+
+    boolean test(long v) {
+      if (v < low || v > high) {
+        return false;
+      }
+      return values == null || Arrays.binarySearch(values, v) >= 0;
+    }
+
+    /** Returns whether any value in a range can pass. */
+    boolean overlaps(long min, long max) {
+      if (high < min || low > max) {
+        return false;
+      }
+      if (values == null) {
+        return true;
+      }
+      for (long v : values) {
+        if (v >= min && v <= max) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return (tableName == null ? "" : tableName + ".")
+          + columnName
+          + (values == null
+              ? " BETWEEN " + low + " AND " + high
+              : " IN " + Arrays.toString(values));
+    }
+  }
+
+  /** Evaluates the predicates of one table on records of its CSV file. */
+  static class Matcher {
+    private final Predicate[] predicates;
+    private final int[] ordinals;
+
+    private Matcher(Predicate[] predicates, int[] ordinals) {
+      this.predicates = predicates;
+      this.ordinals = ordinals;
+    }
+
+    /** Returns whether the current record of a tokenizer passes. */
+    boolean matches(CsvTokenizer tokenizer) {
+      for (int i = 0; i < predicates.length; i++) {
+        final int ordinal = ordinals[i];
+        if (tokenizer.isNull(ordinal)
+            || !predicates[i].test(tokenizer.getLong(ordinal))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
+
+// End RowFilter.java
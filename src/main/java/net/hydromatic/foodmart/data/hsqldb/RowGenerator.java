@@ -0,0 +1,92 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator that reads the rows of a single CSV file as {@link TableRow}
+ * objects. Returns false from hasNext() when the CSV file is exhausted.
+ */
+class RowGenerator implements Iterator<TableRow> {
+  private final String tableName;
+  private final CsvTokenizer tokenizer;
+  private final int[] columnTypes;
+  private boolean hasNext;
+
+  RowGenerator(
+      Class<?> resourceClass, String tableName, List<Integer> columnTypes) {
+    this(
+        StatementGenerator.open(
+            resourceClass, FoodmartHsqldb.tableUri(tableName)),
+        tableName,
+        columnTypes);
+  }
+
+  /**
+   * Creates a generator that reads from a tokenizer. The first record must be
+   * the header.
+   */
+  RowGenerator(
+      CsvTokenizer tokenizer, String tableName, List<Integer> columnTypes) {
+    this.tableName = tableName;
+    this.columnTypes = StatementGenerator.toIntArray(columnTypes);
+    this.tokenizer = tokenizer;
+    advance(); // skip header
+    advance();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return hasNext;
+  }
+
+  @Override
+  public TableRow next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final Object[] values = new Object[columnTypes.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = tokenizer.getObject(i, columnTypes[i]);
+    }
+    advance();
+    return new TableRow(tableName, values);
+  }
+
+  private void advance() {
+    try {
+      hasNext = tokenizer.next();
+      if (!hasNext) {
+        tokenizer.close();
+      }
+    } catch (IOException e) {
+      hasNext = false;
+      throw new RuntimeException("Error reading CSV file", e);
+    }
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
+
+// End RowGenerator.java
@@ -0,0 +1,297 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Generates larger versions of the Foodmart fact tables, for load testing.
+ *
+ * <p>At scale factor N, each table in {@link #FACT_TABLES} has N times as many
+ * rows as the original, and every other table is unchanged. The first copy of
+ * each fact table is the original data. Each further copy is generated from the
+ * original rows, as follows:
+ *
+ * <ul>
+ *   <li>Each foreign key to a dimension table other than {@code time_by_day}
+ *       (for example {@code product_id} and {@code customer_id}) is replaced by
+ *       a value chosen at random from the same column. Every key exists in the
+ *       dimension tables (if the original does), and the distribution of each
+ *       key is the same as in the original data, but combinations of keys are
+ *       new.
+ *   <li>Other columns, including {@code time_id}, dates and measures such as
+ *       {@code store_sales}, are unchanged. So each day has N times as many
+ *       rows, and measures keep their joint distribution.
+ * </ul>
+ *
+ * <p>The output is a deterministic function of the scale factor and the seed.
+ * Rows are generated as they are read, so memory use does not depend on the
+ * scale factor; the generator holds only the values of the foreign key columns
+ * of the original fact tables.
+ *
+ * <p>The aggregate tables, such as {@code agg_c_14_sales_fact_1997}, are not
+ * scaled, and therefore do not match the scaled fact tables.
+ */
+public class ScaleGenerator {
+  /** Tables that are scaled. */
+  public static final List<String> FACT_TABLES =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              "expense_fact",
+              "inventory_fact_1997",
+              "inventory_fact_1998",
+              "salary",
+              "sales_fact_1997",
+              "sales_fact_1998",
+              "sales_fact_dec_1998"));
+
+  private final int scaleFactor;
+  private final long seed;
+  /** Foreign key values of each fact table; populated on first use. */
+  private final Map<String, Sample> samples = new ConcurrentHashMap<>();
+
+  private ScaleGenerator(int scaleFactor, long seed) {
+    this.scaleFactor = scaleFactor;
+    this.seed = seed;
+  }
+
+  /**
+   * Creates a generator.
+   *
+   * @param scaleFactor Scale factor; 1 generates the original data
+   * @param seed Seed for the random number generator
+   */
+  public static ScaleGenerator of(int scaleFactor, long seed) {
+    if (scaleFactor < 1) {
+      throw new IllegalArgumentException(
+          "scaleFactor must be positive: " + scaleFactor);
+    }
+    return new ScaleGenerator(scaleFactor, seed);
+  }
+
+  /** Returns the scale factor. */
+  public int scaleFactor() {
+    return scaleFactor;
+  }
+
+  /** Returns the seed. */
+  public long seed() {
+    return seed;
+  }
+
+  /** Returns the number of rows that this generator produces for a table. */
+  public long rowCount(String tableName) {
+    final long rowCount = FoodmartHsqldb.rowCount(tableName);
+    return FACT_TABLES.contains(tableName) ? rowCount * scaleFactor : rowCount;
+  }
+
+  /**
+   * Returns INSERT statements for all tables, at this scale factor.
+   *
+   * @see FoodmartHsqldb#generateInserts()
+   */
+  public Iterable<String> generateInserts() {
+    return generateInserts(1);
+  }
+
+  /**
+   * Returns INSERT statements for all tables, at this scale factor, with up to
+   * {@code rowsPerStatement} rows per statement.
+   *
+   * @see FoodmartHsqldb#generateInserts(int)
+   */
+  public Iterable<String> generateInserts(int rowsPerStatement) {
+    if (rowsPerStatement < 1) {
+      throw new IllegalArgumentException(
+          "rowsPerStatement must be positive: " + rowsPerStatement);
+    }
+    final Map<String, List<Integer>> columnTypes = FoodmartHsqldb.columnTypes();
+    final List<Iterable<String>> iterables = new ArrayList<>();
+    for (String tableName : FoodmartHsqldb.tableNames()) {
+      iterables.add(
+          () ->
+              new StatementGenerator(
+                  tokenizer(tableName),
+                  tableName,
+                  columnTypes.get(tableName),
+                  rowsPerStatement,
+                  Integer.MAX_VALUE,
+                  LoadListener.NONE));
+    }
+    return CompositeIterator.concat(iterables);
+  }
+
+  /**
+   * Returns a stream of the rows of all tables, at this scale factor.
+   *
+   * @see FoodmartHsqldb#rowStream()
+   */
+  public Stream<TableRow> rowStream() {
+    final Map<String, List<Integer>> columnTypes = FoodmartHsqldb.columnTypes();
+    return StreamSupport.stream(
+        new TableSpliterator<>(
+            FoodmartHsqldb.tableNames(),
+            tableName ->
+                new RowGenerator(
+                    tokenizer(tableName),
+                    tableName,
+                    columnTypes.get(tableName)),
+            this::rowCount),
+        false);
+  }
+
+  /**
+   * Loads data, at this scale factor, into a JDBC connection.
+   *
+   * @see FoodmartHsqldb#load(Connection, LoadOptions)
+   */
+  public LoadResult load(Connection target, LoadOptions options)
+      throws SQLException {
+    return new Loader(target, options, this::tokenizer).load();
+  }
+
+  /**
+   * Opens a tokenizer on the rows of a table at this scale factor, starting
+   * with the header.
+   */
+  CsvTokenizer tokenizer(String tableName) {
+    if (!FACT_TABLES.contains(tableName) || scaleFactor == 1) {
+      return StatementGenerator.open(
+          FoodmartHsqldb.class, FoodmartHsqldb.tableUri(tableName));
+    }
+    final Sample sample = samples.computeIfAbsent(tableName, Sample::new);
+    return new ScaledTokenizer(
+        tableName,
+        scaleFactor,
+        sample,
+        new SplittableRandom(
+            seed ^ tableName.hashCode() * 0x9E3779B97F4A7C15L));
+  }
+
+  /**
+   * Values of the foreign key columns (except {@code time_id}) of a fact table,
+   * in the order of the CSV file.
+   */
+  private static class Sample {
+    /** Ordinals of the columns. */
+    final int[] columns;
+    /** Values of each column; {@code values[c][row]}. */
+    final String[][] values;
+
+    Sample(String tableName) {
+      final FoodmartSchema.Table table = FoodmartSchema.table(tableName);
+      final List<Integer> columnList = new ArrayList<>();
+      for (FoodmartSchema.ForeignKey foreignKey : table.foreignKeys) {
+        if (!foreignKey.targetTableName.equals("time_by_day")) {
+          columnList.add(table.column(foreignKey.columnName).ordinal);
+        }
+      }
+      columns = StatementGenerator.toIntArray(columnList);
+      values = new String[columns.length][table.rowCount];
+      // Each distinct value is stored once.
+      final Map<String, String> canonical = new HashMap<>();
+      int row = 0;
+      try (CsvTokenizer tokenizer =
+          StatementGenerator.open(
+              FoodmartHsqldb.class, FoodmartHsqldb.tableUri(tableName))) {
+        tokenizer.next(); // skip header
+        for (; tokenizer.next(); row++) {
+          for (int c = 0; c < columns.length; c++) {
+            if (row == values[c].length) {
+              values[c] = Arrays.copyOf(values[c], row * 2 + 1);
+            }
+            if (!tokenizer.isNull(columns[c])) {
+              values[c][row] =
+                  canonical.computeIfAbsent(
+                      tokenizer.getString(columns[c]), s -> s);
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(
+            "Error reading CSV file for " + tableName, e);
+      }
+      for (int c = 0; c < columns.length; c++) {
+        values[c] = Arrays.copyOf(values[c], row);
+      }
+    }
+  }
+
+  /**
+   * Tokenizer that reads a CSV file {@code scaleFactor} times, and replaces the
+   * foreign keys of each row after the first pass.
+   */
+  private static class ScaledTokenizer extends CsvTokenizer {
+    private final String tableName;
+    private final int scaleFactor;
+    private final Sample sample;
+    private final SplittableRandom random;
+    /** Number of the current pass over the CSV file, starting at 0. */
+    private int copy;
+
+    ScaledTokenizer(
+        String tableName,
+        int scaleFactor,
+        Sample sample,
+        SplittableRandom random) {
+      super(
+          StatementGenerator.reader(
+              FoodmartHsqldb.class, FoodmartHsqldb.tableUri(tableName)));
+      this.tableName = tableName;
+      this.scaleFactor = scaleFactor;
+      this.sample = sample;
+      this.random = random;
+    }
+
+    @Override
+    boolean next() throws IOException {
+      for (; ; ) {
+        if (super.next()) {
+          if (copy > 0) {
+            for (int c = 0; c < sample.columns.length; c++) {
+              final String[] values = sample.values[c];
+              setField(
+                  sample.columns[c], values[random.nextInt(values.length)]);
+            }
+          }
+          return true;
+        }
+        if (++copy >= scaleFactor) {
+          return false;
+        }
+        reset(
+            StatementGenerator.reader(
+                FoodmartHsqldb.class, FoodmartHsqldb.tableUri(tableName)));
+        super.next(); // skip header
+      }
+    }
+  }
+}
+
+// End ScaleGenerator.java
@@ -0,0 +1,238 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays the statements of {@code foodmart.script} in a temporary database,
+ * and reports the elapsed time of each to a listener.
+ *
+ * <p>Only the statements that create and populate the Foodmart schemas are
+ * replayed; statements that create users, grant privileges, or set file options
+ * are skipped. The CSV files are copied from the jar into the database's
+ * directory just before the {@code SET TABLE ... SOURCE} statement that reads
+ * them.
+ *
+ * <p>If heap measurement is enabled, the profiler runs a full garbage
+ * collection after each statement, and reports the growth of the used heap in
+ * {@link LoadListener.StatementMetrics#heapBytes}. This makes the replay much
+ * slower, and the numbers are only meaningful if nothing else is running in the
+ * JVM.
+ *
+ * @see HeapFootprint
+ * @see FoodmartHsqldb#profileScript(LoadListener)
+ */
+class ScriptProfiler {
+  /** Prefixes of the statements that are replayed, longest first. */
+  private static final List<String> KINDS =
+      Arrays.asList(
+          "CREATE MEMORY TABLE",
+          "CREATE TEXT TABLE",
+          "CREATE UNIQUE INDEX",
+          "CREATE INDEX",
+          "CREATE SCHEMA \"foodmart",
+          "SET TABLE",
+          "SET SCHEMA \"foodmart",
+          "SET DATABASE SQL",
+          "SET DATABASE TEXT TABLE DEFAULTS",
+          "SET DATABASE DEFAULT INITIAL SCHEMA");
+
+  /** Matches the first qualified table name, e.g. {@code "foodmart"."days"}. */
+  private static final Pattern TABLE_PATTERN =
+      Pattern.compile("\"foodmart(?:_csv)?\"\\.\"(?:csv_)?([^\"]+)\"");
+
+  /** Matches the source of a text table, e.g. {@code '/csv/days.csv;...'}. */
+  private static final Pattern SOURCE_PATTERN =
+      Pattern.compile("SOURCE '/(csv/[^;']+)");
+
+  /** Matches the name of the index that a statement creates. */
+  private static final Pattern INDEX_PATTERN =
+      Pattern.compile("^CREATE (?:UNIQUE )?INDEX \"([^\"]+)\"");
+
+  private final LoadListener listener;
+  private final Predicate<String> tables;
+  private final boolean measureHeap;
+
+  /**
+   * Creates a profiler.
+   *
+   * @param listener Listener
+   * @param tables Which tables to create; statements on other tables are
+   *     skipped
+   */
+  ScriptProfiler(LoadListener listener, Predicate<String> tables) {
+    this(listener, tables, false);
+  }
+
+  /**
+   * Creates a profiler that optionally measures the heap.
+   *
+   * @param listener Listener
+   * @param tables Which tables to create; statements on other tables are
+   *     skipped
+   * @param measureHeap Whether to measure the growth of the heap caused by each
+   *     statement
+   */
+  ScriptProfiler(
+      LoadListener listener, Predicate<String> tables, boolean measureHeap) {
+    this.listener = listener;
+    this.tables = tables;
+    this.measureHeap = measureHeap;
+  }
+
+  void run() throws SQLException {
+    try {
+      final Path dir = Files.createTempDirectory("foodmart-profile");
+      try {
+        run(dir);
+      } finally {
+        DatabaseCache.delete(dir);
+      }
+    } catch (IOException e) {
+      throw new SQLException("Error profiling foodmart.script", e);
+    }
+  }
+
+  private void run(Path dir) throws IOException, SQLException {
+    final String uri =
+        "jdbc:hsqldb:file:"
+            + dir.resolve("foodmart").toAbsolutePath()
+            + ";hsqldb.log_data=false";
+    try (InputStream is =
+            ScriptProfiler.class.getResourceAsStream("/foodmart.script");
+        BufferedReader r =
+            new BufferedReader(
+                new InputStreamReader(is, StandardCharsets.US_ASCII));
+        Connection connection = DriverManager.getConnection(uri, "SA", "");
+        Statement statement = connection.createStatement()) {
+      try {
+        long usedHeap = measureHeap ? usedHeap() : -1;
+        int lineNumber = 0;
+        for (String line; (line = r.readLine()) != null; ) {
+          ++lineNumber;
+          final String kind = kind(line);
+          if (kind == null) {
+            continue;
+          }
+          final Matcher m = TABLE_PATTERN.matcher(line);
+          final String tableName = m.find() ? m.group(1) : null;
+          if (tableName != null && !tables.test(tableName)) {
+            continue;
+          }
+          final Matcher index = INDEX_PATTERN.matcher(line);
+          final String indexName = index.find() ? index.group(1) : null;
+          final long start = System.nanoTime();
+          long resourceNanos = 0;
+          final Matcher source = SOURCE_PATTERN.matcher(line);
+          if (source.find()) {
+            // Make the source relative to the database directory.
+            extract(dir, source.group(1));
+            resourceNanos = System.nanoTime() - start;
+            line = line.replace("SOURCE '/", "SOURCE '");
+          }
+          statement.execute(line);
+          final long elapsedNanos = System.nanoTime() - start;
+          long heapBytes = -1;
+          if (measureHeap) {
+            final long previousHeap = usedHeap;
+            usedHeap = usedHeap();
+            heapBytes = usedHeap - previousHeap;
+          }
+          listener.statementExecuted(
+              new LoadListener.StatementMetrics(
+                  lineNumber,
+                  kind,
+                  tableName,
+                  indexName,
+                  elapsedNanos,
+                  resourceNanos,
+                  heapBytes));
+        }
+      } finally {
+        statement.execute("SHUTDOWN IMMEDIATELY");
+      }
+    }
+  }
+
+  /**
+   * Returns the number of bytes of heap in use after garbage collection.
+   *
+   * <p>Collects until the figure stops falling (at most five times), because a
+   * single {@link System#gc()} does not always reclaim everything, for instance
+   * objects that are waiting for finalization.
+   */
+  static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      final long next = runtime.totalMemory() - runtime.freeMemory();
+      if (next >= used) {
+        return next;
+      }
+      used = next;
+    }
+    return used;
+  }
+
+  /** Returns the kind of a statement, or null if it is not replayed. */
+  private static String kind(String line) {
+    for (String kind : KINDS) {
+      if (line.startsWith(kind)) {
+        final int quote = kind.indexOf('"');
+        return quote < 0 ? kind : kind.substring(0, quote - 1);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Copies a CSV resource into the database directory. If the resource is
+   * missing, creates an empty file, so that the table is empty.
+   */
+  private static void extract(Path dir, String path) throws IOException {
+    final Path file = dir.resolve(path);
+    Files.createDirectories(file.getParent());
+    try (InputStream in =
+        ScriptProfiler.class.getResourceAsStream("/" + path)) {
+      if (in == null) {
+        Files.createFile(file);
+      } else {
+        Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+  }
+}
+
+// End ScriptProfiler.java
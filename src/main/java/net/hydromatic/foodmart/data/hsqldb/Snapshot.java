@@ -0,0 +1,246 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Snapshot of the Foodmart tables in a database, which can quickly restore the
+ * tables that a test has modified.
+ *
+ * <p>Create a snapshot by calling {@link FoodmartHsqldb#snapshot(Connection)}
+ * while the tables in the {@code "foodmart"} schema have their original
+ * contents. The snapshot adds statement-level triggers to each table, which
+ * record in a table in the {@code "foodmart_snapshot"} schema that the table
+ * has been modified by an {@code INSERT}, {@code UPDATE}, {@code DELETE} or
+ * {@code MERGE} statement. (HSQLDB does not fire the triggers for a statement
+ * that affects no rows.)
+ *
+ * <p>{@link #reset()} truncates each modified table and repopulates it. If the
+ * database has the {@code "foodmart_csv"} schema (as does the database at
+ * {@link FoodmartHsqldb#URI}), rows are copied from its text tables; otherwise
+ * (for example, for a database created by {@link FoodmartHsqldb#connect(Set)})
+ * rows are loaded from the CSV files. Tables that have not been modified are
+ * not touched, so resetting a modified dimension table takes milliseconds.
+ *
+ * <p>{@code TRUNCATE} does not fire triggers. If a test truncates a table, it
+ * must call {@link #reset()} with the names of the tables to restore.
+ *
+ * <p>A database may have at most one snapshot at a time. {@link #close()}
+ * removes the triggers and the {@code "foodmart_snapshot"} schema.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class Snapshot implements AutoCloseable {
+  /** Schema that holds the table that records which tables are dirty. */
+  static final String SCHEMA = "foodmart_snapshot";
+
+  private static final String DIRTY_TABLE = q(SCHEMA) + ".\"dirty\"";
+  private static final String[] OPERATIONS = {"INSERT", "UPDATE", "DELETE"};
+
+  private final Connection connection;
+  private final List<String> tableNames;
+  private final boolean hasCsvSchema;
+
+  private Snapshot(
+      Connection connection, List<String> tableNames, boolean hasCsvSchema) {
+    this.connection = connection;
+    this.tableNames = Collections.unmodifiableList(tableNames);
+    this.hasCsvSchema = hasCsvSchema;
+  }
+
+  /** Creates a snapshot of the Foodmart tables in a database. */
+  static Snapshot create(Connection connection) throws SQLException {
+    final DatabaseMetaData metaData = connection.getMetaData();
+    final List<String> tableNames = new ArrayList<>();
+    boolean hasCsvSchema = true;
+    for (String tableName : FoodmartHsqldb.tableNames()) {
+      if (exists(metaData, "foodmart", tableName)) {
+        tableNames.add(tableName);
+        hasCsvSchema &= exists(metaData, "foodmart_csv", "csv_" + tableName);
+      }
+    }
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE SCHEMA " + q(SCHEMA));
+      statement.execute(
+          "CREATE TABLE "
+              + DIRTY_TABLE
+              + "(\"table_name\" VARCHAR(60) PRIMARY KEY,"
+              + " \"dirty\" BOOLEAN NOT NULL)");
+      for (String tableName : tableNames) {
+        statement.execute(
+            "INSERT INTO "
+                + DIRTY_TABLE
+                + " VALUES ('"
+                + tableName
+                + "', FALSE)");
+        for (String operation : OPERATIONS) {
+          statement.execute(
+              "CREATE TRIGGER "
+                  + triggerName(tableName, operation)
+                  + " AFTER "
+                  + operation
+                  + " ON "
+                  + table(tableName)
+                  + " FOR EACH STATEMENT UPDATE "
+                  + DIRTY_TABLE
+                  + " SET \"dirty\" = TRUE WHERE \"table_name\" = '"
+                  + tableName
+                  + "'");
+        }
+      }
+    }
+    if (!connection.getAutoCommit()) {
+      connection.commit();
+    }
+    return new Snapshot(connection, tableNames, hasCsvSchema);
+  }
+
+  private static boolean exists(
+      DatabaseMetaData metaData, String schema, String tableName)
+      throws SQLException {
+    try (ResultSet r = metaData.getTables(null, schema, tableName, null)) {
+      return r.next();
+    }
+  }
+
+  /** Returns the names of the tables in this snapshot. */
+  public List<String> tableNames() {
+    return tableNames;
+  }
+
+  /** Returns the names of the tables that have been modified. */
+  public Set<String> dirtyTables() throws SQLException {
+    final Set<String> dirtyTables = new LinkedHashSet<>();
+    try (Statement statement = connection.createStatement();
+        ResultSet r =
+            statement.executeQuery(
+                "SELECT \"table_name\" FROM "
+                    + DIRTY_TABLE
+                    + " WHERE \"dirty\"")) {
+      while (r.next()) {
+        dirtyTables.add(r.getString(1));
+      }
+    }
+    return dirtyTables;
+  }
+
+  /**
+   * Restores the original contents of the tables that have been modified.
+   *
+   * @return Names of the tables that were restored
+   */
+  public Set<String> reset() throws SQLException {
+    return reset(dirtyTables());
+  }
+
+  /**
+   * Restores the original contents of the given tables, whether or not they
+   * have been modified.
+   *
+   * @param tableNames Names of tables
+   * @return Names of the tables that were restored
+   */
+  public Set<String> reset(Set<String> tableNames) throws SQLException {
+    if (tableNames.isEmpty()) {
+      return tableNames;
+    }
+    final boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try (Statement statement = connection.createStatement()) {
+      for (String tableName : tableNames) {
+        statement.execute("TRUNCATE TABLE " + table(tableName));
+        if (hasCsvSchema) {
+          statement.execute(
+              "INSERT INTO "
+                  + table(tableName)
+                  + " SELECT * FROM "
+                  + q("foodmart_csv")
+                  + "."
+                  + q("csv_" + tableName));
+        }
+      }
+      if (!hasCsvSchema) {
+        Loader.uncommitted(
+                connection,
+                LoadOptions.DEFAULT
+                    .withSchema("foodmart")
+                    .withTables(tableNames))
+            .load();
+      }
+      for (String tableName : tableNames) {
+        statement.execute(
+            "UPDATE "
+                + DIRTY_TABLE
+                + " SET \"dirty\" = FALSE WHERE \"table_name\" = '"
+                + tableName
+                + "'");
+      }
+      connection.commit();
+    } catch (SQLException | RuntimeException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(autoCommit);
+    }
+    return tableNames;
+  }
+
+  /**
+   * Removes the triggers and the {@code "foodmart_snapshot"} schema. Does not
+   * restore modified tables; call {@link #reset()} first if you need to.
+   */
+  @Override
+  public void close() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      for (String tableName : tableNames) {
+        for (String operation : OPERATIONS) {
+          statement.execute(
+              "DROP TRIGGER " + triggerName(tableName, operation));
+        }
+      }
+      statement.execute("DROP SCHEMA " + q(SCHEMA) + " CASCADE");
+    }
+    if (!connection.getAutoCommit()) {
+      connection.commit();
+    }
+  }
+
+  private static String table(String tableName) {
+    return q("foodmart") + "." + q(tableName);
+  }
+
+  private static String triggerName(String tableName, String operation) {
+    return q("foodmart") + "." + q(tableName + "$snapshot_" + operation);
+  }
+
+  /** Quotes an identifier. */
+  private static String q(String name) {
+    return "\"" + name + "\"";
+  }
+}
+
+// End Snapshot.java
@@ -0,0 +1,545 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Joins a sales fact table to its dimension tables, producing one wide row per
+ * fact row, without a database.
+ *
+ * <p>The dimensions are {@code time_by_day}, {@code product}, {@code
+ * product_class} (through {@code product}), {@code store}, {@code region}
+ * (through {@code store}), {@code customer} and {@code promotion}. Each
+ * dimension that contributes a column is loaded once into a {@link
+ * DimensionCache} holding only the columns needed; then the fact table's CSV
+ * file is split into {@link CsvChunks chunks}, and each chunk is streamed
+ * through the caches, so a parallel stream joins several chunks at once.
+ *
+ * <p>Columns are named {@code table.column}, for example {@code
+ * sales_fact_1997.store_sales} and {@code customer.gender}. By default, a join
+ * returns every column of the fact table and its dimensions; {@link
+ * #withColumns(Collection)} chooses some. The join is a left outer join: if a
+ * fact row has no matching dimension row, that dimension's columns are null.
+ *
+ * <pre>{@code
+ * StarJoin join =
+ *     StarJoin.of("sales_fact_1997")
+ *         .withColumns(
+ *             Arrays.asList(
+ *                 "sales_fact_1997.store_sales",
+ *                 "time_by_day.the_month",
+ *                 "product_class.product_family",
+ *                 "region.sales_country"));
+ * try (Stream<Object[]> rows = join.rows(false)) {
+ *   rows.parallel().forEach(...);
+ * }
+ * }</pre>
+ *
+ * <p>A join is immutable and thread-safe. Its dimension caches are loaded the
+ * first time it streams rows, and are shared by later streams.
+ */
+public class StarJoin {
+  /** Fact tables that can be joined. */
+  public static final List<String> FACT_TABLES =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              "sales_fact_1997", "sales_fact_1998", "sales_fact_dec_1998"));
+
+  /**
+   * Dimensions, in the order of the default columns; each with the table that
+   * holds its foreign key (null for the fact table) and the foreign key column.
+   */
+  private static final List<Dimension> DIMENSIONS =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              new Dimension("time_by_day", null, "time_id"),
+              new Dimension("product", null, "product_id"),
+              new Dimension("product_class", "product", "product_class_id"),
+              new Dimension("store", null, "store_id"),
+              new Dimension("region", "store", "region_id"),
+              new Dimension("customer", null, "customer_id"),
+              new Dimension("promotion", null, "promotion_id")));
+
+  private final FoodmartSchema.Table factTable;
+  private final List<String> columnNames;
+  /** The dimension caches, loaded on first use; guarded by "this". */
+  private Plan plan;
+
+  private StarJoin(FoodmartSchema.Table factTable, List<String> columnNames) {
+    this.factTable = factTable;
+    this.columnNames = columnNames;
+  }
+
+  /**
+   * Creates a join of a fact table and its dimensions, returning all columns.
+   *
+   * @throws IllegalArgumentException if the table is not a sales fact table
+   */
+  public static StarJoin of(String factTableName) {
+    if (!FACT_TABLES.contains(factTableName)) {
+      throw new IllegalArgumentException(
+          "not a sales fact table: " + factTableName);
+    }
+    final FoodmartSchema.Table factTable = FoodmartSchema.table(factTableName);
+    final List<String> columnNames = new ArrayList<>();
+    for (FoodmartSchema.Column column : factTable.columns) {
+      columnNames.add(factTableName + "." + column.name);
+    }
+    for (Dimension dimension : DIMENSIONS) {
+      for (FoodmartSchema.Column column :
+          FoodmartSchema.table(dimension.tableName).columns) {
+        columnNames.add(dimension.tableName + "." + column.name);
+      }
+    }
+    return new StarJoin(factTable, Collections.unmodifiableList(columnNames));
+  }
+
+  /**
+   * Returns a join that returns only the given columns, in the given order.
+   * Only the dimensions that contribute a column are loaded, and only their
+   * requested columns (and foreign keys to other dimensions) are cached.
+   *
+   * @param columnNames Qualified column names, such as {@code
+   *     "customer.gender"}
+   * @throws IllegalArgumentException if a column does not exist, or its table
+   *     is not the fact table or one of its dimensions
+   */
+  public StarJoin withColumns(Collection<String> columnNames) {
+    final List<String> list = new ArrayList<>(columnNames);
+    for (String columnName : list) {
+      final int dot = columnName.indexOf('.');
+      if (dot < 0) {
+        throw new IllegalArgumentException(
+            "column name must be qualified: " + columnName);
+      }
+      final String tableName = columnName.substring(0, dot);
+      if (!tableName.equals(factTable.name) && dimension(tableName) == null) {
+        throw new IllegalArgumentException(
+            "not a dimension of " + factTable.name + ": " + tableName);
+      }
+      FoodmartSchema.table(tableName).column(columnName.substring(dot + 1));
+    }
+    return new StarJoin(factTable, Collections.unmodifiableList(list));
+  }
+
+  private static Dimension dimension(String tableName) {
+    for (Dimension dimension : DIMENSIONS) {
+      if (dimension.tableName.equals(tableName)) {
+        return dimension;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the fact table. */
+  public FoodmartSchema.Table factTable() {
+    return factTable;
+  }
+
+  /** Returns the qualified names of the columns of each row. */
+  public List<String> columnNames() {
+    return columnNames;
+  }
+
+  /** Returns the {@link Types} code of each column. */
+  public List<Integer> columnTypes() {
+    final List<Integer> types = new ArrayList<>();
+    for (String columnName : columnNames) {
+      final int dot = columnName.indexOf('.');
+      types.add(
+          FoodmartSchema.table(columnName.substring(0, dot))
+              .column(columnName.substring(dot + 1))
+              .type);
+    }
+    return types;
+  }
+
+  /** Returns the header of the CSV output: the column names. */
+  public String csvHeader() {
+    return String.join(",", columnNames);
+  }
+
+  /**
+   * Returns a stream of the joined rows, with values converted to the Java
+   * types that {@link FoodmartHsqldb#load} binds.
+   *
+   * @param ordered Whether rows must be in the order of the fact table's CSV
+   *     file; if false, a parallel stream may return them in any order
+   */
+  public Stream<Object[]> rows(boolean ordered) {
+    return FoodmartHsqldb.chunkStream(
+        factTable.name,
+        ordered,
+        tokenizer ->
+            new JoinIterator<Object[]>(plan(), tokenizer) {
+              @Override
+              Object[] current() {
+                return plan.row(tokenizer, dimensionRows);
+              }
+            });
+  }
+
+  /**
+   * Returns a stream of the joined rows as CSV records, without line breaks.
+   * The header is {@link #csvHeader()}.
+   *
+   * <p>Values are written as in the Foodmart CSV files, except that {@code
+   * BOOLEAN} values are "true" or "false", and {@code DECIMAL} values of a
+   * dimension have as many digits after the point as the column's scale.
+   *
+   * @param ordered Whether rows must be in the order of the fact table's CSV
+   *     file; if false, a parallel stream may return them in any order
+   */
+  public Stream<String> csv(boolean ordered) {
+    return FoodmartHsqldb.chunkStream(
+        factTable.name,
+        ordered,
+        tokenizer ->
+            new JoinIterator<String>(plan().withCsv(), tokenizer) {
+              private final StringBuilder b = new StringBuilder();
+
+              @Override
+              String current() {
+                b.setLength(0);
+                plan.appendCsv(b, tokenizer, dimensionRows);
+                return b.toString();
+              }
+            });
+  }
+
+  /**
+   * Writes the header and the joined rows as CSV, joining chunks of the fact
+   * table in parallel; returns the number of rows written. Does not close the
+   * writer.
+   */
+  public long writeCsv(Writer out) throws IOException {
+    out.write(csvHeader());
+    out.write('\n');
+    final long[] rowCount = {0};
+    try (Stream<String> lines = csv(true)) {
+      lines
+          .parallel()
+          .forEachOrdered(
+              line -> {
+                try {
+                  out.write(line);
+                  out.write('\n');
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+                ++rowCount[0];
+              });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return rowCount[0];
+  }
+
+  /** Returns the plan, loading the dimension caches the first time. */
+  private synchronized Plan plan() {
+    if (plan == null) {
+      plan = new Plan(factTable, columnNames);
+    }
+    return plan;
+  }
+
+  /** A dimension, and how to find its key. */
+  private static class Dimension {
+    final String tableName;
+    /** Table that holds the foreign key, or null for the fact table. */
+    final String parentTableName;
+
+    final String foreignKey;
+
+    Dimension(String tableName, String parentTableName, String foreignKey) {
+      this.tableName = tableName;
+      this.parentTableName = parentTableName;
+      this.foreignKey = foreignKey;
+    }
+  }
+
+  /**
+   * The dimension caches of a join, and where each column comes from.
+   *
+   * <p>Immutable, except that the CSV text of dimension values is formatted the
+   * first time it is needed.
+   */
+  private static class Plan {
+    /** Types of the fact table's columns. */
+    final int[] factTypes;
+    /** Caches of the dimensions used, parents before children. */
+    final DimensionCache[] caches;
+    /** For each cache, its parent cache, or -1 for the fact table. */
+    final int[] parents;
+    /**
+     * For each cache, the ordinal of its foreign key in the parent cache or
+     * fact table.
+     */
+    final int[] foreignKeys;
+    /** For each column, its cache, or -1 if it is a fact column. */
+    final int[] sources;
+    /** For each column, its ordinal in the cache or the fact table. */
+    final int[] ordinals;
+    /** For each column of a dimension, the CSV text of each row. */
+    private volatile String[][] csvValues;
+
+    Plan(FoodmartSchema.Table factTable, List<String> columnNames) {
+      // Find the columns needed from each dimension, including foreign keys
+      // to child dimensions.
+      final Map<Dimension, List<String>> needed = new LinkedHashMap<>();
+      for (String columnName : columnNames) {
+        final int dot = columnName.indexOf('.');
+        final Dimension dimension = dimension(columnName.substring(0, dot));
+        if (dimension != null) {
+          need(needed, dimension, columnName.substring(dot + 1));
+        }
+      }
+      for (Dimension dimension : new ArrayList<>(needed.keySet())) {
+        if (dimension.parentTableName != null) {
+          need(
+              needed,
+              dimension(dimension.parentTableName),
+              dimension.foreignKey);
+        }
+      }
+      // Load caches in the order of DIMENSIONS, which puts parents first.
+      final List<Dimension> dimensions = new ArrayList<>();
+      for (Dimension dimension : DIMENSIONS) {
+        if (needed.containsKey(dimension)) {
+          dimensions.add(dimension);
+        }
+      }
+      caches = new DimensionCache[dimensions.size()];
+      parents = new int[dimensions.size()];
+      foreignKeys = new int[dimensions.size()];
+      for (int i = 0; i < dimensions.size(); i++) {
+        final Dimension dimension = dimensions.get(i);
+        caches[i] =
+            DimensionCache.of(dimension.tableName, needed.get(dimension));
+        if (dimension.parentTableName == null) {
+          parents[i] = -1;
+          foreignKeys[i] = factTable.column(dimension.foreignKey).ordinal;
+        } else {
+          parents[i] = dimensions.indexOf(dimension(dimension.parentTableName));
+          foreignKeys[i] = caches[parents[i]].column(dimension.foreignKey);
+        }
+      }
+      factTypes = StatementGenerator.toIntArray(factTable.columnTypes());
+      sources = new int[columnNames.size()];
+      ordinals = new int[columnNames.size()];
+      for (int i = 0; i < columnNames.size(); i++) {
+        final String columnName = columnNames.get(i);
+        final int dot = columnName.indexOf('.');
+        final String tableName = columnName.substring(0, dot);
+        final String name = columnName.substring(dot + 1);
+        if (tableName.equals(factTable.name)) {
+          sources[i] = -1;
+          ordinals[i] = factTable.column(name).ordinal;
+        } else {
+          sources[i] = dimensions.indexOf(dimension(tableName));
+          ordinals[i] = caches[sources[i]].column(name);
+        }
+      }
+    }
+
+    private static void need(
+        Map<Dimension, List<String>> needed,
+        Dimension dimension,
+        String columnName) {
+      final List<String> list =
+          needed.computeIfAbsent(dimension, d -> new ArrayList<>());
+      if (!list.contains(columnName)) {
+        list.add(columnName);
+      }
+    }
+
+    /** Formats the CSV text of dimension values, if not already done. */
+    Plan withCsv() {
+      if (csvValues == null) {
+        synchronized (this) {
+          if (csvValues == null) {
+            final String[][] values = new String[sources.length][];
+            for (int i = 0; i < sources.length; i++) {
+              if (sources[i] >= 0) {
+                values[i] = csvValues(caches[sources[i]], ordinals[i]);
+              }
+            }
+            csvValues = values;
+          }
+        }
+      }
+      return this;
+    }
+
+    private static String[] csvValues(DimensionCache cache, int column) {
+      final String[] values = new String[cache.rowCount()];
+      final int type = cache.columns().get(column).type;
+      final StringBuilder b = new StringBuilder();
+      for (int row = 0; row < values.length; row++) {
+        final Object value = cache.getObject(row, column);
+        if (value == null) {
+          values[row] = "";
+        } else if (value instanceof String) {
+          final String s = (String) value;
+          b.setLength(0);
+          BulkExporter.appendCsv(b, s.toCharArray(), 0, s.length());
+          values[row] = b.length() == s.length() ? s : b.toString();
+        } else if (type == Types.DECIMAL || type == Types.NUMERIC) {
+          values[row] = ((BigDecimal) value).toPlainString();
+        } else {
+          values[row] = value.toString();
+        }
+      }
+      return values;
+    }
+
+    /** Finds the dimension rows of the current fact row. */
+    void lookup(CsvTokenizer tokenizer, int[] dimensionRows) {
+      for (int i = 0; i < caches.length; i++) {
+        final int parent = parents[i];
+        final int row;
+        if (parent < 0) {
+          row =
+              tokenizer.isNull(foreignKeys[i])
+                  ? -1
+                  : caches[i].row(tokenizer.getInt(foreignKeys[i]));
+        } else {
+          final int parentRow = dimensionRows[parent];
+          row =
+              parentRow < 0 || caches[parent].isNull(parentRow, foreignKeys[i])
+                  ? -1
+                  : caches[i].row(
+                      caches[parent].getInt(parentRow, foreignKeys[i]));
+        }
+        dimensionRows[i] = row;
+      }
+    }
+
+    Object[] row(CsvTokenizer tokenizer, int[] dimensionRows) {
+      final Object[] values = new Object[sources.length];
+      for (int i = 0; i < values.length; i++) {
+        final int source = sources[i];
+        if (source < 0) {
+          values[i] = tokenizer.getObject(ordinals[i], factTypes[ordinals[i]]);
+        } else if (dimensionRows[source] >= 0) {
+          values[i] =
+              caches[source].getObject(dimensionRows[source], ordinals[i]);
+        }
+      }
+      return values;
+    }
+
+    void appendCsv(
+        StringBuilder b, CsvTokenizer tokenizer, int[] dimensionRows) {
+      final String[][] csvValues = this.csvValues;
+      for (int i = 0; i < sources.length; i++) {
+        if (i > 0) {
+          b.append(',');
+        }
+        final int source = sources[i];
+        if (source < 0) {
+          final int ordinal = ordinals[i];
+          if (tokenizer.isNull(ordinal)) {
+            continue;
+          }
+          final int start = tokenizer.start(ordinal);
+          final int end = start + tokenizer.length(ordinal);
+          switch (factTypes[ordinal]) {
+            case Types.VARCHAR:
+            case Types.CHAR:
+              BulkExporter.appendCsv(b, tokenizer.chars(), start, end);
+              break;
+            default:
+              // Numbers, dates and timestamps contain no special characters.
+              b.append(tokenizer.chars(), start, end - start);
+          }
+        } else if (dimensionRows[source] >= 0) {
+          b.append(csvValues[i][dimensionRows[source]]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Iterator over the fact rows of a chunk, that looks up their dimension rows.
+   * The first record of the tokenizer must be the header.
+   */
+  private abstract static class JoinIterator<E> implements Iterator<E> {
+    final Plan plan;
+    final CsvTokenizer tokenizer;
+    /** Row of each dimension cache for the current fact row, or -1. */
+    final int[] dimensionRows;
+
+    private boolean hasNext;
+
+    JoinIterator(Plan plan, CsvTokenizer tokenizer) {
+      this.plan = plan;
+      this.tokenizer = tokenizer;
+      this.dimensionRows = new int[plan.caches.length];
+      advance(); // skip header
+      advance();
+    }
+
+    /** Returns the value for the current fact row. */
+    abstract E current();
+
+    @Override
+    public boolean hasNext() {
+      return hasNext;
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext) {
+        throw new NoSuchElementException();
+      }
+      plan.lookup(tokenizer, dimensionRows);
+      final E e = current();
+      advance();
+      return e;
+    }
+
+    private void advance() {
+      try {
+        hasNext = tokenizer.next();
+        if (!hasNext) {
+          tokenizer.close();
+        }
+      } catch (IOException e) {
+        hasNext = false;
+        throw new RuntimeException("Error reading CSV file", e);
+      }
+    }
+  }
+}
+
+// End StarJoin.java
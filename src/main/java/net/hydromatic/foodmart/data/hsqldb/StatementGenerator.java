@@ -16,10 +16,11 @@
  */
 package net.hydromatic.foodmart.data.hsqldb;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -29,29 +30,135 @@ import java.util.NoSuchElementException;
 /**
  * Iterator that generates INSERT statements from a single CSV file. Returns
  * false from hasNext() when the CSV file is exhausted.
+ *
+ * <p>Each statement inserts up to {@code rowsPerStatement} rows, using a
+ * multi-row {@code VALUES} clause, and is at most {@code maxStatementLength}
+ * characters long, unless a single row is longer than that.
+ *
+ * <p>Each statement is formatted directly from the buffer of a {@link
+ * CsvTokenizer} into a reused {@link StringBuilder}, so the only allocation per
+ * row is the resulting string.
+ *
+ * <p>If given a {@link RowFilter.Matcher}, skips records that do not pass it,
+ * without formatting them.
+ *
+ * <p>If given a {@link LoadListener}, times parsing, formatting, and the
+ * consumer, and reports them when the CSV file is exhausted.
  */
 class StatementGenerator implements Iterator<String> {
-  private final String tableName;
-  private final BufferedReader reader;
+  private final CsvTokenizer tokenizer;
   private final List<String> columnNames;
-  private final List<Integer> columnTypes;
-  private String nextStatement;
+  private final int[] columnTypes;
+  private final String prefix;
+  private final int rowsPerStatement;
+  private final int maxStatementLength;
+  /** Rows must pass this matcher; null if every row is generated. */
+  private final RowFilter.Matcher matcher;
+
+  private final StringBuilder buf = new StringBuilder();
+  private boolean hasNext;
+  /** Whether the tokenizer holds a row that has not yet been emitted. */
+  private boolean pending;
+  /** Records metrics; null if there is no listener. */
+  private final TableRecorder recorder;
+  /** When the last statement was returned to the consumer. */
+  private long returnedNanos;
 
   StatementGenerator(
       Class<?> resourceClass, String tableName, List<Integer> columnTypes) {
-    this.tableName = tableName;
-    this.columnTypes = columnTypes;
-    String csvPath = "/csv/" + tableName.toLowerCase() + ".csv";
+    this(resourceClass, tableName, columnTypes, 1, Integer.MAX_VALUE);
+  }
+
+  StatementGenerator(
+      Class<?> resourceClass,
+      String tableName,
+      List<Integer> columnTypes,
+      int rowsPerStatement,
+      int maxStatementLength) {
+    this(
+        resourceClass,
+        tableName,
+        columnTypes,
+        rowsPerStatement,
+        maxStatementLength,
+        LoadListener.NONE);
+  }
+
+  StatementGenerator(
+      Class<?> resourceClass,
+      String tableName,
+      List<Integer> columnTypes,
+      int rowsPerStatement,
+      int maxStatementLength,
+      LoadListener listener) {
+    this(
+        open(resourceClass, FoodmartHsqldb.tableUri(tableName)),
+        tableName,
+        columnTypes,
+        rowsPerStatement,
+        maxStatementLength,
+        listener,
+        null);
+  }
+
+  StatementGenerator(
+      CsvTokenizer tokenizer,
+      String tableName,
+      List<Integer> columnTypes,
+      int rowsPerStatement,
+      int maxStatementLength,
+      LoadListener listener) {
+    this(
+        tokenizer,
+        tableName,
+        columnTypes,
+        rowsPerStatement,
+        maxStatementLength,
+        listener,
+        null);
+  }
+
+  /**
+   * Creates a generator that reads from a tokenizer. The first record must be
+   * the header.
+   *
+   * @param matcher Matcher that rows must pass, or null to generate every row
+   */
+  StatementGenerator(
+      CsvTokenizer tokenizer,
+      String tableName,
+      List<Integer> columnTypes,
+      int rowsPerStatement,
+      int maxStatementLength,
+      LoadListener listener,
+      RowFilter.Matcher matcher) {
+    if (rowsPerStatement < 1) {
+      throw new IllegalArgumentException(
+          "rowsPerStatement must be positive: " + rowsPerStatement);
+    }
+    this.columnTypes = toIntArray(columnTypes);
+    this.rowsPerStatement = rowsPerStatement;
+    this.maxStatementLength = maxStatementLength;
+    this.matcher = matcher;
+    this.prefix = "INSERT INTO \"" + tableName + "\" VALUES(";
+    this.recorder =
+        TableRecorder.create(listener, "generateInserts", tableName);
+    String csvPath = FoodmartHsqldb.tableUri(tableName);
     try {
-      InputStream is = resourceClass.getResourceAsStream(csvPath);
-      if (is == null) {
-        throw new RuntimeException("CSV file not found: " + csvPath);
-      }
-      this.reader = new BufferedReader(new InputStreamReader(is));
+      this.tokenizer = tokenizer;
 
       // Read header line
-      String headerLine = reader.readLine();
-      this.columnNames = parseCsvLine(headerLine);
+      this.columnNames = new ArrayList<>();
+      final long start = recorder == null ? 0 : System.nanoTime();
+      final boolean hasHeader = tokenizer.next();
+      if (recorder != null) {
+        recorder.parseNanos += System.nanoTime() - start;
+      }
+      if (hasHeader) {
+        for (int i = 0; i < tokenizer.fieldCount(); i++) {
+          columnNames.add(tokenizer.getString(i));
+        }
+      }
 
       // Read first data line
       advance();
@@ -60,9 +167,30 @@ class StatementGenerator implements Iterator<String> {
     }
   }
 
+  /** Opens a tokenizer on a CSV resource. */
+  static CsvTokenizer open(Class<?> resourceClass, String csvPath) {
+    return new CsvTokenizer(reader(resourceClass, csvPath));
+  }
+
+  /** Opens a reader on a CSV resource. */
+  static Reader reader(Class<?> resourceClass, String csvPath) {
+    InputStream is = resourceClass.getResourceAsStream(csvPath);
+    if (is == null) {
+      throw new RuntimeException("CSV file not found: " + csvPath);
+    }
+    return new InputStreamReader(is, StandardCharsets.US_ASCII);
+  }
+
   @Override
   public boolean hasNext() {
-    return nextStatement != null;
+    if (!hasNext && recorder != null) {
+      if (returnedNanos != 0) {
+        recorder.waitNanos += System.nanoTime() - returnedNanos;
+        returnedNanos = 0;
+      }
+      recorder.finish(tokenizer);
+    }
+    return hasNext;
   }
 
   @Override
@@ -70,69 +198,130 @@ class StatementGenerator implements Iterator<String> {
     if (!hasNext()) {
       throw new NoSuchElementException();
     }
-    String result = nextStatement;
+    if (recorder == null) {
+      final String result = buf.toString();
+      advance();
+      return result;
+    }
+    final long start = System.nanoTime();
+    if (returnedNanos != 0) {
+      recorder.waitNanos += start - returnedNanos;
+    }
+    final String result = buf.toString();
+    recorder.formatNanos += System.nanoTime() - start;
     advance();
+    returnedNanos = System.nanoTime();
     return result;
   }
 
   private void advance() {
-    nextStatement = null;
     try {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (!line.trim().isEmpty()) {
-          nextStatement = generateInsertStatement(line);
-          return;
+      buf.setLength(0);
+      int rows = 0;
+      while (rows < rowsPerStatement) {
+        final long start = recorder == null ? 0 : System.nanoTime();
+        final boolean hasRow = pending || tokenizer.next();
+        final long parsed = recorder == null ? 0 : System.nanoTime();
+        if (!hasRow) {
+          if (recorder != null) {
+            recorder.parseNanos += parsed - start;
+          }
+          break;
+        }
+        if (!pending && matcher != null && !matcher.matches(tokenizer)) {
+          if (recorder != null) {
+            recorder.parseNanos += System.nanoTime() - start;
+          }
+          continue;
         }
+        final int mark = buf.length();
+        buf.append(rows == 0 ? prefix : ",(");
+        appendValues(buf, tokenizer, columnTypes);
+        buf.append(')');
+        if (recorder != null) {
+          recorder.parseNanos += parsed - start;
+          recorder.formatNanos += System.nanoTime() - parsed;
+          if (!pending) {
+            ++recorder.rowCount;
+          }
+        }
+        if (rows > 0 && buf.length() > maxStatementLength) {
+          // Row does not fit; keep it for the next statement.
+          buf.setLength(mark);
+          pending = true;
+          break;
+        }
+        pending = false;
+        ++rows;
+      }
+      hasNext = rows > 0;
+      if (!hasNext) {
+        // EOF reached, close reader
+        tokenizer.close();
       }
-      // EOF reached, close reader
-      reader.close();
     } catch (IOException e) {
+      hasNext = false;
       closeReader();
       throw new RuntimeException("Error reading CSV file", e);
     }
   }
 
-  /** Generates a single INSERT statement from a CSV line. */
-  private String generateInsertStatement(String line) {
-    final StringBuilder b = new StringBuilder("INSERT INTO \"");
-    b.append(tableName).append("\" VALUES(");
-
-    final List<String> values = parseCsvLine(line);
-    for (int i = 0; i < values.size(); i++) {
+  /**
+   * Appends the fields of the current record of a tokenizer as a
+   * comma-separated list of SQL literals.
+   */
+  static void appendValues(
+      StringBuilder b, CsvTokenizer tokenizer, int[] columnTypes) {
+    for (int i = 0; i < tokenizer.fieldCount(); i++) {
       if (i > 0) {
-        b.append(",");
+        b.append(',');
       }
-      String value = values.get(i);
-      int type = columnTypes.get(i);
-      if (value.isEmpty()) {
-        b.append("NULL");
-      } else {
-        switch (type) {
-          case Types.VARCHAR:
-          case Types.CHAR:
-          case Types.LONGVARCHAR:
-          case Types.DATE:
-          case Types.TIMESTAMP:
-            b.append("'").append(value.replace("'", "''")).append("'");
-            break;
-          case Types.BOOLEAN:
-            b.append(value.equalsIgnoreCase("TRUE") ? "TRUE" : "FALSE");
-            break;
-          default:
-            // Numeric types
-            b.append(value);
-            break;
+      appendValue(b, tokenizer, i, columnTypes[i]);
+    }
+  }
+
+  /**
+   * Appends the {@code i}th field of the current record of a tokenizer as a SQL
+   * literal of the given {@link Types type}.
+   */
+  static void appendValue(
+      StringBuilder b, CsvTokenizer tokenizer, int i, int type) {
+    if (tokenizer.isNull(i)) {
+      b.append("NULL");
+      return;
+    }
+    final char[] chars = tokenizer.chars();
+    final int start = tokenizer.start(i);
+    final int end = start + tokenizer.length(i);
+    switch (type) {
+      case Types.VARCHAR:
+      case Types.CHAR:
+      case Types.LONGVARCHAR:
+      case Types.DATE:
+      case Types.TIMESTAMP:
+        b.append('\'');
+        for (int j = start; j < end; j++) {
+          final char c = chars[j];
+          if (c == '\'') {
+            b.append('\'');
+          }
+          b.append(c);
         }
-      }
+        b.append('\'');
+        break;
+      case Types.BOOLEAN:
+        b.append(tokenizer.equalsIgnoreCase(i, "TRUE") ? "TRUE" : "FALSE");
+        break;
+      default:
+        // Numeric types
+        b.append(chars, start, end - start);
+        break;
     }
-    b.append(")");
-    return b.toString();
   }
 
   private void closeReader() {
     try {
-      reader.close();
+      tokenizer.close();
     } catch (IOException e) {
       // Ignore close errors
     }
@@ -143,27 +332,12 @@ class StatementGenerator implements Iterator<String> {
     throw new UnsupportedOperationException();
   }
 
-  /** Parses a CSV line, handling quoted values. */
-  private static List<String> parseCsvLine(String line) {
-    final List<String> values = new ArrayList<>();
-    final StringBuilder current = new StringBuilder();
-    boolean inQuotes = false;
-
-    for (int i = 0; i < line.length(); i++) {
-      char c = line.charAt(i);
-
-      if (c == '"') {
-        inQuotes = !inQuotes;
-      } else if (c == ',' && !inQuotes) {
-        values.add(current.toString());
-        current.setLength(0);
-      } else {
-        current.append(c);
-      }
+  static int[] toIntArray(List<Integer> list) {
+    final int[] ints = new int[list.size()];
+    for (int i = 0; i < ints.length; i++) {
+      ints[i] = list.get(i);
     }
-    values.add(current.toString());
-
-    return values;
+    return ints;
   }
 }
 
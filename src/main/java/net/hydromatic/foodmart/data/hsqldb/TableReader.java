@@ -0,0 +1,84 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the rows of a Foodmart table directly from its CSV file, without a
+ * database.
+ *
+ * <p>Each call to {@link #open()} returns a new {@link RowCursor}. For example,
+ * to sum {@code store_sales} in {@code sales_fact_1997}:
+ *
+ * <pre>{@code
+ * TableReader reader = TableReader.of("sales_fact_1997");
+ * int storeSales = reader.table().column("store_sales").ordinal;
+ * long sum = 0; // unscaled; the column is DECIMAL(10,4)
+ * try (RowCursor cursor = reader.open()) {
+ *   while (cursor.next()) {
+ *     sum += cursor.getDecimalUnscaled(storeSales);
+ *   }
+ * }
+ * }</pre>
+ *
+ * <p>A reader is immutable and thread-safe; a cursor is not thread-safe.
+ */
+public class TableReader {
+  private final FoodmartSchema.Table table;
+
+  private TableReader(FoodmartSchema.Table table) {
+    this.table = table;
+  }
+
+  /**
+   * Returns a reader for a table.
+   *
+   * @throws IllegalArgumentException if there is no such table
+   */
+  public static TableReader of(String tableName) {
+    return new TableReader(FoodmartSchema.table(tableName));
+  }
+
+  /** Returns the table's columns and their types. */
+  public FoodmartSchema.Table table() {
+    return table;
+  }
+
+  /**
+   * Opens a cursor, positioned before the first row.
+   *
+   * @throws IOException if the CSV file cannot be found or read
+   */
+  public RowCursor open() throws IOException {
+    final String csvPath = FoodmartHsqldb.tableUri(table.name);
+    final InputStream is = FoodmartHsqldb.class.getResourceAsStream(csvPath);
+    if (is == null) {
+      throw new FileNotFoundException("CSV file not found: " + csvPath);
+    }
+    final CsvTokenizer tokenizer =
+        new CsvTokenizer(new InputStreamReader(is, StandardCharsets.US_ASCII));
+    tokenizer.next(); // skip header
+    return new RowCursor(table, tokenizer);
+  }
+}
+
+// End TableReader.java
@@ -0,0 +1,115 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+/**
+ * Accumulates the {@link LoadListener.TableMetrics} of one table, and sends
+ * them to a listener.
+ *
+ * <p>Reports {@link LoadListener#tableStarted} on creation and {@link
+ * LoadListener#tableFinished} on {@link #finish}. Callers add to the {@code
+ * Nanos} fields by timing their own work; read time comes from the tokenizer,
+ * and is subtracted from {@link #parseNanos}.
+ */
+class TableRecorder {
+  private final LoadListener listener;
+  private final String operation;
+  private final String tableName;
+  private final long startMillis = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  private boolean finished;
+
+  long rowCount;
+  /** Time spent in {@link CsvTokenizer#next()}, including reading. */
+  long parseNanos;
+
+  long formatNanos;
+  long waitNanos;
+
+  private long charsRead;
+  private long readNanos;
+
+  TableRecorder(LoadListener listener, String operation, String tableName) {
+    this.listener = listener;
+    this.operation = operation;
+    this.tableName = tableName;
+    listener.tableStarted(operation, tableName);
+  }
+
+  /**
+   * Returns a recorder, or null if the listener is {@link LoadListener#NONE},
+   * so that callers can skip timing.
+   */
+  static TableRecorder create(
+      LoadListener listener, String operation, String tableName) {
+    return listener == LoadListener.NONE
+        ? null
+        : new TableRecorder(listener, operation, tableName);
+  }
+
+  /** Reports the metrics, if they have not been reported already. */
+  void finish(CsvTokenizer tokenizer) {
+    finish(tokenizer.charsRead(), tokenizer.readNanos());
+  }
+
+  /**
+   * Records what a tokenizer has read, for a later call to {@link #finish()} on
+   * another thread.
+   */
+  void read(CsvTokenizer tokenizer) {
+    read(tokenizer.charsRead(), tokenizer.readNanos());
+  }
+
+  /** Records what a table read without a tokenizer has read. */
+  void read(long charsRead, long readNanos) {
+    this.charsRead = charsRead;
+    this.readNanos = readNanos;
+  }
+
+  /**
+   * Reports the metrics, if they have not been reported already, using the
+   * values given to {@link #read}.
+   */
+  void finish() {
+    finish(charsRead, readNanos);
+  }
+
+  /**
+   * Reports the metrics, if they have not been reported already, for a table
+   * that was read without a tokenizer.
+   */
+  void finish(long charsRead, long readNanos) {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    listener.tableFinished(
+        new LoadListener.TableMetrics(
+            operation,
+            tableName,
+            startMillis,
+            rowCount,
+            charsRead,
+            System.nanoTime() - startNanos,
+            readNanos,
+            Math.max(0, parseNanos - readNanos),
+            formatNanos,
+            waitNanos));
+  }
+}
+
+// End TableRecorder.java
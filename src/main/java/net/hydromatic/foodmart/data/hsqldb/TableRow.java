@@ -0,0 +1,64 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.Arrays;
+
+/** Row of a Foodmart table, with each value converted to a Java object. */
+public class TableRow {
+  private final String tableName;
+  private final Object[] values;
+
+  TableRow(String tableName, Object[] values) {
+    this.tableName = tableName;
+    this.values = values;
+  }
+
+  /** Returns the name of the table that this row belongs to. */
+  public String tableName() {
+    return tableName;
+  }
+
+  /** Returns the number of values in this row. */
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * Returns the {@code i}th value, or null.
+   *
+   * <p>The type of the value depends on the column's SQL type: {@link Integer}
+   * for {@code INTEGER}, {@link Short} for {@code SMALLINT}, {@link
+   * java.math.BigDecimal} for {@code DECIMAL}, {@link java.sql.Timestamp} for
+   * {@code TIMESTAMP}, and so forth.
+   */
+  public Object get(int i) {
+    return values[i];
+  }
+
+  /** Returns a copy of the values in this row. */
+  public Object[] toArray() {
+    return values.clone();
+  }
+
+  @Override
+  public String toString() {
+    return tableName + Arrays.toString(values);
+  }
+}
+
+// End TableRow.java
@@ -0,0 +1,132 @@
+/*
+ * Licensed to Julian Hyde under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership. Julian Hyde
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.foodmart.data.hsqldb;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Spliterator over the elements generated from a list of tables, that splits at
+ * table boundaries.
+ *
+ * <p>The number of elements of each table is known in advance, so the
+ * spliterator and every spliterator split from it are {@link #SIZED} and {@link
+ * #SUBSIZED}. Splits are balanced by number of elements, not number of tables,
+ * so a large fact table can end up in a split of its own.
+ *
+ * <p>Elements are in table order, and within a table in the order of the CSV
+ * file, whether or not the stream is parallel.
+ */
+class TableSpliterator<E> implements Spliterator<E> {
+  private final List<String> tableNames;
+  private final Function<String, Iterator<E>> factory;
+  private final ToLongFunction<String> sizer;
+  private int lo;
+  private final int hi;
+  private long remaining;
+  private Iterator<E> iterator;
+
+  /**
+   * Creates a TableSpliterator.
+   *
+   * @param tableNames Table names
+   * @param factory Creates an iterator over the elements of a table
+   * @param sizer Returns the number of elements in a table
+   */
+  TableSpliterator(
+      List<String> tableNames,
+      Function<String, Iterator<E>> factory,
+      ToLongFunction<String> sizer) {
+    this(tableNames, factory, sizer, 0, tableNames.size());
+  }
+
+  private TableSpliterator(
+      List<String> tableNames,
+      Function<String, Iterator<E>> factory,
+      ToLongFunction<String> sizer,
+      int lo,
+      int hi) {
+    this.tableNames = tableNames;
+    this.factory = factory;
+    this.sizer = sizer;
+    this.lo = lo;
+    this.hi = hi;
+    for (int i = lo; i < hi; i++) {
+      remaining += sizer.applyAsLong(tableNames.get(i));
+    }
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super E> action) {
+    for (; ; ) {
+      if (iterator != null) {
+        if (iterator.hasNext()) {
+          --remaining;
+          action.accept(iterator.next());
+          return true;
+        }
+        iterator = null;
+        ++lo;
+      }
+      if (lo >= hi) {
+        return false;
+      }
+      iterator = factory.apply(tableNames.get(lo));
+    }
+  }
+
+  @Override
+  public Spliterator<E> trySplit() {
+    if (iterator != null || hi - lo < 2) {
+      // Already reading a table, or only one table left.
+      return null;
+    }
+    // Find the split point that best balances the number of elements.
+    final long half = remaining / 2;
+    long sum = 0;
+    int mid = lo;
+    while (mid < hi - 1) {
+      final long size = sizer.applyAsLong(tableNames.get(mid));
+      if (sum + size / 2 >= half && mid > lo) {
+        break;
+      }
+      sum += size;
+      ++mid;
+    }
+    final TableSpliterator<E> prefix =
+        new TableSpliterator<>(tableNames, factory, sizer, lo, mid);
+    lo = mid;
+    remaining -= prefix.remaining;
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    return remaining;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+  }
+}
+
+// End TableSpliterator.java
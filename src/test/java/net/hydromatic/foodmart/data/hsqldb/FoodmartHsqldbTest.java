@@ -19,21 +19,55 @@ package net.hydromatic.foodmart.data.hsqldb;
 import static java.lang.String.join;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.hamcrest.core.StringEndsWith.endsWith;
+import static org.hamcrest.core.StringStartsWith.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.hamcrest.Matcher;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /** Kick the tires. */
 public class FoodmartHsqldbTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Test
   public void test() throws SQLException {
     final Connection connection =
@@ -181,12 +215,2050 @@ public class FoodmartHsqldbTest {
     assertTrue("Should contain time_by_day row 738", foundTimeByDay738);
   }
 
+  /** Tests {@link FoodmartHsqldb#generateInserts(int, int)}. */
+  @Test
+  public void testGenerateInsertsBatched() {
+    final List<Integer> types = FoodmartHsqldb.columnTypes().get("days");
+    assertThat(
+        generate("days", types, 3, Integer.MAX_VALUE),
+        is(
+            Arrays.asList(
+                "INSERT INTO \"days\" VALUES(1,'Sunday'),(2,'Monday'),"
+                    + "(5,'Thursday')",
+                "INSERT INTO \"days\" VALUES(4,'Wednesday'),(3,'Tuesday'),"
+                    + "(6,'Friday')",
+                "INSERT INTO \"days\" VALUES(7,'Saturday')")));
+
+    // Statements are at most 60 characters, so at most 2 rows fit.
+    final List<String> capped = generate("days", types, 100, 60);
+    assertThat(capped.size(), is(4));
+    for (String s : capped) {
+      assertTrue(s, s.length() <= 60);
+    }
+    assertThat(capped.get(3), is("INSERT INTO \"days\" VALUES(7,'Saturday')"));
+
+    // A row longer than the limit gets a statement of its own.
+    assertThat(generate("days", types, 100, 10).size(), is(7));
+
+    // Row counts are unchanged, however rows are batched.
+    final List<Integer> customerTypes =
+        FoodmartHsqldb.columnTypes().get("customer");
+    final List<String> customers =
+        generate("customer", customerTypes, 1000, Integer.MAX_VALUE);
+    assertThat(customers.size(), is(11));
+    int rowCount = 0;
+    for (String s : customers) {
+      rowCount += s.split("\\),\\(").length;
+    }
+    assertThat(rowCount, is(10281));
+
+    // The first statements come from "account" (11 rows) and
+    // "agg_c_10_sales_fact_1997" (12 rows); batches never span tables.
+    final Iterator<String> statements =
+        FoodmartHsqldb.generateInserts(10).iterator();
+    assertThat(statements.next(), startsWith("INSERT INTO \"account\""));
+    assertThat(
+        statements.next(),
+        is(
+            "INSERT INTO \"account\" VALUES(5000,NULL,'Net Income','Income',"
+                + "'+',NULL)"));
+    assertThat(
+        statements.next(),
+        startsWith("INSERT INTO \"agg_c_10_sales_fact_1997\""));
+  }
+
+  private static List<String> generate(
+      String tableName, List<Integer> types, int rowsPerStatement, int max) {
+    final List<String> list = new ArrayList<>();
+    new StatementGenerator(
+            FoodmartHsqldb.class, tableName, types, rowsPerStatement, max)
+        .forEachRemaining(list::add);
+    return list;
+  }
+
+  /**
+   * Tests that {@link FoodmartSchema} has the same tables, columns and indexes
+   * as the database.
+   */
+  @Test
+  public void testSchema() throws SQLException {
+    final List<FoodmartSchema.Table> tables = FoodmartSchema.tables();
+    assertThat(tables.size(), is(37));
+    assertThat(
+        tables.stream().map(t -> t.name).collect(Collectors.toList()),
+        is(FoodmartHsqldb.tableNames()));
+
+    final FoodmartSchema.Table sales = FoodmartSchema.table("sales_fact_1997");
+    assertThat(sales.rowCount, is(86837));
+    assertThat(sales.columns.size(), is(8));
+    assertThat(
+        sales.column("store_sales").toString(),
+        is("store_sales DECIMAL(10,4) NOT NULL"));
+    assertThat(sales.indexes.size(), is(5));
+    assertThat(
+        sales.indexes.get(0).createIndexSql("foodmart"),
+        is(
+            "CREATE INDEX \"i_sls_97_cust_id\" ON "
+                + "\"foodmart\".\"sales_fact_1997\"(\"customer_id\")"));
+    assertThat(
+        FoodmartSchema.table("days").createTableSql(null),
+        is(
+            "CREATE TABLE \"days\"(\"day\" INTEGER NOT NULL,"
+                + "\"week_day\" VARCHAR(30) NOT NULL)"));
+    assertThat(
+        FoodmartSchema.table("currency").indexes.get(0).columnNames,
+        is(Arrays.asList("currency_id", "date")));
+
+    try (Connection c =
+            DriverManager.getConnection(
+                FoodmartHsqldb.URI,
+                FoodmartHsqldb.USER,
+                FoodmartHsqldb.PASSWORD);
+        ResultSet r =
+            c.getMetaData().getColumns(null, "foodmart_csv", "csv_%", "%")) {
+      // Compare with the text tables; the memory tables in "foodmart" are
+      // created using "AS SELECT", so do not have NOT NULL constraints.
+      int n = 0;
+      while (r.next()) {
+        final FoodmartSchema.Column column =
+            FoodmartSchema.table(r.getString("TABLE_NAME").substring(4))
+                .column(r.getString("COLUMN_NAME"));
+        final String s = column.toString();
+        assertThat(s, column.ordinal, is(r.getInt("ORDINAL_POSITION") - 1));
+        assertThat(s, column.type, is(r.getInt("DATA_TYPE")));
+        assertThat(s, column.typeName, is(r.getString("TYPE_NAME")));
+        assertThat(
+            s,
+            column.nullable,
+            is(r.getInt("NULLABLE") == DatabaseMetaData.columnNullable));
+        ++n;
+      }
+      int columnCount = 0;
+      int indexCount = 0;
+      for (FoodmartSchema.Table table : tables) {
+        columnCount += table.columns.size();
+        indexCount += table.indexes.size();
+      }
+      assertThat(n, is(columnCount));
+      assertThat(indexCount, is(96));
+    }
+  }
+
+  /** Tests {@link TableSpliterator} and {@link FoodmartHsqldb#rowStream()}. */
+  @Test
+  public void testTableSpliterator() {
+    final Map<String, List<Integer>> types = FoodmartHsqldb.columnTypes();
+    final List<String> tableNames =
+        Arrays.asList("days", "account", "customer", "store", "product");
+    final TableSpliterator<TableRow> spliterator =
+        new TableSpliterator<>(
+            tableNames,
+            t -> new RowGenerator(FoodmartHsqldb.class, t, types.get(t)),
+            FoodmartHsqldb::rowCount);
+    assertThat(spliterator.estimateSize(), is(7L + 11 + 10281 + 25 + 1560));
+    assertTrue(spliterator.hasCharacteristics(Spliterator.SUBSIZED));
+
+    // "customer" is the largest table, and the split is balanced by rows.
+    final Spliterator<TableRow> prefix = spliterator.trySplit();
+    assertThat(prefix.estimateSize(), is(7L + 11 + 10281));
+    assertThat(spliterator.estimateSize(), is(25L + 1560));
+    assertThat(prefix.trySplit().estimateSize(), is(7L + 11));
+    assertThat(prefix.trySplit() == null, is(true));
+
+    final TableRow[] first = new TableRow[1];
+    assertTrue(prefix.tryAdvance(row -> first[0] = row));
+    assertThat(first[0].tableName(), is("customer"));
+    assertThat(first[0].get(0), is((Object) 1));
+    assertThat(first[0].get(2), is((Object) "Nowmer"));
+    assertThat(first[0].get(6), is((Object) null));
+    assertThat(prefix.estimateSize(), is(10280L));
+
+    // A parallel stream returns the same rows in the same order.
+    final Function<Boolean, List<String>> f =
+        parallel ->
+            StreamSupport.stream(
+                    new TableSpliterator<>(
+                        tableNames,
+                        t ->
+                            new StatementGenerator(
+                                FoodmartHsqldb.class, t, types.get(t)),
+                        FoodmartHsqldb::rowCount),
+                    parallel)
+                .collect(Collectors.toList());
+    final List<String> sequential = f.apply(false);
+    assertThat(sequential.size(), is(11884));
+    assertThat(f.apply(true), is(sequential));
+
+    // Sum of row counts matches the total in testGenerateInserts.
+    int rowCount = 0;
+    for (String tableName : FoodmartHsqldb.tableNames()) {
+      rowCount += FoodmartHsqldb.rowCount(tableName);
+    }
+    assertThat(rowCount, is(876042));
+    assertThat(
+        FoodmartHsqldb.rowStream().spliterator().estimateSize(), is(876042L));
+  }
+
+  /**
+   * Tests {@link ColumnarTable}; every value must be the same as the value
+   * parsed from the CSV file.
+   */
+  @Test
+  public void testColumnar() throws IOException {
+    final Map<String, List<Integer>> types = FoodmartHsqldb.columnTypes();
+    for (String tableName :
+        Arrays.asList(
+            "account",
+            "customer",
+            "time_by_day",
+            "sales_fact_1997",
+            "agg_c_14_sales_fact_1997")) {
+      final ColumnarTable table = ColumnarTable.open(tableName);
+      final RowGenerator rows =
+          new RowGenerator(
+              FoodmartHsqldb.class, tableName, types.get(tableName));
+      int row = 0;
+      while (rows.hasNext()) {
+        final TableRow tableRow = rows.next();
+        for (int i = 0; i < tableRow.size(); i++) {
+          assertThat(
+              tableName + "." + table.column(i).name() + " row " + row,
+              table.column(i).getObject(row),
+              is(tableRow.get(i)));
+        }
+        ++row;
+      }
+      assertThat(table.rowCount(), is(row));
+      assertThat(row, is(FoodmartHsqldb.rowCount(tableName)));
+    }
+
+    final ColumnarTable sales = ColumnarTable.open("sales_fact_1997");
+    final ColumnVector storeSales = sales.column("store_sales");
+    assertThat(storeSales.isIntegral(), is(true));
+    assertThat(storeSales.scale(), is(4));
+    assertThat(storeSales.getBigDecimal(0), is(new BigDecimal("1.5000")));
+    assertThat(storeSales.getLong(0), is(15000L));
+    final ColumnVector timeId = sales.column("time_id");
+    assertThat(timeId.min(), is(367L));
+    assertThat(timeId.max(), is(730L));
+
+    final ColumnarTable customer = ColumnarTable.open("customer");
+    final ColumnVector gender = customer.column("gender");
+    assertThat(gender.isDictionaryEncoded(), is(true));
+    assertThat(gender.dictionary().size(), is(2));
+    assertThat(
+        gender.dictionary().get(gender.getInt(0)), is(gender.getString(0)));
+    assertThat(customer.column("lname").isDictionaryEncoded(), is(false));
+    assertThat(ColumnarTable.exists("no_such_table"), is(false));
+  }
+
+  /** Tests {@link FoodmartHsqldb#connect(Set, boolean)}. */
+  @Test
+  public void testConnectTables() throws SQLException {
+    assertThat(
+        FoodmartSchema.foreignKeyClosure(Collections.singleton("product")),
+        is(new HashSet<>(Arrays.asList("product", "product_class"))));
+    assertThat(
+        FoodmartSchema.foreignKeyClosure(
+                Collections.singleton("sales_fact_1997"))
+            .toString(),
+        is(
+            "[customer, product, product_class, promotion, region, "
+                + "sales_fact_1997, store, time_by_day]"));
+
+    final Set<String> tableNames =
+        new HashSet<>(Arrays.asList("product", "days"));
+    try (Connection connection = FoodmartHsqldb.connect(tableNames);
+        Statement statement = connection.createStatement()) {
+      checkRowCount(statement, "product", 1560);
+      checkRowCount(statement, "days", 7);
+      try (ResultSet r =
+          connection.getMetaData().getTables(null, "foodmart", null, null)) {
+        final List<String> list = new ArrayList<>();
+        while (r.next()) {
+          list.add(r.getString("TABLE_NAME"));
+        }
+        Collections.sort(list);
+        assertThat(list.toString(), is("[days, product]"));
+      }
+      try (ResultSet r =
+          connection
+              .getMetaData()
+              .getIndexInfo(null, "foodmart", "product", false, false)) {
+        final List<String> list = new ArrayList<>();
+        while (r.next()) {
+          list.add(r.getString("INDEX_NAME"));
+        }
+        assertTrue(list.toString(), list.contains("i_product_id"));
+      }
+
+      // Unqualified names resolve to the "foodmart" schema, and the
+      // database is writable.
+      statement.executeUpdate("DELETE FROM \"days\" WHERE \"day\" > 5");
+      try (ResultSet r = statement.executeQuery("SELECT * FROM \"days\"")) {
+        int n = 0;
+        while (r.next()) {
+          ++n;
+        }
+        assertThat(n, is(5));
+      }
+    }
+
+    // Each connection has a private database.
+    try (Connection connection =
+            FoodmartHsqldb.connect(Collections.singleton("product"), true);
+        Statement statement = connection.createStatement()) {
+      checkRowCount(statement, "product_class", 110);
+    }
+  }
+
+  /**
+   * Tests {@link FoodmartHsqldb#snapshot(Connection)} on a database created by
+   * {@link FoodmartHsqldb#connect(Set)}, which reloads from CSV files.
+   */
+  @Test
+  public void testSnapshot() throws SQLException {
+    final Set<String> tableNames =
+        new HashSet<>(Arrays.asList("days", "product", "product_class"));
+    try (Connection connection = FoodmartHsqldb.connect(tableNames);
+        Statement statement = connection.createStatement()) {
+      checkSnapshot(connection, statement);
+    }
+  }
+
+  /**
+   * Tests {@link FoodmartHsqldb#snapshot(Connection)} on the shared database,
+   * which reloads from the {@code "foodmart_csv"} text tables.
+   */
+  @Test
+  public void testSnapshotShared() throws SQLException {
+    try (Connection connection =
+            DriverManager.getConnection(
+                FoodmartHsqldb.URI,
+                FoodmartHsqldb.USER,
+                FoodmartHsqldb.PASSWORD);
+        Statement statement = connection.createStatement()) {
+      checkSnapshot(connection, statement);
+    }
+  }
+
+  private void checkSnapshot(Connection connection, Statement statement)
+      throws SQLException {
+    try (Snapshot snapshot = FoodmartHsqldb.snapshot(connection)) {
+      assertThat(snapshot.dirtyTables().isEmpty(), is(true));
+      assertThat(snapshot.reset().isEmpty(), is(true));
+
+      // Other tests share the database; restore it even if an assertion
+      // fails.
+      try {
+        statement.executeUpdate("DELETE FROM \"days\" WHERE \"day\" > 2");
+        statement.executeUpdate(
+            "UPDATE \"product\" SET \"product_name\" = 'x'");
+        // A statement that modifies no rows does not mark the table dirty.
+        statement.executeUpdate(
+            "DELETE FROM \"product_class\" WHERE \"product_class_id\" < 0");
+        assertThat(
+            new HashSet<>(snapshot.dirtyTables()),
+            is(new HashSet<>(Arrays.asList("days", "product"))));
+        checkRowCount(statement, "days", 2);
+
+        assertThat(snapshot.reset().size(), is(2));
+        assertThat(snapshot.dirtyTables().isEmpty(), is(true));
+        checkRowCount(statement, "days", 7);
+        checkRowCount(statement, "product", 1560);
+        try (ResultSet r =
+            statement.executeQuery(
+                "SELECT count(*) FROM \"product\" WHERE \"product_name\" = 'x'")) {
+          assertTrue(r.next());
+          assertThat(r.getInt(1), is(0));
+        }
+      } finally {
+        snapshot.reset();
+      }
+    }
+    // Closing the snapshot removes its schema.
+    try (ResultSet r =
+        connection.getMetaData().getSchemas(null, Snapshot.SCHEMA)) {
+      assertThat(r.next(), is(false));
+    }
+  }
+
+  /**
+   * Tests {@link TableReader} and {@link RowCursor}; values must be the same as
+   * in the columnar snapshot, which is generated by a different code path.
+   */
+  @Test
+  public void testRowCursor() throws IOException {
+    for (String tableName :
+        Arrays.asList(
+            "employee", "customer", "time_by_day", "sales_fact_1997")) {
+      final TableReader reader = TableReader.of(tableName);
+      final ColumnarTable columnar = ColumnarTable.open(tableName);
+      int row = 0;
+      try (RowCursor cursor = reader.open()) {
+        assertThat(cursor.columnCount(), is(columnar.columns().size()));
+        while (cursor.next()) {
+          for (FoodmartSchema.Column column : reader.table().columns) {
+            final int i = column.ordinal;
+            final ColumnVector vector = columnar.column(i);
+            final String message =
+                tableName + "." + column.name + " row " + row;
+            assertThat(message, cursor.isNull(i), is(vector.isNull(row)));
+            assertThat(message, cursor.getString(i), is(vector.getString(row)));
+            switch (column.type) {
+              case Types.SMALLINT:
+              case Types.INTEGER:
+                assertThat(message, cursor.getInt(i), is(vector.getInt(row)));
+                break;
+              case Types.BIGINT:
+                assertThat(message, cursor.getLong(i), is(vector.getLong(row)));
+                break;
+              case Types.DECIMAL:
+                assertThat(
+                    message,
+                    cursor.getDecimalUnscaled(i),
+                    is(vector.getLong(row)));
+                assertThat(
+                    message, cursor.getDouble(i), is(vector.getDouble(row)));
+                break;
+              case Types.DATE:
+              case Types.TIMESTAMP:
+                assertThat(
+                    message,
+                    cursor.getEpochMillis(i),
+                    is(vector.getEpochMillis(row)));
+                break;
+            }
+          }
+          ++row;
+        }
+      }
+      assertThat(row, is(FoodmartHsqldb.rowCount(tableName)));
+    }
+
+    // Edge cases of the parsers.
+    final CsvTokenizer tokenizer =
+        new CsvTokenizer(
+            new StringReader(
+                "1.5,-0.25,7,1.50000,.5,12345678901234.5678,1e2,"
+                    + "2000-02-29,1969-12-31 23:59:59.5,1998-01-07 00:00:00.0"));
+    assertTrue(tokenizer.next());
+    assertThat(tokenizer.getUnscaled(0, 4), is(15000L));
+    assertThat(tokenizer.getUnscaled(1, 4), is(-2500L));
+    assertThat(tokenizer.getUnscaled(2, 0), is(7L));
+    assertThat(tokenizer.getUnscaled(3, 4), is(15000L));
+    assertThat(tokenizer.getUnscaled(4, 1), is(5L));
+    assertThat(tokenizer.getUnscaled(5, 4), is(123456789012345678L));
+    assertThat(tokenizer.getUnscaled(6, 2), is(10000L));
+    assertThat(
+        tokenizer.getEpochMillis(7),
+        is(LocalDate.of(2000, 2, 29).toEpochDay() * 86_400_000L));
+    assertThat(tokenizer.getEpochMillis(8), is(-500L));
+    assertThat(
+        tokenizer.getEpochMillis(9),
+        is(LocalDate.of(1998, 1, 7).toEpochDay() * 86_400_000L));
+    for (int y = 1600; y < 2400; y += 7) {
+      for (int m = 1; m <= 12; m++) {
+        assertThat(
+            CsvTokenizer.epochDay(y, m, 28),
+            is(LocalDate.of(y, m, 28).toEpochDay()));
+      }
+    }
+  }
+
+  /**
+   * Tests {@link FoodmartHsqldb#cachedUri(Path)}. To save time, the cached
+   * database has only a few tables.
+   */
+  @Test
+  public void testCachedUri() throws Exception {
+    final Path dir = temporaryFolder.getRoot().toPath();
+    final List<String> tableNames =
+        Arrays.asList("days", "product", "product_class", "sales_fact_1997");
+
+    // Two threads build the cache at the same time; one of them waits.
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    final Callable<String> task = () -> DatabaseCache.uri(dir, tableNames);
+    final Future<String> future1 = executor.submit(task);
+    final Future<String> future2 = executor.submit(task);
+    final String uri = future1.get();
+    assertThat(future2.get(), is(uri));
+    executor.shutdown();
+    assertThat(uri, startsWith("jdbc:hsqldb:file:"));
+
+    // The cache holds one complete database, and no temporary directory.
+    try (Stream<Path> files = Files.list(dir)) {
+      assertThat(
+          files
+              .map(p -> p.getFileName().toString())
+              .sorted()
+              .collect(Collectors.toList()),
+          is(Arrays.asList(DatabaseCache.key(tableNames), "lock")));
+    }
+    assertThat(DatabaseCache.uri(dir, tableNames), is(uri));
+
+    try (Connection connection =
+            DriverManager.getConnection(
+                uri, FoodmartHsqldb.USER, FoodmartHsqldb.PASSWORD);
+        Statement statement = connection.createStatement()) {
+      checkRowCount(statement, "days", 7);
+      checkRowCount(statement, "sales_fact_1997", 86837);
+      checkRowCount(statement, "product_class", 110);
+      try (ResultSet r =
+          statement.executeQuery(
+              "SELECT \"product_name\" FROM \"product\"\n"
+                  + "WHERE \"product_id\" = 1")) {
+        assertTrue(r.next());
+        assertThat(r.getString(1), is("Washington Berry Juice"));
+      }
+    }
+  }
+
+  /** Tests {@link ScaleGenerator}. */
+  @Test
+  public void testScaleGenerator() throws Exception {
+    final ScaleGenerator generator = ScaleGenerator.of(3, 42L);
+    assertThat(generator.rowCount("sales_fact_1997"), is(3L * 86837));
+    assertThat(generator.rowCount("product"), is(1560L));
+
+    final List<String> original = readColumns("sales_fact_1997", 1, 0L);
+    final List<String> scaled = readColumns("sales_fact_1997", 3, 42L);
+    assertThat(scaled.size(), is(3 * original.size()));
+    // The first copy is the original data.
+    assertThat(scaled.subList(0, original.size()), is(original));
+    // Later copies have the same time_id (column 1) and measures, in the same
+    // order, but different, valid, product ids (column 0).
+    final Set<String> productIds = new HashSet<>();
+    for (String row : original) {
+      productIds.add(row.split(",")[0]);
+    }
+    int sameProduct = 0;
+    for (int i = 0; i < original.size(); i++) {
+      final String[] o = original.get(i).split(",", -1);
+      final String[] s = scaled.get(2 * original.size() + i).split(",", -1);
+      assertThat(s[1], is(o[1]));
+      assertThat(s[5] + s[6] + s[7], is(o[5] + o[6] + o[7]));
+      assertTrue(productIds.contains(s[0]));
+      if (s[0].equals(o[0])) {
+        ++sameProduct;
+      }
+    }
+    assertTrue(sameProduct < original.size() / 100);
+
+    // Same seed gives the same data; a different seed gives different data.
+    assertThat(readColumns("sales_fact_1997", 3, 42L), is(scaled));
+    assertThat(
+        readColumns("sales_fact_1997", 3, 43L).equals(scaled), is(false));
+
+    // Load into a database.
+    try (Connection connection =
+            DriverManager.getConnection(
+                "jdbc:hsqldb:mem:testScaleGenerator", "SA", "");
+        Statement statement = connection.createStatement()) {
+      statement.execute("CREATE SCHEMA \"fm\"");
+      final List<String> tableNames = Arrays.asList("days", "expense_fact");
+      for (String tableName : tableNames) {
+        statement.execute(FoodmartSchema.table(tableName).createTableSql("fm"));
+      }
+      final LoadResult result =
+          ScaleGenerator.of(5, 0L)
+              .load(
+                  connection,
+                  LoadOptions.DEFAULT.withSchema("fm").withTables(tableNames));
+      assertThat(result.rowCount(), is(7L + 5 * 2400));
+      checkRowCount(statement, "fm", "days", 7);
+      checkRowCount(statement, "fm", "expense_fact", 5 * 2400);
+      statement.execute("SHUTDOWN");
+    }
+  }
+
+  /**
+   * Reads the columns of a table, at a given scale factor, as comma-separated
+   * strings.
+   */
+  private static List<String> readColumns(
+      String tableName, int scaleFactor, long seed) throws IOException {
+    final List<String> list = new ArrayList<>();
+    try (CsvTokenizer tokenizer =
+        ScaleGenerator.of(scaleFactor, seed).tokenizer(tableName)) {
+      tokenizer.next(); // skip header
+      while (tokenizer.next()) {
+        final StringBuilder b = new StringBuilder();
+        for (int i = 0; i < tokenizer.fieldCount(); i++) {
+          if (i > 0) {
+            b.append(',');
+          }
+          b.append(tokenizer.getString(i));
+        }
+        list.add(b.toString());
+      }
+    }
+    return list;
+  }
+
+  /** Tests {@link FoodmartHsqldb#load}. */
+  @Test
+  public void testBitmap() {
+    final java.util.Random random = new java.util.Random(1234);
+    for (int size : new int[] {0, 1, 63, 64, 65, 1000, 10_000}) {
+      for (int trial = 0; trial < 20; trial++) {
+        // Densities from very sparse to full, so that every combination of
+        // representations is tested.
+        final BitSet a = randomBits(random, size);
+        final BitSet b = randomBits(random, size);
+        final Bitmap x = Bitmap.of(size, a.stream().toArray());
+        final Bitmap y = Bitmap.of(size, b.stream().toArray());
+        assertThat(x.cardinality(), is(a.cardinality()));
+        final BitSet and = (BitSet) a.clone();
+        and.and(b);
+        assertThat(x.and(y).toArray(), is(and.stream().toArray()));
+        final BitSet or = (BitSet) a.clone();
+        or.or(b);
+        assertThat(x.or(y).toArray(), is(or.stream().toArray()));
+        assertThat(
+            Bitmap.union(size, Arrays.asList(x, y)).toArray(),
+            is(or.stream().toArray()));
+        final BitSet andNot = (BitSet) a.clone();
+        andNot.andNot(b);
+        assertThat(x.andNot(y).toArray(), is(andNot.stream().toArray()));
+        final BitSet not = (BitSet) a.clone();
+        not.flip(0, size);
+        assertThat(x.not().toArray(), is(not.stream().toArray()));
+        for (int row = -1; row <= size; row++) {
+          assertThat(x.contains(row), is(a.get(Math.max(row, 0)) && row >= 0));
+        }
+      }
+    }
+    assertThat(Bitmap.all(100).cardinality(), is(100));
+    assertThat(Bitmap.empty(100).isEmpty(), is(true));
+  }
+
+  private static BitSet randomBits(java.util.Random random, int size) {
+    final double density = Math.pow(random.nextDouble(), 4);
+    final BitSet bits = new BitSet(size);
+    for (int i = 0; i < size; i++) {
+      if (random.nextDouble() < density) {
+        bits.set(i);
+      }
+    }
+    return bits;
+  }
+
+  @Test
+  public void testBitmapIndex() throws IOException {
+    final BitmapIndex index = BitmapIndex.build("sales_fact_1997");
+    assertThat(
+        new ArrayList<>(index.columnNames()),
+        is(
+            Arrays.asList(
+                "product_id",
+                "time_id",
+                "customer_id",
+                "promotion_id",
+                "store_id")));
+    assertThat(index.rowCount(), is(86837));
+    assertThat(index.values("time_id").first(), is(367L));
+    assertThat(index.values("time_id").last(), is(730L));
+
+    final Bitmap bitmap =
+        index
+            .eq("store_id", 11)
+            .and(index.in("promotion_id", 0, 1000))
+            .and(index.between("time_id", 367, 397));
+
+    // Compare with a scan of the columnar table.
+    final ColumnarTable table = index.table();
+    final int[] storeId = table.column("store_id").toIntArray();
+    final int[] promotionId = table.column("promotion_id").toIntArray();
+    final int[] timeId = table.column("time_id").toIntArray();
+    final List<Integer> expected = new ArrayList<>();
+    for (int row = 0; row < table.rowCount(); row++) {
+      if (storeId[row] == 11
+          && (promotionId[row] == 0 || promotionId[row] == 1000)
+          && timeId[row] >= 367
+          && timeId[row] <= 397) {
+        expected.add(row);
+      }
+    }
+    assertThat(expected.isEmpty(), is(false));
+    final List<Integer> actual = new ArrayList<>();
+    bitmap.forEach(actual::add);
+    assertThat(actual, is(expected));
+
+    final List<TableRow> rows = index.rows(bitmap);
+    assertThat(rows.size(), is(expected.size()));
+    for (TableRow row : rows) {
+      assertThat(row.tableName(), is("sales_fact_1997"));
+      assertThat(row.get(4), is((Object) 11));
+    }
+
+    // Every row has one time_id, so the bitmaps of a column partition the
+    // table.
+    assertThat(
+        index.between("time_id", Long.MIN_VALUE, Long.MAX_VALUE).cardinality(),
+        is(index.rowCount()));
+    assertThat(index.eq("store_id", -1).isEmpty(), is(true));
+    assertThat(index.in("store_id").isEmpty(), is(true));
+  }
+
+  @Test
+  public void testBulkExporter() throws IOException {
+    final BulkExporter pgText =
+        BulkExporter.of(BulkExporter.Format.POSTGRESQL_TEXT);
+    final BulkExporter pgCsv =
+        BulkExporter.of(BulkExporter.Format.POSTGRESQL_CSV);
+    final BulkExporter mysql = BulkExporter.of(BulkExporter.Format.MYSQL);
+
+    // NULL, TIMESTAMP and DECIMAL values
+    assertThat(
+        lines(pgText, "promotion").subList(0, 2),
+        is(
+            Arrays.asList(
+                "0\t0\tNo Promotion\tNo Media\t0.0000\t\\N\t\\N",
+                "1\t110\tHigh Roller Savings\tProduct Attachment\t14435.0000\t"
+                    + "1996-01-03 00:00:00.0\t1996-01-06 00:00:00.0")));
+    assertThat(
+        lines(pgCsv, "promotion").get(0),
+        is("0,0,No Promotion,No Media,0.0000,,"));
+
+    // BOOLEAN values
+    assertThat(
+        lines(pgCsv, "product").get(0),
+        endsWith(",false,false,30,14,16.9,12.6,7.4"));
+    assertThat(
+        lines(mysql, "product").get(0),
+        endsWith("\t0\t0\t30\t14\t16.9\t12.6\t7.4"));
+
+    // Strings that contain delimiters and quotes
+    assertThat(
+        lines(pgCsv, "warehouse").get(2),
+        startsWith("3,3,3,\"Destination, Inc.\",4162"));
+    assertThat(
+        lines(mysql, "warehouse").get(2),
+        startsWith("3\t3\t3\tDestination, Inc.\t4162"));
+    assertThat(
+        lines(pgCsv, "account").get(3),
+        containsString(
+            ",+,\"LookUpCube(\"\"[Sales]\"\",\"\"(Measures.[Store Sales],\"\""));
+    assertThat(
+        lines(mysql, "account").get(3),
+        containsString(
+            "\t+\tLookUpCube(\"[Sales]\",\"(Measures.[Store Sales],\""));
+
+    for (BulkExporter exporter : Arrays.asList(pgText, pgCsv, mysql)) {
+      assertThat(
+          lines(exporter, "sales_fact_1997").size(),
+          is(FoodmartHsqldb.rowCount("sales_fact_1997")));
+    }
+
+    // DDL
+    assertThat(
+        pgText.createTableSql("days"),
+        is(
+            "CREATE TABLE \"days\" (\n  \"day\" INTEGER NOT NULL,\n"
+                + "  \"week_day\" VARCHAR(30) NOT NULL)"));
+    assertThat(
+        mysql.createTableSql("salary"),
+        is(
+            "CREATE TABLE `salary` (\n  `pay_date` DATETIME NOT NULL,\n"
+                + "  `employee_id` INTEGER NOT NULL,\n"
+                + "  `department_id` INTEGER NOT NULL,\n"
+                + "  `currency_id` INTEGER NOT NULL,\n"
+                + "  `salary_paid` DECIMAL(10,4) NOT NULL,\n"
+                + "  `overtime_paid` DECIMAL(10,4) NOT NULL,\n"
+                + "  `vacation_accrued` DOUBLE NOT NULL,\n"
+                + "  `vacation_used` DOUBLE NOT NULL)"));
+    assertThat(
+        pgCsv.createTableSql("salary"),
+        containsString("\"vacation_used\" DOUBLE PRECISION NOT NULL)"));
+    assertThat(
+        pgText.createIndexSql("promotion"),
+        is(
+            Arrays.asList(
+                "CREATE UNIQUE INDEX \"i_promotion_id\" ON \"promotion\" "
+                    + "(\"promotion_id\")",
+                "CREATE INDEX \"i_promo_dist_id\" ON \"promotion\" "
+                    + "(\"promotion_district_id\")")));
+    assertThat(pgText.loadSql("days"), is("COPY \"days\" FROM STDIN"));
+    assertThat(
+        pgCsv.loadSql("days"),
+        is("COPY \"days\" FROM STDIN WITH (FORMAT csv)"));
+    assertThat(
+        mysql.loadSql("days"),
+        is(
+            "LOAD DATA LOCAL INFILE 'days.tsv' INTO TABLE `days`"
+                + " FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'"
+                + " LINES TERMINATED BY '\\n'"));
+
+    // Export to a directory
+    final Path dir = temporaryFolder.getRoot().toPath().resolve("export");
+    pgCsv.export(dir, Arrays.asList("days", "promotion"));
+    assertThat(
+        Files.readAllLines(dir.resolve("days.csv")).size(),
+        is(FoodmartHsqldb.rowCount("days")));
+    assertThat(
+        new String(Files.readAllBytes(dir.resolve("load.sql")), "UTF-8"),
+        is(
+            "\\copy \"days\" FROM 'days.csv' WITH (FORMAT csv)\n"
+                + "\\copy \"promotion\" FROM 'promotion.csv' WITH (FORMAT csv)\n"
+                + "\n"
+                + pgCsv.createIndexSql("promotion").get(0)
+                + ";\n"
+                + pgCsv.createIndexSql("promotion").get(1)
+                + ";\n"));
+    assertThat(
+        new String(Files.readAllBytes(dir.resolve("create.sql")), "UTF-8"),
+        startsWith(pgCsv.createTableSql("days") + ";\n\n"));
+  }
+
+  private static List<String> lines(BulkExporter exporter, String tableName)
+      throws IOException {
+    final StringWriter w = new StringWriter();
+    final int rowCount = exporter.write(tableName, w);
+    final List<String> lines = Arrays.asList(w.toString().split("\n", -1));
+    assertThat(lines.get(lines.size() - 1), is(""));
+    assertThat(lines.size() - 1, is(rowCount));
+    return lines.subList(0, rowCount);
+  }
+
+  @Test
+  public void testLoadListener() throws Exception {
+    final StringBuilder json = new StringBuilder();
+    final List<LoadListener.TableMetrics> tables = new ArrayList<>();
+    final List<LoadListener.StatementMetrics> statements = new ArrayList<>();
+    final LoadListener jsonLines = LoadListener.jsonLines(json);
+    final LoadListener listener =
+        new LoadListener() {
+          @Override
+          public void tableStarted(String operation, String tableName) {
+            jsonLines.tableStarted(operation, tableName);
+          }
+
+          @Override
+          public void tableFinished(TableMetrics metrics) {
+            tables.add(metrics);
+            jsonLines.tableFinished(metrics);
+          }
+
+          @Override
+          public void statementExecuted(StatementMetrics metrics) {
+            statements.add(metrics);
+            jsonLines.statementExecuted(metrics);
+          }
+        };
+
+    // Generate statements for the first few tables. (Not all tables, because
+    // a CSV file may be missing.)
+    for (String statement :
+        FoodmartHsqldb.generateInserts(100, Integer.MAX_VALUE, listener)) {
+      if (statement.startsWith("INSERT INTO \"customer\"")) {
+        break;
+      }
+    }
+    final List<String> tableNames = FoodmartHsqldb.tableNames();
+    final int customer = tableNames.indexOf("customer");
+    assertThat(tables.size(), is(customer));
+    for (int i = 0; i < customer; i++) {
+      final LoadListener.TableMetrics metrics = tables.get(i);
+      assertThat(metrics.operation, is("generateInserts"));
+      assertThat(metrics.tableName, is(tableNames.get(i)));
+      assertThat(
+          (int) metrics.rowCount,
+          is(FoodmartHsqldb.rowCount(metrics.tableName)));
+      assertTrue(metrics.charsRead > metrics.rowCount);
+      assertTrue(metrics.formatNanos > 0);
+      assertTrue(
+          metrics.readNanos + metrics.parseNanos + metrics.formatNanos
+              <= metrics.elapsedNanos);
+    }
+    assertThat(
+        tables.get(0).charsRead,
+        is(
+            (long)
+                new String(
+                        Files.readAllBytes(
+                            Paths.get(
+                                FoodmartHsqldbTest.class
+                                    .getResource("/csv/account.csv")
+                                    .toURI())),
+                        "US-ASCII")
+                    .length()));
+
+    // Load two tables.
+    tables.clear();
+    try (Connection connection =
+            DriverManager.getConnection(
+                "jdbc:hsqldb:mem:testLoadListener", "SA", "");
+        Statement statement = connection.createStatement()) {
+      statement.execute("CREATE SCHEMA \"fm\"");
+      for (String tableName : Arrays.asList("days", "time_by_day")) {
+        statement.execute(FoodmartSchema.table(tableName).createTableSql("fm"));
+      }
+      FoodmartHsqldb.load(
+          connection,
+          LoadOptions.DEFAULT
+              .withSchema("fm")
+              .withTables(Arrays.asList("days", "time_by_day"))
+              .withBatchSize(100)
+              .withListener(listener));
+      statement.execute("SHUTDOWN");
+    }
+    assertThat(tables.size(), is(2));
+    assertThat(tables.get(1).operation, is("load"));
+    assertThat(tables.get(1).tableName, is("time_by_day"));
+    assertThat(tables.get(1).rowCount, is(730L));
+    assertTrue(tables.get(1).waitNanos > 0);
+
+    // Replay the script for two tables.
+    new ScriptProfiler(listener, t -> t.equals("days") || t.equals("store"))
+        .run();
+    final List<String> kinds = new ArrayList<>();
+    for (LoadListener.StatementMetrics metrics : statements) {
+      if (metrics.tableName != null) {
+        kinds.add(metrics.kind + " " + metrics.tableName);
+      }
+    }
+    assertThat(
+        kinds,
+        is(
+            Arrays.asList(
+                "CREATE TEXT TABLE days",
+                "CREATE TEXT TABLE store",
+                "SET TABLE days",
+                "SET TABLE store",
+                "CREATE MEMORY TABLE days",
+                "CREATE MEMORY TABLE store",
+                "CREATE UNIQUE INDEX store",
+                "CREATE INDEX store")));
+    for (LoadListener.StatementMetrics metrics : statements) {
+      if (metrics.kind.equals("SET TABLE")) {
+        assertTrue(metrics.resourceNanos > 0);
+      }
+    }
+
+    // Each event is a line of JSON: start and finish of each table before
+    // customer, start of customer, start and finish of the two loaded tables,
+    // and the statements.
+    final String[] lines = json.toString().split("\n");
+    assertThat(lines.length, is(2 * customer + 1 + 4 + statements.size()));
+    assertThat(
+        lines[1],
+        startsWith(
+            "{\"event\":\"tableFinished\",\"operation\":\"generateInserts\","
+                + "\"table\":\"account\",\"startMillis\":"));
+    assertThat(lines[1], containsString(",\"rows\":11,\"charsRead\":"));
+    assertThat(
+        lines[lines.length - 1],
+        startsWith("{\"event\":\"statementExecuted\",\"line\":"));
+    assertThat(
+        JsonLinesListener.quote("a\"b\\c\n"), is("\"a\\\"b\\\\c\\u000a\""));
+
+    // Open the database.
+    final long[] elapsed = {-1};
+    try (Connection connection =
+        FoodmartHsqldb.open(
+            new LoadListener() {
+              @Override
+              public void opened(String uri, long elapsedNanos) {
+                assertThat(uri, is(FoodmartHsqldb.URI));
+                elapsed[0] = elapsedNanos;
+              }
+            })) {
+      assertTrue(connection.isValid(1));
+    }
+    assertTrue(elapsed[0] >= 0);
+  }
+
+  @Test
+  public void testParallelLoad() throws SQLException {
+    final org.hsqldb.jdbc.JDBCDataSource dataSource =
+        new org.hsqldb.jdbc.JDBCDataSource();
+    dataSource.setUrl("jdbc:hsqldb:mem:testParallelLoad");
+    dataSource.setUser("SA");
+    dataSource.setPassword("");
+    final List<String> tableNames =
+        Arrays.asList(
+            "region",
+            "store",
+            "customer",
+            "product_class",
+            "product",
+            "promotion",
+            "time_by_day",
+            "sales_fact_1997",
+            "agg_c_14_sales_fact_1997");
+    final List<String> started =
+        Collections.synchronizedList(new ArrayList<>());
+    final Map<String, LoadListener.TableMetrics> metrics =
+        new ConcurrentHashMap<>();
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute("CREATE SCHEMA \"fm\"");
+      for (String tableName : tableNames) {
+        statement.execute(FoodmartSchema.table(tableName).createTableSql("fm"));
+      }
+
+      final LoadResult result =
+          FoodmartHsqldb.load(
+              dataSource,
+              LoadOptions.DEFAULT
+                  .withSchema("fm")
+                  .withTables(tableNames)
+                  .withParallelism(3)
+                  .withVirtualThreads(true)
+                  .withListener(
+                      new LoadListener() {
+                        @Override
+                        public void tableStarted(
+                            String operation, String tableName) {
+                          started.add(tableName);
+                        }
+
+                        @Override
+                        public void tableFinished(LoadListener.TableMetrics m) {
+                          metrics.put(m.tableName, m);
+                        }
+                      }));
+      assertThat(result.tables().size(), is(tableNames.size()));
+
+      // As for a serial load, waitNanos is the time spent executing batches
+      // and commits, so is within the table's elapsed time.
+      assertThat(metrics.keySet(), is(new HashSet<>(tableNames)));
+      for (LoadListener.TableMetrics m : metrics.values()) {
+        assertThat(m.rowCount, is((long) FoodmartHsqldb.rowCount(m.tableName)));
+        assertTrue(m.tableName, m.waitNanos > 0);
+        assertTrue(m.tableName, m.waitNanos <= m.elapsedNanos);
+      }
+      long rowCount = 0;
+      for (String tableName : tableNames) {
+        checkRowCount(
+            statement, "fm", tableName, FoodmartHsqldb.rowCount(tableName));
+        assertThat(
+            result.table(tableName).rowCount,
+            is((long) FoodmartHsqldb.rowCount(tableName)));
+        rowCount += FoodmartHsqldb.rowCount(tableName);
+      }
+      assertThat(result.rowCount(), is(rowCount));
+      assertTrue(result.rowsPerSecond() > 0);
+
+      // A table finishes after the tables that its foreign keys reference.
+      final List<String> finished = new ArrayList<>();
+      for (LoadResult.TableResult table : result.tables()) {
+        finished.add(table.tableName);
+      }
+      for (String tableName : tableNames) {
+        for (FoodmartSchema.ForeignKey foreignKey :
+            FoodmartSchema.table(tableName).foreignKeys) {
+          if (tableNames.contains(foreignKey.targetTableName)
+              && !foreignKey.targetTableName.equals(tableName)) {
+            assertTrue(
+                tableName + " after " + foreignKey.targetTableName,
+                finished.indexOf(tableName)
+                    > finished.indexOf(foreignKey.targetTableName));
+            assertTrue(
+                started.indexOf(tableName)
+                    > started.indexOf(foreignKey.targetTableName));
+          }
+        }
+      }
+
+      // If a target table does not exist, the load fails, and the other
+      // workers stop.
+      statement.execute("DROP TABLE \"fm\".\"store\"");
+      try {
+        FoodmartHsqldb.load(
+            dataSource,
+            LoadOptions.DEFAULT
+                .withSchema("fm")
+                .withTables(tableNames)
+                .withParallelism(2));
+        throw new AssertionError("expected error");
+      } catch (SQLException e) {
+        assertThat(e.getMessage(), containsString("store"));
+      }
+      statement.execute("SHUTDOWN");
+    }
+  }
+
+  /**
+   * Tests {@link HeapFootprint} on a few tables: measurements agree with the
+   * estimates, a footprint survives a round trip through its report, growth is
+   * detected, and the footprint has not grown since the baseline in {@code
+   * heap-footprint.tsv}.
+   *
+   * <p>Measures in a new JVM, because this JVM's heap already holds databases
+   * and caches from other tests.
+   *
+   * <p>To allow more growth, set the {@code foodmart.heap.threshold} system
+   * property, for example to 0.5; to record a new baseline, run {@link
+   * HeapFootprint#main} and copy the lines of these tables.
+   */
+  @Test
+  public void testHeapFootprint() throws Exception {
+    final Path reportFile = temporaryFolder.newFile().toPath();
+    runJava(
+        Collections.emptyList(),
+        MeasureHeapFootprint.class,
+        reportFile.toString(),
+        "product",
+        "sales_fact_1997",
+        "time_by_day");
+    final HeapFootprint footprint;
+    try (Reader r = Files.newBufferedReader(reportFile)) {
+      footprint = HeapFootprint.read(r);
+    }
+
+    // A text table and a memory table for each table, and an index for each
+    // of the 5 foreign keys of sales_fact_1997.
+    final HeapFootprint.Entry sales =
+        footprint.entry(HeapFootprint.SCHEMA, "sales_fact_1997");
+    assertThat(sales.kind, is(HeapFootprint.Kind.TABLE));
+    assertThat(sales.rowCount, is(86837));
+    assertThat(
+        footprint.entry(HeapFootprint.CSV_SCHEMA, "sales_fact_1997").rowCount,
+        is(86837));
+    final HeapFootprint.Entry index =
+        footprint.entry(HeapFootprint.SCHEMA, "i_sls_97_cust_id");
+    assertThat(index.kind, is(HeapFootprint.Kind.INDEX));
+    assertThat(index.tableName, is("sales_fact_1997"));
+    assertThat(footprint.entries().size(), is(6 + 5 + 5 + 5));
+
+    // Large objects are within a factor of 2 of their estimate.
+    for (HeapFootprint.Entry entry : footprint.entries()) {
+      if (entry.estimatedBytes >= HeapFootprint.MIN_COMPARED_BYTES) {
+        final double ratio =
+            (double) entry.measuredBytes / entry.estimatedBytes;
+        assertTrue(entry.toString(), ratio > 0.5 && ratio < 2);
+      }
+    }
+    for (String schema :
+        Arrays.asList(HeapFootprint.SCHEMA, HeapFootprint.CSV_SCHEMA)) {
+      assertTrue(footprint.measuredBytes(schema) > 5_000_000);
+      assertTrue(footprint.estimatedBytes(schema) > 5_000_000);
+    }
+
+    // Round trip through the report.
+    final StringBuilder report = new StringBuilder();
+    footprint.write(report);
+    assertThat(report.toString(), startsWith("# schema\tname\tkind\t"));
+    final HeapFootprint footprint2 =
+        HeapFootprint.read(new StringReader(report.toString()));
+    assertThat(footprint2.toString(), is(report.toString()));
+
+    // No regressions against itself; regressions against a footprint whose
+    // large objects are half the size.
+    assertThat(footprint.regressions(footprint, 0.1).isEmpty(), is(true));
+    final List<HeapFootprint.Entry> halves = new ArrayList<>();
+    for (HeapFootprint.Entry e : footprint.entries()) {
+      halves.add(
+          new HeapFootprint.Entry(
+              e.schema,
+              e.name,
+              e.kind,
+              e.tableName,
+              e.rowCount,
+              e.name.equals("sales_fact_1997")
+                  ? e.measuredBytes / 2
+                  : e.measuredBytes,
+              e.estimatedBytes));
+    }
+    final List<String> regressions =
+        footprint.regressions(new HeapFootprint(halves), 0.1);
+    assertThat(regressions.size(), is(4));
+    assertThat(
+        regressions.get(0), startsWith("foodmart_csv.sales_fact_1997: "));
+    assertThat(regressions.get(0), endsWith(" (+100.0%)"));
+    assertThat(regressions.get(2), startsWith("foodmart_csv: "));
+    assertThat(regressions.get(3), startsWith("foodmart: "));
+
+    // An object that is not in the baseline is a regression; an object that
+    // is only in the baseline is not.
+    final List<HeapFootprint.Entry> fewer =
+        new ArrayList<>(footprint.entries());
+    fewer.removeIf(e -> e.name.equals("i_sls_97_cust_id"));
+    assertThat(
+        footprint.regressions(new HeapFootprint(fewer), 0.1).get(0),
+        is("foodmart.i_sls_97_cust_id: not in baseline"));
+    assertThat(
+        new HeapFootprint(fewer).regressions(footprint, 0.1).isEmpty(),
+        is(true));
+
+    // Compare with the baseline, which was recorded on a JVM with compressed
+    // references.
+    final HeapFootprint baseline;
+    try (Reader r =
+        new InputStreamReader(
+            FoodmartHsqldbTest.class.getResourceAsStream("/heap-footprint.tsv"),
+            StandardCharsets.UTF_8)) {
+      baseline = HeapFootprint.read(r);
+    }
+    if (HeapEstimator.current().referenceBytes == 4) {
+      final double threshold =
+          Double.parseDouble(
+              System.getProperty("foodmart.heap.threshold", "0.25"));
+      assertThat(
+          footprint.regressions(baseline, threshold),
+          is(Collections.emptyList()));
+    }
+  }
+
+  /**
+   * Measures the footprint of some tables, and writes it to a file; see {@link
+   * #testHeapFootprint()}.
+   */
+  public static class MeasureHeapFootprint {
+    public static void main(String[] args) throws IOException, SQLException {
+      final Set<String> tableNames =
+          new HashSet<>(Arrays.asList(args).subList(1, args.length));
+      Files.write(
+          Paths.get(args[0]),
+          HeapFootprint.measure(tableNames::contains)
+              .toString()
+              .getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Runs each query in {@link FoodmartQuery}, and checks that each query on an
+   * aggregate table returns the same rows as the query it rewrites.
+   */
+  @Test
+  public void testFoodmartQuery() throws SQLException {
+    final Set<String> tableNames = new HashSet<>();
+    for (FoodmartQuery query : FoodmartQuery.values()) {
+      tableNames.addAll(query.tableNames());
+    }
+    assertThat(
+        FoodmartQuery.SALES_BY_GENDER_CATEGORY.tableNames().toString(),
+        is("[sales_fact_1997, time_by_day, customer, product, product_class]"));
+    assertThat(
+        FoodmartQuery.AGG_SALES_BY_MONTH.base(),
+        is(FoodmartQuery.SALES_BY_MONTH));
+    assertThat(
+        FoodmartQuery.SALES_BY_MONTH.aggregate(),
+        is(FoodmartQuery.AGG_SALES_BY_MONTH));
+    assertThat(FoodmartQuery.TOP_PRODUCTS.aggregate() == null, is(true));
+
+    final Map<FoodmartQuery, List<String>> results = new HashMap<>();
+    try (Connection connection = FoodmartHsqldb.connect(tableNames);
+        Statement statement = connection.createStatement()) {
+      for (FoodmartQuery query : FoodmartQuery.values()) {
+        final List<String> rows = new ArrayList<>();
+        try (ResultSet r = statement.executeQuery(query.sql)) {
+          final int columnCount = r.getMetaData().getColumnCount();
+          while (r.next()) {
+            final StringBuilder b = new StringBuilder();
+            for (int i = 1; i <= columnCount; i++) {
+              final Object o = r.getObject(i);
+              b.append(i > 1 ? ", " : "")
+                  .append(
+                      o instanceof BigDecimal
+                          ? ((BigDecimal) o)
+                              .stripTrailingZeros()
+                              .toPlainString()
+                          : o);
+            }
+            rows.add(b.toString());
+          }
+        }
+        assertThat(query + " returned no rows", rows.isEmpty(), is(false));
+        results.put(query, rows);
+      }
+    }
+    assertThat(results.get(FoodmartQuery.SALES_BY_MONTH).size(), is(12));
+    assertThat(
+        results.get(FoodmartQuery.SALES_BY_MONTH).get(0),
+        is("1997, 1, 21628, 45539.69"));
+    assertThat(results.get(FoodmartQuery.TOP_PRODUCTS).size(), is(10));
+    for (FoodmartQuery query : FoodmartQuery.values()) {
+      if (query.base() != null) {
+        assertThat(
+            query.toString(),
+            results.get(query),
+            is(results.get(query.base())));
+      }
+    }
+  }
+
+  /** Tests {@link IndexProfile}. */
+  @Test
+  public void testIndexProfile() throws Exception {
+    assertThat(IndexProfile.of("olap"), is(IndexProfile.OLAP));
+    final FoodmartSchema.Table sales = FoodmartSchema.table("sales_fact_1997");
+    final FoodmartSchema.Table time = FoodmartSchema.table("time_by_day");
+    assertThat(IndexProfile.NONE.indexes(sales).isEmpty(), is(true));
+    assertThat(IndexProfile.DEFAULT.indexes(sales), is(sales.indexes));
+    assertThat(
+        IndexProfile.olapIndexes(sales).toString(),
+        is(
+            "[olap_sales_fact_1997_time_product,"
+                + " olap_sales_fact_1997_time_customer,"
+                + " olap_sales_fact_1997_time_promotion,"
+                + " olap_sales_fact_1997_time_store]"));
+    assertThat(
+        IndexProfile.olapIndexes(sales).get(0).createIndexSql("foodmart"),
+        is(
+            "CREATE INDEX \"olap_sales_fact_1997_time_product\" ON"
+                + " \"foodmart\".\"sales_fact_1997\"(\"time_id\",\"product_id\")"));
+    assertThat(
+        IndexProfile.olapIndexes(time).get(0).columnNames,
+        is(Arrays.asList("the_year", "quarter", "month_of_year", "time_id")));
+    assertThat(
+        IndexProfile.olapIndexes(FoodmartSchema.table("product")).isEmpty(),
+        is(true));
+
+    // Each profile creates its indexes, and only its indexes.
+    final Set<String> tableNames =
+        new HashSet<>(Arrays.asList("sales_fact_1997", "time_by_day"));
+    for (IndexProfile profile : IndexProfile.values()) {
+      final List<String> expected = new ArrayList<>();
+      for (String tableName : tableNames) {
+        for (FoodmartSchema.Index index :
+            profile.indexes(FoodmartSchema.table(tableName))) {
+          expected.add(index.name);
+        }
+      }
+      Collections.sort(expected);
+      final List<String> actual = new ArrayList<>();
+      try (Connection connection =
+              FoodmartHsqldb.connect(tableNames, false, profile);
+          Statement statement = connection.createStatement()) {
+        try (ResultSet r =
+            statement.executeQuery(
+                "select distinct \"INDEX_NAME\"\n"
+                    + "from \"INFORMATION_SCHEMA\".\"SYSTEM_INDEXINFO\"\n"
+                    + "where \"TABLE_SCHEM\" = 'foodmart'\n"
+                    + "and \"INDEX_NAME\" not like 'SYS_%'\n"
+                    + "order by 1")) {
+          while (r.next()) {
+            actual.add(r.getString(1));
+          }
+        }
+        try (ResultSet r =
+            statement.executeQuery(FoodmartQuery.ROLLUP_TIME.sql)) {
+          int rowCount = 0;
+          while (r.next()) {
+            ++rowCount;
+          }
+          assertThat(rowCount, is(1 + 1 + 4 + 12));
+        }
+      }
+      assertThat(profile.toString(), actual, is(expected));
+    }
+
+    // A cached database with a non-default profile has its own directory.
+    final Path dir = temporaryFolder.getRoot().toPath();
+    final List<String> days = Collections.singletonList("days");
+    assertThat(
+        DatabaseCache.uri(dir, days, IndexProfile.NONE),
+        endsWith(
+            DatabaseCache.key(days) + "-none/foodmart;files_readonly=true"));
+  }
+
+  /**
+   * Tests {@link FoodmartHsqldb#generateInserts(RowFilter)}: the first quarter
+   * of 1997 for two stores.
+   */
+  @Test
+  public void testGenerateInsertsFilter() throws IOException {
+    final RowFilter filter =
+        RowFilter.ALL
+            .withTables(
+                Arrays.asList(
+                    "days",
+                    "time_by_day",
+                    "sales_fact_1997",
+                    "sales_fact_dec_1998"))
+            .between(null, "time_id", 367, 456)
+            .in("sales_fact_1997", "store_id", 3, 2, 99);
+
+    // Count the expected rows in the columnar snapshot.
+    final ColumnarTable sales = ColumnarTable.open("sales_fact_1997");
+    final ColumnVector timeId = sales.column("time_id");
+    final ColumnVector storeId = sales.column("store_id");
+    int expected = 0;
+    for (int i = 0; i < sales.rowCount(); i++) {
+      final int t = timeId.getInt(i);
+      final int s = storeId.getInt(i);
+      if (t >= 367 && t <= 456 && (s == 2 || s == 3)) {
+        ++expected;
+      }
+    }
+    assertTrue(expected > 0);
+
+    // sales_fact_dec_1998 is skipped without opening its CSV file, because
+    // its time_id values are all later than 456.
+    final List<String> started = new ArrayList<>();
+    final LoadListener listener =
+        new LoadListener() {
+          @Override
+          public void tableStarted(String operation, String tableName) {
+            started.add(tableName);
+          }
+        };
+    final Map<String, Integer> counts = new HashMap<>();
+    for (String s :
+        FoodmartHsqldb.generateInserts(
+            1, Integer.MAX_VALUE, listener, filter)) {
+      final String table = s.substring(13, s.indexOf('"', 13));
+      counts.merge(table, 1, Integer::sum);
+      if (table.equals("sales_fact_1997")) {
+        assertThat(s, containsString("VALUES("));
+      }
+    }
+    final Map<String, Integer> expectedCounts = new HashMap<>();
+    expectedCounts.put("days", 7);
+    expectedCounts.put("time_by_day", 90);
+    expectedCounts.put("sales_fact_1997", expected);
+    assertThat(counts, is(expectedCounts));
+    assertThat(
+        started, is(Arrays.asList("days", "sales_fact_1997", "time_by_day")));
+
+    // The summary that pruning reads agrees with the columnar table.
+    final ColumnarTable.Summary summary =
+        ColumnarTable.summary("sales_fact_dec_1998");
+    final ColumnarTable dec = ColumnarTable.open("sales_fact_dec_1998");
+    assertThat(summary.rowCount, is(dec.rowCount()));
+    for (ColumnVector column : dec.columns()) {
+      final int i = column.ordinal();
+      assertThat(summary.isIntegral(i), is(column.isIntegral()));
+      if (column.isIntegral()) {
+        assertThat(summary.min(i), is(column.min()));
+        assertThat(summary.max(i), is(column.max()));
+      }
+    }
+
+    // Rows that fail a predicate are not formatted; statements contain only
+    // rows that pass.
+    final List<String> statements = new ArrayList<>();
+    FoodmartHsqldb.generateInserts(
+            100,
+            Integer.MAX_VALUE,
+            LoadListener.NONE,
+            RowFilter.ALL
+                .withTables(Collections.singleton("days"))
+                .in("days", "day", 1, 7, 8))
+        .forEach(statements::add);
+    assertThat(
+        statements,
+        is(
+            Collections.singletonList(
+                "INSERT INTO \"days\" VALUES(1,'Sunday'),(7,'Saturday')")));
+
+    assertTrue(
+        RowFilter.ALL
+            .between("sales_fact_1997", "time_id", 1000, 2000)
+            .prunes("sales_fact_1997"));
+    assertTrue(
+        !RowFilter.ALL.between(null, "time_id", 1000, 2000).prunes("days"));
+    try {
+      RowFilter.ALL.in("days", "week_day", 1);
+      throw new AssertionError("expected error");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage(), is("column is not integral: days.week_day"));
+    }
+  }
+
+  /**
+   * Tests {@link CsvChunks}: a line break inside a quoted field is never a
+   * chunk boundary, and each chunk is read after the header.
+   */
+  @Test
+  public void testCsvChunks() throws IOException {
+    final byte[] bytes =
+        "id,name\n1,\"a\nb\"\n2,\"c\"\"\n\"\n3,d\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    final CsvChunks chunks = new CsvChunks(bytes, bytes.length, 1);
+    assertThat(chunks.count(), is(3));
+    final List<String> rows = new ArrayList<>();
+    for (int i = 0; i < chunks.count(); i++) {
+      final CsvTokenizer tokenizer = new CsvTokenizer(chunks.reader(i));
+      assertTrue(tokenizer.next());
+      assertThat(tokenizer.getString(1), is("name"));
+      while (tokenizer.next()) {
+        rows.add(
+            i + ":" + tokenizer.getString(0) + "=" + tokenizer.getString(1));
+      }
+    }
+    assertThat(rows, is(Arrays.asList("0:1=a\nb", "1:2=c\"\n", "2:3=d")));
+
+    // One chunk if the chunk size is larger than the file; none has no data.
+    assertThat(new CsvChunks(bytes, bytes.length, 1 << 20).count(), is(1));
+    final byte[] header = "id,name\n".getBytes(StandardCharsets.US_ASCII);
+    final CsvChunks empty = new CsvChunks(header, header.length, 1);
+    assertThat(empty.count(), is(1));
+    final CsvTokenizer tokenizer = new CsvTokenizer(empty.reader(0));
+    assertTrue(tokenizer.next());
+    assertTrue(!tokenizer.next());
+  }
+
+  /**
+   * Tests {@link FoodmartHsqldb#insertStream(String, boolean)} and {@link
+   * FoodmartHsqldb#rowStream(String, boolean)}, which parse a file in chunks.
+   */
+  @Test
+  public void testChunkedStream() {
+    final String table = "sales_fact_1997";
+    final List<String> expected = new ArrayList<>();
+    new StatementGenerator(
+            FoodmartHsqldb.class,
+            table,
+            FoodmartSchema.table(table).columnTypes())
+        .forEachRemaining(expected::add);
+    assertThat(expected.size(), is(FoodmartHsqldb.rowCount(table)));
+
+    final List<String> ordered =
+        FoodmartHsqldb.insertStream(table, true)
+            .parallel()
+            .collect(Collectors.toList());
+    assertThat(ordered, is(expected));
+
+    final List<String> unordered =
+        FoodmartHsqldb.insertStream(table, false)
+            .parallel()
+            .collect(Collectors.toList());
+    assertThat(unordered.size(), is(expected.size()));
+    assertThat(new HashSet<>(unordered), is(new HashSet<>(expected)));
+
+    final String agg = "agg_c_14_sales_fact_1997";
+    final List<String> expectedRows = new ArrayList<>();
+    new RowGenerator(
+            FoodmartHsqldb.class, agg, FoodmartSchema.table(agg).columnTypes())
+        .forEachRemaining(r -> expectedRows.add(r.toString()));
+    assertThat(
+        FoodmartHsqldb.rowStream(agg, true)
+            .parallel()
+            .map(TableRow::toString)
+            .collect(Collectors.toList()),
+        is(expectedRows));
+  }
+
+  /**
+   * Tests {@link FoodmartServer}: a server started by another JVM outlives that
+   * JVM; this JVM finds it, keeps it alive while connected, and the server
+   * stops when idle.
+   */
+  @Test
+  public void testServer() throws Exception {
+    final Path dir = temporaryFolder.newFolder().toPath();
+    assertThat(FoodmartServer.uri(dir), is(FoodmartHsqldb.URI));
+
+    // Start the server from a JVM that exits as soon as it has the URI.
+    final int idleSeconds = 1;
+    final String output =
+        runJava(
+            Arrays.asList(
+                "-D" + FoodmartServer.DIRECTORY_PROPERTY + "=" + dir,
+                "-D" + FoodmartServer.IDLE_PROPERTY + "=" + idleSeconds),
+            StartServer.class);
+    final String uri = output.trim();
+    assertThat(uri, startsWith("jdbc:hsqldb:hsql://127.0.0.1:"));
+
+    // The server is still running. Starting again finds it.
+    assertThat(FoodmartServer.uri(dir), is(uri));
+    assertThat(FoodmartServer.start(dir, 0, idleSeconds), is(uri));
+
+    try (Connection connection =
+            DriverManager.getConnection(
+                uri, FoodmartHsqldb.USER, FoodmartHsqldb.PASSWORD);
+        Statement statement = connection.createStatement()) {
+      // While a connection is open, the server does not stop.
+      Thread.sleep(idleSeconds * 3_000L);
+      try (Stream<Path> files = Files.list(dir)) {
+        assertThat(files.count(), is(3L)); // lock, port and log file
+      }
+      try (ResultSet resultSet =
+          statement.executeQuery(
+              "select count(*) from \"foodmart\".\"days\"")) {
+        assertTrue(resultSet.next());
+        assertThat(resultSet.getInt(1), is(7));
+      }
+    }
+
+    // After the idle timeout, the server stops and removes its port file.
+    // (Do not poll using uri(dir); that would keep the server alive.)
+    final long deadline = System.currentTimeMillis() + 10_000;
+    for (; ; ) {
+      try (Stream<Path> files = Files.list(dir)) {
+        if (files.noneMatch(
+            f -> f.getFileName().toString().endsWith(".port"))) {
+          break;
+        }
+      }
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(100);
+    }
+    assertThat(FoodmartServer.uri(dir), is(FoodmartHsqldb.URI));
+  }
+
+  /** Starts a server, prints its URI, and exits; see {@link #testServer()}. */
+  public static class StartServer {
+    public static void main(String[] args) throws SQLException {
+      System.out.println(FoodmartHsqldb.startServer(0));
+    }
+  }
+
+  /**
+   * Tests {@link DerivedAggregates}: the aggregate tables computed from {@code
+   * sales_fact_1997} have the same rows as the shipped CSV files, and a load
+   * with {@link LoadOptions#deriveAggregates()} has the same row counts.
+   */
+  @Test
+  public void testDeriveAggregates() throws SQLException {
+    assertThat(DerivedAggregates.TABLES.size(), is(11));
+    final DerivedAggregates aggregates = DerivedAggregates.derive();
+    assertThat(aggregates.tableNames(), is(DerivedAggregates.TABLES));
+    assertThat(aggregates.verify(), is(Collections.emptyList()));
+    try {
+      DerivedAggregates.derive(Collections.singleton("sales_fact_1997"));
+      throw new AssertionError("expected error");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage(), is("not an aggregate table: sales_fact_1997"));
+    }
+
+    final List<String> tableNames =
+        Arrays.asList(
+            "agg_c_10_sales_fact_1997",
+            "agg_g_ms_pcat_sales_fact_1997",
+            "agg_lc_06_sales_fact_1997");
+    try (Connection connection =
+            DriverManager.getConnection(
+                "jdbc:hsqldb:mem:testDeriveAggregates", "SA", "");
+        Statement statement = connection.createStatement()) {
+      statement.execute("CREATE SCHEMA \"fm\"");
+      for (String tableName : tableNames) {
+        statement.execute(FoodmartSchema.table(tableName).createTableSql("fm"));
+      }
+      final LoadResult result =
+          FoodmartHsqldb.load(
+              connection,
+              LoadOptions.DEFAULT
+                  .withSchema("fm")
+                  .withTables(tableNames)
+                  .withDeriveAggregates(true));
+      for (String tableName : tableNames) {
+        checkRowCount(
+            statement, "fm", tableName, FoodmartHsqldb.rowCount(tableName));
+        assertThat(
+            result.table(tableName).rowCount,
+            is((long) FoodmartHsqldb.rowCount(tableName)));
+      }
+      final ResultSet rs =
+          statement.executeQuery(
+              "SELECT SUM(\"store_sales\"), SUM(\"customer_count\")\n"
+                  + "FROM \"fm\".\"agg_c_10_sales_fact_1997\"");
+      assertTrue(rs.next());
+      assertThat(rs.getBigDecimal(1), is(new BigDecimal("565238.1300")));
+      assertThat(rs.getInt(2), is(16947));
+      statement.execute("SHUTDOWN");
+    }
+  }
+
+  /**
+   * Tests {@link DimensionCache}: every value agrees with the CSV file, keys
+   * are found whether the key index is an array or a hash table, and a cache
+   * may hold a subset of columns.
+   */
+  @Test
+  public void testDimensionCache() throws IOException {
+    final DimensionCache customers = DimensionCache.of("customer");
+    assertTrue(DimensionCache.of("customer") == customers);
+    assertThat(customers.key().name, is("customer_id"));
+    assertTrue(customers.isDense());
+    assertThat(customers.rowCount(), is(10281));
+    assertTrue(customers.heapBytes() > 1_000_000);
+    assertThat(customers.row(0), is(-1));
+    assertThat(customers.row(-5), is(-1));
+    assertThat(customers.row(Integer.MAX_VALUE), is(-1));
+    checkDimensionCache(customers);
+
+    // Force a hash table; the lookups are the same.
+    final DimensionCache products =
+        DimensionCache.load(FoodmartSchema.table("product"), null, 0);
+    assertTrue(!products.isDense());
+    assertThat(products.row(0), is(-1));
+    checkDimensionCache(products);
+    assertTrue(!DimensionCache.of("account").isDense());
+    checkDimensionCache(DimensionCache.of("account"));
+    for (String tableName : DimensionCache.SALES_DIMENSIONS) {
+      checkDimensionCache(DimensionCache.of(tableName));
+    }
+
+    // A subset of columns.
+    final DimensionCache stores =
+        DimensionCache.of("store", Arrays.asList("store_city", "region_id"));
+    assertThat(stores.columns().size(), is(2));
+    assertThat(stores.column("region_id"), is(1));
+    final int row = stores.row(2);
+    assertThat(stores.getString(row, 0), is("Bellingham"));
+    assertThat(stores.getInt(row, 1), is(78));
+    try {
+      stores.column("store_id");
+      throw new AssertionError("expected error");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage(), is("column not cached: store.store_id"));
+    }
+    try {
+      stores.getString(row, 1);
+      throw new AssertionError("expected error");
+    } catch (UnsupportedOperationException e) {
+      assertThat(
+          e.getMessage(), is("getString not supported for column region_id"));
+    }
+    try {
+      DimensionCache.of("currency");
+      throw new AssertionError("expected error");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage(), is("table has no integer key: currency"));
+    }
+  }
+
+  /** Checks every value of a cache against the table's CSV file. */
+  private void checkDimensionCache(DimensionCache cache) throws IOException {
+    final FoodmartSchema.Table table = cache.table();
+    final List<Integer> types = table.columnTypes();
+    int rowCount = 0;
+    try (CsvTokenizer tokenizer =
+        StatementGenerator.open(
+            FoodmartHsqldb.class, FoodmartHsqldb.tableUri(table.name))) {
+      tokenizer.next(); // skip header
+      while (tokenizer.next()) {
+        ++rowCount;
+        final int row = cache.row(tokenizer.getInt(cache.key().ordinal));
+        assertTrue(row >= 0);
+        for (int i = 0; i < cache.columns().size(); i++) {
+          final int ordinal = cache.columns().get(i).ordinal;
+          final Object expected =
+              tokenizer.getObject(ordinal, types.get(ordinal));
+          assertThat(cache.isNull(row, i), is(expected == null));
+          if (expected instanceof BigDecimal) {
+            assertThat(
+                ((BigDecimal) cache.getObject(row, i))
+                    .compareTo((BigDecimal) expected),
+                is(0));
+          } else {
+            assertThat(cache.getObject(row, i), is(expected));
+          }
+        }
+      }
+    }
+    assertThat(rowCount, is(cache.rowCount()));
+  }
+
+  /**
+   * Tests {@link LoadOptions#withColumnar(boolean)}: loading from the columnar
+   * snapshot, serially and in parallel, gives the same rows as loading from CSV
+   * files.
+   */
+  @Test
+  public void testLoadColumnar() throws Exception {
+    assertTrue(ColumnarTable.open("days") == ColumnarTable.open("days"));
+
+    final org.hsqldb.jdbc.JDBCDataSource dataSource =
+        new org.hsqldb.jdbc.JDBCDataSource();
+    dataSource.setUrl("jdbc:hsqldb:mem:testLoadColumnar");
+    dataSource.setUser("SA");
+    dataSource.setPassword("");
+    // Between them, these tables have columns of every type.
+    final List<String> tableNames =
+        Arrays.asList(
+            "employee",
+            "product",
+            "store",
+            "time_by_day",
+            "sales_fact_dec_1998");
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement()) {
+      for (String schema : Arrays.asList("csv", "col", "par")) {
+        statement.execute("CREATE SCHEMA \"" + schema + "\"");
+        for (String tableName : tableNames) {
+          statement.execute(
+              FoodmartSchema.table(tableName).createTableSql(schema));
+        }
+      }
+      final LoadOptions options = LoadOptions.DEFAULT.withTables(tableNames);
+      FoodmartHsqldb.load(connection, options.withSchema("csv"));
+      final List<String> columnarTables =
+          Collections.synchronizedList(new ArrayList<>());
+      final LoadResult result =
+          FoodmartHsqldb.load(
+              connection,
+              options
+                  .withSchema("col")
+                  .withColumnar(true)
+                  .withListener(
+                      new LoadListener() {
+                        @Override
+                        public void tableFinished(TableMetrics metrics) {
+                          // A columnar load reads no CSV characters.
+                          if (metrics.charsRead == 0) {
+                            columnarTables.add(metrics.tableName);
+                          }
+                        }
+                      }));
+      assertThat(new HashSet<>(columnarTables), is(new HashSet<>(tableNames)));
+      FoodmartHsqldb.load(
+          dataSource,
+          options.withSchema("par").withColumnar(true).withParallelism(2));
+
+      for (String tableName : tableNames) {
+        assertThat(
+            result.table(tableName).rowCount,
+            is((long) FoodmartHsqldb.rowCount(tableName)));
+        for (String schema : Arrays.asList("col", "par")) {
+          for (String[] pair :
+              Arrays.asList(
+                  new String[] {"csv", schema}, new String[] {schema, "csv"})) {
+            try (ResultSet r =
+                statement.executeQuery(
+                    "SELECT COUNT(*) FROM (SELECT * FROM \""
+                        + pair[0]
+                        + "\".\""
+                        + tableName
+                        + "\" EXCEPT ALL SELECT * FROM \""
+                        + pair[1]
+                        + "\".\""
+                        + tableName
+                        + "\")")) {
+              assertTrue(r.next());
+              assertThat(
+                  pair[0] + " - " + pair[1] + ": " + tableName,
+                  r.getInt(1),
+                  is(0));
+            }
+          }
+        }
+      }
+      statement.execute("SHUTDOWN");
+    }
+  }
+
+  /**
+   * Tests {@link StarJoin}: wide rows agree with the same join in SQL, a
+   * projection returns only the requested columns, and the CSV output parses
+   * back to the same values.
+   */
+  @Test
+  public void testStarJoin() throws Exception {
+    final String fact = "sales_fact_dec_1998";
+    final StarJoin all = StarJoin.of(fact);
+    assertThat(all.columnNames().size(), is(8 + 10 + 15 + 5 + 24 + 7 + 29 + 7));
+    assertThat(all.columnNames().get(0), is("sales_fact_dec_1998.product_id"));
+    assertThat(all.columnNames().get(8), is("time_by_day.time_id"));
+    final List<Object[]> allRows;
+    try (Stream<Object[]> rows = all.rows(true)) {
+      allRows = rows.limit(3).collect(Collectors.toList());
+    }
+    // First row of sales_fact_dec_1998.csv is "214,1081,826,78,1,...";
+    // product 214 is in class 1, and store 1 is in region 28.
+    final Object[] first = allRows.get(0);
+    assertThat(first.length, is(all.columnNames().size()));
+    assertThat(first[all.columnNames().indexOf(fact + ".time_id")], is(1081));
+    assertThat(
+        first[all.columnNames().indexOf("time_by_day.time_id")], is(1081));
+    assertThat(
+        first[all.columnNames().indexOf("product.product_class_id")], is(1));
+    assertThat(
+        first[all.columnNames().indexOf("product_class.product_class_id")],
+        is(1));
+    assertThat(first[all.columnNames().indexOf("region.region_id")], is(28));
+
+    // Aggregate a projection, in parallel, and compare with SQL.
+    final StarJoin join =
+        all.withColumns(
+            Arrays.asList(
+                fact + ".store_sales",
+                "region.sales_country",
+                "product_class.product_family",
+                "customer.gender"));
+    assertThat(
+        join.csvHeader(),
+        is(
+            fact
+                + ".store_sales,region.sales_country,"
+                + "product_class.product_family,customer.gender"));
+    final Map<String, BigDecimal> sums;
+    try (Stream<Object[]> rows = join.rows(false)) {
+      sums =
+          rows.parallel()
+              .collect(
+                  Collectors.groupingBy(
+                      row -> row[1] + "|" + row[2] + "|" + row[3],
+                      TreeMap::new,
+                      Collectors.reducing(
+                          BigDecimal.ZERO,
+                          row -> (BigDecimal) row[0],
+                          BigDecimal::add)));
+    }
+    final Map<String, BigDecimal> expected = new TreeMap<>();
+    try (Connection connection =
+            FoodmartHsqldb.connect(
+                new HashSet<>(
+                    Arrays.asList(
+                        fact,
+                        "store",
+                        "region",
+                        "product",
+                        "product_class",
+                        "customer")));
+        Statement statement = connection.createStatement();
+        ResultSet r =
+            statement.executeQuery(
+                "SELECT r.\"sales_country\", pc.\"product_family\",\n"
+                    + " c.\"gender\", SUM(s.\"store_sales\")\n"
+                    + "FROM \"foodmart\".\""
+                    + fact
+                    + "\" AS s\n"
+                    + "JOIN \"foodmart\".\"store\" AS st USING (\"store_id\")\n"
+                    + "JOIN \"foodmart\".\"region\" AS r\n"
+                    + "  ON st.\"region_id\" = r.\"region_id\"\n"
+                    + "JOIN \"foodmart\".\"product\" AS p USING (\"product_id\")\n"
+                    + "JOIN \"foodmart\".\"product_class\" AS pc\n"
+                    + "  ON p.\"product_class_id\" = pc.\"product_class_id\"\n"
+                    + "JOIN \"foodmart\".\"customer\" AS c USING (\"customer_id\")\n"
+                    + "GROUP BY r.\"sales_country\", pc.\"product_family\",\n"
+                    + " c.\"gender\"")) {
+      while (r.next()) {
+        expected.put(
+            r.getString(1) + "|" + r.getString(2) + "|" + r.getString(3),
+            r.getBigDecimal(4));
+      }
+    }
+    assertThat(sums.size(), is(expected.size()));
+    for (Map.Entry<String, BigDecimal> e : expected.entrySet()) {
+      assertThat(
+          e.getKey(), sums.get(e.getKey()).compareTo(e.getValue()), is(0));
+    }
+
+    // CSV output parses back to the same values as the rows.
+    final List<String> columnNames =
+        Arrays.asList(
+            fact + ".unit_sales",
+            "customer.fullname",
+            "customer.birthdate",
+            "store.first_opened_date",
+            "store.coffee_bar",
+            "promotion.cost",
+            "time_by_day.quarter");
+    final StarJoin wide = all.withColumns(columnNames);
+    final List<Object[]> rows;
+    try (Stream<Object[]> stream = wide.rows(true)) {
+      rows = stream.parallel().collect(Collectors.toList());
+    }
+    assertThat(rows.size(), is(FoodmartHsqldb.rowCount(fact)));
+    final StringWriter w = new StringWriter();
+    assertThat(wide.writeCsv(w), is((long) rows.size()));
+    final List<Integer> types = wide.columnTypes();
+    try (CsvTokenizer tokenizer =
+        new CsvTokenizer(new StringReader(w.toString()))) {
+      assertTrue(tokenizer.next());
+      assertThat(tokenizer.getString(1), is("customer.fullname"));
+      for (Object[] row : rows) {
+        assertTrue(tokenizer.next());
+        for (int i = 0; i < row.length; i++) {
+          final Object o = tokenizer.getObject(i, types.get(i));
+          if (o instanceof BigDecimal) {
+            assertThat(((BigDecimal) o).compareTo((BigDecimal) row[i]), is(0));
+          } else {
+            assertThat(o, is(row[i]));
+          }
+        }
+      }
+      assertTrue(!tokenizer.next());
+    }
+
+    try {
+      StarJoin.of("customer");
+      throw new AssertionError("expected error");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage(), is("not a sales fact table: customer"));
+    }
+    try {
+      all.withColumns(Collections.singleton("warehouse.warehouse_id"));
+      throw new AssertionError("expected error");
+    } catch (IllegalArgumentException e) {
+      assertThat(
+          e.getMessage(),
+          is("not a dimension of sales_fact_dec_1998: warehouse"));
+    }
+    try {
+      all.withColumns(Collections.singleton("customer.shoe_size"));
+      throw new AssertionError("expected error");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage(), is("unknown column: customer.shoe_size"));
+    }
+  }
+
+  @Test
+  public void testLoad() throws SQLException {
+    try (Connection connection =
+            DriverManager.getConnection("jdbc:hsqldb:mem:testLoad", "SA", "");
+        Statement statement = connection.createStatement()) {
+      statement.execute("CREATE SCHEMA \"fm\"");
+      statement.execute(
+          "CREATE TABLE \"fm\".\"account\"(\"account_id\" INTEGER NOT NULL,"
+              + "\"account_parent\" INTEGER,"
+              + "\"account_description\" VARCHAR(30),"
+              + "\"account_type\" VARCHAR(30) NOT NULL,"
+              + "\"account_rollup\" VARCHAR(30) NOT NULL,"
+              + "\"Custom_Members\" VARCHAR(255))");
+      statement.execute(
+          "CREATE TABLE \"fm\".\"time_by_day\"(\"time_id\" INTEGER NOT NULL,"
+              + "\"the_date\" TIMESTAMP,\"the_day\" VARCHAR(30),"
+              + "\"the_month\" VARCHAR(30),\"the_year\" SMALLINT,"
+              + "\"day_of_month\" SMALLINT,\"week_of_year\" INTEGER,"
+              + "\"month_of_year\" SMALLINT,\"quarter\" VARCHAR(30),"
+              + "\"fiscal_period\" VARCHAR(30))");
+
+      final LoadResult result =
+          FoodmartHsqldb.load(
+              connection,
+              LoadOptions.DEFAULT
+                  .withSchema("fm")
+                  .withTables(Arrays.asList("time_by_day", "account"))
+                  .withBatchSize(100)
+                  .withCommitInterval(250));
+      assertThat(result.tables().size(), is(2));
+      assertThat(result.tables().get(0).tableName, is("account"));
+      assertThat(result.table("account").rowCount, is(11L));
+      assertThat(result.table("time_by_day").rowCount, is(730L));
+      assertThat(result.rowCount(), is(741L));
+      assertThat(result.table("customer") == null, is(true));
+      assertThat(connection.getAutoCommit(), is(true));
+
+      checkRowCount(statement, "fm", "time_by_day", 730);
+      try (ResultSet r =
+          statement.executeQuery(
+              "select \"the_date\", \"the_year\", \"fiscal_period\"\n"
+                  + "from \"fm\".\"time_by_day\" where \"time_id\" = 738")) {
+        assertTrue(r.next());
+        assertThat(
+            r.getTimestamp(1), is(Timestamp.valueOf("1998-01-07 00:00:00")));
+        assertThat(r.getInt(2), is(1998));
+        assertThat(r.getString(3), is((String) null));
+      }
+      try (ResultSet r =
+          statement.executeQuery(
+              "select \"Custom_Members\" from \"fm\".\"account\"\n"
+                  + "where \"account_id\" = 3100")) {
+        assertTrue(r.next());
+        assertThat(r.getString(1), startsWith("LookUpCube(\"[Sales]\","));
+      }
+    }
+  }
+
   private void checkRowCount(
       Statement statement, String tableName, int expectedCount)
       throws SQLException {
+    checkRowCount(statement, "foodmart", tableName, expectedCount);
+  }
+
+  private void checkRowCount(
+      Statement statement, String schema, String tableName, int expectedCount)
+      throws SQLException {
     ResultSet rs =
         statement.executeQuery(
-            "select count(*) from \"foodmart\".\"" + tableName + "\"");
+            "select count(*) from \"" + schema + "\".\"" + tableName + "\"");
     rs.next();
     int actualCount = rs.getInt(1);
     rs.close();
@@ -210,6 +2282,48 @@ public class FoodmartHsqldbTest {
     assertConcat("f", empty, f);
   }
 
+  /** Tests {@link CsvTokenizer}. */
+  @Test
+  public void testCsvTokenizer() throws IOException {
+    final String csv =
+        "a,b,c\n"
+            + "1,,\"x, y\"\r\n"
+            + "\n"
+            + "2,\"\",\"say \"\"hi\"\"\"\n"
+            + "3,\"two\nlines\",it's";
+    final CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(csv));
+    assertThat(tokenize(tokenizer), is("[a, b, c]"));
+    assertThat(tokenize(tokenizer), is("[1, null, x, y]"));
+    assertThat(tokenize(tokenizer), is("[2, , say \"hi\"]"));
+    assertThat(tokenize(tokenizer), is("[3, two\nlines, it's]"));
+    assertThat(tokenizer.next(), is(false));
+
+    final StringBuilder b = new StringBuilder();
+    final CsvTokenizer tokenizer2 =
+        new CsvTokenizer(new StringReader("it's,\"a \"\"b\"\"\",,1.5,true"));
+    assertThat(tokenizer2.next(), is(true));
+    StatementGenerator.appendValues(
+        b,
+        tokenizer2,
+        new int[] {
+          Types.VARCHAR,
+          Types.VARCHAR,
+          Types.VARCHAR,
+          Types.DECIMAL,
+          Types.BOOLEAN
+        });
+    assertThat(b.toString(), is("'it''s','a \"b\"',NULL,1.5,TRUE"));
+  }
+
+  private static String tokenize(CsvTokenizer tokenizer) throws IOException {
+    assertThat(tokenizer.next(), is(true));
+    final List<String> fields = new ArrayList<>();
+    for (int i = 0; i < tokenizer.fieldCount(); i++) {
+      fields.add(tokenizer.isNull(i) ? null : tokenizer.getString(i));
+    }
+    return fields.toString();
+  }
+
   @SafeVarargs
   private static void assertConcat(String expected, List<String>... lists) {
     Iterable<String> composite = CompositeIterator.concat(Arrays.asList(lists));
@@ -242,6 +2356,34 @@ public class FoodmartHsqldbTest {
     }
     assertThat(row, rowCountMatcher);
   }
+
+  /**
+   * Runs a class's {@code main} method in a new JVM with this JVM's class path,
+   * waits for it to finish, checks that it succeeded, and returns its output.
+   */
+  private static String runJava(
+      List<String> options, Class<?> mainClass, String... args)
+      throws IOException, InterruptedException {
+    final List<String> command = new ArrayList<>();
+    command.add(
+        Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.addAll(options);
+    command.add(mainClass.getName());
+    command.addAll(Arrays.asList(args));
+    final Process process =
+        new ProcessBuilder(command).redirectErrorStream(true).start();
+    final String output;
+    try (BufferedReader r =
+        new BufferedReader(
+            new InputStreamReader(
+                process.getInputStream(), StandardCharsets.UTF_8))) {
+      output = r.lines().collect(Collectors.joining("\n"));
+    }
+    assertThat(output, process.waitFor(), is(0));
+    return output;
+  }
 }
 
 // End FoodmartHsqldbTest.java